@@ -0,0 +1,35 @@
+package cl.folletos.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import cl.folletos.servicio.FileMetadataBackfill;
+
+// Runs the file metadata backfill in the background after startup (file.metadata.backfill-on-startup)
+@Component
+@ConditionalOnProperty(name = "file.metadata.backfill-on-startup", havingValue = "true", matchIfMissing = true)
+public class FileMetadataBackfillRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileMetadataBackfillRunner.class);
+
+    @Autowired
+    private FileMetadataBackfill backfill;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread worker = new Thread(() -> {
+            try {
+                backfill.backfill();
+            } catch (Exception ex) {
+                logger.error("Error en backfill de metadatos de archivos: {}", ex.getMessage(), ex);
+            }
+        }, "file-metadata-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+}
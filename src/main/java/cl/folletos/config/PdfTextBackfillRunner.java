@@ -0,0 +1,37 @@
+package cl.folletos.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import cl.folletos.servicio.PdfTextIndex;
+
+// Extracts the text of pdfs stored before full-text search existed, in the background after startup
+// (pdf.text.backfill-on-startup)
+@Component
+@ConditionalOnProperty(name = "pdf.text.backfill-on-startup", havingValue = "true", matchIfMissing = true)
+public class PdfTextBackfillRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfTextBackfillRunner.class);
+
+    @Autowired
+    private PdfTextIndex pdfTextIndex;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread worker = new Thread(() -> {
+            try {
+                pdfTextIndex.backfill();
+            } catch (Exception ex) {
+                logger.error("Error en backfill de texto pdf: {}", ex.getMessage(), ex);
+            }
+        }, "pdf-text-backfill");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+}
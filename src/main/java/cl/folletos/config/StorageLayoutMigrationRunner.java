@@ -0,0 +1,36 @@
+package cl.folletos.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import cl.folletos.servicio.StorageLayoutMigration;
+
+// Moves the flat uploads tree into the sharded layout in the background after startup
+// (file.storage.migrate-on-startup)
+@Component
+@ConditionalOnProperty(name = "file.storage.migrate-on-startup", havingValue = "true", matchIfMissing = true)
+public class StorageLayoutMigrationRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageLayoutMigrationRunner.class);
+
+    @Autowired
+    private StorageLayoutMigration migration;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread worker = new Thread(() -> {
+            try {
+                migration.migrate();
+            } catch (Exception ex) {
+                logger.error("Error migrando el formato de uploads: {}", ex.getMessage(), ex);
+            }
+        }, "storage-layout-migration");
+        worker.setDaemon(true);
+        worker.start();
+    }
+}
@@ -0,0 +1,34 @@
+package cl.folletos.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import cl.folletos.repositorio.StorageUsageRepositorio;
+import cl.folletos.servicio.StorageUsageRebuild;
+
+// First population of the storage usage counters: recounts the uploads tree in the background when
+// no counter exists yet (file.usage.rebuild-on-startup)
+@Component
+@ConditionalOnProperty(name = "file.usage.rebuild-on-startup", havingValue = "true", matchIfMissing = true)
+public class StorageUsageRebuildRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageUsageRebuildRunner.class);
+
+    @Autowired
+    private StorageUsageRepositorio usageRepo;
+
+    @Autowired
+    private StorageUsageRebuild rebuild;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (usageRepo.count() > 0) return;
+        logger.info("Sin contadores de almacenamiento: recontando uploads");
+        rebuild.start();
+    }
+}
@@ -0,0 +1,72 @@
+package cl.folletos.controlador;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import cl.folletos.servicio.PdfTextHit;
+import cl.folletos.servicio.PdfTextIndex;
+import cl.folletos.servicio.SearchHit;
+import cl.folletos.servicio.SearchIndex;
+
+// Ranked search over folletos and albums (accent-insensitive, prefix and one typo per word), and over
+// the text inside the folletos' pdfs
+@Controller
+public class BusquedaControlador {
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    @Autowired
+    private PdfTextIndex pdfTextIndex;
+
+    @GetMapping("/buscar")
+    public String buscar(@RequestParam(required = false) String q, Model model) {
+        model.addAttribute("q", q);
+        if (q != null && !q.isBlank()) {
+            List<SearchHit> resultados = searchIndex.search(q);
+            List<PdfTextHit> enTexto = pdfTextIndex.search(q);
+            model.addAttribute("resultados", resultados);
+            model.addAttribute("enTexto", enTexto);
+            if (resultados.isEmpty() && enTexto.isEmpty()) model.addAttribute("noResultsMessage", "No se encontraron resultados para \"" + q + "\".");
+        }
+        return "buscar";
+    }
+
+    @GetMapping("/api/buscar")
+    @ResponseBody
+    public ResponseEntity<List<SearchHit>> apiBuscar(@RequestParam String q) {
+        return ResponseEntity.ok(searchIndex.search(q));
+    }
+
+    // Folletos whose pdfs contain the words, with the matching pages (open with /files/{id}/file/{fileId}#page=N)
+    @GetMapping("/api/buscar/texto")
+    @ResponseBody
+    public ResponseEntity<List<PdfTextHit>> apiBuscarTexto(@RequestParam String q) {
+        return ResponseEntity.ok(pdfTextIndex.search(q));
+    }
+
+    // Rebuild the title/description index from the database, e.g. after ImportFromFolderRunner added albums
+    // from another process
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/admin/buscar/reindex")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> reindexar() {
+        long t0 = System.currentTimeMillis();
+        searchIndex.rebuild();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("documentos", searchIndex.size());
+        body.put("ms", System.currentTimeMillis() - t0);
+        return ResponseEntity.ok(body);
+    }
+}
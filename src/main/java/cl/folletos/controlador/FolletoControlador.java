@@ -1,13 +1,13 @@
 package cl.folletos.controlador;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.security.Principal;
 
@@ -15,10 +15,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -28,7 +24,6 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.multipart.MultipartFile;
@@ -37,10 +32,26 @@ import org.springframework.security.access.prepost.PreAuthorize;
 
 import cl.folletos.modelo.Folleto;
 import cl.folletos.modelo.FolletoFile;
+import cl.folletos.modelo.FolletoResumen;
+import cl.folletos.servicio.ChunkedUpload;
+import cl.folletos.servicio.ChunkedUploadService;
+import cl.folletos.servicio.ContentSniffer;
+import cl.folletos.servicio.CoverDerivativeService;
+import cl.folletos.servicio.FileByteCache;
+import cl.folletos.servicio.FileDeletionQueue;
+import cl.folletos.servicio.FileServingService;
 import cl.folletos.servicio.FileStorageService;
+import cl.folletos.servicio.FolletoApiItem;
 import cl.folletos.servicio.FolletoServicio;
+import cl.folletos.servicio.KeysetPage;
+import cl.folletos.servicio.ServedFile;
+import cl.folletos.servicio.ServedFileCache;
+import cl.folletos.servicio.StorageArea;
+import cl.folletos.servicio.StorageObject;
+import cl.folletos.servicio.StoredFile;
 import cl.folletos.repositorio.FolletoFileRepositorio;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @Controller
 public class FolletoControlador {
@@ -56,18 +67,40 @@ public class FolletoControlador {
     @Autowired
     private FolletoFileRepositorio folletoFileRepo;
 
+    @Autowired
+    private FileServingService fileServingService;
+
+    @Autowired
+    private ServedFileCache servedFileCache;
+
+    @Autowired
+    private FileByteCache fileByteCache;
+
+    @Autowired
+    private CoverDerivativeService coverDerivatives;
+
+    @Autowired
+    private ChunkedUploadService chunkedUploads;
+
+    @Autowired
+    private FileDeletionQueue deletionQueue;
+
     @Value("${file.upload.max-size-bytes:52428800}")
     private long maxUploadBytes;
 
+    @Value("${catalog.page-size:50}")
+    private int pageSize;
+
+    @Value("${catalog.max-page-size:200}")
+    private int maxPageSize;
+
     @GetMapping({"/folletos","/folletos/list"})
-    public String listar(@RequestParam(required = false) Integer ano, @RequestParam(required = false) String titulo, Model model) {
+    public String listar(@RequestParam(required = false) Integer ano, @RequestParam(required = false) String titulo,
+                         @RequestParam(required = false) String cursor, Model model) {
         // default to FOLLETOS category for the main list
-        List<Folleto> lista = folletoServicio.buscarPorCategoria("FOLLETOS", ano, titulo);
-        model.addAttribute("folletos", lista);
-        model.addAttribute("ano", ano);
-        model.addAttribute("titulo", titulo);
+        boolean empty = listarPagina("FOLLETOS", "/folletos", ano, titulo, cursor, model);
         // If user requested a specific year but there are no folletos, show a friendly message
-        if (ano != null && (lista == null || lista.isEmpty())) {
+        if (ano != null && empty) {
             model.addAttribute("noResultsMessage", "No se encontraron folletos para el año " + ano + ".");
         }
         model.addAttribute("categoria", "FOLLETOS");
@@ -76,40 +109,58 @@ public class FolletoControlador {
     }
 
     @GetMapping("/folletos/combinados")
-    public String listarCombinados(@RequestParam(required = false) Integer ano, @RequestParam(required = false) String titulo, Model model) {
-        List<Folleto> lista = folletoServicio.buscarPorCategoria("COMPAGINADOS", ano, titulo);
-        model.addAttribute("folletos", lista);
-        model.addAttribute("ano", ano);
-        model.addAttribute("titulo", titulo);
+    public String listarCombinados(@RequestParam(required = false) Integer ano, @RequestParam(required = false) String titulo,
+                                   @RequestParam(required = false) String cursor, Model model) {
+        boolean empty = listarPagina("COMPAGINADOS", "/folletos/combinados", ano, titulo, cursor, model);
         model.addAttribute("categoria", "COMPAGINADOS");
         model.addAttribute("categoriaLabel", "Folletos Compaginados");
-        if (ano != null && (lista == null || lista.isEmpty())) {
+        if (ano != null && empty) {
             model.addAttribute("noResultsMessage", "No se encontraron folletos compaginados para el año " + ano + ".");
         }
         return "folletos/list";
     }
 
     @GetMapping("/folletos/locales")
-    public String listarLocales(@RequestParam(required = false) Integer ano, @RequestParam(required = false) String titulo, Model model) {
-        List<Folleto> lista = folletoServicio.buscarPorCategoria("LOCALES", ano, titulo);
-        model.addAttribute("folletos", lista);
-        model.addAttribute("ano", ano);
-        model.addAttribute("titulo", titulo);
+    public String listarLocales(@RequestParam(required = false) Integer ano, @RequestParam(required = false) String titulo,
+                                @RequestParam(required = false) String cursor, Model model) {
+        boolean empty = listarPagina("LOCALES", "/folletos/locales", ano, titulo, cursor, model);
         model.addAttribute("categoria", "LOCALES");
         model.addAttribute("categoriaLabel", "Folletos Locales");
-        if (ano != null && (lista == null || lista.isEmpty())) {
+        if (ano != null && empty) {
             model.addAttribute("noResultsMessage", "No se encontraron folletos locales para el año " + ano + ".");
         }
         return "folletos/list";
     }
 
-    // Debug endpoint: lista todos los folletos en JSON (útil para verificar persistencia)
+    // Puts one page of a category list in the model; true when the page is empty
+    private boolean listarPagina(String categoria, String listUrl, Integer ano, String titulo, String cursor, Model model) {
+        KeysetPage<FolletoResumen> page = folletoServicio.buscarPorCategoria(categoria, ano, titulo, cursor, pageSize);
+        model.addAttribute("folletos", page.getItems());
+        model.addAttribute("offset", page.getOffset());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("total", folletoServicio.contarPorCategoria(categoria, ano, titulo));
+        model.addAttribute("listUrl", listUrl);
+        model.addAttribute("ano", ano);
+        model.addAttribute("titulo", titulo);
+        return page.getItems().isEmpty();
+    }
+
+    // Debug endpoint: lista los folletos en JSON, una pagina a la vez (útil para verificar persistencia).
+    // nextCursor pide la pagina siguiente; total=true agrega el total de folletos.
     @GetMapping("/api/folletos")
     @ResponseBody
-    public ResponseEntity<List<Folleto>> apiList() {
+    public ResponseEntity<Map<String, Object>> apiList(@RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) Integer size,
+                                                       @RequestParam(defaultValue = "false") boolean total) {
         try {
-            List<Folleto> all = folletoServicio.listarTodos();
-            return ResponseEntity.ok(all);
+            int n = size == null ? pageSize : Math.max(1, Math.min(size, maxPageSize));
+            KeysetPage<FolletoApiItem> page = folletoServicio.paginaConArchivos(cursor, n);
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("items", page.getItems());
+            body.put("offset", page.getOffset());
+            body.put("nextCursor", page.getNextCursor());
+            if (total) body.put("total", folletoServicio.contarTodos());
+            return ResponseEntity.ok(body);
         } catch (Exception ex) {
             logger.error("Error al obtener folletos para API: {}", ex.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -124,6 +175,18 @@ public class FolletoControlador {
         return "folletos/detail";
     }
 
+    // size limit for files sent through /admin/uploads instead of the multipart form
+    @ModelAttribute("maxChunkedUploadBytes")
+    public long maxChunkedUploadBytes() {
+        return chunkedUploads.getMaxTotalBytes();
+    }
+
+    // files above one chunk are sent through /admin/uploads by js/chunked-upload.js
+    @ModelAttribute("chunkedThresholdBytes")
+    public long chunkedThresholdBytes() {
+        return chunkedUploads.getMaxChunkBytes();
+    }
+
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping("/admin/folletos/add")
     public String mostrarAgregar(Model model) {
@@ -138,6 +201,8 @@ public class FolletoControlador {
             @RequestParam(value = "coverFile", required = false) MultipartFile cover,
             @RequestParam(value = "pdfFiles", required = false) MultipartFile[] pdfFiles,
             @RequestParam(value = "audioFiles", required = false) MultipartFile[] audioFiles,
+            @RequestParam(value = "pdfUploadIds", required = false) String[] pdfUploadIds,
+            @RequestParam(value = "audioUploadIds", required = false) String[] audioUploadIds,
             Model model, RedirectAttributes redirectAttrs) {
         logger.info("Solicitud de creación recibida");
 
@@ -151,7 +216,7 @@ public class FolletoControlador {
 
         // Server-side category validation: LOCALES requires at least one PDF and must not include audio
         if (folleto.getCategoria() != null && "LOCALES".equalsIgnoreCase(folleto.getCategoria())) {
-            boolean hasPdfUpload = pdfFiles != null && pdfFiles.length>0;
+            boolean hasPdfUpload = (pdfFiles != null && pdfFiles.length>0) || hasIds(pdfUploadIds);
             if (!hasPdfUpload) {
                 model.addAttribute("errorMessage", "Los folletos locales requieren al menos un archivo PDF.");
                 model.addAttribute("folleto", folleto);
@@ -159,7 +224,7 @@ public class FolletoControlador {
                 return "admin/folletos_form";
             }
             // Only consider an audio upload present if any MultipartFile is non-empty.
-            boolean hasAudioUpload = false;
+            boolean hasAudioUpload = hasIds(audioUploadIds);
             if (audioFiles != null) {
                 for (MultipartFile a : audioFiles) {
                     if (a != null && !a.isEmpty()) { hasAudioUpload = true; break; }
@@ -188,8 +253,9 @@ public class FolletoControlador {
         Long id = saved.getId();
         try {
             if (cover != null && !cover.isEmpty()) {
-                String fn = storageService.storeFile(id, cover, "cover");
-                saved.setCoverFilename(fn);
+                StoredFile stored = storageService.store(id, cover, null, "cover");
+                saved.setCoverFilename(stored.getFilename());
+                replaceCoverFile(saved, stored, cover.getOriginalFilename());
             }
 
             // debug: log uploaded audio/pdf counts and names
@@ -214,7 +280,8 @@ public class FolletoControlador {
                 boolean firstPdfSet = false;
                 for (MultipartFile pf : pdfFiles) {
                     if (pf == null || pf.isEmpty()) continue;
-                    String fn = storageService.storeFile(id, pf, "pdf");
+                    StoredFile stored = storageService.store(id, pf, null, "pdf");
+                    String fn = stored.getFilename();
                     FolletoFile ff = new FolletoFile();
                     // Use the uploaded original filename as base for display; if it already exists among this folleto's files,
                     // append a part counter so multiple uploads with the same name are shown distinctly.
@@ -229,6 +296,7 @@ public class FolletoControlador {
                     }
                     ff.setOriginalName(displayName);
                     ff.setFilename(fn);
+                    stored.applyTo(ff);
                     ff.setType("pdf");
                     ff.setFolleto(saved);
                     saved.getFiles().add(ff);
@@ -241,7 +309,8 @@ public class FolletoControlador {
                 boolean firstAudioSet = false;
                 for (MultipartFile af : audioFiles) {
                     if (af == null || af.isEmpty()) continue;
-                    String fn = storageService.storeFile(id, af, "audio");
+                    StoredFile stored = storageService.store(id, af, null, "audio");
+                    String fn = stored.getFilename();
                     FolletoFile ff = new FolletoFile();
                     // ensure display name is unique among this folleto's files
                     String displayName = af.getOriginalFilename();
@@ -254,6 +323,7 @@ public class FolletoControlador {
                     }
                     ff.setOriginalName(displayName);
                     ff.setFilename(fn);
+                    stored.applyTo(ff);
                     ff.setType("audio");
                     ff.setFolleto(saved);
                     saved.getFiles().add(ff);
@@ -261,6 +331,9 @@ public class FolletoControlador {
                 }
             }
 
+            attachChunked(saved, pdfUploadIds, "pdf");
+            attachChunked(saved, audioUploadIds, "audio");
+
             folletoServicio.guardar(saved);
             logger.info("Folleto final guardado con archivos (id={}, titulo={})", saved.getId(), saved.getTitulo());
             redirectAttrs.addFlashAttribute("successMessage", "Folleto guardado correctamente.");
@@ -298,6 +371,8 @@ public class FolletoControlador {
               @RequestParam(value = "coverFile", required = false) MultipartFile cover,
               @RequestParam(value = "pdfFiles", required = false) MultipartFile[] pdfFiles,
               @RequestParam(value = "audioFiles", required = false) MultipartFile[] audioFiles,
+              @RequestParam(value = "pdfUploadIds", required = false) String[] pdfUploadIds,
+              @RequestParam(value = "audioUploadIds", required = false) String[] audioUploadIds,
              Model model, RedirectAttributes redirectAttrs, HttpServletRequest request) {
           // debug incoming form data binding
          // TEMP DIAGNOSTIC: log request content type and parts to troubleshoot missing multipart files
@@ -384,7 +459,7 @@ public class FolletoControlador {
                     if ("pdf".equalsIgnoreCase(f.getType())) { hasExistingPdf = true; break; }
                 }
             }
-            boolean hasPdfUpload = pdfFiles != null && pdfFiles.length>0;
+            boolean hasPdfUpload = (pdfFiles != null && pdfFiles.length>0) || hasIds(pdfUploadIds);
             if (!hasExistingPdf && !hasPdfUpload) {
                 model.addAttribute("errorMessage", "Los folletos locales requieren un archivo PDF.");
                 model.addAttribute("folleto", existing);
@@ -392,7 +467,7 @@ public class FolletoControlador {
                 return "admin/folletos_form";
             }
             // Consider audio upload present only if any MultipartFile is non-empty.
-            boolean hasAudioUpload = false;
+            boolean hasAudioUpload = hasIds(audioUploadIds);
             if (audioFiles != null) {
                 for (MultipartFile a : audioFiles) {
                     if (a != null && !a.isEmpty()) { hasAudioUpload = true; break; }
@@ -407,8 +482,9 @@ public class FolletoControlador {
         }
         try {
             if (cover != null && !cover.isEmpty()) {
-                String fn = storageService.storeFile(existing.getId(), cover, "cover");
-                existing.setCoverFilename(fn);
+                StoredFile stored = storageService.store(existing.getId(), cover, null, "cover");
+                existing.setCoverFilename(stored.getFilename());
+                replaceCoverFile(existing, stored, cover.getOriginalFilename());
             }
 
             // debug: log uploaded audio/pdf counts and names for edit
@@ -429,7 +505,8 @@ public class FolletoControlador {
                 boolean firstPdfSet = (existing.getPdfFilename() != null && !existing.getPdfFilename().isBlank());
                 for (MultipartFile pf : pdfFiles) {
                     if (pf == null || pf.isEmpty()) continue;
-                    String fn = storageService.storeFile(existing.getId(), pf, "pdf");
+                    StoredFile stored = storageService.store(existing.getId(), pf, null, "pdf");
+                    String fn = stored.getFilename();
                     FolletoFile ff = new FolletoFile();
                     // Use the uploaded original filename as base for display; if it already exists among this folleto's files,
                     // append a part counter so multiple uploads with the same name are shown distinctly.
@@ -443,6 +520,7 @@ public class FolletoControlador {
                     }
                     ff.setOriginalName(displayName);
                     ff.setFilename(fn);
+                    stored.applyTo(ff);
                     ff.setType("pdf");
                     ff.setFolleto(existing);
                     existing.getFiles().add(ff);
@@ -454,7 +532,8 @@ public class FolletoControlador {
                 boolean firstAudioSet = (existing.getAudioFilename() != null && !existing.getAudioFilename().isBlank());
                 for (MultipartFile af : audioFiles) {
                     if (af == null || af.isEmpty()) continue;
-                    String fn = storageService.storeFile(existing.getId(), af, "audio");
+                    StoredFile stored = storageService.store(existing.getId(), af, null, "audio");
+                    String fn = stored.getFilename();
                     FolletoFile ff = new FolletoFile();
                     // ensure display name is unique among this folleto's files
                     String displayName = af.getOriginalFilename();
@@ -467,13 +546,18 @@ public class FolletoControlador {
                     }
                     ff.setOriginalName(displayName);
                     ff.setFilename(fn);
+                    stored.applyTo(ff);
                     ff.setType("audio");
                     ff.setFolleto(existing);
                     existing.getFiles().add(ff);
                     if (!firstAudioSet) { existing.setAudioFilename(fn); firstAudioSet = true; }
                 }
             }
+            attachChunked(existing, pdfUploadIds, "pdf");
+            attachChunked(existing, audioUploadIds, "audio");
             folletoServicio.guardar(existing);
+            // rows may now point at other files; drop descriptors resolved from the old rows
+            servedFileCache.invalidate(StorageArea.FOLLETO, existing.getId());
             redirectAttrs.addFlashAttribute("successMessage", "Folleto guardado correctamente.");
             // After editing, redirect back to the admin edit page so the user can continue editing and see updated files
             return "redirect:/admin/folletos/edit/" + existing.getId();
@@ -492,60 +576,105 @@ public class FolletoControlador {
         Optional<Folleto> opt = folletoServicio.porId(id);
         if (opt.isPresent()) {
             Folleto f = opt.get();
-            // delete cover
-            storageService.deleteFile(f.getId(), f.getCoverFilename());
-            // delete legacy single files
-            storageService.deleteFile(f.getId(), f.getPdfFilename());
-            storageService.deleteFile(f.getId(), f.getAudioFilename());
-            // delete all related FolletoFile entries and their physical files
-            for (FolletoFile ff : f.getFiles()) {
-                try { storageService.deleteFile(f.getId(), ff.getFilename()); } catch (Exception ex) { /* ignore */ }
-            }
-            folletoServicio.eliminar(f);
+            // the row goes now; cover, legacy single files and FolletoFile files are deleted in the background
+            List<String> filenames = new ArrayList<>();
+            filenames.add(f.getCoverFilename());
+            filenames.add(f.getPdfFilename());
+            filenames.add(f.getAudioFilename());
+            for (FolletoFile ff : f.getFiles()) filenames.add(ff.getFilename());
+            deletionQueue.deleteWithFiles(StorageArea.FOLLETO, f.getId(), filenames, () -> folletoServicio.eliminar(f));
+            servedFileCache.invalidate(StorageArea.FOLLETO, id);
         }
         return "redirect:/folletos";
     }
 
     @GetMapping("/files/{id}/{type}")
-    public ResponseEntity<Resource> servirArchivo(@PathVariable Long id, @PathVariable String type,
-            @RequestHeader(value = "Range", required = false) String rangeHeader,
-            @RequestParam(value = "download", required = false, defaultValue = "false") boolean download) throws IOException {
+    public void servirArchivo(@PathVariable Long id, @PathVariable String type,
+            @RequestParam(value = "download", required = false, defaultValue = "false") boolean download,
+            @RequestParam(value = "w", required = false) Integer w,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ServedFileCache.Key key = ServedFileCache.folletoType(id, type.toLowerCase(Locale.ROOT));
+        ServedFile served = servedFileCache.get(key);
+        if (served == null) {
+            long generation = servedFileCache.generation();
+            served = resolveByType(id, type);
+            if (served == null) { response.setStatus(HttpServletResponse.SC_NOT_FOUND); return; }
+            servedFileCache.put(key, served, generation);
+        }
+        // ?w= on a cover picks the nearest pre-scaled variant; until it exists the original is sent
+        if (w != null && w > 0 && "cover".equalsIgnoreCase(type)) {
+            ServedFile variant = coverVariant(id, served, w);
+            if (variant != null) served = variant;
+        }
+        fileServingService.serve(request, response, served, download);
+    }
+
+    private ServedFile coverVariant(Long id, ServedFile cover, int requestedWidth) throws IOException {
+        int width = coverDerivatives.nearestWidth(requestedWidth);
+        if (width <= 0) return null;
+        ServedFileCache.Key key = ServedFileCache.folletoType(id, "cover" + width);
+        ServedFile cached = servedFileCache.get(key);
+        if (cached != null) return cached;
+        long generation = servedFileCache.generation();
+        ServedFile variant;
+        if (cover.getPath() != null) {
+            Path path = coverDerivatives.variant(cover.getPath(), width);
+            if (path == null) return null;
+            StoredFile stored = storageService.stat(id, path.getFileName().toString());
+            if (stored == null) return null;
+            variant = new ServedFile(stored.getPath(), stored.getSize(), MediaType.IMAGE_JPEG_VALUE,
+                    cover.getDownloadName(), stored.getEtag(), stored.getLastModified());
+        } else {
+            // packed or remote cover: its variants are objects of the same store
+            String variantKey = coverDerivatives.variant(cover.getBackend(), cover.getKey(), width);
+            if (variantKey == null) return null;
+            StorageObject stored = cover.getBackend().stat(variantKey);
+            if (stored == null) return null;
+            variant = new ServedFile(cover.getBackend(), variantKey, stored.getSize(), MediaType.IMAGE_JPEG_VALUE,
+                    cover.getDownloadName(), stored.getEtag(), stored.getLastModified());
+        }
+        servedFileCache.put(key, variant, generation);
+        return variant;
+    }
+
+    private ServedFile resolveByType(Long id, String type) throws IOException {
+        // Fast path: one indexed lookup on (folleto_id, type); everything else was recorded at upload time.
+        // If there are multiple files of this type, the first one is returned (compatibility).
+        FolletoFile row = folletoFileRepo.findFirstByFolletoIdAndTypeOrderByIdAsc(id, type.toLowerCase(Locale.ROOT));
+        if (row != null && hasMetadata(row)) {
+            return fromRow(id, row, row.getFilename());
+        }
+
+        // Legacy path: single-file columns on Folleto and rows not backfilled yet
         Optional<Folleto> opt = folletoServicio.porId(id);
-        if (opt.isEmpty()) return ResponseEntity.notFound().build();
+        if (opt.isEmpty()) return null;
         Folleto f = opt.get();
 
-        // if there are multiple files of this type, return the first one (compatibility)
         String filename = null;
         String contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
-        boolean inline = true; // default show inline
         if ("pdf".equalsIgnoreCase(type)) {
-            // pick first related pdf if present
-            for (FolletoFile ff : f.getFiles()) { if ("pdf".equalsIgnoreCase(ff.getType())) { filename = ff.getFilename(); break; } }
-            if (filename == null) filename = f.getPdfFilename();
+            filename = row != null ? row.getFilename() : f.getPdfFilename();
             contentType = MediaType.APPLICATION_PDF_VALUE;
         } else if ("audio".equalsIgnoreCase(type)) {
-            for (FolletoFile ff : f.getFiles()) { if ("audio".equalsIgnoreCase(ff.getType())) { filename = ff.getFilename(); break; } }
-            if (filename == null) filename = f.getAudioFilename();
+            filename = row != null ? row.getFilename() : f.getAudioFilename();
             contentType = "audio/mpeg";
         } else if ("cover".equalsIgnoreCase(type)) {
             filename = f.getCoverFilename();
             contentType = MediaType.IMAGE_JPEG_VALUE;
         }
-        if (filename == null) return ResponseEntity.notFound().build();
-        Resource resource = storageService.loadAsResource(id, filename);
-        if (resource == null) return ResponseEntity.notFound().build();
-
-        Path filePath = Paths.get(resource.getURI());
-        long fileLength = Files.size(filePath);
+        if (filename == null) return null;
+        StoredFile stored = storageService.stat(id, filename);
+        if (stored == null) return null;
+        Path filePath = stored.getPath();
 
         // Determine content-type for cover using the real file path (probe may return null)
         if ("cover".equalsIgnoreCase(type)) {
             try {
-                String probed = Files.probeContentType(filePath);
+                String probed = filePath != null ? Files.probeContentType(filePath) : null;
                 if (probed != null && !probed.isBlank()) {
                     contentType = probed;
                 } else {
-                    String name = filePath.getFileName().toString().toLowerCase();
+                    String name = filename.toLowerCase();
                     if (name.endsWith(".png")) contentType = "image/png";
                     else if (name.endsWith(".webp")) contentType = "image/webp";
                     else contentType = MediaType.IMAGE_JPEG_VALUE;
@@ -555,100 +684,61 @@ public class FolletoControlador {
             }
         }
 
-        inline = !download;
-
-        if (rangeHeader == null) {
-            HttpHeaders headers = new HttpHeaders();
-            headers.set(HttpHeaders.CONTENT_TYPE, contentType);
-            if (inline) headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
-            else headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
-            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-            InputStreamResource body = new InputStreamResource(Files.newInputStream(filePath));
-            return ResponseEntity.ok().headers(headers).contentLength(fileLength).body(body);
-        }
-
-        List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
-        HttpRange r = ranges.get(0);
-        long start = r.getRangeStart(fileLength);
-        long end = r.getRangeEnd(fileLength);
-        long rangeLength = end - start + 1;
-
-        InputStream is = Files.newInputStream(filePath);
-        is.skip(start);
-        InputStreamResource body = new InputStreamResource(is);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.set(HttpHeaders.CONTENT_TYPE, contentType);
-        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
-        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-        if (inline) {
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).contentLength(rangeLength).body(body);
-        } else {
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).contentLength(rangeLength).body(body);
-        }
+        return toServedFile(id, stored, row, contentType, filename);
     }
 
     // New: serve a specific FolletoFile by its id
     @GetMapping("/files/{id}/file/{fileId}")
-    public ResponseEntity<Resource> servirArchivoByFileId(@PathVariable Long id, @PathVariable Long fileId,
-            @RequestHeader(value = "Range", required = false) String rangeHeader,
-            @RequestParam(value = "download", required = false, defaultValue = "false") boolean download) throws IOException {
-        Optional<Folleto> opt = folletoServicio.porId(id);
-        if (opt.isEmpty()) return ResponseEntity.notFound().build();
-        Optional<FolletoFile> off = folletoFileRepo.findById(fileId);
-        if (off.isEmpty()) return ResponseEntity.notFound().build();
+    public void servirArchivoByFileId(@PathVariable Long id, @PathVariable Long fileId,
+            @RequestParam(value = "download", required = false, defaultValue = "false") boolean download,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ServedFileCache.Key key = ServedFileCache.folletoFile(id, fileId);
+        ServedFile served = servedFileCache.get(key);
+        if (served == null) {
+            long generation = servedFileCache.generation();
+            served = resolveByFileId(id, fileId);
+            if (served == null) { response.setStatus(HttpServletResponse.SC_NOT_FOUND); return; }
+            servedFileCache.put(key, served, generation);
+        }
+        fileServingService.serve(request, response, served, download);
+    }
+
+    private ServedFile resolveByFileId(Long id, Long fileId) throws IOException {
+        // single primary-key lookup that also checks ownership; the parent Folleto is not loaded
+        Optional<FolletoFile> off = folletoFileRepo.findByIdAndFolletoId(fileId, id);
+        if (off.isEmpty()) return null;
         FolletoFile ff = off.get();
-        if (ff.getFolleto() == null || !ff.getFolleto().getId().equals(id)) return ResponseEntity.notFound().build();
 
-        String filename = ff.getFilename();
-        Resource resource = storageService.loadAsResource(id, filename);
-        if (resource == null) return ResponseEntity.notFound().build();
+        if (hasMetadata(ff)) {
+            return fromRow(id, ff, ff.getOriginalName());
+        }
 
-        Path filePath = Paths.get(resource.getURI());
-        long fileLength = Files.size(filePath);
+        StoredFile stored = storageService.stat(id, ff.getFilename());
+        if (stored == null) return null;
+        Path filePath = stored.getPath();
 
         String contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
         if ("pdf".equalsIgnoreCase(ff.getType())) contentType = MediaType.APPLICATION_PDF_VALUE;
         else if ("audio".equalsIgnoreCase(ff.getType())) contentType = "audio/mpeg";
         else if ("cover".equalsIgnoreCase(ff.getType())) {
-            try { String probed = Files.probeContentType(filePath); if (probed != null && !probed.isBlank()) contentType = probed; } catch (IOException ex) {}
-        }
-
-        boolean inline = !download;
-
-        if (rangeHeader == null) {
-            HttpHeaders headers = new HttpHeaders();
-            headers.set(HttpHeaders.CONTENT_TYPE, contentType);
-            if (inline) headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + ff.getOriginalName() + "\"");
-            else headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + ff.getOriginalName() + "\"");
-            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-            InputStreamResource body = new InputStreamResource(Files.newInputStream(filePath));
-            return ResponseEntity.ok().headers(headers).contentLength(fileLength).body(body);
-        }
-
-        List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
-        HttpRange r = ranges.get(0);
-        long start = r.getRangeStart(fileLength);
-        long end = r.getRangeEnd(fileLength);
-        long rangeLength = end - start + 1;
-
-        InputStream is = Files.newInputStream(filePath);
-        is.skip(start);
-        InputStreamResource body = new InputStreamResource(is);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.set(HttpHeaders.CONTENT_TYPE, contentType);
-        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
-        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-        if (inline) {
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + ff.getOriginalName() + "\"");
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).contentLength(rangeLength).body(body);
-        } else {
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + ff.getOriginalName() + "\"");
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).contentLength(rangeLength).body(body);
+            try {
+                String probed = filePath != null ? Files.probeContentType(filePath) : ContentSniffer.fromExtension(ff.getFilename());
+                if (probed != null && !probed.isBlank()) contentType = probed;
+            } catch (IOException ex) {}
         }
+
+        return toServedFile(id, stored, ff, contentType, ff.getOriginalName());
+    }
+
+    // Hit/miss counters of the serving caches (descriptors and off-heap file heads)
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/admin/files/cache")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("descriptors", servedFileCache.stats());
+        stats.put("bytes", fileByteCache.stats());
+        return ResponseEntity.ok(stats);
     }
 
     // Admin-only helper to seed sample folletos per category when missing
@@ -691,25 +781,61 @@ public class FolletoControlador {
             return "redirect:/admin/folletos/edit/" + id;
         }
         Folleto f = opt.get();
-        // delete physical file if present
-        try { storageService.deleteFile(id, ff.getFilename()); } catch (Exception ex) { /* ignore */ }
-        // remove from parent's collection (orphanRemoval should remove DB entry on save)
-        f.getFiles().removeIf(x -> x.getId() != null && x.getId().equals(fileId));
-        // clear legacy single-file pointers if they referenced this filename
-        if ("pdf".equalsIgnoreCase(ff.getType()) && ff.getFilename() != null && ff.getFilename().equals(f.getPdfFilename())) {
-            f.setPdfFilename(null);
-        }
-        if ("audio".equalsIgnoreCase(ff.getType()) && ff.getFilename() != null && ff.getFilename().equals(f.getAudioFilename())) {
-            f.setAudioFilename(null);
-        }
-        folletoServicio.guardar(f);
-        // ensure repository does not keep orphan (safe delete)
-        try { folletoFileRepo.deleteById(fileId); } catch (Exception ex) { /* ignore */ }
+        // the physical file is deleted in the background once the row changes below are committed
+        deletionQueue.deleteWithFiles(StorageArea.FOLLETO, id, List.of(ff.getFilename()), () -> {
+            // remove from parent's collection (orphanRemoval should remove DB entry on save)
+            f.getFiles().removeIf(x -> x.getId() != null && x.getId().equals(fileId));
+            // clear legacy single-file pointers if they referenced this filename
+            if ("pdf".equalsIgnoreCase(ff.getType()) && ff.getFilename() != null && ff.getFilename().equals(f.getPdfFilename())) {
+                f.setPdfFilename(null);
+            }
+            if ("audio".equalsIgnoreCase(ff.getType()) && ff.getFilename() != null && ff.getFilename().equals(f.getAudioFilename())) {
+                f.setAudioFilename(null);
+            }
+            folletoServicio.guardar(f);
+            // ensure repository does not keep orphan (safe delete)
+            folletoFileRepo.deleteById(fileId);
+        });
+        servedFileCache.invalidate(StorageArea.FOLLETO, id);
         // After deleting a file, return to the admin edit page so the user can continue editing
         redirectAttrs.addFlashAttribute("successMessage", "Archivo eliminado correctamente.");
         return "redirect:/admin/folletos/edit/" + id;
     }
 
+    // Covers also get a FolletoFile row (type "cover", hidden in the views) so they are served like any other
+    // file; the previous cover row is dropped when a new cover is uploaded.
+    private void replaceCoverFile(Folleto f, StoredFile stored, String originalName) {
+        f.getFiles().removeIf(x -> "cover".equalsIgnoreCase(x.getType()));
+        FolletoFile ff = new FolletoFile();
+        ff.setOriginalName(originalName == null || originalName.isBlank() ? stored.getFilename() : originalName);
+        ff.setFilename(stored.getFilename());
+        ff.setType("cover");
+        ff.setFolleto(f);
+        stored.applyTo(ff);
+        f.getFiles().add(ff);
+    }
+
+    private boolean hasMetadata(FolletoFile ff) {
+        return ff.getSize() != null && ff.getContentType() != null && ff.getEtag() != null && ff.getLastModified() != null;
+    }
+
+    private ServedFile fromRow(Long id, FolletoFile ff, String downloadName) {
+        return storageService.servedFile(StorageArea.FOLLETO, id, ff.getFilename(), ff.getSize(), ff.getContentType(),
+                downloadName, ff.getEtag(), ff.getLastModified());
+    }
+
+    // Prefer the validators persisted on the row; legacy files (and covers) fall back to what is on disk
+    private ServedFile toServedFile(Long id, StoredFile stored, FolletoFile row, String contentType, String downloadName) {
+        String etag = stored.getEtag();
+        long lastModified = stored.getLastModified();
+        if (row != null && row.getEtag() != null && row.getLastModified() != null) {
+            etag = row.getEtag();
+            lastModified = row.getLastModified();
+        }
+        return storageService.servedFile(StorageArea.FOLLETO, id, stored.getFilename(), stored.getSize(), contentType,
+                downloadName, etag, lastModified);
+    }
+
     // New helper to check whether a display/original name already exists among a Folleto's files.
     private boolean originalNameExists(List<FolletoFile> files, String name) {
         if (name == null || files == null) return false;
@@ -719,6 +845,49 @@ public class FolletoControlador {
         return false;
     }
 
+    // Files already assembled through /admin/uploads: stored like a form upload and added to the folleto,
+    // the first one of its type also becoming the legacy pointer when that is still empty
+    private void attachChunked(Folleto folleto, String[] uploadIds, String type) throws IOException {
+        if (!hasIds(uploadIds)) return;
+        boolean firstSet = "pdf".equals(type)
+                ? folleto.getPdfFilename() != null && !folleto.getPdfFilename().isBlank()
+                : folleto.getAudioFilename() != null && !folleto.getAudioFilename().isBlank();
+        for (String uploadId : uploadIds) {
+            if (uploadId == null || uploadId.isBlank()) continue;
+            ChunkedUpload upload = chunkedUploads.get(uploadId);
+            if (upload == null) throw new IOException("Carga no encontrada o expirada: " + uploadId);
+            StoredFile stored = chunkedUploads.finish(uploadId, StorageArea.FOLLETO, folleto.getId(), null, type);
+            String fn = stored.getFilename();
+            String displayName = upload.getFilename();
+            if (displayName == null || displayName.isBlank()) displayName = fn;
+            String baseDisplay = displayName;
+            int part = 1;
+            while (originalNameExists(folleto.getFiles(), displayName)) {
+                displayName = baseDisplay + " (parte " + part + ")";
+                part++;
+            }
+            FolletoFile ff = new FolletoFile();
+            ff.setOriginalName(displayName);
+            ff.setFilename(fn);
+            stored.applyTo(ff);
+            ff.setType(type);
+            ff.setFolleto(folleto);
+            folleto.getFiles().add(ff);
+            if (!firstSet) {
+                if ("pdf".equals(type)) folleto.setPdfFilename(fn); else folleto.setAudioFilename(fn);
+                firstSet = true;
+            }
+        }
+    }
+
+    private static boolean hasIds(String[] ids) {
+        if (ids == null) return false;
+        for (String id : ids) {
+            if (id != null && !id.isBlank()) return true;
+        }
+        return false;
+    }
+
     // helper to remove empty MultipartFile entries
     private MultipartFile[] filterNonEmpty(MultipartFile[] files) {
         if (files == null || files.length == 0) return null;
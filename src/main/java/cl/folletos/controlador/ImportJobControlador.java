@@ -0,0 +1,51 @@
+package cl.folletos.controlador;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import cl.folletos.modelo.ImportJob;
+import cl.folletos.servicio.ImportJobService;
+
+// Progress page of a background import (folder or URLs); the page polls the JSON endpoint
+@Controller
+public class ImportJobControlador {
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/admin/musica/jobs/{id}")
+    public String detalle(@PathVariable Long id, Model model) {
+        Optional<ImportJob> job = importJobService.find(id);
+        if (job.isEmpty()) return "redirect:/musica";
+        model.addAttribute("job", job.get());
+        model.addAttribute("progress", importJobService.progress(job.get()));
+        return "admin/import_job";
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/admin/musica/jobs/{id}/progress")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> progreso(@PathVariable Long id) {
+        return importJobService.find(id)
+                .map(job -> ResponseEntity.ok().header("Cache-Control", "no-store").body(importJobService.progress(job)))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/admin/musica/jobs/{id}/cancel")
+    public String cancelar(@PathVariable Long id) {
+        importJobService.cancel(id);
+        return "redirect:/admin/musica/jobs/" + id;
+    }
+}
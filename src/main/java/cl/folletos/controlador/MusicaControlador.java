@@ -1,13 +1,6 @@
 package cl.folletos.controlador;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -19,20 +12,13 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpRange;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.multipart.MultipartFile;
@@ -41,9 +27,24 @@ import org.springframework.util.StringUtils;
 
 import cl.folletos.modelo.Musica;
 import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.ImportJob;
+import cl.folletos.modelo.MusicaResumen;
 import cl.folletos.repositorio.AudioTrackRepositorio;
+import cl.folletos.servicio.ChunkedUpload;
+import cl.folletos.servicio.ChunkedUploadService;
+import cl.folletos.servicio.ContentSniffer;
 import cl.folletos.servicio.MusicaServicio;
+import cl.folletos.servicio.FileDeletionQueue;
+import cl.folletos.servicio.FileServingService;
 import cl.folletos.servicio.FileStorageService;
+import cl.folletos.servicio.ImportJobService;
+import cl.folletos.servicio.KeysetPage;
+import cl.folletos.servicio.ServedFile;
+import cl.folletos.servicio.ServedFileCache;
+import cl.folletos.servicio.StorageArea;
+import cl.folletos.servicio.StoredFile;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @Controller
 public class MusicaControlador {
@@ -59,22 +60,46 @@ public class MusicaControlador {
     @Autowired
     private AudioTrackRepositorio trackRepo;
 
+    @Autowired
+    private FileServingService fileServingService;
+
+    @Autowired
+    private ServedFileCache servedFileCache;
+
+    @Autowired
+    private ChunkedUploadService chunkedUploads;
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    @Autowired
+    private FileDeletionQueue deletionQueue;
+
+    @Value("${catalog.page-size:50}")
+    private int pageSize;
+
     @GetMapping("/musica")
-    public String listar(Model model) {
-        List<Musica> lista = musicaServicio.listarTodos();
-        model.addAttribute("musicas", lista);
+    public String listar(@RequestParam(required = false) String cursor, Model model) {
+        KeysetPage<MusicaResumen> page = musicaServicio.pagina(cursor, pageSize);
+        model.addAttribute("musicas", page.getItems());
+        model.addAttribute("offset", page.getOffset());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("total", musicaServicio.contar());
         return "musica/list";
     }
 
     @GetMapping("/musica/{id}")
-    public String detalle(@PathVariable Long id, Model model) {
+    public String detalle(@PathVariable Long id, @RequestParam(required = false) String cursor, Model model) {
         Optional<Musica> m = musicaServicio.porId(id);
         if (m.isEmpty()) return "redirect:/musica";
         Musica musica = m.get();
-        // Load AudioTrack entities for this album
-        List<AudioTrack> archivos = trackRepo.findByMusicaIdOrderByIdAsc(musica.getId());
+        // Load one page of AudioTrack entities for this album
+        KeysetPage<AudioTrack> page = musicaServicio.pistas(musica.getId(), cursor, pageSize);
         model.addAttribute("musica", musica);
-        model.addAttribute("archivos", archivos);
+        model.addAttribute("archivos", page.getItems());
+        model.addAttribute("offset", page.getOffset());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("total", musicaServicio.contarPistas(musica.getId()));
         return "musica/detail";
     }
 
@@ -101,8 +126,9 @@ public class MusicaControlador {
                         t.setMusica(savedRef);
                         t = trackRepo.save(t); // generate id
                         String filename = storageService.computeFilenameWithId(orig, t.getId());
-                        storageService.storeFileWithGivenName(id, f, filename, "audio");
+                        StoredFile stored = storageService.store(StorageArea.MUSICA, id, f, filename, "audio");
                         t.setFilename(filename);
+                        stored.applyTo(t);
                         trackRepo.save(t);
                     } catch (IOException e) {
                         logger.error("Error guardando archivo de audio: {}", e.getMessage());
@@ -147,8 +173,9 @@ public class MusicaControlador {
                         t.setMusica(existingRef);
                         t = trackRepo.save(t);
                         String filename = storageService.computeFilenameWithId(orig, t.getId());
-                        storageService.storeFileWithGivenName(existing.getId(), f, filename, "audio");
+                        StoredFile stored = storageService.store(StorageArea.MUSICA, existing.getId(), f, filename, "audio");
                         t.setFilename(filename);
+                        stored.applyTo(t);
                         trackRepo.save(t);
                     } catch (IOException e) {
                         logger.error("Error guardando archivo de audio: {}", e.getMessage());
@@ -156,6 +183,7 @@ public class MusicaControlador {
                 });
             }
             musicaServicio.guardar(existing);
+            servedFileCache.invalidate(StorageArea.MUSICA, existing.getId());
             return "redirect:/musica/" + existing.getId();
         } catch (Exception ex) {
             logger.error("Error al editar musica: {}", ex.getMessage(), ex);
@@ -172,60 +200,48 @@ public class MusicaControlador {
         if (opt.isPresent()) {
             Musica m = opt.get();
             List<AudioTrack> tracks = trackRepo.findByMusicaIdOrderByIdAsc(m.getId());
-            for (AudioTrack t : tracks) {
-                try { storageService.deleteFile(m.getId(), t.getFilename()); } catch (IOException e) { /* ignore */ }
-            }
-            musicaServicio.eliminar(m);
+            // the album goes now (tracks by cascade); their files are deleted in the background
+            List<String> filenames = tracks.stream().map(AudioTrack::getFilename).collect(Collectors.toList());
+            deletionQueue.deleteWithFiles(StorageArea.MUSICA, m.getId(), filenames, () -> musicaServicio.eliminar(m));
+            servedFileCache.invalidate(StorageArea.MUSICA, id);
         }
         return "redirect:/musica";
     }
 
     // Servir archivos de audio para Musica (soporta Range)
     @GetMapping("/musica/files/{id}/{filename}")
-    public ResponseEntity<Resource> servirArchivo(@PathVariable Long id, @PathVariable String filename,
-            @RequestHeader(value = "Range", required = false) String rangeHeader,
-            @RequestParam(value = "download", required = false, defaultValue = "false") boolean download) throws IOException {
-        Resource resource = storageService.loadAsResource(id, filename);
-        if (resource == null) return ResponseEntity.notFound().build();
-
-        Path filePath = Paths.get(resource.getURI());
-        long fileLength = Files.size(filePath);
-        String contentType = Files.probeContentType(filePath);
-        if (contentType == null) contentType = "audio/mpeg";
-
-        boolean inline = !download;
-
-        if (rangeHeader == null) {
-            HttpHeaders headers = new HttpHeaders();
-            headers.set(HttpHeaders.CONTENT_TYPE, contentType);
-            if (inline) headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
-            else headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
-            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-            InputStreamResource body = new InputStreamResource(Files.newInputStream(filePath));
-            return ResponseEntity.ok().headers(headers).contentLength(fileLength).body(body);
+    public void servirArchivo(@PathVariable Long id, @PathVariable String filename,
+            @RequestParam(value = "download", required = false, defaultValue = "false") boolean download,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ServedFileCache.Key key = ServedFileCache.musica(id, filename);
+        ServedFile served = servedFileCache.get(key);
+        if (served == null) {
+            long generation = servedFileCache.generation();
+            served = resolveTrack(id, filename);
+            if (served == null) { response.setStatus(HttpServletResponse.SC_NOT_FOUND); return; }
+            servedFileCache.put(key, served, generation);
         }
+        fileServingService.serve(request, response, served, download);
+    }
 
-        List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
-        HttpRange r = ranges.get(0);
-        long start = r.getRangeStart(fileLength);
-        long end = r.getRangeEnd(fileLength);
-        long rangeLength = end - start + 1;
-
-        InputStream is = Files.newInputStream(filePath);
-        is.skip(start);
-        InputStreamResource body = new InputStreamResource(is);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.set(HttpHeaders.CONTENT_TYPE, contentType);
-        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
-        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-        if (inline) {
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).contentLength(rangeLength).body(body);
-        } else {
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).contentLength(rangeLength).body(body);
+    private ServedFile resolveTrack(Long id, String filename) throws IOException {
+        // one indexed lookup on (musica_id, filename) carries everything needed to answer
+        AudioTrack track = trackRepo.findByMusicaIdAndFilename(id, filename);
+        if (track != null && track.getSize() != null && track.getContentType() != null
+                && track.getEtag() != null && track.getLastModified() != null) {
+            return storageService.servedFile(StorageArea.MUSICA, id, filename, track.getSize(), track.getContentType(),
+                    filename, track.getEtag(), track.getLastModified());
         }
+
+        // tracks not backfilled yet, or files copied in by hand: probe the disk
+        StoredFile stored = storageService.stat(StorageArea.MUSICA, id, filename);
+        if (stored == null) return null;
+
+        String contentType = stored.getPath() != null ? Files.probeContentType(stored.getPath()) : ContentSniffer.fromExtension(filename);
+        if (contentType == null) contentType = "audio/mpeg";
+
+        return storageService.servedFile(StorageArea.MUSICA, id, filename, stored.getSize(), contentType, filename,
+                stored.getEtag(), stored.getLastModified());
     }
 
     @PreAuthorize("hasRole('ADMIN')")
@@ -234,6 +250,8 @@ public class MusicaControlador {
         List<Musica> albums = musicaServicio.listarTodos();
         model.addAttribute("albums", albums);
         model.addAttribute("selectedAlbumId", albumId);
+        model.addAttribute("maxChunkedUploadBytes", chunkedUploads.getMaxTotalBytes());
+        model.addAttribute("chunkedThresholdBytes", chunkedUploads.getMaxChunkBytes());
         return "admin/musica_upload";
     }
 
@@ -242,6 +260,7 @@ public class MusicaControlador {
     public String uploadToAlbum(@RequestParam(value = "albumId", required = false) Long albumId,
                                 @RequestParam(value = "newFolder", required = false) String newFolder,
                                 @RequestParam(value = "audioFiles", required = false) MultipartFile[] audioFiles,
+                                @RequestParam(value = "audioUploadIds", required = false) String[] audioUploadIds,
                                 @RequestParam(value = "audioUrls", required = false) String audioUrls,
                                 @RequestParam(value = "storeLinksOnly", required = false, defaultValue = "false") boolean storeLinksOnly,
                                 Model model) {
@@ -281,8 +300,9 @@ public class MusicaControlador {
                         t.setMusica(albumRef);
                         t = trackRepo.save(t);
                         String filename = storageService.computeFilenameWithId(orig, t.getId());
-                        storageService.storeFileWithGivenName(albumIdForStorage, f, filename, "audio");
+                        StoredFile stored = storageService.store(StorageArea.MUSICA, albumIdForStorage, f, filename, "audio");
                         t.setFilename(filename);
+                        stored.applyTo(t);
                         trackRepo.save(t);
                         allStored.add(filename);
                     } catch (IOException e) {
@@ -291,10 +311,44 @@ public class MusicaControlador {
                 });
             }
 
+            // files already assembled through /admin/uploads (sent in chunks by the browser)
+            if (audioUploadIds != null) {
+                for (String uploadId : audioUploadIds) {
+                    if (uploadId == null || uploadId.isBlank()) continue;
+                    try {
+                        ChunkedUpload upload = chunkedUploads.get(uploadId);
+                        if (upload == null) {
+                            logger.warn("Carga no encontrada o expirada: {}", uploadId);
+                            continue;
+                        }
+                        String orig = StringUtils.cleanPath(upload.getFilename());
+                        AudioTrack t = new AudioTrack();
+                        t.setOriginalName(orig);
+                        t.setMusica(albumRef);
+                        t = trackRepo.save(t);
+                        String filename = storageService.computeFilenameWithId(orig, t.getId());
+                        StoredFile stored;
+                        try {
+                            stored = chunkedUploads.finish(uploadId, StorageArea.MUSICA, albumIdForStorage, filename, "audio");
+                        } catch (IOException e) {
+                            trackRepo.delete(t);
+                            throw e;
+                        }
+                        t.setFilename(filename);
+                        stored.applyTo(t);
+                        trackRepo.save(t);
+                        allStored.add(filename);
+                    } catch (IOException e) {
+                        logger.error("Error guardando archivo de audio: {}", e.getMessage());
+                    }
+                }
+            }
+
             // external URLs (OneDrive/Dropbox) - multiple separated by newline or comma
+            ImportJob downloadJob = null;
             if (audioUrls != null && !audioUrls.isBlank()) {
-                String[] parts = audioUrls.split("[\r\n,]+");
-                for (String part : parts) {
+                List<String> urls = new java.util.ArrayList<>();
+                for (String part : audioUrls.split("[\r\n,]+")) {
                     String urlStr = part.trim();
                     if (urlStr.isEmpty()) continue;
                     // If caller requested to persist the link only, don't try to download the file;
@@ -303,56 +357,16 @@ public class MusicaControlador {
                         allStored.add(urlStr);
                         continue;
                     }
-                    try {
-                        String normalized = normalizeDownloadUrl(urlStr);
-                        URL url = new URL(normalized);
-                        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                        conn.setInstanceFollowRedirects(true);
-                        conn.setConnectTimeout(15000);
-                        conn.setReadTimeout(30000);
-                        conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-                        int status = conn.getResponseCode();
-                        if (status >= 300 && status < 400) {
-                            String loc = conn.getHeaderField("Location");
-                            if (loc != null && !loc.isBlank()) {
-                                conn.disconnect();
-                                url = new URL(loc);
-                                conn = (HttpURLConnection) url.openConnection();
-                                conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-                            }
-                        }
-                        String contentType = conn.getContentType();
-                        try (InputStream in = conn.getInputStream(); ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                            byte[] buffer = new byte[8192];
-                            int read;
-                            while ((read = in.read(buffer)) != -1) baos.write(buffer, 0, read);
-                            byte[] data = baos.toByteArray();
-                            String path = url.getPath();
-                            String filename = null;
-                            if (path != null && path.contains("/")) {
-                                filename = URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), StandardCharsets.UTF_8.name());
-                            }
-                            if (filename == null || filename.isBlank()) filename = "from_url";
-                            // create DB record first to obtain id
-                            AudioTrack t = new AudioTrack();
-                            t.setOriginalName(filename);
-                            t.setMusica(albumFinal);
-                            t = trackRepo.save(t);
-                            String storedFilename = storageService.computeFilenameWithId(filename, t.getId());
-                            storageService.storeBytesWithGivenName(albumIdForStorage, data, storedFilename, "audio", contentType);
-                            t.setFilename(storedFilename);
-                            trackRepo.save(t);
-                            allStored.add(storedFilename);
-                        }
-                    } catch (Exception e) {
-                        logger.error("Error descargando y guardando desde URL {}: {}", urlStr, e.getMessage());
-                    }
+                    urls.add(urlStr);
                 }
+                // downloads run as a background job; the browser follows its progress page
+                if (!urls.isEmpty()) downloadJob = importJobService.submitUrls(albumIdForStorage, urls);
             }
 
             // tracks were persisted individually; nothing else required. Save album to update relationships if needed.
             if (!allStored.isEmpty()) musicaServicio.guardar(album);
 
+            if (downloadJob != null) return "redirect:/admin/musica/jobs/" + downloadJob.getId();
             return "redirect:/musica/" + album.getId();
         } catch (Exception ex) {
             logger.error("Error al subir archivos al álbum: {}", ex.getMessage(), ex);
@@ -408,35 +422,9 @@ public class MusicaControlador {
                 return "admin/musica_import";
             }
 
-            final Long albumIdForStorage = album.getId();
-            final Musica albumFinal = album;
-            List<String> storedList = new java.util.ArrayList<>();
-
-            try (java.util.stream.Stream<Path> stream = Files.list(sourceDir)) {
-                stream.filter(p -> Files.isRegularFile(p)).forEach(p -> {
-                    try {
-                        String filename = p.getFileName().toString();
-                        String contentType = Files.probeContentType(p);
-                        byte[] data = Files.readAllBytes(p);
-                        // create DB record to get id
-                        AudioTrack t = new AudioTrack();
-                        t.setOriginalName(filename);
-                        t.setMusica(albumFinal);
-                        t = trackRepo.save(t);
-                        String storedFilename = storageService.computeFilenameWithId(filename, t.getId());
-                        storageService.storeBytesWithGivenName(albumIdForStorage, data, storedFilename, "audio", contentType);
-                        t.setFilename(storedFilename);
-                        trackRepo.save(t);
-                        storedList.add(storedFilename);
-                    } catch (Exception e) {
-                        logger.error("Error importando archivo {} desde carpeta {}: {}", p.toString(), folderPath, e.getMessage());
-                    }
-                });
-            }
-
-            if (!storedList.isEmpty()) musicaServicio.guardar(album);
-
-            return "redirect:/musica/" + album.getId();
+            // copied in the background (parallel copies, batched inserts); the browser follows the job
+            ImportJob job = importJobService.submitFolder(album.getId(), sourceDir);
+            return "redirect:/admin/musica/jobs/" + job.getId();
         } catch (Exception ex) {
             logger.error("Error importando carpeta {}: {}", folderPath, ex.getMessage(), ex);
             model.addAttribute("errorMessage", "Error importando carpeta: " + ex.getMessage());
@@ -445,28 +433,6 @@ public class MusicaControlador {
         }
     }
 
-    // Normalize links from common providers into direct-download URLs when possible
-    private String normalizeDownloadUrl(String url) {
-        if (url == null) return null;
-        String u = url.trim();
-        // Dropbox: convert shared link to direct download if not already
-        if (u.contains("dropbox.com") && !u.contains("dl=1") && !u.contains("dl=0")) {
-            if (u.contains("www.dropbox.com")) {
-                if (u.contains("?")) u = u + "&dl=1"; else u = u + "?dl=1";
-            } else if (u.contains("dl.dropboxusercontent.com")) {
-                // already direct
-            }
-        }
-        // OneDrive: try to append download=1 for onedrive.live.com share links
-        if (u.contains("onedrive.live.com") || u.contains("1drv.ms")) {
-            if (u.contains("download") || u.contains("redir") || u.contains("action=download")) {
-                // leave as-is; many 1drv links redirect to the real file
-            } else {
-                if (u.contains("?")) u = u + "&download=1"; else u = u + "?download=1";
-            }
-        }
-        return u;
-    }
 
     @PreAuthorize("hasRole('ADMIN')")
     @PostMapping("/admin/musica/{id}/delete-file")
@@ -476,17 +442,14 @@ public class MusicaControlador {
         Musica album = opt.get();
         try {
             // If the filename is a URL (external link), treat specially
+            AudioTrack t = trackRepo.findByMusicaIdAndFilename(album.getId(), filename);
             if (filename.startsWith("http://") || filename.startsWith("https://")) {
-                AudioTrack t = trackRepo.findByFilename(filename);
-                if (t != null && t.getMusica() != null && t.getMusica().getId().equals(id)) {
-                    trackRepo.delete(t);
-                }
+                if (t != null) trackRepo.delete(t);
             } else {
-                try { storageService.deleteFile(album.getId(), filename); } catch (IOException e) { logger.warn("No se pudo borrar archivo físico {}: {}", filename, e.getMessage()); }
-                AudioTrack t = trackRepo.findByFilename(filename);
-                if (t != null && t.getMusica() != null && t.getMusica().getId().equals(id)) {
-                    trackRepo.delete(t);
-                }
+                deletionQueue.deleteWithFiles(StorageArea.MUSICA, album.getId(), List.of(filename), () -> {
+                    if (t != null) trackRepo.delete(t);
+                });
+                servedFileCache.invalidate(StorageArea.MUSICA, id);
             }
         } catch (Exception ex) {
             logger.error("Error eliminando pista {} del álbum {}: {}", filename, id, ex.getMessage(), ex);
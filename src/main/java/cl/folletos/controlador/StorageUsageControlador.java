@@ -0,0 +1,66 @@
+package cl.folletos.controlador;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import cl.folletos.servicio.StorageArea;
+import cl.folletos.servicio.StorageUsageRebuild;
+import cl.folletos.servicio.StorageUsageService;
+
+// Disk usage per area, folleto category and entity, from the running counters (no tree walk)
+@Controller
+public class StorageUsageControlador {
+
+    @Autowired
+    private StorageUsageService usageService;
+
+    @Autowired
+    private StorageUsageRebuild rebuild;
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/admin/storage/usage")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> uso() {
+        Map<String, Object> body = usageService.report();
+        body.put("rebuildRunning", rebuild.isRunning());
+        body.put("lastRebuild", rebuild.lastRun());
+        return ResponseEntity.ok().header("Cache-Control", "no-store").body(body);
+    }
+
+    // area: folletos | musica
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/admin/storage/usage/{area}/{id}")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> usoEntidad(@PathVariable String area, @PathVariable Long id) {
+        StorageArea storageArea;
+        if ("folletos".equalsIgnoreCase(area)) {
+            storageArea = StorageArea.FOLLETO;
+        } else if ("musica".equalsIgnoreCase(area)) {
+            storageArea = StorageArea.MUSICA;
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().header("Cache-Control", "no-store").body(usageService.entity(storageArea, id));
+    }
+
+    // Recount from the files, in the background; progress shows up in GET /admin/storage/usage
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/admin/storage/usage/rebuild")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> recontar() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("started", rebuild.start());
+        body.put("running", true);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(body);
+    }
+}
@@ -0,0 +1,113 @@
+package cl.folletos.controlador;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import cl.folletos.servicio.ChunkedUpload;
+import cl.folletos.servicio.ChunkedUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+
+// Resumable upload endpoints used by js/chunked-upload.js. POST opens an upload, PATCH appends one
+// chunk at Upload-Offset, HEAD reports how much the server has (to resume after a failure), DELETE
+// cancels. The finished upload id is then submitted with the folleto/album form, which stores it.
+@Controller
+@RequestMapping("/admin/uploads")
+public class UploadControlador {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadControlador.class);
+
+    @Autowired
+    private ChunkedUploadService chunkedUploads;
+
+    @PostMapping
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> crear(@RequestParam("filename") String filename,
+            @RequestParam("length") long length, Principal principal) {
+        try {
+            ChunkedUpload upload = chunkedUploads.create(filename, length, owner(principal));
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header("Location", "/admin/uploads/" + upload.getId())
+                    .header("Upload-Offset", "0")
+                    .body(describe(upload));
+        } catch (ChunkedUploadService.TooLargeException ex) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (IOException ex) {
+            logger.warn("No se pudo crear la carga {}: {}", filename, ex.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @RequestMapping(value = "/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> estado(@PathVariable String id, Principal principal) throws IOException {
+        ChunkedUpload upload = owned(id, principal);
+        if (upload == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok()
+                .header("Upload-Offset", String.valueOf(upload.getOffset()))
+                .header("Upload-Length", String.valueOf(upload.getLength()))
+                .header("Cache-Control", "no-store")
+                .build();
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<Void> agregarFragmento(@PathVariable String id,
+            @RequestHeader("Upload-Offset") long offset, HttpServletRequest request, Principal principal) throws IOException {
+        if (owned(id, principal) == null) return ResponseEntity.notFound().build();
+        try {
+            long newOffset = chunkedUploads.append(id, offset, request.getInputStream());
+            return ResponseEntity.noContent().header("Upload-Offset", String.valueOf(newOffset)).build();
+        } catch (ChunkedUploadService.OffsetMismatchException ex) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header("Upload-Offset", String.valueOf(ex.getCurrentOffset())).build();
+        } catch (ChunkedUploadService.TooLargeException ex) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> cancelar(@PathVariable String id, Principal principal) throws IOException {
+        if (owned(id, principal) == null) return ResponseEntity.notFound().build();
+        chunkedUploads.discard(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    // an upload is only visible to the admin that opened it
+    private ChunkedUpload owned(String id, Principal principal) throws IOException {
+        ChunkedUpload upload = chunkedUploads.get(id);
+        if (upload == null || !upload.getOwner().equals(owner(principal))) return null;
+        return upload;
+    }
+
+    private static String owner(Principal principal) {
+        return principal == null ? "" : principal.getName();
+    }
+
+    private Map<String, Object> describe(ChunkedUpload upload) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", upload.getId());
+        body.put("offset", upload.getOffset());
+        body.put("length", upload.getLength());
+        body.put("maxChunkBytes", chunkedUploads.getMaxChunkBytes());
+        return body;
+    }
+}
@@ -1,13 +1,24 @@
 package cl.folletos.modelo;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
 
 @Entity
+// storage internals stay out of any JSON
+@JsonIgnoreProperties({"filename", "sha256", "etag", "lastModified", "missingSince"})
+// A stored name is unique within its album (the files share one directory); also serves the lookups by name
+@Table(indexes = @Index(name = "uk_audio_track_musica_filename", columnList = "musica_id, filename", unique = true))
 public class AudioTrack {
 
     @Id
@@ -17,7 +28,22 @@ public class AudioTrack {
     private String originalName;
     private String filename; // nombre real en disco (incluye id)
 
-    @ManyToOne
+    // Metadata captured when the file was stored, so serving never has to probe the filesystem
+    @Column(name = "size_bytes")
+    private Long size;
+    @Column(length = 100)
+    private String contentType; // sniffed from the magic bytes
+    @Column(length = 64)
+    private String sha256;
+    @Column(length = 64)
+    private String etag;
+    private Long lastModified; // epoch millis
+    // set by FileMetadataBackfill when the file was not found, so later runs do not probe it again
+    private Long missingSince;
+
+    // back-reference: not serialized, or a Musica with tracks recurses forever
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "musica_id")
     private Musica musica;
 
@@ -32,6 +58,24 @@ public class AudioTrack {
     public String getFilename() { return filename; }
     public void setFilename(String filename) { this.filename = filename; }
 
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+
+    public String getEtag() { return etag; }
+    public void setEtag(String etag) { this.etag = etag; }
+
+    public Long getLastModified() { return lastModified; }
+    public void setLastModified(Long lastModified) { this.lastModified = lastModified; }
+
+    public Long getMissingSince() { return missingSince; }
+    public void setMissingSince(Long missingSince) { this.missingSince = missingSince; }
+
     public Musica getMusica() { return musica; }
     public void setMusica(Musica musica) { this.musica = musica; }
 }
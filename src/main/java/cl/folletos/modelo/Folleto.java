@@ -4,15 +4,20 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Lob;
 import jakarta.persistence.Column;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.FetchType;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.BatchSize;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+// Category lists filter on categoria (and ano) and sort by ano, titulo
+@Table(indexes = @Index(name = "idx_folleto_categoria_ano_titulo", columnList = "categoria, ano, titulo"))
 public class Folleto {
 
     @Id
@@ -34,7 +39,10 @@ public class Folleto {
     private String categoria;
 
     // New: related files (multiple PDFs or audio tracks). Cascade so saving Folleto persists these.
-    @OneToMany(mappedBy = "folleto", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    // Lazy: lists use FolletoResumen; detail/edit load them with the entity graph in FolletoRepositorio.
+    // Any other access loads the files of up to 50 folletos per query instead of one query each.
+    @OneToMany(mappedBy = "folleto", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
     private List<FolletoFile> files = new ArrayList<>();
 
     public Folleto() {}
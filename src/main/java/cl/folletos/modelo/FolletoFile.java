@@ -1,13 +1,23 @@
 package cl.folletos.modelo;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
 
 @Entity
+// storage internals stay out of any JSON (the API lists files through FolletoApiItem)
+@JsonIgnoreProperties({"filename", "sha256", "etag", "lastModified", "missingSince", "textExtractedAt"})
+@Table(indexes = @Index(name = "idx_folleto_file_folleto_type", columnList = "folleto_id, type"))
 public class FolletoFile {
 
     @Id
@@ -18,7 +28,26 @@ public class FolletoFile {
     private String filename; // stored filename
     private String type; // pdf, audio, cover
 
-    @ManyToOne
+    // Metadata captured when the file was stored, so serving never has to probe the filesystem
+    @Column(name = "size_bytes")
+    private Long size;
+    @Column(length = 100)
+    private String contentType; // sniffed from the magic bytes
+    @Column(length = 64)
+    private String sha256;
+    @Column(length = 64)
+    private String etag;
+    private Long lastModified; // epoch millis
+    // set by FileMetadataBackfill when the file was not found, so later runs do not probe it again
+    private Long missingSince;
+    // when the page text of a pdf was extracted (FolletoPageText rows); null until then. Only written by
+    // PdfTextIndex, so saving a stale copy of the row does not undo it.
+    @Column(updatable = false)
+    private Long textExtractedAt;
+
+    // back-reference: not serialized, or a Folleto with files recurses forever
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "folleto_id")
     private Folleto folleto;
 
@@ -36,6 +65,27 @@ public class FolletoFile {
     public String getType() { return type; }
     public void setType(String type) { this.type = type; }
 
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+
+    public String getEtag() { return etag; }
+    public void setEtag(String etag) { this.etag = etag; }
+
+    public Long getLastModified() { return lastModified; }
+    public void setLastModified(Long lastModified) { this.lastModified = lastModified; }
+
+    public Long getMissingSince() { return missingSince; }
+    public void setMissingSince(Long missingSince) { this.missingSince = missingSince; }
+
+    public Long getTextExtractedAt() { return textExtractedAt; }
+    public void setTextExtractedAt(Long textExtractedAt) { this.textExtractedAt = textExtractedAt; }
+
     public Folleto getFolleto() { return folleto; }
     public void setFolleto(Folleto folleto) { this.folleto = folleto; }
 }
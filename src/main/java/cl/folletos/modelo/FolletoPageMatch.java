@@ -0,0 +1,9 @@
+package cl.folletos.modelo;
+
+// One page matching a full-text query, with MySQL's relevance for it
+public interface FolletoPageMatch {
+    Long getFolletoId();
+    Long getFileId();
+    Integer getPage();
+    Double getScore();
+}
@@ -0,0 +1,63 @@
+package cl.folletos.modelo;
+
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Lob;
+import jakarta.persistence.ManyToOne;
+
+// Text of one page of a pdf FolletoFile, written by PdfTextIndex. The content column carries a
+// FULLTEXT index (created by PdfTextIndex, JPA cannot declare one); the rows go away with their file.
+@Entity
+public class FolletoPageText {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "file_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private FolletoFile file;
+
+    // copied from the file so a search groups by folleto without a join
+    @Column(name = "folleto_id")
+    private Long folletoId;
+
+    private int page; // 1-based
+
+    @Lob
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String content;
+
+    public FolletoPageText() {}
+
+    public FolletoPageText(FolletoFile file, Long folletoId, int page, String content) {
+        this.file = file;
+        this.folletoId = folletoId;
+        this.page = page;
+        this.content = content;
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public FolletoFile getFile() { return file; }
+    public void setFile(FolletoFile file) { this.file = file; }
+
+    public Long getFolletoId() { return folletoId; }
+    public void setFolletoId(Long folletoId) { this.folletoId = folletoId; }
+
+    public int getPage() { return page; }
+    public void setPage(int page) { this.page = page; }
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+}
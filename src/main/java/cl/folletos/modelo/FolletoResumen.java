@@ -0,0 +1,8 @@
+package cl.folletos.modelo;
+
+// Columns rendered by folletos/list; list queries select only these instead of whole Folleto rows
+public interface FolletoResumen {
+    Long getId();
+    String getTitulo();
+    Integer getAno();
+}
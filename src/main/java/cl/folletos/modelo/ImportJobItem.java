@@ -0,0 +1,54 @@
+package cl.folletos.modelo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+// One file or URL of an ImportJob, processed in position order
+@Entity
+@Table(indexes = @Index(name = "idx_import_job_item_job_status", columnList = "job_id, status, position"))
+public class ImportJobItem {
+
+    public static final String PENDING = "PENDING";
+    public static final String DONE = "DONE";
+    public static final String SKIPPED = "SKIPPED"; // empty file or body
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "job_id")
+    private Long jobId;
+    private Integer position;
+    @Column(length = 2000)
+    private String source; // absolute path or URL
+    @Column(length = 20)
+    private String status;
+    @Column(length = 500)
+    private String error;
+
+    public ImportJobItem() {}
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getJobId() { return jobId; }
+    public void setJobId(Long jobId) { this.jobId = jobId; }
+
+    public Integer getPosition() { return position; }
+    public void setPosition(Integer position) { this.position = position; }
+
+    public String getSource() { return source; }
+    public void setSource(String source) { this.source = source; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
@@ -4,13 +4,17 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Lob;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Table;
 import jakarta.persistence.CascadeType;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+// the album list pages by (ano, titulo, id)
+@Table(indexes = @Index(name = "idx_musica_ano_titulo", columnList = "ano, titulo"))
 public class Musica {
 
     @Id
@@ -0,0 +1,8 @@
+package cl.folletos.modelo;
+
+// Columns rendered by musica/list
+public interface MusicaResumen {
+    Long getId();
+    String getTitulo();
+    Integer getAno();
+}
@@ -0,0 +1,47 @@
+package cl.folletos.modelo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+// Bytes and files stored for one folleto or album, kept current by StorageUsageService on every store
+// and delete so nobody has to walk the uploads tree to know them
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_storage_usage_area_entity", columnNames = {"area", "entityId"}))
+public class StorageUsage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(length = 20)
+    private String area; // StorageArea name
+    private Long entityId;
+    private Long bytes;
+    private Long files;
+    private Long updatedAt; // epoch millis
+
+    public StorageUsage() {}
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getArea() { return area; }
+    public void setArea(String area) { this.area = area; }
+
+    public Long getEntityId() { return entityId; }
+    public void setEntityId(Long entityId) { this.entityId = entityId; }
+
+    public Long getBytes() { return bytes; }
+    public void setBytes(Long bytes) { this.bytes = bytes; }
+
+    public Long getFiles() { return files; }
+    public void setFiles(Long files) { this.files = files; }
+
+    public Long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Long updatedAt) { this.updatedAt = updatedAt; }
+}
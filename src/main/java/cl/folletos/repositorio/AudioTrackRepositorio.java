@@ -2,10 +2,17 @@ package cl.folletos.repositorio;
 
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import cl.folletos.modelo.AudioTrack;
 
 public interface AudioTrackRepositorio extends JpaRepository<AudioTrack, Long> {
-    AudioTrack findByFilename(String filename);
     List<AudioTrack> findByMusicaIdOrderByIdAsc(Long musicaId);
+    // Keyset pages of an album's tracks
+    List<AudioTrack> findByMusicaIdAndIdGreaterThanOrderByIdAsc(Long musicaId, Long afterId, Pageable page);
+    long countByMusicaId(Long musicaId);
+    AudioTrack findByMusicaIdAndFilename(Long musicaId, String filename);
+
+    // Metadata backfill, walked by id; rows whose file was found missing are not retried
+    List<AudioTrack> findTop200BySha256IsNullAndMissingSinceIsNullAndIdGreaterThanOrderByIdAsc(Long afterId);
 }
@@ -0,0 +1,15 @@
+package cl.folletos.repositorio;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import cl.folletos.modelo.FileTombstone;
+
+public interface FileTombstoneRepositorio extends JpaRepository<FileTombstone, Long> {
+    // next batch for the deletion worker
+    List<FileTombstone> findByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(Long now, Pageable page);
+
+    boolean existsByAreaAndEntityIdAndFilename(String area, Long entityId, String filename);
+}
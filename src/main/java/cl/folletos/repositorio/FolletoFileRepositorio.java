@@ -1,9 +1,29 @@
 package cl.folletos.repositorio;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import cl.folletos.modelo.FolletoFile;
 import java.util.List;
+import java.util.Optional;
 
 public interface FolletoFileRepositorio extends JpaRepository<FolletoFile, Long> {
     List<FolletoFile> findByFolletoId(Long folletoId);
+
+    // Serving lookups (index on folleto_id, type); the parent Folleto is not loaded
+    FolletoFile findFirstByFolletoIdAndTypeOrderByIdAsc(Long folletoId, String type);
+    Optional<FolletoFile> findByIdAndFolletoId(Long id, Long folletoId);
+
+    // Metadata backfill, walked by id; rows whose file was found missing are not retried
+    List<FolletoFile> findTop200BySha256IsNullAndMissingSinceIsNullAndIdGreaterThanOrderByIdAsc(Long afterId);
+
+    // PDF text backfill, walked by id
+    List<FolletoFile> findTop200ByTypeAndTextExtractedAtIsNullAndIdGreaterThanOrderByIdAsc(String type, Long afterId);
+
+    // textExtractedAt is not updatable through the entity, so a stale copy saved later keeps it
+    @Modifying
+    @Query("update FolletoFile f set f.textExtractedAt = :now where f.id = :id")
+    int markTextExtracted(@Param("id") Long id, @Param("now") Long now);
 }
@@ -0,0 +1,26 @@
+package cl.folletos.repositorio;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import cl.folletos.modelo.FolletoPageMatch;
+import cl.folletos.modelo.FolletoPageText;
+
+public interface FolletoPageTextRepositorio extends JpaRepository<FolletoPageText, Long> {
+
+    @Modifying
+    @Query("delete from FolletoPageText p where p.file.id = :fileId")
+    int deleteByFileId(@Param("fileId") Long fileId);
+
+    // Natural language mode over the FULLTEXT index ft_folleto_page_text: ranked by relevance, accents and
+    // case ignored by the column collation; words shorter than innodb_ft_min_token_size are not indexed
+    @Query(value = "select p.folleto_id as folletoId, p.file_id as fileId, p.page as page, "
+            + "match(p.content) against (:q in natural language mode) as score from folleto_page_text p "
+            + "where match(p.content) against (:q in natural language mode) order by score desc, p.id limit :limit",
+            nativeQuery = true)
+    List<FolletoPageMatch> search(@Param("q") String q, @Param("limit") int limit);
+}
@@ -1,25 +1,91 @@
 package cl.folletos.repositorio;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoResumen;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface FolletoRepositorio extends JpaRepository<Folleto, Long> {
     List<Folleto> findByAno(Integer ano);
     List<Folleto> findByTituloContainingIgnoreCase(String titulo);
 
-    // Ordered variants: order by year ascending, then title ascending
-    List<Folleto> findAllByOrderByAnoAscTituloAsc();
-    List<Folleto> findByAnoOrderByAnoAscTituloAsc(Integer ano);
-    List<Folleto> findByTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(String titulo);
-    List<Folleto> findByAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(Integer ano, String titulo);
-
-    // Category-specific queries
-    List<Folleto> findByCategoriaOrderByAnoAscTituloAsc(String categoria);
-    List<Folleto> findByCategoriaIsNullOrderByAnoAscTituloAsc();
-    List<Folleto> findByCategoriaAndAnoOrderByAnoAscTituloAsc(String categoria, Integer ano);
-    List<Folleto> findByCategoriaAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(String categoria, String titulo);
-    List<Folleto> findByCategoriaAndAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(String categoria, Integer ano, String titulo);
-}
\ No newline at end of file
+    // Detail/edit: the folleto and its files in one query
+    @EntityGraph(attributePaths = "files")
+    Optional<Folleto> findWithFilesById(Long id);
+
+    @EntityGraph(attributePaths = "files")
+    @Query("select f from Folleto f")
+    List<Folleto> findAllWithFiles();
+
+    @EntityGraph(attributePaths = "files")
+    List<Folleto> findWithFilesByIdIn(Collection<Long> ids);
+
+    // Filters of the category lists. A null categoria means every category; sinCategoria also takes
+    // the rows without one (they belong to FOLLETOS). patron is a lowercase LIKE pattern or null.
+    String FILTRO = "(:categoria is null or f.categoria = :categoria or (:sinCategoria = true and f.categoria is null)) "
+            + "and (:ano is null or f.ano = :ano) "
+            + "and (:patron is null or lower(f.titulo) like :patron escape '!') ";
+
+    // A category list in one query, ordered by (ano, titulo, id): within one categoria the rows come in
+    // the order of idx_folleto_categoria_ano_titulo
+    @Query("select f.id as id, f.titulo as titulo, f.ano as ano from Folleto f where " + FILTRO
+            + "order by f.ano, f.titulo, f.id")
+    List<FolletoResumen> findFiltered(@Param("categoria") String categoria, @Param("sinCategoria") boolean sinCategoria,
+                                      @Param("ano") Integer ano, @Param("patron") String patron);
+
+    // Keyset pages of the same list. The seek compares the raw columns, so with one categoria MySQL
+    // range-scans idx_folleto_categoria_ano_titulo from the cursor (the id comes from the primary key the
+    // index carries) instead of walking it from the start.
+    @Query("select f.id as id, f.titulo as titulo, f.ano as ano from Folleto f where " + FILTRO
+            + "order by f.ano, f.titulo, f.id")
+    List<FolletoResumen> findFirstPage(@Param("categoria") String categoria, @Param("sinCategoria") boolean sinCategoria,
+                                       @Param("ano") Integer ano, @Param("patron") String patron, Pageable page);
+
+    // The rows after (afterAno, afterTitulo, afterId), none of them null
+    @Query("select f.id as id, f.titulo as titulo, f.ano as ano from Folleto f where " + FILTRO
+            + "and (f.ano > :afterAno or (f.ano = :afterAno and (f.titulo > :afterTitulo "
+            + "or (f.titulo = :afterTitulo and f.id > :afterId)))) "
+            + "order by f.ano, f.titulo, f.id")
+    List<FolletoResumen> findPageAfter(@Param("categoria") String categoria, @Param("sinCategoria") boolean sinCategoria,
+                                       @Param("ano") Integer ano, @Param("patron") String patron,
+                                       @Param("afterAno") int afterAno, @Param("afterTitulo") String afterTitulo,
+                                       @Param("afterId") long afterId, Pageable page);
+
+    // Rows without ano or titulo sort first (MySQL): a cursor on one of them needs IS NULL branches, which
+    // MySQL cannot seek, but only while walking those few rows
+    String AFTER_TITULO = "((:afterTitulo is null and (f.titulo is not null or f.id > :afterId)) "
+            + "or f.titulo > :afterTitulo or (f.titulo = :afterTitulo and f.id > :afterId))";
+
+    @Query("select f.id as id, f.titulo as titulo, f.ano as ano from Folleto f where " + FILTRO
+            + "and ((:afterAno is null and (f.ano is not null or " + AFTER_TITULO + ")) "
+            + "or f.ano > :afterAno or (f.ano = :afterAno and " + AFTER_TITULO + ")) "
+            + "order by f.ano, f.titulo, f.id")
+    List<FolletoResumen> findPageAfterNullKey(@Param("categoria") String categoria, @Param("sinCategoria") boolean sinCategoria,
+                                              @Param("ano") Integer ano, @Param("patron") String patron,
+                                              @Param("afterAno") Integer afterAno, @Param("afterTitulo") String afterTitulo,
+                                              @Param("afterId") long afterId, Pageable page);
+
+    @Query("select count(f) from Folleto f where " + FILTRO)
+    long countFiltered(@Param("categoria") String categoria, @Param("sinCategoria") boolean sinCategoria,
+                       @Param("ano") Integer ano, @Param("patron") String patron);
+
+    // Ordered variants: order by year ascending, then title ascending.
+    // The type is Folleto.class for entities or FolletoResumen.class for the list columns only.
+    <T> List<T> findAllByOrderByAnoAscTituloAsc(Class<T> type);
+    <T> List<T> findByAnoOrderByAnoAscTituloAsc(Integer ano, Class<T> type);
+    <T> List<T> findByTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(String titulo, Class<T> type);
+    <T> List<T> findByAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(Integer ano, String titulo, Class<T> type);
+
+    // Covers uploaded before covers got their own FolletoFile row
+    @Query("select f from Folleto f where f.coverFilename is not null and not exists "
+            + "(select ff.id from FolletoFile ff where ff.folleto = f and ff.type = 'cover')")
+    List<Folleto> findWithCoverButNoCoverFile();
+}
@@ -0,0 +1,23 @@
+package cl.folletos.repositorio;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import cl.folletos.modelo.ImportJobItem;
+
+public interface ImportJobItemRepositorio extends JpaRepository<ImportJobItem, Long> {
+    List<ImportJobItem> findByJobIdAndStatusOrderByPositionAsc(Long jobId, String status);
+
+    long countByJobIdAndStatus(Long jobId, String status);
+
+    List<ImportJobItem> findTop20ByJobIdAndStatusOrderByPositionAsc(Long jobId, String status);
+
+    @Modifying
+    @Query("update ImportJobItem i set i.status = :status where i.id in :ids")
+    int updateStatus(@Param("ids") Collection<Long> ids, @Param("status") String status);
+}
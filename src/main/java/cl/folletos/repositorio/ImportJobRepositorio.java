@@ -0,0 +1,12 @@
+package cl.folletos.repositorio;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import cl.folletos.modelo.ImportJob;
+
+public interface ImportJobRepositorio extends JpaRepository<ImportJob, Long> {
+    // jobs left queued or running by a previous process
+    List<ImportJob> findByStatusInOrderByIdAsc(Collection<String> statuses);
+}
@@ -1,10 +1,37 @@
 package cl.folletos.repositorio;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import cl.folletos.modelo.Musica;
+import cl.folletos.modelo.MusicaResumen;
 
 import java.util.List;
 
 public interface MusicaRepositorio extends JpaRepository<Musica, Long> {
     List<Musica> findAllByOrderByAnoAscTituloAsc();
+
+    // Keyset pages ordered by (ano, titulo, id) over idx_musica_ano_titulo, as FolletoRepositorio.findPageAfter
+    @Query("select m.id as id, m.titulo as titulo, m.ano as ano from Musica m order by m.ano, m.titulo, m.id")
+    List<MusicaResumen> findFirstPage(Pageable page);
+
+    @Query("select m.id as id, m.titulo as titulo, m.ano as ano from Musica m where "
+            + "m.ano > :afterAno or (m.ano = :afterAno and (m.titulo > :afterTitulo "
+            + "or (m.titulo = :afterTitulo and m.id > :afterId))) "
+            + "order by m.ano, m.titulo, m.id")
+    List<MusicaResumen> findPageAfter(@Param("afterAno") int afterAno, @Param("afterTitulo") String afterTitulo,
+                                      @Param("afterId") long afterId, Pageable page);
+
+    // cursor on a row without ano or titulo (they sort first), see FolletoRepositorio.findPageAfterNullKey
+    String AFTER_TITULO = "((:afterTitulo is null and (m.titulo is not null or m.id > :afterId)) "
+            + "or m.titulo > :afterTitulo or (m.titulo = :afterTitulo and m.id > :afterId))";
+
+    @Query("select m.id as id, m.titulo as titulo, m.ano as ano from Musica m where "
+            + "(:afterAno is null and (m.ano is not null or " + AFTER_TITULO + ")) "
+            + "or m.ano > :afterAno or (m.ano = :afterAno and " + AFTER_TITULO + ") "
+            + "order by m.ano, m.titulo, m.id")
+    List<MusicaResumen> findPageAfterNullKey(@Param("afterAno") Integer afterAno, @Param("afterTitulo") String afterTitulo,
+                                             @Param("afterId") long afterId, Pageable page);
 }
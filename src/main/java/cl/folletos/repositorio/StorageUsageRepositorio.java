@@ -0,0 +1,36 @@
+package cl.folletos.repositorio;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import cl.folletos.modelo.StorageUsage;
+
+public interface StorageUsageRepositorio extends JpaRepository<StorageUsage, Long> {
+    StorageUsage findByAreaAndEntityId(String area, Long entityId);
+
+    List<StorageUsage> findTop20ByAreaOrderByBytesDesc(String area);
+
+    // applied in the database so concurrent writers never lose an update; 0 = no row yet
+    @Modifying
+    @Query("update StorageUsage u set u.bytes = u.bytes + :bytes, u.files = u.files + :files, u.updatedAt = :now "
+            + "where u.area = :area and u.entityId = :entityId")
+    int add(@Param("area") String area, @Param("entityId") Long entityId, @Param("bytes") long bytes,
+            @Param("files") long files, @Param("now") long now);
+
+    @Modifying
+    @Query("delete from StorageUsage u where u.area = :area")
+    int deleteByAreaInBulk(@Param("area") String area);
+
+    // area, bytes, files, entities
+    @Query("select u.area, sum(u.bytes), sum(u.files), count(u) from StorageUsage u group by u.area")
+    List<Object[]> totalsByArea();
+
+    // categoria (null = FOLLETOS), bytes, files, folletos
+    @Query("select f.categoria, sum(u.bytes), sum(u.files), count(u) from StorageUsage u, Folleto f "
+            + "where u.area = 'FOLLETO' and f.id = u.entityId group by f.categoria")
+    List<Object[]> folletoTotalsByCategoria();
+}
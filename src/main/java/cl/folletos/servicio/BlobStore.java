@@ -0,0 +1,210 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Content-addressed layer under the uploads tree. Every distinct content lives once as
+// .blobs/<aa>/<sha256>, and each logical file (uploads/<area>/<shard>/<id>/<name>) is a hard link to
+// it, so the rest of the application keeps reading plain paths. The filesystem link count is the
+// reference count: a blob whose only remaining link is its own .blobs entry is freed. Disabled (plain
+// copies) where hard links or the unix attribute view are not available.
+final class BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    static final String BLOBS_DIR = ".blobs";
+
+    private final Path blobs;
+    private final boolean enabled;
+
+    BlobStore(Path rootLocation, boolean requested) {
+        this.blobs = rootLocation.resolve(BLOBS_DIR);
+        this.enabled = requested && supportsLinks(rootLocation);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    Path blobPath(String sha256) {
+        return blobs.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    // Put freshly written content (tmp, whose hash is sha256) at target. When the same content is
+    // already stored, target becomes one more link to it and tmp is left for the caller to delete.
+    // The shared inode's mtime is never touched: it is the Last-Modified (and feeds the ETag) of every
+    // name linked to it. A link carries the blob's mtime, from when the content was first stored, so
+    // when target holds content at least that recent the upload stays a private copy instead, and the
+    // name's validators only move forward.
+    void place(Path tmp, String sha256, Path target) throws IOException {
+        if (enabled) {
+            Path blob = blobPath(sha256);
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, tmp); // first copy of this content: the upload itself becomes the blob
+            } catch (FileAlreadyExistsException ex) {
+                Path link = tmp.resolveSibling(tmp.getFileName() + ".link");
+                try {
+                    Files.createLink(link, blob);
+                    if (!replacesNewer(target, Files.getLastModifiedTime(link))) {
+                        moveIntoPlace(link, target);
+                        return;
+                    }
+                    // otherwise the upload itself (fresh mtime) goes in place, below
+                } catch (NoSuchFileException gone) {
+                    // blob freed between the two calls: keep this upload as a private copy
+                } finally {
+                    Files.deleteIfExists(link); // rename over a link to the same inode is a no-op
+                }
+            }
+        }
+        moveIntoPlace(tmp, target);
+    }
+
+    // target holds real content (not an empty reserved name) no older than the blob
+    private static boolean replacesNewer(Path target, FileTime blobTime) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+            return attrs.isRegularFile() && attrs.size() > 0 && attrs.lastModifiedTime().compareTo(blobTime) >= 0;
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+    }
+
+    // Blob that will become unreferenced once this logical file is deleted, or null when the content is
+    // still shared (or not deduplicated at all). Hashes the file only when it is the last reference.
+    Path lastReference(Path file) throws IOException {
+        if (!enabled || linkCount(file) != 2) return null;
+        Path blob = blobPath(sha256(file));
+        return Files.exists(blob) && Files.isSameFile(blob, file) ? blob : null;
+    }
+
+    // Deletes the blob if nothing links to it any more
+    void freeIfUnreferenced(Path blob) throws IOException {
+        if (blob == null) return;
+        try {
+            if (linkCount(blob) == 1) Files.deleteIfExists(blob);
+        } catch (NoSuchFileException ex) {
+            // already gone
+        }
+    }
+
+    // In-place migration of an existing uploads tree (flat or sharded): each file is either registered as the
+    // blob of its content (no data is copied) or replaced by a link to an identical, already registered
+    // blob. Returns the number of bytes freed.
+    long deduplicate(Path rootLocation) throws IOException {
+        if (!enabled) {
+            logger.warn("Deduplicacion no disponible en este sistema de archivos: {}", rootLocation);
+            return 0;
+        }
+        long freed = 0;
+        int linked = 0;
+        int registered = 0;
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(rootLocation, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // .blobs, .incoming, .chunked and the like hold no stored files
+                boolean hidden = !dir.equals(rootLocation) && dir.getFileName().toString().startsWith(".");
+                return hidden ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // empty files are names reserved by uploads still in flight
+                if (attrs.isRegularFile() && attrs.size() > 0) files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Path file : files) {
+            if (linkCount(file) > 1) continue; // already a link (migrated before)
+            long size = Files.size(file);
+            Path blob = blobPath(sha256(file));
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, file);
+                registered++;
+            } catch (FileAlreadyExistsException ex) {
+                // same content already registered: swap this copy for a link to it
+                Path link = file.resolveSibling(file.getFileName() + ".link");
+                try {
+                    Files.createLink(link, blob);
+                    moveIntoPlace(link, file);
+                    freed += size;
+                    linked++;
+                } finally {
+                    Files.deleteIfExists(link);
+                }
+            }
+        }
+        logger.info("Deduplicacion terminada: {} blobs registrados, {} archivos enlazados, {} bytes liberados", registered, linked, freed);
+        return freed;
+    }
+
+    private static int linkCount(Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, "unix:nlink");
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 no disponible", ex);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static void moveIntoPlace(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // probe once at startup: hard links inside the root and the unix:nlink attribute
+    private static boolean supportsLinks(Path rootLocation) {
+        if (!rootLocation.getFileSystem().supportedFileAttributeViews().contains("unix")) return false;
+        Path probe = null;
+        Path link = null;
+        try {
+            probe = Files.createTempFile(rootLocation, ".linkprobe", ".tmp");
+            link = probe.resolveSibling(probe.getFileName() + ".link");
+            Files.createLink(link, probe);
+            return linkCount(probe) == 2;
+        } catch (IOException | UnsupportedOperationException ex) {
+            return false;
+        } finally {
+            try {
+                if (link != null) Files.deleteIfExists(link);
+                if (probe != null) Files.deleteIfExists(probe);
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+}
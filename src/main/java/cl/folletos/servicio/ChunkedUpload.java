@@ -0,0 +1,37 @@
+package cl.folletos.servicio;
+
+import java.nio.file.Path;
+
+// State of a resumable upload: the declared total length and how many bytes the staging file holds
+public class ChunkedUpload {
+
+    private final String id;
+    private final String filename; // original name sent by the client
+    private final long length;
+    private final long offset;
+    private final String owner;
+    private final Path staging;
+
+    public ChunkedUpload(String id, String filename, long length, long offset, String owner, Path staging) {
+        this.id = id;
+        this.filename = filename;
+        this.length = length;
+        this.offset = offset;
+        this.owner = owner;
+        this.staging = staging;
+    }
+
+    public String getId() { return id; }
+
+    public String getFilename() { return filename; }
+
+    public long getLength() { return length; }
+
+    public long getOffset() { return offset; }
+
+    public String getOwner() { return owner; }
+
+    public Path getStaging() { return staging; }
+
+    public boolean isComplete() { return offset == length; }
+}
@@ -0,0 +1,186 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Resumable uploads in the style of tus: the client declares the total length, then appends chunks at
+// the offset the server reports, each one a short request written straight to a staging file under
+// <storage root>/.chunked. The staging file's size is the offset, so uploads survive restarts. Once
+// complete, the file is handed to FileStorageService like any other upload. Abandoned sessions expire.
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private static final Pattern ID = Pattern.compile("[0-9a-f]{32}");
+
+    private final Path stagingDir;
+    private final long maxTotalBytes;
+    private final long maxChunkBytes;
+    private final Duration expireAfter;
+
+    // one appender per upload at a time; a retried chunk racing its timed-out original must not interleave
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    private final FileStorageService storageService;
+
+    public ChunkedUploadService(FileStorageService storageService,
+                                @Value("${file.storage.location:./uploads}") String location,
+                                @Value("${file.upload.chunked.max-size-bytes:524288000}") long maxTotalBytes,
+                                @Value("${file.upload.chunked.max-chunk-bytes:8388608}") long maxChunkBytes,
+                                @Value("${file.upload.chunked.expire-hours:24}") long expireHours) throws IOException {
+        this.storageService = storageService;
+        this.stagingDir = Paths.get(location).toAbsolutePath().normalize().resolve(".chunked");
+        Files.createDirectories(this.stagingDir);
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxChunkBytes = maxChunkBytes;
+        this.expireAfter = Duration.ofHours(expireHours);
+    }
+
+    public long getMaxTotalBytes() { return maxTotalBytes; }
+
+    public long getMaxChunkBytes() { return maxChunkBytes; }
+
+    public ChunkedUpload create(String filename, long length, String owner) throws IOException {
+        if (length <= 0) throw new IOException("Longitud de archivo invalida: " + length);
+        if (length > maxTotalBytes) throw new TooLargeException("El archivo excede el tamaño máximo permitido: " + length);
+        removeExpired();
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Properties meta = new Properties();
+        meta.setProperty("filename", filename == null || filename.isBlank() ? "file" : filename);
+        meta.setProperty("length", String.valueOf(length));
+        meta.setProperty("owner", owner == null ? "" : owner);
+        try (OutputStream out = Files.newOutputStream(metaPath(id))) {
+            meta.store(out, null);
+        }
+        Files.createFile(dataPath(id));
+        return get(id);
+    }
+
+    // null when the id is unknown, malformed or expired
+    public ChunkedUpload get(String id) throws IOException {
+        if (id == null || !ID.matcher(id).matches()) return null;
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(metaPath(id))) {
+            meta.load(in);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        Path data = dataPath(id);
+        long offset;
+        try {
+            offset = Files.size(data);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        return new ChunkedUpload(id, meta.getProperty("filename"), Long.parseLong(meta.getProperty("length")),
+                offset, meta.getProperty("owner"), data);
+    }
+
+    // Appends the body at offset (which must equal the bytes already received) and returns the new offset.
+    // Whatever arrived before a dropped connection is kept, so the client resumes from the reported offset.
+    public long append(String id, long offset, InputStream body) throws IOException {
+        synchronized (locks.computeIfAbsent(id, k -> new Object())) {
+            ChunkedUpload upload = get(id);
+            if (upload == null) throw new NoSuchFileException(id);
+            if (offset != upload.getOffset()) throw new OffsetMismatchException(upload.getOffset());
+            long limit = Math.min(maxChunkBytes, upload.getLength() - offset);
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(upload.getStaging(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    if (written + read > limit) {
+                        // keep what fits; the client learns the real offset from the error / next HEAD
+                        channel.write(ByteBuffer.wrap(buffer, 0, (int) (limit - written)));
+                        throw new TooLargeException("El fragmento excede el tamaño permitido: " + limit);
+                    }
+                    channel.write(ByteBuffer.wrap(buffer, 0, read));
+                    written += read;
+                }
+            }
+            return offset + written;
+        }
+    }
+
+    // Moves a complete upload into the owner's directory through the regular store path and drops the session
+    public StoredFile finish(String id, StorageArea area, Long ownerId, String desiredFilename, String prefix) throws IOException {
+        ChunkedUpload upload = get(id);
+        if (upload == null) throw new NoSuchFileException("Carga no encontrada: " + id);
+        if (!upload.isComplete()) {
+            throw new IOException("Carga incompleta: " + upload.getOffset() + " de " + upload.getLength() + " bytes");
+        }
+        StoredFile stored;
+        try (InputStream in = Files.newInputStream(upload.getStaging())) {
+            stored = storageService.store(area, ownerId, in, upload.getFilename(), desiredFilename, prefix, null, maxTotalBytes);
+        }
+        discard(id);
+        return stored;
+    }
+
+    public void discard(String id) throws IOException {
+        if (id == null || !ID.matcher(id).matches()) return;
+        Files.deleteIfExists(dataPath(id));
+        Files.deleteIfExists(metaPath(id));
+        locks.remove(id);
+    }
+
+    // sessions untouched for longer than expire-hours (checked lazily when a new one is created)
+    private void removeExpired() {
+        long cutoff = System.currentTimeMillis() - expireAfter.toMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingDir, "*.bin")) {
+            for (Path data : files) {
+                if (Files.getLastModifiedTime(data).toMillis() >= cutoff) continue;
+                String name = data.getFileName().toString();
+                discard(name.substring(0, name.length() - ".bin".length()));
+            }
+        } catch (IOException ex) {
+            logger.warn("No se pudieron limpiar cargas expiradas: {}", ex.getMessage());
+        }
+    }
+
+    private Path dataPath(String id) {
+        return stagingDir.resolve(id + ".bin");
+    }
+
+    private Path metaPath(String id) {
+        return stagingDir.resolve(id + ".properties");
+    }
+
+    // client sent a chunk for the wrong offset; currentOffset is where it must resume
+    public static class OffsetMismatchException extends IOException {
+        private final long currentOffset;
+
+        public OffsetMismatchException(long currentOffset) {
+            super("Offset no coincide, esperado " + currentOffset);
+            this.currentOffset = currentOffset;
+        }
+
+        public long getCurrentOffset() { return currentOffset; }
+    }
+
+    public static class TooLargeException extends IOException {
+        public TooLargeException(String message) {
+            super(message);
+        }
+    }
+}
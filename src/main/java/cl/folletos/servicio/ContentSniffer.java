@@ -0,0 +1,67 @@
+package cl.folletos.servicio;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Detects the MIME type of stored media from its first bytes (magic numbers), with the
+// file extension as a last resort. Only the formats this application accepts are recognised.
+public final class ContentSniffer {
+
+    // enough to cover every signature below (RIFF/ftyp brands sit at offset 8)
+    public static final int HEAD_BYTES = 16;
+
+    private ContentSniffer() {}
+
+    public static String sniff(byte[] head, int len) {
+        if (head == null || len < 4) return null;
+        if (startsWith(head, len, "%PDF-")) return "application/pdf";
+        if (u(head[0]) == 0xFF && u(head[1]) == 0xD8 && u(head[2]) == 0xFF) return "image/jpeg";
+        if (u(head[0]) == 0x89 && startsWith(head, len, 1, "PNG")) return "image/png";
+        if (startsWith(head, len, "GIF8")) return "image/gif";
+        if (startsWith(head, len, "RIFF") && startsWith(head, len, 8, "WEBP")) return "image/webp";
+        if (startsWith(head, len, "RIFF") && startsWith(head, len, 8, "WAVE")) return "audio/wav";
+        if (startsWith(head, len, "OggS")) return "audio/ogg";
+        if (startsWith(head, len, "fLaC")) return "audio/flac";
+        if (startsWith(head, len, "ID3")) return "audio/mpeg";
+        if (startsWith(head, len, 4, "ftyp")) {
+            // M4A/M4B brands are audio-only; anything else is an MPEG-4 container
+            if (startsWith(head, len, 8, "M4A") || startsWith(head, len, 8, "M4B")) return "audio/mp4";
+            return "video/mp4";
+        }
+        if (u(head[0]) == 0xFF && (u(head[1]) & 0xF6) == 0xF0) return "audio/aac"; // ADTS
+        if (u(head[0]) == 0xFF && (u(head[1]) & 0xE0) == 0xE0) return "audio/mpeg"; // MPEG audio frame sync
+        return null;
+    }
+
+    public static String fromExtension(String filename) {
+        if (filename == null) return "application/octet-stream";
+        String name = filename.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".pdf")) return "application/pdf";
+        if (name.endsWith(".mp3")) return "audio/mpeg";
+        if (name.endsWith(".m4a")) return "audio/mp4";
+        if (name.endsWith(".ogg")) return "audio/ogg";
+        if (name.endsWith(".wav")) return "audio/wav";
+        if (name.endsWith(".aac")) return "audio/aac";
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return "image/jpeg";
+        if (name.endsWith(".png")) return "image/png";
+        if (name.endsWith(".webp")) return "image/webp";
+        return "application/octet-stream";
+    }
+
+    private static boolean startsWith(byte[] head, int len, String magic) {
+        return startsWith(head, len, 0, magic);
+    }
+
+    private static boolean startsWith(byte[] head, int len, int offset, String magic) {
+        byte[] m = magic.getBytes(StandardCharsets.US_ASCII);
+        if (len < offset + m.length) return false;
+        for (int i = 0; i < m.length; i++) {
+            if (head[offset + i] != m[i]) return false;
+        }
+        return true;
+    }
+
+    private static int u(byte b) {
+        return b & 0xFF;
+    }
+}
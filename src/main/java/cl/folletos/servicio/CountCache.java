@@ -0,0 +1,42 @@
+package cl.folletos.servicio;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Row totals of the paginated lists, counted apart from the pages and kept for
+// catalog.count-cache-seconds. The services drop a list's totals when they save or delete a row;
+// writes that bypass them (imports) show up when the entry expires.
+@Service
+public class CountCache {
+
+    private final long ttlMs;
+    // key -> {count, expiresAt}
+    private final Map<String, long[]> counts = new ConcurrentHashMap<>();
+    // bumped on every invalidation; a count taken before a bump is returned but not kept
+    private final AtomicLong generation = new AtomicLong();
+
+    public CountCache(@Value("${catalog.count-cache-seconds:300}") long ttlSeconds) {
+        this.ttlMs = Math.max(0, ttlSeconds) * 1000;
+    }
+
+    public long get(String key, LongSupplier count) {
+        long now = System.currentTimeMillis();
+        long[] cached = counts.get(key);
+        if (cached != null && cached[1] > now) return cached[0];
+        long before = generation.get();
+        long value = count.getAsLong();
+        if (generation.get() == before) counts.put(key, new long[] {value, now + ttlMs});
+        return value;
+    }
+
+    // Drops every total whose key starts with prefix
+    public void invalidate(String prefix) {
+        generation.incrementAndGet();
+        counts.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+}
@@ -0,0 +1,298 @@
+package cl.folletos.servicio;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+// Fixed-width JPEG variants of cover images, written next to the original as "<cover>@w<width>.jpg"
+// (a loose file beside a loose cover, an object with that key beside a cover kept in a StorageBackend).
+// Re-encoding through ImageIO drops EXIF/ICC metadata; sources are never upscaled and images above
+// max-source-pixels are refused before decoding. Work runs on a small daemon pool: eagerly when a cover
+// is stored, lazily the first time a variant of an older cover is asked for.
+@Service
+public class CoverDerivativeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverDerivativeService.class);
+
+    static final String VARIANT_MARKER = "@w";
+
+    private final int[] widths;
+    private final long maxSourcePixels;
+    private final float jpegQuality;
+    private final ThreadPoolExecutor workers;
+    // covers with a generation queued or running, so repeated lazy requests do not pile up
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // cover -> mtime it had when its variants were last generated; a variant still missing after that
+    // (source narrower than the width, unreadable format) is not retried until the cover changes
+    private final Map<String, Long> generatedAt = new ConcurrentHashMap<>();
+
+    public CoverDerivativeService(@Value("${file.cover.variant-widths:160,320,640}") int[] widths,
+                                  @Value("${file.cover.max-source-pixels:40000000}") long maxSourcePixels,
+                                  @Value("${file.cover.jpeg-quality:0.82}") float jpegQuality,
+                                  @Value("${file.cover.worker-threads:2}") int workerThreads) {
+        this.widths = Arrays.stream(widths).filter(w -> w > 0).sorted().distinct().toArray();
+        this.maxSourcePixels = maxSourcePixels;
+        this.jpegQuality = jpegQuality;
+        AtomicInteger n = new AtomicInteger();
+        int threads = Math.max(1, workerThreads);
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(256), r -> {
+            Thread t = new Thread(r, "cover-variants-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    public static boolean isVariant(String filename) {
+        return filename != null && filename.contains(VARIANT_MARKER);
+    }
+
+    public static String variantName(String coverFilename, int width) {
+        return coverFilename + VARIANT_MARKER + width + ".jpg";
+    }
+
+    // Smallest configured width that still covers the requested one (the largest when none does); 0 if none configured
+    public int nearestWidth(int requested) {
+        if (widths.length == 0) return 0;
+        for (int w : widths) {
+            if (w >= requested) return w;
+        }
+        return widths[widths.length - 1];
+    }
+
+    // Path of the variant when it already exists; otherwise queues its generation and returns null so the
+    // caller serves the original this time
+    public Path variant(Path cover, int width) {
+        Path variant = cover.resolveSibling(variantName(cover.getFileName().toString(), width));
+        if (Files.isRegularFile(variant)) return variant;
+        try {
+            Long done = generatedAt.get(cover.toString());
+            if (done != null && done == Files.getLastModifiedTime(cover).toMillis()) return null;
+        } catch (IOException ex) {
+            return null; // cover gone
+        }
+        schedule(cover);
+        return null;
+    }
+
+    // Same for a cover kept as an object of a backend: key of the variant object, or null
+    public String variant(StorageBackend store, String coverKey, int width) {
+        String variantKey = variantName(coverKey, width);
+        try {
+            if (store.stat(variantKey) != null) return variantKey;
+            StorageObject cover = store.stat(coverKey);
+            if (cover == null) return null;
+            Long done = generatedAt.get(coverKey);
+            if (done != null && done == cover.getLastModified()) return null;
+        } catch (IOException ex) {
+            return null;
+        }
+        schedule(store, coverKey);
+        return null;
+    }
+
+    public void schedule(Path cover) {
+        if (cover == null) return;
+        submit(cover.toString(), () -> generate(cover));
+    }
+
+    public void schedule(StorageBackend store, String coverKey) {
+        if (store == null || coverKey == null) return;
+        submit(coverKey, () -> generate(store, coverKey));
+    }
+
+    private interface Generation {
+        int run() throws IOException;
+    }
+
+    private void submit(String cover, Generation generation) {
+        if (widths.length == 0 || !pending.add(cover)) return;
+        try {
+            workers.execute(() -> {
+                try {
+                    generation.run();
+                } catch (IOException | RuntimeException ex) {
+                    logger.warn("No se pudieron generar variantes de {}: {}", cover, ex.getMessage());
+                } finally {
+                    pending.remove(cover);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // queue full or shutting down: the next request for a variant of this cover tries again
+            pending.remove(cover);
+        }
+    }
+
+    // Writes every configured variant narrower than the source; returns how many were written
+    int generate(Path cover) throws IOException {
+        if (!Files.isRegularFile(cover)) return 0;
+        long coverModified = Files.getLastModifiedTime(cover).toMillis();
+        BufferedImage source;
+        try (ImageInputStream in = ImageIO.createImageInputStream(cover.toFile())) {
+            source = readBounded(in, cover.toString());
+        }
+        if (source == null) {
+            generatedAt.put(cover.toString(), coverModified);
+            return 0;
+        }
+        int written = 0;
+        for (int w : widths) {
+            if (w >= source.getWidth()) break; // never upscale: the original already serves this size
+            Path target = cover.resolveSibling(variantName(cover.getFileName().toString(), w));
+            if (Files.isRegularFile(target) && Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(cover)) >= 0) continue;
+            int h = Math.max(1, (int) Math.round((double) source.getHeight() * w / source.getWidth()));
+            writeJpeg(scale(source, w, h), target);
+            written++;
+        }
+        generatedAt.put(cover.toString(), coverModified);
+        return written;
+    }
+
+    int generate(StorageBackend store, String coverKey) throws IOException {
+        StorageObject cover = store.stat(coverKey);
+        if (cover == null) return 0;
+        BufferedImage source;
+        try (InputStream content = store.openRange(coverKey, 0, cover.getSize());
+             ImageInputStream in = new MemoryCacheImageInputStream(content)) {
+            source = readBounded(in, coverKey);
+        }
+        if (source == null) {
+            generatedAt.put(coverKey, cover.getLastModified());
+            return 0;
+        }
+        int written = 0;
+        for (int w : widths) {
+            if (w >= source.getWidth()) break;
+            String variantKey = variantName(coverKey, w);
+            StorageObject existing = store.stat(variantKey);
+            if (existing != null && existing.getLastModified() >= cover.getLastModified()) continue;
+            int h = Math.max(1, (int) Math.round((double) source.getHeight() * w / source.getWidth()));
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            encodeJpeg(scale(source, w, h), jpeg);
+            store.put(variantKey, new ByteArrayInputStream(jpeg.toByteArray()), jpeg.size(), "image/jpeg");
+            written++;
+        }
+        generatedAt.put(coverKey, cover.getLastModified());
+        return written;
+    }
+
+    // Decodes the image only after checking its header dimensions against the pixel budget
+    private BufferedImage readBounded(ImageInputStream in, String cover) throws IOException {
+        if (in == null) return null;
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) return null; // e.g. WebP: no reader in the JDK, the original is served
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true); // ignore metadata
+            long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+            if (pixels > maxSourcePixels) {
+                logger.warn("Portada {} demasiado grande para variantes ({} px)", cover, pixels);
+                return null;
+            }
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    // Halves the image while it is more than twice the target, then one bilinear step (close to area averaging)
+    private static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        do {
+            if (w / 2 >= width * 2) {
+                w = w / 2;
+                h = Math.max(1, h / 2);
+            } else {
+                w = width;
+                h = height;
+            }
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(Color.WHITE); // transparent PNG areas become white in the JPEG
+                g.fillRect(0, 0, w, h);
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    // Written to a temp file and moved into place so a request never sees a half-written variant
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), ".variant", ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                encodeJpeg(image, os);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void encodeJpeg(BufferedImage image, OutputStream os) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(os)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
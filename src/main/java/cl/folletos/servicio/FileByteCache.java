@@ -0,0 +1,141 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Off-heap copy of the bytes that decide perceived latency: small images (covers) in full, and the
+// head segment of audio/PDF files, so play start and first-page rendering never wait on a cold disk
+// (or, with a remote StorageBackend, on a round trip to the bucket). It saves the read, not the copy:
+// the servlet stream still copies the bytes into its own heap buffer on the way out, which is why
+// FileServingService only uses it for ranges that end inside the head and sends longer ones by sendfile.
+// Entries are keyed by path + ETag, so a rewritten file simply misses and its old entry ages out.
+// Eviction is LRU under a fixed byte budget; direct buffers are released once the GC drops them.
+@Service
+public class FileByteCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileByteCache.class);
+
+    private final long budgetBytes;
+    private final int headBytes;
+    private final long wholeFileMaxBytes;
+
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FileByteCache(@Value("${file.serving.byte-cache-budget-bytes:67108864}") long budgetBytes,
+                         @Value("${file.serving.byte-cache-head-bytes:262144}") int headBytes,
+                         @Value("${file.serving.byte-cache-whole-max-bytes:524288}") long wholeFileMaxBytes) {
+        this.budgetBytes = budgetBytes;
+        this.headBytes = headBytes;
+        this.wholeFileMaxBytes = wholeFileMaxBytes;
+    }
+
+    // Cached leading bytes of the file (read-only, position 0), loading them on first use; null when the
+    // file is not eligible or does not fit the budget. The buffer may be shorter than the file.
+    public ByteBuffer head(ServedFile file) {
+        int segment = segmentLength(file);
+        if (segment <= 0) return null;
+        String key = file.getLocation() + "|" + file.getEtag();
+        synchronized (entries) {
+            ByteBuffer cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached.duplicate();
+            }
+        }
+        misses.increment();
+
+        // read outside the lock; two concurrent misses may both load, the second put just replaces the first
+        ByteBuffer loaded;
+        try {
+            loaded = load(file, segment);
+        } catch (IOException ex) {
+            logger.debug("No se pudo cargar en cache {}: {}", file.getLocation(), ex.getMessage());
+            return null;
+        }
+        if (loaded == null) return null;
+        synchronized (entries) {
+            ByteBuffer previous = entries.put(key, loaded);
+            if (previous != null) usedBytes -= previous.capacity();
+            usedBytes += loaded.capacity();
+            var it = entries.entrySet().iterator();
+            while (usedBytes > budgetBytes && it.hasNext()) {
+                Map.Entry<String, ByteBuffer> eldest = it.next();
+                usedBytes -= eldest.getValue().capacity();
+                it.remove();
+                evictions.increment();
+            }
+            // the new entry itself may have been evicted if it alone exceeds the budget
+            return entries.containsKey(key) ? loaded.duplicate() : null;
+        }
+    }
+
+    // images small enough are kept whole, audio and PDFs only up to headBytes; everything else bypasses
+    int segmentLength(ServedFile file) {
+        if (file.getEtag() == null || file.getLength() <= 0 || budgetBytes <= 0) return 0;
+        String type = file.getContentType() == null ? "" : file.getContentType();
+        if (type.startsWith("image/")) {
+            return file.getLength() <= wholeFileMaxBytes ? (int) file.getLength() : 0;
+        }
+        if (type.startsWith("audio/") || type.equals("application/pdf")) {
+            return (int) Math.min(file.getLength(), headBytes);
+        }
+        return 0;
+    }
+
+    // objects of a remote backend are fetched with one ranged read
+    private static ByteBuffer load(ServedFile file, int segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(segment);
+        if (file.getPath() == null) {
+            try (ReadableByteChannel channel = Channels.newChannel(file.getBackend().openRange(file.getKey(), 0, segment))) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) return null;
+                }
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, buffer.position()) < 0) return null; // shorter than recorded: stale row
+                }
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            usedBytes = 0;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("usedBytes", usedBytes);
+        }
+        stats.put("budgetBytes", budgetBytes);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+}
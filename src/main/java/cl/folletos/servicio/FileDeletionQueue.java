@@ -0,0 +1,229 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.FileTombstone;
+import cl.folletos.repositorio.FileTombstoneRepositorio;
+import jakarta.annotation.PreDestroy;
+
+// Deleting a folleto or album removes its rows at once and leaves a FileTombstone per stored file, in
+// the same transaction; a background worker then deletes the files in batches and retries failures
+// with a growing delay. Before deleting, the worker checks the rows again, the last time under the
+// name's lock in FileStorageService right before the unlink, so a name stored again meanwhile is kept. A periodic reconciliation sweep tombstones files under the storage root that no
+// row references (left by crashes or by deletes from before this queue) once they are old enough not
+// to be an upload whose row is still being written.
+@Service
+public class FileDeletionQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDeletionQueue.class);
+
+    private final FileTombstoneRepositorio tombstones;
+    private final FileStorageService storage;
+    private final StoredFileReferences references;
+    private final TransactionOperations transactions;
+    private final int batchSize;
+    private final long retryBaseMs;
+    private final long retryMaxMs;
+    private final long pollSeconds;
+    private final long sweepIntervalHours;
+    private final long sweepMinAgeMs;
+    // one thread: drains and sweeps never overlap
+    private final ScheduledThreadPoolExecutor worker;
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+
+    public FileDeletionQueue(FileTombstoneRepositorio tombstones, FileStorageService storage,
+                             StoredFileReferences references, TransactionOperations transactions,
+                             @Value("${file.deletion.batch-size:100}") int batchSize,
+                             @Value("${file.deletion.retry-base-seconds:30}") long retryBaseSeconds,
+                             @Value("${file.deletion.retry-max-seconds:3600}") long retryMaxSeconds,
+                             @Value("${file.deletion.poll-seconds:60}") long pollSeconds,
+                             @Value("${file.deletion.sweep-interval-hours:24}") long sweepIntervalHours,
+                             @Value("${file.deletion.sweep-min-age-hours:24}") long sweepMinAgeHours) {
+        this.tombstones = tombstones;
+        this.storage = storage;
+        this.references = references;
+        this.transactions = transactions;
+        this.batchSize = Math.max(1, batchSize);
+        this.retryBaseMs = Math.max(1, retryBaseSeconds) * 1000;
+        this.retryMaxMs = Math.max(retryBaseSeconds, retryMaxSeconds) * 1000;
+        this.pollSeconds = Math.max(1, pollSeconds);
+        this.sweepIntervalHours = sweepIntervalHours;
+        this.sweepMinAgeMs = Math.max(0, sweepMinAgeHours) * 3_600_000;
+        this.worker = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "file-deletion");
+            t.setDaemon(true);
+            return t;
+        });
+        this.worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    // Tombstones left by a previous process are picked up by the first poll
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        worker.scheduleWithFixedDelay(this::drainQuietly, 0, pollSeconds, TimeUnit.SECONDS);
+        if (sweepIntervalHours > 0) {
+            worker.scheduleWithFixedDelay(this::sweepQuietly, sweepIntervalHours, sweepIntervalHours, TimeUnit.HOURS);
+        }
+    }
+
+    // Runs rowChanges (the deletes/updates of the rows) and tombstones the given files of entity <id>
+    // in one transaction, then wakes the worker. Names that are not stored files (null, URLs) are skipped.
+    public void deleteWithFiles(StorageArea area, Long id, Collection<String> filenames, Runnable rowChanges) {
+        long now = System.currentTimeMillis();
+        List<FileTombstone> rows = new ArrayList<>();
+        for (String filename : filenames) {
+            if (filename == null || filename.isBlank() || filename.contains("/") || filename.contains("\\")) continue;
+            rows.add(tombstone(area, id, filename, now));
+        }
+        transactions.executeWithoutResult(status -> {
+            rowChanges.run();
+            tombstones.saveAll(rows);
+        });
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        if (!drainQueued.compareAndSet(false, true)) return;
+        try {
+            worker.execute(() -> {
+                drainQueued.set(false);
+                drainQuietly();
+            });
+        } catch (RuntimeException ex) {
+            drainQueued.set(false); // shutting down: the next start polls them
+        }
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (Exception ex) {
+            logger.error("Error borrando archivos pendientes: {}", ex.getMessage(), ex);
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (Exception ex) {
+            logger.error("Error en la reconciliacion de archivos: {}", ex.getMessage(), ex);
+        }
+    }
+
+    // Deletes the files of every due tombstone, a batch at a time; returns the number deleted
+    int drain() {
+        int deleted = 0;
+        while (true) {
+            long now = System.currentTimeMillis();
+            List<FileTombstone> due = tombstones.findByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(now, PageRequest.of(0, batchSize));
+            if (due.isEmpty()) return deleted;
+            Map<String, Set<String>> live = new HashMap<>();
+            List<FileTombstone> finished = new ArrayList<>();
+            List<FileTombstone> retry = new ArrayList<>();
+            for (FileTombstone t : due) {
+                StorageArea area = StorageArea.valueOf(t.getArea());
+                Set<String> names = live.computeIfAbsent(t.getArea() + "/" + t.getEntityId(),
+                        k -> references.filenames(area, t.getEntityId()));
+                String owner = StoredFileReferences.owner(t.getFilename());
+                if (names.contains(owner)) {
+                    finished.add(t); // stored again under the same name since
+                    continue;
+                }
+                try {
+                    // the batch's snapshot may be stale by now: ask again under the name's lock, which a
+                    // store to that name also takes, right before the unlink
+                    if (storage.deleteFileIf(area, t.getEntityId(), t.getFilename(),
+                            () -> !references.filenames(area, t.getEntityId()).contains(owner))) {
+                        deleted++;
+                    }
+                    finished.add(t);
+                } catch (IOException | RuntimeException ex) {
+                    int attempts = t.getAttempts() == null ? 1 : t.getAttempts() + 1;
+                    t.setAttempts(attempts);
+                    t.setNextAttemptAt(now + retryDelay(attempts));
+                    t.setLastError(truncate(ex.getClass().getSimpleName() + ": " + ex.getMessage()));
+                    retry.add(t);
+                    logger.warn("No se pudo borrar {}/{}/{} (intento {}): {}", area, t.getEntityId(), t.getFilename(),
+                            attempts, ex.getMessage());
+                }
+            }
+            tombstones.deleteAllInBatch(finished);
+            tombstones.saveAll(retry);
+            if (due.size() < batchSize) return deleted;
+        }
+    }
+
+    // 1x, 2x, 4x... the base delay, capped
+    long retryDelay(int attempts) {
+        long delay = retryBaseMs << Math.min(attempts - 1, 20);
+        return Math.min(delay, retryMaxMs);
+    }
+
+    // Tombstones the files no row references and deletes them; returns the number tombstoned
+    int sweep() throws IOException {
+        long now = System.currentTimeMillis();
+        long cutoff = now - sweepMinAgeMs;
+        int found = 0;
+        for (StorageArea area : StorageArea.values()) {
+            Map<Long, List<StorageObject>> files = storage.listAreaFiles(area);
+            for (Map.Entry<Long, List<StorageObject>> entry : files.entrySet()) {
+                Long id = entry.getKey();
+                Set<String> names = null;
+                List<FileTombstone> rows = new ArrayList<>();
+                for (StorageObject object : entry.getValue()) {
+                    if (object.getLastModified() > cutoff) continue;
+                    if (names == null) names = references.filenames(area, id);
+                    String filename = object.getKey().substring(object.getKey().lastIndexOf('/') + 1);
+                    if (names.contains(StoredFileReferences.owner(filename))) continue;
+                    if (tombstones.existsByAreaAndEntityIdAndFilename(area.name(), id, filename)) continue;
+                    rows.add(tombstone(area, id, filename, now));
+                }
+                if (!rows.isEmpty()) {
+                    tombstones.saveAll(rows);
+                    found += rows.size();
+                }
+            }
+        }
+        if (found > 0) logger.info("Reconciliacion: {} archivos sin referencias marcados para borrar", found);
+        drain();
+        return found;
+    }
+
+    private static FileTombstone tombstone(StorageArea area, Long id, String filename, long now) {
+        FileTombstone t = new FileTombstone();
+        t.setArea(area.name());
+        t.setEntityId(id);
+        t.setFilename(filename);
+        t.setAttempts(0);
+        t.setNextAttemptAt(now);
+        t.setCreatedAt(now);
+        return t;
+    }
+
+    private static String truncate(String s) {
+        return s == null || s.length() <= 500 ? s : s.substring(0, 500);
+    }
+}
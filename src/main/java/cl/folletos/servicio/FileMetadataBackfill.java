@@ -0,0 +1,124 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+import cl.folletos.repositorio.AudioTrackRepositorio;
+import cl.folletos.repositorio.FolletoFileRepositorio;
+import cl.folletos.repositorio.FolletoRepositorio;
+
+// Populates size/contentType/sha256/etag/lastModified for rows stored before those columns existed,
+// and creates the "cover" FolletoFile rows for legacy covers. Safe to run repeatedly: only rows with
+// no sha256 are visited, each at most once per run. A row whose file is missing gets missingSince, so
+// it is not probed again on every startup (storing the file again clears it).
+@Service
+public class FileMetadataBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileMetadataBackfill.class);
+
+    @Autowired
+    private FileStorageService storageService;
+
+    @Autowired
+    private FolletoRepositorio folletoRepo;
+
+    @Autowired
+    private FolletoFileRepositorio fileRepo;
+
+    @Autowired
+    private AudioTrackRepositorio trackRepo;
+
+    public int backfill() {
+        int updated = backfillCovers() + backfillFolletoFiles() + backfillTracks();
+        logger.info("Backfill de metadatos terminado: {} filas actualizadas", updated);
+        return updated;
+    }
+
+    int backfillCovers() {
+        int created = 0;
+        for (Folleto f : folletoRepo.findWithCoverButNoCoverFile()) {
+            try {
+                StoredFile stored = storageService.inspect(f.getId(), f.getCoverFilename());
+                FolletoFile ff = new FolletoFile();
+                ff.setOriginalName(f.getCoverFilename());
+                ff.setFilename(f.getCoverFilename());
+                ff.setType("cover");
+                ff.setFolleto(f);
+                // a missing cover still gets its (hidden) row, marked, so the folleto leaves this query
+                if (stored == null) {
+                    markMissing(ff);
+                } else {
+                    stored.applyTo(ff);
+                    created++;
+                }
+                fileRepo.save(ff);
+            } catch (IOException ex) {
+                logger.warn("Backfill: no se pudo leer la portada {} del folleto {}: {}", f.getCoverFilename(), f.getId(), ex.getMessage());
+            }
+        }
+        return created;
+    }
+
+    int backfillFolletoFiles() {
+        int updated = 0;
+        long lastId = 0;
+        List<FolletoFile> batch;
+        while (!(batch = fileRepo.findTop200BySha256IsNullAndMissingSinceIsNullAndIdGreaterThanOrderByIdAsc(lastId)).isEmpty()) {
+            for (FolletoFile ff : batch) {
+                lastId = ff.getId();
+                try {
+                    StoredFile stored = storageService.inspect(ff.getFolleto().getId(), ff.getFilename());
+                    if (stored == null) {
+                        markMissing(ff);
+                        continue;
+                    }
+                    stored.applyTo(ff);
+                    updated++;
+                } catch (IOException ex) {
+                    logger.warn("Backfill: error leyendo archivo {} (id={}): {}", ff.getFilename(), ff.getId(), ex.getMessage());
+                }
+            }
+            fileRepo.saveAll(batch);
+        }
+        return updated;
+    }
+
+    int backfillTracks() {
+        int updated = 0;
+        long lastId = 0;
+        List<AudioTrack> batch;
+        while (!(batch = trackRepo.findTop200BySha256IsNullAndMissingSinceIsNullAndIdGreaterThanOrderByIdAsc(lastId)).isEmpty()) {
+            for (AudioTrack t : batch) {
+                lastId = t.getId();
+                if (t.getMusica() == null || t.getFilename() == null) continue;
+                try {
+                    StoredFile stored = storageService.inspect(StorageArea.MUSICA, t.getMusica().getId(), t.getFilename());
+                    if (stored == null) {
+                        logger.warn("Backfill: falta la pista {} (id={}); no se volvera a revisar", t.getFilename(), t.getId());
+                        t.setMissingSince(System.currentTimeMillis());
+                        continue;
+                    }
+                    stored.applyTo(t);
+                    updated++;
+                } catch (IOException ex) {
+                    logger.warn("Backfill: error leyendo pista {} (id={}): {}", t.getFilename(), t.getId(), ex.getMessage());
+                }
+            }
+            trackRepo.saveAll(batch);
+        }
+        return updated;
+    }
+
+    private void markMissing(FolletoFile ff) {
+        logger.warn("Backfill: falta el archivo {} del folleto {}; no se volvera a revisar", ff.getFilename(), ff.getFolleto().getId());
+        ff.setMissingSince(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,339 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+// Shared engine used by /files/** and /musica/files/** to send whole files, byte ranges and
+// multi-range (multipart/byteranges) responses, honouring conditional requests (ETag/Last-Modified).
+// Regions of at least sendfileMinBytes go out through Tomcat sendfile when the connector supports it,
+// which is the only path without user-space copies. Otherwise (small regions, multipart responses,
+// sendfile off) FileChannel.transferTo writes into Channels.newChannel(servletOutputStream), which
+// copies through a heap buffer and the servlet stream's own buffer; that still beats the old
+// skip + InputStreamResource path (see FileServingBenchmarkTest). Short regions lying inside a head kept
+// by FileByteCache are written from that copy without touching the disk. Files of a remote
+// StorageBackend are streamed from a ranged read of the object.
+@Service
+public class FileServingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileServingService.class);
+
+    // Request attributes understood by Tomcat's NIO/NIO2 connectors (see org.apache.coyote.Constants)
+    static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // below this size a plain transferTo is cheaper than handing the socket to the poller
+    private final long sendfileMinBytes;
+    // ranges separated by at most this many bytes are sent as one part (less framing, fewer seeks)
+    private final long rangeMergeGapBytes;
+    // more parts than this after merging and the Range header is ignored (whole file is sent)
+    private final int maxRanges;
+    // 0 = browsers must revalidate every time (cheap 304s); otherwise files may be reused for this long
+    private final long cacheMaxAgeSeconds;
+
+    // hot heads of audio/PDF files and whole small covers; null = always read from disk
+    private final FileByteCache byteCache;
+
+    @Autowired
+    public FileServingService(@Value("${file.serving.sendfile-min-bytes:49152}") long sendfileMinBytes,
+                              @Value("${file.serving.range-merge-gap-bytes:8192}") long rangeMergeGapBytes,
+                              @Value("${file.serving.max-ranges:64}") int maxRanges,
+                              @Value("${file.serving.cache-max-age-seconds:0}") long cacheMaxAgeSeconds,
+                              FileByteCache byteCache) {
+        this.sendfileMinBytes = sendfileMinBytes;
+        this.rangeMergeGapBytes = rangeMergeGapBytes;
+        this.maxRanges = maxRanges;
+        this.cacheMaxAgeSeconds = cacheMaxAgeSeconds;
+        this.byteCache = byteCache;
+    }
+
+    public FileServingService(long sendfileMinBytes, long rangeMergeGapBytes, int maxRanges, long cacheMaxAgeSeconds) {
+        this(sendfileMinBytes, rangeMergeGapBytes, maxRanges, cacheMaxAgeSeconds, null);
+    }
+
+    public void serve(HttpServletRequest request, HttpServletResponse response, ServedFile file, boolean download) throws IOException {
+        try {
+            doServe(request, response, file, download);
+        } catch (NoSuchFileException ex) {
+            // the row said the file exists but it is gone from disk (deleted by hand, not synced yet)
+            logger.warn("Archivo registrado pero ausente en disco: {}", file.getLocation());
+            if (response.isCommitted()) throw ex;
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    private void doServe(HttpServletRequest request, HttpServletResponse response, ServedFile file, boolean download) throws IOException {
+        long fileLength = file.getLength();
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+
+        // validators go on every answer, 304 included; setting Cache-Control here also stops
+        // Spring Security from adding its default no-store header
+        if (file.getEtag() != null) response.setHeader(HttpHeaders.ETAG, file.getEtag());
+        if (file.getLastModified() > 0) response.setDateHeader(HttpHeaders.LAST_MODIFIED, file.getLastModified());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheMaxAgeSeconds > 0 ? "public, max-age=" + cacheMaxAgeSeconds : "no-cache");
+
+        if (isNotModified(request, file)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(file.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                (download ? "attachment" : "inline") + "; filename=\"" + file.getDownloadName() + "\"");
+
+        // a Range guarded by a stale If-Range is ignored: the client gets the whole, current file
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && !ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), file)) rangeHeader = null;
+
+        List<Region> regions = resolveRanges(rangeHeader, fileLength);
+        if (regions == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentLengthLong(fileLength);
+            if (!head) writeRegion(request, response, file, 0, fileLength);
+            return;
+        }
+        if (regions.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+            response.setContentLengthLong(0);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (regions.size() == 1) {
+            Region r = regions.get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + r.start + "-" + r.end + "/" + fileLength);
+            response.setContentLengthLong(r.length());
+            if (!head) writeRegion(request, response, file, r.start, r.length());
+            return;
+        }
+        writeMultipart(response, file, regions, head);
+    }
+
+    // If-None-Match takes precedence over If-Modified-Since (RFC 9110 13.2.2)
+    boolean isNotModified(HttpServletRequest request, ServedFile file) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (file.getEtag() == null) return false;
+            String current = opaqueTag(file.getEtag());
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if ("*".equals(tag) || opaqueTag(tag).equals(current)) return true; // weak comparison
+            }
+            return false;
+        }
+        if (file.getLastModified() <= 0) return false;
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+        // HTTP dates have second precision
+        return ifModifiedSince >= 0 && file.getLastModified() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    // If-Range holds either a strong ETag or a date; anything else (or a weak tag) never matches
+    boolean ifRangeMatches(String ifRange, ServedFile file) {
+        if (ifRange == null || ifRange.isBlank()) return true;
+        String value = ifRange.trim();
+        if (value.startsWith("W/")) return false;
+        if (value.startsWith("\"")) return file.getEtag() != null && value.equals(file.getEtag());
+        if (file.getLastModified() <= 0) return false;
+        try {
+            long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return file.getLastModified() / 1000 == date / 1000;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    // Parse a Range header against the file length. Returns null when the header is absent, malformed or
+    // asks for too many pieces (serve the whole file), an empty list when nothing is satisfiable (416),
+    // otherwise the sorted regions with overlapping/nearby ones merged.
+    List<Region> resolveRanges(String rangeHeader, long fileLength) {
+        if (rangeHeader == null || rangeHeader.isBlank()) return null;
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException ex) {
+            logger.debug("Ignorando cabecera Range invalida '{}': {}", rangeHeader, ex.getMessage());
+            return null;
+        }
+        if (ranges.isEmpty()) return null;
+
+        List<Region> regions = new ArrayList<>();
+        for (HttpRange r : ranges) {
+            // unsatisfiable pieces (starting past EOF) are skipped, the rest may still be served
+            try {
+                long start = r.getRangeStart(fileLength);
+                long end = r.getRangeEnd(fileLength);
+                if (start < fileLength && start <= end) regions.add(new Region(start, end));
+            } catch (IllegalArgumentException ex) {
+                logger.debug("Rango fuera del archivo ignorado: {}", ex.getMessage());
+            }
+        }
+        if (regions.size() <= 1) return regions;
+
+        regions.sort(Comparator.comparingLong(r -> r.start));
+        List<Region> merged = new ArrayList<>();
+        Region current = regions.get(0);
+        for (int i = 1; i < regions.size(); i++) {
+            Region next = regions.get(i);
+            if (next.start <= current.end + 1 + rangeMergeGapBytes) {
+                current = new Region(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        if (merged.size() > maxRanges) return null;
+        return merged;
+    }
+
+    // multipart/byteranges body (RFC 9110 14.6); the length is computed up front so the response is not chunked
+    private void writeMultipart(HttpServletResponse response, ServedFile file, List<Region> regions, boolean head) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        long fileLength = file.getLength();
+        List<byte[]> partHeaders = new ArrayList<>(regions.size());
+        long contentLength = 0;
+        for (Region r : regions) {
+            String header = "\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + file.getContentType() + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + r.start + "-" + r.end + "/" + fileLength + "\r\n\r\n";
+            byte[] bytes = header.getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(bytes);
+            contentLength += bytes.length + r.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) return;
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer cached = cachedHead(file);
+        for (int i = 0; i < regions.size(); i++) {
+            Region r = regions.get(i);
+            out.write(partHeaders.get(i));
+            copyRegion(file, cached, r.start, r.length(), channel);
+        }
+        out.write(closing);
+    }
+
+    // Copy [start, start + length) of the file into the channel using transferTo (a real zero-copy only when
+    // out is a FileChannel or SocketChannel). Returns the bytes sent, which is less than length only if the
+    // file was truncated underneath us.
+    public long transfer(Path path, long start, long length, WritableByteChannel out) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) break;
+                position += sent;
+                remaining -= sent;
+            }
+            return length - remaining;
+        }
+    }
+
+    private void writeRegion(HttpServletRequest request, HttpServletResponse response, ServedFile file, long start, long length) throws IOException {
+        if (length <= 0) return;
+        ByteBuffer head = cachedHead(file);
+        // only a region that ends inside the cached head is answered from memory: anything longer (a whole
+        // file, "bytes=0-") is cheaper through sendfile than through the servlet stream, and Tomcat discards
+        // body bytes written before it takes over, so the two cannot be mixed in one response
+        boolean endsInMemory = head != null && start + length <= head.limit();
+        if (!endsInMemory && file.getPath() != null && length >= sendfileMinBytes
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            // Tomcat writes the region itself after the servlet returns (kernel sendfile, no user-space copy)
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.getPath().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + length);
+            return;
+        }
+        // do not close: the channel wraps the servlet output stream
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        copyRegion(file, head, start, length, out);
+    }
+
+    private ByteBuffer cachedHead(ServedFile file) {
+        return byteCache == null ? null : byteCache.head(file);
+    }
+
+    // The part of the region covered by the cached head goes out from memory, the rest through transferTo
+    // (or from the backend)
+    private void copyRegion(ServedFile file, ByteBuffer head, long start, long length, WritableByteChannel out) throws IOException {
+        long fromMemory = 0;
+        if (head != null && start < head.limit()) {
+            fromMemory = Math.min(length, head.limit() - start);
+            ByteBuffer slice = head.duplicate();
+            slice.position((int) start).limit((int) (start + fromMemory));
+            while (slice.hasRemaining()) out.write(slice);
+        }
+        if (fromMemory >= length) return;
+        if (file.getPath() != null) {
+            transfer(file.getPath(), start + fromMemory, length - fromMemory, out);
+            return;
+        }
+        try (InputStream in = file.getBackend().openRange(file.getKey(), start + fromMemory, length - fromMemory)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) out.write(chunk);
+            }
+        }
+    }
+
+    // inclusive byte interval of the file
+    static final class Region {
+        final long start;
+        final long end;
+
+        Region(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() { return end - start + 1; }
+    }
+}
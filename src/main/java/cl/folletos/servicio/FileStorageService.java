@@ -1,14 +1,49 @@
 package cl.folletos.servicio;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
@@ -16,11 +51,55 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.annotation.PreDestroy;
+
+// Files of an entity live in uploads/<area>/<shard>/<id>/ (see StorageArea), where shard is two hex
+// digits of a hash of the id, so no directory holds more than a few hundred entity folders. Trees
+// written before namespaces (flat uploads/<id>/, shared by folletos and albums) stay readable: lookups
+// fall back to them until StorageLayoutMigration has moved everything. Methods that take no area work
+// on folletos. file.storage.layout=flat keeps the old layout.
+// The bytes themselves go through a StorageBackend: local files under file.storage.location by default,
+// or the objects of a bucket (key = the same relative path) when an S3StorageBackend is configured.
+// Hard-link deduplication and the flat-layout migration need local files and are skipped with a
+// remote backend; uploads are still assembled in file.storage.location first.
+// Locally, covers up to file.storage.packed-max-bytes (and their thumbnails) are packed into segment
+// files (see SegmentStore) instead of one loose file each; covers stored loose before keep being read.
 @Service
 public class FileStorageService {
 
+    private static final Logger logger = LoggerFactory.getLogger(FileStorageService.class);
+
     private final Path rootLocation;
+    private final StorageBackend backend;
+    // objects are not files under rootLocation
+    private final boolean remote;
+    private final boolean sharded;
+    // numeric uploads/<id> directories from the flat layout still exist (cleared by the migration)
+    private volatile boolean legacyPending;
     private final long maxSizeBytes;
+    // identical uploads share one blob through hard links (see BlobStore)
+    private final BlobStore blobStore;
+    // generated names are claimed atomically, so concurrent uploads of one name never overwrite each other
+    private final FilenameAllocator filenames = new FilenameAllocator();
+    // Content written under a caller-chosen name, and deleteFileIf's check-then-delete, hold the lock of
+    // that name (striped), so a guarded delete never removes content placed between its check and the
+    // unlink. Generated names need no lock: the allocator only claims names that are free.
+    private final Object[] nameLocks = newLocks(64);
+    // small covers and their variants; null when packing is off or the backend is remote
+    private final SegmentStore packed;
+    private final long packedMaxBytes;
+
+    // descriptors served from uploads/<id> must not outlive a write or delete there
+    @Autowired(required = false)
+    private ServedFileCache servedFileCache;
+
+    // thumbnails of stored covers, generated in the background
+    @Autowired(required = false)
+    private CoverDerivativeService coverDerivatives;
+
+    // per-entity byte/file counters, told about every store and delete
+    @Autowired(required = false)
+    private StorageUsageService usage;
 
     // allowed MIME types (expanded to support common fallbacks)
     private final Set<String> allowedAudio = new HashSet<>(Arrays.asList(
@@ -29,131 +108,657 @@ public class FileStorageService {
     private final Set<String> allowedPdf = new HashSet<>(Arrays.asList("application/pdf"));
     private final Set<String> allowedImages = new HashSet<>(Arrays.asList("image/jpeg", "image/png", "image/webp"));
 
+    private static final Set<String> AUDIO_EXT = Set.of(".mp3", ".ogg", ".wav", ".m4a", ".aac"); // fallback by extension
+    private static final Set<String> PDF_EXT = Set.of(".pdf");
+    private static final Set<String> IMAGE_EXT = Set.of(".jpg", ".jpeg", ".png", ".webp");
+
     // helper characters allowed in filenames
     private static final String FILENAME_SAFE_REGEX = "[^A-Za-z0-9._-]";
 
+    // uploads are assembled here (same filesystem as their final place, so the move is a rename)
+    static final String INCOMING_DIR = ".incoming";
+    // flat-layout files no row referenced when they were migrated
+    static final String ORPHANS_DIR = ".orphans";
+    // a segment is rewritten once half of it is deleted or overwritten data
+    private static final double COMPACT_RATIO = 0.5;
+
+    @Autowired
     public FileStorageService(@Value("${file.storage.location:./uploads}") String location,
-                              @Value("${file.upload.max-size-bytes:52428800}") long maxSizeBytes) throws IOException {
+                              @Value("${file.upload.max-size-bytes:52428800}") long maxSizeBytes,
+                              @Value("${file.storage.dedup:true}") boolean dedup,
+                              @Value("${file.storage.layout:sharded}") String layout,
+                              ObjectProvider<StorageBackend> backend,
+                              @Value("${file.storage.packed-max-bytes:262144}") long packedMaxBytes,
+                              @Value("${file.storage.segment-bytes:67108864}") long segmentBytes) throws IOException {
+        this(location, maxSizeBytes, dedup, layout, backend.getIfAvailable(), packedMaxBytes, segmentBytes);
+    }
+
+    // backend null = local files under location; packedMaxBytes 0 = every file loose
+    public FileStorageService(String location, long maxSizeBytes, boolean dedup, String layout, StorageBackend backend,
+                              long packedMaxBytes, long segmentBytes) throws IOException {
         this.rootLocation = Paths.get(location).toAbsolutePath().normalize();
         Files.createDirectories(this.rootLocation);
+        this.backend = backend != null ? backend : new LocalStorageBackend(this.rootLocation);
+        this.remote = this.backend.localPath("") == null;
         this.maxSizeBytes = maxSizeBytes;
+        this.blobStore = new BlobStore(this.rootLocation, dedup);
+        if ("flat".equalsIgnoreCase(layout)) {
+            this.sharded = false;
+        } else if ("sharded".equalsIgnoreCase(layout)) {
+            this.sharded = true;
+        } else {
+            throw new IllegalArgumentException("file.storage.layout debe ser sharded o flat: " + layout);
+        }
+        this.legacyPending = !remote && sharded && !legacyEntityIds().isEmpty();
+        this.packedMaxBytes = packedMaxBytes;
+        this.packed = !remote && packedMaxBytes > 0 ? new SegmentStore(rootLocation, segmentBytes, COMPACT_RATIO) : null;
+        removeAbandonedUploads();
     }
 
-    public String storeFile(Long folletoId, MultipartFile file, String prefix) throws IOException {
-        if (file == null || file.isEmpty()) {
-            return null;
+    // The convenience constructors store every file loose
+    public FileStorageService(String location, long maxSizeBytes, boolean dedup, String layout, StorageBackend backend) throws IOException {
+        this(location, maxSizeBytes, dedup, layout, backend, 0, 0);
+    }
+
+    public FileStorageService(String location, long maxSizeBytes, boolean dedup, String layout) throws IOException {
+        this(location, maxSizeBytes, dedup, layout, (StorageBackend) null);
+    }
+
+    public FileStorageService(String location, long maxSizeBytes, boolean dedup) throws IOException {
+        this(location, maxSizeBytes, dedup, "sharded");
+    }
+
+    public FileStorageService(String location, long maxSizeBytes) throws IOException {
+        this(location, maxSizeBytes, true);
+    }
+
+    // uploads/<area>/<shard>/<id>, or uploads/<id> with the flat layout
+    public Path entityDirectory(StorageArea area, Long id) {
+        if (!sharded) return legacyDirectory(id);
+        return rootLocation.resolve(area.getDirectory()).resolve(shard(id)).resolve(String.valueOf(id));
+    }
+
+    // 256 buckets; the multiplier spreads consecutive ids over all of them
+    static String shard(Long id) {
+        long mixed = id * 0x9E3779B97F4A7C15L;
+        return HexFormat.of().toHexDigits((byte) (mixed >>> 56));
+    }
+
+    private Path legacyDirectory(Long id) {
+        return rootLocation.resolve(String.valueOf(id));
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (packed != null) packed.close();
+    }
+
+    // Backend key of a stored file: its path relative to the storage root, '/'-separated; null if the
+    // name escapes the entity directory
+    public String storageKey(StorageArea area, Long id, String filename) {
+        if (filename == null) return null;
+        Path dir = entityDirectory(area, id);
+        Path file = dir.resolve(filename).normalize();
+        if (!file.startsWith(dir) || file.equals(dir)) return null;
+        StringBuilder key = new StringBuilder();
+        for (Path part : rootLocation.relativize(file)) {
+            if (key.length() > 0) key.append('/');
+            key.append(part);
+        }
+        return key.toString();
+    }
+
+    // temp files left behind by a crash in the middle of an upload
+    private void removeAbandonedUploads() {
+        Path incoming = this.rootLocation.resolve(INCOMING_DIR);
+        if (!Files.isDirectory(incoming)) return;
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(incoming, "*.part")) {
+            for (Path part : parts) Files.deleteIfExists(part);
+        } catch (IOException ex) {
+            // ignore: they are only wasted space
         }
+    }
+
+    public String storeFile(Long folletoId, MultipartFile file, String prefix) throws IOException {
+        StoredFile stored = store(folletoId, file, null, prefix);
+        return stored == null ? null : stored.getFilename();
+    }
+
+    // Store an upload under a generated name (desiredFilename null) or the given one; see store(InputStream)
+    public StoredFile store(Long folletoId, MultipartFile file, String desiredFilename, String prefix) throws IOException {
+        return store(StorageArea.FOLLETO, folletoId, file, desiredFilename, prefix);
+    }
+
+    public StoredFile store(StorageArea area, Long id, MultipartFile file, String desiredFilename, String prefix) throws IOException {
+        if (file == null || file.isEmpty()) return null;
         if (file.getSize() > maxSizeBytes) {
             throw new IOException("El archivo excede el tamaño máximo permitido: " + file.getSize());
         }
+        try (InputStream in = file.getInputStream()) {
+            return store(area, id, in, file.getOriginalFilename(), desiredFilename, prefix, file.getContentType(), maxSizeBytes);
+        }
+    }
+
+    // Single pass over the content: bytes are written to a temp file in the storage root while the size
+    // limit is enforced, the SHA-256 is computed and the first bytes are kept for type sniffing; the
+    // accepted content is then placed in the entity directory (see entityDirectory) through BlobStore.
+    // With desiredFilename null the name is derived from originalFilename as prefix_base(n).ext: once the
+    // content has passed the size and type checks, the name is reserved with an empty CREATE_NEW
+    // placeholder, which the content then replaces (the placeholder is removed if that fails). Otherwise
+    // desiredFilename is used, replacing any file.
+    // Returns null for an empty stream.
+    public StoredFile store(Long folletoId, InputStream in, String originalFilename, String desiredFilename,
+                            String prefix, String contentType) throws IOException {
+        return store(StorageArea.FOLLETO, folletoId, in, originalFilename, desiredFilename, prefix, contentType, maxSizeBytes);
+    }
+
+    public StoredFile store(StorageArea area, Long id, InputStream in, String originalFilename, String desiredFilename,
+                            String prefix, String contentType) throws IOException {
+        return store(area, id, in, originalFilename, desiredFilename, prefix, contentType, maxSizeBytes);
+    }
 
-        String original = StringUtils.cleanPath(file.getOriginalFilename());
+    // Same, with a caller-supplied size limit (assembled chunked uploads have their own, larger one)
+    public StoredFile store(StorageArea area, Long id, InputStream in, String originalFilename, String desiredFilename,
+                            String prefix, String contentType, long maxBytes) throws IOException {
+        String original = originalFilename == null ? "file" : StringUtils.cleanPath(originalFilename);
         String ext = "";
         int dot = original.lastIndexOf('.');
         if (dot >= 0) ext = original.substring(dot).toLowerCase();
 
-        String contentType = file.getContentType();
-        boolean ok = false;
-        if ("audio".equalsIgnoreCase(prefix)) {
-            if (contentType != null && allowedAudio.contains(contentType.toLowerCase())) ok = true;
-            if (!ok && (".mp3".equals(ext) || ".ogg".equals(ext) || ".wav".equals(ext) || ".m4a".equals(ext) || ".aac".equals(ext))) ok = true; // fallback by extension
-            if (!ok) throw new IOException("Tipo de archivo de audio no permitido: " + contentType);
-        } else if ("pdf".equalsIgnoreCase(prefix)) {
-            if (contentType != null && allowedPdf.contains(contentType.toLowerCase())) ok = true;
-            if (!ok && ".pdf".equals(ext)) ok = true;
-            if (!ok) throw new IOException("Tipo de archivo PDF no permitido: " + contentType);
-        } else if ("cover".equalsIgnoreCase(prefix)) {
-            if (contentType != null && allowedImages.contains(contentType.toLowerCase())) ok = true;
-            if (!ok && (".jpg".equals(ext) || ".jpeg".equals(ext) || ".png".equals(ext) || ".webp".equals(ext))) ok = true;
-            if (!ok) throw new IOException("Tipo de imagen no permitido: " + contentType);
+        if (remote) return storeRemote(area, id, in, original, ext, desiredFilename, prefix, contentType, maxBytes);
+
+        Path dir = entityDirectory(area, id);
+        Files.createDirectories(dir);
+        Path target = null;
+        if (desiredFilename != null) {
+            target = dir.resolve(desiredFilename).normalize();
+            if (!target.startsWith(dir)) throw new IOException("Nombre de archivo no permitido: " + desiredFilename);
         }
 
-        // Build a safe filename using the original name, keeping the extension.
-        String base = (dot >= 0) ? original.substring(0, dot) : original;
-        base = base.replaceAll(FILENAME_SAFE_REGEX, "_");
-        if (base.length() == 0) base = "file";
+        Path tmp = newIncomingFile();
+        String sniffed;
+        String sha256Hex;
+        try {
+            Received received = receive(in, tmp, maxBytes);
+            if (received == null) return null;
+            sniffed = received.sniffed;
+            sha256Hex = received.sha256;
+            checkType(prefix, contentType, sniffed, ext);
+            if (packed != null && "cover".equalsIgnoreCase(prefix) && received.size <= packedMaxBytes) {
+                return storePacked(area, id, tmp, received, original, ext, desiredFilename, prefix);
+            }
+
+            boolean claimed = target == null;
+            if (claimed) target = dir.resolve(reserveFilename(area, id, original, prefix));
+            String name = target.getFileName().toString();
+            long previous;
+            synchronized (nameLock(area, id, name)) {
+                previous = Files.isRegularFile(target) ? Files.size(target) : -1; // our placeholder when claimed
+                try {
+                    blobStore.place(tmp, sha256Hex, target);
+                } catch (IOException | RuntimeException ex) {
+                    if (claimed && Files.deleteIfExists(target)) account(area, id, name, 0, -1); // still our empty placeholder
+                    throw ex;
+                }
+            }
+            account(area, id, name, received.size - Math.max(previous, 0), previous < 0 ? 1 : 0);
+            // a packed cover of the same name would hide the new file
+            if (packed != null) deletePacked(area, id, name);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
 
-        Path dir = this.rootLocation.resolve(String.valueOf(folletoId));
-        Files.createDirectories(dir);
+        try { Files.setAttribute(target, "dos:readonly", false); } catch (Exception ex) { /* ignore */ }
+        evictServed(area, id);
+        if ("cover".equalsIgnoreCase(prefix)) scheduleVariants(target);
+
+        String filename = target.getFileName().toString();
+        StoredFile stat = stat(area, id, filename);
+        if (stat == null) throw new IOException("El archivo almacenado desaparecio: " + filename);
+        return new StoredFile(filename, stat.getPath(), stat.getSize(), stat.getLastModified(), stat.getEtag(),
+                sniffed != null ? sniffed : ContentSniffer.fromExtension(filename), sha256Hex);
+    }
+
+    private Path newIncomingFile() throws IOException {
+        Path incoming = this.rootLocation.resolve(INCOMING_DIR);
+        Files.createDirectories(incoming);
+        return Files.createTempFile(incoming, "upload-", ".part");
+    }
 
-        String candidate = prefix + "_" + base + ext;
-        Path target = dir.resolve(candidate);
-        int count = 1;
-        while (Files.exists(target)) {
-            candidate = prefix + "_" + base + "(" + count + ")" + ext;
-            target = dir.resolve(candidate);
-            count++;
+    // what one pass over an upload learned about it
+    private static final class Received {
+        final long size;
+        final String sniffed;
+        final String sha256;
+
+        Received(long size, String sniffed, String sha256) {
+            this.size = size;
+            this.sniffed = sniffed;
+            this.sha256 = sha256;
         }
+    }
 
-        Files.copy(file.getInputStream(), target, StandardCopyOption.REPLACE_EXISTING);
+    // Copies the stream into tmp enforcing the size limit, hashing it and sniffing its first bytes; null if empty
+    private static Received receive(InputStream in, Path tmp, long maxBytes) throws IOException {
+        MessageDigest sha256 = newSha256();
+        byte[] head = new byte[ContentSniffer.HEAD_BYTES];
+        int headLen = 0;
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += read;
+                if (size > maxBytes) {
+                    throw new IOException("El archivo excede el tamaño máximo permitido: " + maxBytes);
+                }
+                if (headLen < head.length) {
+                    int n = Math.min(read, head.length - headLen);
+                    System.arraycopy(buffer, 0, head, headLen, n);
+                    headLen += n;
+                }
+                sha256.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        }
+        if (size == 0) return null;
+        return new Received(size, ContentSniffer.sniff(head, headLen), HexFormat.of().formatHex(sha256.digest()));
+    }
 
-        try { Files.setAttribute(target, "dos:readonly", false); } catch (Exception ex) { /* ignore */ }
+    // A small cover goes into the segment store. Generated names must be free both there and as loose
+    // files: each side publishes its claim before checking the other (see reserveFilename), so two
+    // concurrent uploads can at worst both move on to the next suffix, never share one.
+    private StoredFile storePacked(StorageArea area, Long id, Path tmp, Received received, String original, String ext,
+                                   String desiredFilename, String prefix) throws IOException {
+        String type = received.sniffed != null ? received.sniffed : ContentSniffer.fromExtension(original);
+        Path dir = entityDirectory(area, id);
+        String filename = desiredFilename;
+        if (filename == null) {
+            Path legacy = legacyDirectory(id);
+            Predicate<String> takenElsewhere = name -> Files.exists(dir.resolve(name))
+                    || (legacyPending && Files.exists(legacy.resolve(name)));
+            filename = filenames.reserve(dir.toString(), generatedStem(original, prefix), ext, takenElsewhere, name -> {
+                String key = storageKey(area, id, name);
+                try (InputStream content = Files.newInputStream(tmp)) {
+                    if (!packed.putIfAbsent(key, content, received.size, type)) return false;
+                }
+                if (!Files.exists(dir.resolve(name))) return true;
+                packed.delete(key); // claimed as a loose file meanwhile
+                return false;
+            });
+            account(area, id, filename, received.size, 1);
+        } else {
+            String key = storageKey(area, id, filename);
+            StorageObject previous;
+            synchronized (nameLock(area, id, filename)) {
+                previous = packed.stat(key);
+                try (InputStream content = Files.newInputStream(tmp)) {
+                    packed.put(key, content, received.size, type);
+                }
+            }
+            account(area, id, filename, received.size - (previous != null ? previous.getSize() : 0), previous != null ? 0 : 1);
+            // an older loose file of that name is hidden from now on
+            Path loose = resolvePath(area, id, filename);
+            if (loose != null && Files.isRegularFile(loose)) deleteLoose(area, id, loose);
+        }
+        evictServed(area, id);
+        String key = storageKey(area, id, filename);
+        if (coverDerivatives != null) coverDerivatives.schedule(packed, key);
+        StorageObject object = packed.stat(key);
+        if (object == null) throw new IOException("El archivo almacenado desaparecio: " + filename);
+        return new StoredFile(filename, null, object.getSize(), object.getLastModified(), object.getEtag(),
+                received.sniffed != null ? received.sniffed : ContentSniffer.fromExtension(filename), received.sha256);
+    }
 
-        return candidate;
+    // store() for a remote backend: the accepted temp file is uploaded under the desired name, or under a
+    // generated one claimed by the upload itself (a conditional write, so no placeholder round trip)
+    private StoredFile storeRemote(StorageArea area, Long id, InputStream in, String original, String ext, String desiredFilename,
+                                   String prefix, String contentType, long maxBytes) throws IOException {
+        if (desiredFilename != null && storageKey(area, id, desiredFilename) == null) {
+            throw new IOException("Nombre de archivo no permitido: " + desiredFilename);
+        }
+        Path tmp = newIncomingFile();
+        try {
+            Received received = receive(in, tmp, maxBytes);
+            if (received == null) return null;
+            checkType(prefix, contentType, received.sniffed, ext);
+            String type = received.sniffed != null ? received.sniffed : contentType;
+            String filename = desiredFilename;
+            if (filename == null) {
+                filename = filenames.reserve(area.getDirectory() + "/" + id, generatedStem(original, prefix), ext, name -> false, name -> {
+                    try (InputStream content = Files.newInputStream(tmp)) {
+                        return backend.putIfAbsent(storageKey(area, id, name), content, received.size, type);
+                    }
+                });
+                account(area, id, filename, received.size, 1);
+            } else {
+                String key = storageKey(area, id, filename);
+                StorageObject previous;
+                synchronized (nameLock(area, id, filename)) {
+                    previous = usage != null ? backend.stat(key) : null; // a round trip only when counted
+                    try (InputStream content = Files.newInputStream(tmp)) {
+                        backend.put(key, content, received.size, type);
+                    }
+                }
+                account(area, id, filename, received.size - (previous != null ? previous.getSize() : 0), previous != null ? 0 : 1);
+            }
+            evictServed(area, id);
+            if ("cover".equalsIgnoreCase(prefix) && coverDerivatives != null) coverDerivatives.schedule(backend, storageKey(area, id, filename));
+            StoredFile stat = stat(area, id, filename);
+            if (stat == null) throw new IOException("El archivo almacenado desaparecio: " + filename);
+            return new StoredFile(filename, null, stat.getSize(), stat.getLastModified(), stat.getEtag(),
+                    received.sniffed != null ? received.sniffed : ContentSniffer.fromExtension(filename), received.sha256);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
     }
 
     public Resource loadAsResource(Long folletoId, String filename) throws MalformedURLException {
-        if (filename == null) return null;
-        Path file = this.rootLocation.resolve(String.valueOf(folletoId)).resolve(filename).normalize();
-        if (!Files.exists(file)) return null;
+        return loadAsResource(StorageArea.FOLLETO, folletoId, filename);
+    }
+
+    // null with a remote backend too: there is no local file to point at
+    public Resource loadAsResource(StorageArea area, Long id, String filename) throws MalformedURLException {
+        Path file = resolvePath(area, id, filename);
+        if (file == null || !Files.exists(file)) return null;
         Resource resource = new UrlResource(file.toUri());
         return resource;
     }
 
+    // Resolve a stored file to its path on disk; null if missing or outside the entity directory
+    public Path loadAsPath(Long folletoId, String filename) {
+        return loadAsPath(StorageArea.FOLLETO, folletoId, filename);
+    }
+
+    public Path loadAsPath(StorageArea area, Long id, String filename) {
+        Path file = resolvePath(area, id, filename);
+        if (file == null || !Files.isRegularFile(file)) return null;
+        return file;
+    }
+
+    // Size and validators of a stored file read with a single attribute lookup; null if missing.
+    // The ETag is derived from size and modification time (same scheme as nginx), so it is strong
+    // for as long as files are only ever written once under a given name.
+    public StoredFile stat(Long folletoId, String filename) throws IOException {
+        return stat(StorageArea.FOLLETO, folletoId, filename);
+    }
+
+    public StoredFile stat(StorageArea area, Long id, String filename) throws IOException {
+        if (remote) {
+            String key = storageKey(area, id, filename);
+            StorageObject object = key == null ? null : backend.stat(key);
+            if (object == null) return null;
+            return new StoredFile(filename, null, object.getSize(), object.getLastModified(), object.getEtag(), null, null);
+        }
+        if (packed != null) {
+            String key = storageKey(area, id, filename);
+            StorageObject object = key == null ? null : packed.stat(key);
+            if (object != null) {
+                return new StoredFile(filename, null, object.getSize(), object.getLastModified(), object.getEtag(), null, null);
+            }
+        }
+        Path file = resolvePath(area, id, filename);
+        if (file == null) return null;
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        if (!attrs.isRegularFile()) return null;
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        return new StoredFile(filename, file, size, lastModified, LocalStorageBackend.etagOf(lastModified, size), null, null);
+    }
+
+    // stat() plus one sequential read of the content: SHA-256 and MIME type sniffed from the magic bytes
+    public StoredFile inspect(Long folletoId, String filename) throws IOException {
+        return inspect(StorageArea.FOLLETO, folletoId, filename);
+    }
+
+    public StoredFile inspect(StorageArea area, Long id, String filename) throws IOException {
+        StoredFile stat = stat(area, id, filename);
+        if (stat == null) return null;
+        MessageDigest sha256 = newSha256();
+        byte[] head = new byte[ContentSniffer.HEAD_BYTES];
+        int headLen = 0;
+        try (InputStream in = open(area, id, stat)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (headLen < head.length) {
+                    int n = Math.min(read, head.length - headLen);
+                    System.arraycopy(buffer, 0, head, headLen, n);
+                    headLen += n;
+                }
+                sha256.update(buffer, 0, read);
+            }
+        }
+        String contentType = ContentSniffer.sniff(head, headLen);
+        if (contentType == null) contentType = ContentSniffer.fromExtension(filename);
+        return new StoredFile(filename, stat.getPath(), stat.getSize(), stat.getLastModified(), stat.getEtag(),
+                contentType, HexFormat.of().formatHex(sha256.digest()));
+    }
+
+    // Content of a stored file, wherever it lives; null if missing
+    public InputStream openStored(StorageArea area, Long id, String filename) throws IOException {
+        StoredFile stat = stat(area, id, filename);
+        return stat == null ? null : open(area, id, stat);
+    }
+
+    private InputStream open(StorageArea area, Long id, StoredFile stat) throws IOException {
+        return stat.getPath() != null ? Files.newInputStream(stat.getPath())
+                : objectStore().openRange(storageKey(area, id, stat.getFilename()), 0, stat.getSize());
+    }
+
+    // where files without a local path live
+    private StorageBackend objectStore() {
+        return remote ? backend : packed;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 no disponible", ex);
+        }
+    }
+
+    // Path a stored file has (or would have). Null if the name escapes the entity directory, or with a
+    // remote backend. No filesystem access once the layout migration is done; before that a file missing
+    // from the new layout is looked up in the flat one.
+    public Path resolvePath(Long folletoId, String filename) {
+        return resolvePath(StorageArea.FOLLETO, folletoId, filename);
+    }
+
+    public Path resolvePath(StorageArea area, Long id, String filename) {
+        if (filename == null || remote) return null;
+        Path dir = entityDirectory(area, id);
+        Path file = dir.resolve(filename).normalize();
+        if (!file.startsWith(dir)) return null;
+        if (legacyPending && !Files.exists(file)) {
+            Path legacy = legacyDirectory(id).resolve(filename).normalize();
+            if (Files.exists(legacy)) return legacy;
+        }
+        return file;
+    }
+
     public boolean deleteFile(Long folletoId, String filename) throws IOException {
-        if (filename == null) return false;
-        Path file = this.rootLocation.resolve(String.valueOf(folletoId)).resolve(filename).normalize();
-        return Files.deleteIfExists(file);
+        return deleteFile(StorageArea.FOLLETO, folletoId, filename);
+    }
+
+    // Descriptor for serving a stored file whose size and validators are already known (e.g. from its
+    // row): the local path, or the backend object. Null if the name escapes the entity directory.
+    public ServedFile servedFile(StorageArea area, Long id, String filename, long length, String contentType,
+                                 String downloadName, String etag, long lastModified) {
+        if (remote) {
+            String key = storageKey(area, id, filename);
+            return key == null ? null : new ServedFile(backend, key, length, contentType, downloadName, etag, lastModified);
+        }
+        if (packed != null) {
+            String key = storageKey(area, id, filename);
+            if (key != null && packed.contains(key)) return new ServedFile(packed, key, length, contentType, downloadName, etag, lastModified);
+        }
+        Path path = resolvePath(area, id, filename);
+        return path == null ? null : new ServedFile(path, length, contentType, downloadName, etag, lastModified);
+    }
+
+    // Deletes the file only if stillUnused holds when checked under the name's lock, right before the
+    // unlink; false when it was kept or not there
+    public boolean deleteFileIf(StorageArea area, Long id, String filename, BooleanSupplier stillUnused) throws IOException {
+        synchronized (nameLock(area, id, filename)) {
+            if (!stillUnused.getAsBoolean()) return false;
+            return deleteFile(area, id, filename);
+        }
+    }
+
+    private static Object[] newLocks(int stripes) {
+        Object[] locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) locks[i] = new Object();
+        return locks;
+    }
+
+    private Object nameLock(StorageArea area, Long id, String filename) {
+        return nameLocks[Math.floorMod(Objects.hash(area, id, filename), nameLocks.length)];
+    }
+
+    public boolean deleteFile(StorageArea area, Long id, String filename) throws IOException {
+        if (remote) {
+            String key = storageKey(area, id, filename);
+            if (key == null) return false;
+            StorageObject existing = backend.stat(key);
+            backend.delete(key);
+            if (existing != null) account(area, id, filename, -existing.getSize(), -1);
+            deleteVariants(backend, key);
+            evictServed(area, id);
+            return existing != null;
+        }
+        if (packed != null && deletePacked(area, id, filename)) {
+            evictServed(area, id);
+            return true;
+        }
+        Path file = resolvePath(area, id, filename);
+        if (file == null) return false;
+        boolean deleted = deleteLoose(area, id, file);
+        evictServed(area, id);
+        return deleted;
+    }
+
+    // removes a packed file and its variants; false if it was not packed
+    private boolean deletePacked(StorageArea area, Long id, String filename) throws IOException {
+        String key = storageKey(area, id, filename);
+        StorageObject existing = key == null ? null : packed.stat(key);
+        if (existing == null) return false;
+        packed.delete(key);
+        account(area, id, filename, -existing.getSize(), -1);
+        deleteVariants(packed, key);
+        return true;
+    }
+
+    // deleteStored, counted when the file is in the entity directory (flat-layout leftovers never were)
+    private boolean deleteLoose(StorageArea area, Long id, Path file) throws IOException {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (NoSuchFileException ex) {
+            deleteVariants(file);
+            return false;
+        }
+        boolean deleted = deleteStored(file);
+        if (deleted && file.startsWith(entityDirectory(area, id))) account(area, id, file.getFileName().toString(), -size, -1);
+        return deleted;
+    }
+
+    // removes a stored file, its blob once unreferenced and its cover variants
+    private boolean deleteStored(Path file) throws IOException {
+        Path orphanBlob = Files.isRegularFile(file) ? blobStore.lastReference(file) : null;
+        boolean deleted = Files.deleteIfExists(file);
+        blobStore.freeIfUnreferenced(orphanBlob);
+        deleteVariants(file);
+        return deleted;
+    }
+
+    // cover variants are derived from their original and not counted
+    private void account(StorageArea area, Long id, String filename, long bytes, long files) {
+        if (usage == null || filename.contains(CoverDerivativeService.VARIANT_MARKER)) return;
+        usage.record(area, id, bytes, files);
+    }
+
+    private void evictServed(StorageArea area, Long id) {
+        if (servedFileCache != null) servedFileCache.invalidate(area, id);
+    }
+
+    private void scheduleVariants(Path cover) {
+        if (coverDerivatives != null) coverDerivatives.schedule(cover);
+    }
+
+    private static void deleteVariants(StorageBackend store, String originalKey) throws IOException {
+        for (StorageObject variant : store.list(originalKey + CoverDerivativeService.VARIANT_MARKER)) store.delete(variant.getKey());
+    }
+
+    // cover variants live next to the original as "<name>@w<width>.jpg"
+    private void deleteVariants(Path original) throws IOException {
+        Path dir = original.getParent();
+        if (dir == null || !Files.isDirectory(dir)) return;
+        String prefix = original.getFileName().toString() + CoverDerivativeService.VARIANT_MARKER;
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(dir, p -> p.getFileName().toString().startsWith(prefix))) {
+            for (Path variant : siblings) Files.deleteIfExists(variant);
+        }
     }
 
     // New: store raw bytes (downloaded from URL or other source) as if it were an uploaded file
     public String storeBytes(Long folletoId, byte[] data, String originalFilename, String prefix, String contentType) throws IOException {
         if (data == null || data.length == 0) return null;
-        if (data.length > maxSizeBytes) throw new IOException("El archivo excede el tamaño máximo permitido: " + data.length);
+        StoredFile stored = store(folletoId, new ByteArrayInputStream(data), originalFilename, null, prefix, contentType);
+        return stored == null ? null : stored.getFilename();
+    }
+
+    // Safe name built from the original one, keeping the extension: prefix_base.ext, or prefix_base(n).ext
+    // when that is taken. The name is claimed by creating it as an empty file; store it with
+    // desiredFilename set to the returned name, or remove it with deleteFile if the content never comes.
+    public String reserveFilename(Long folletoId, String originalFilename, String prefix) throws IOException {
+        return reserveFilename(StorageArea.FOLLETO, folletoId, originalFilename, prefix);
+    }
 
+    public String reserveFilename(StorageArea area, Long id, String originalFilename, String prefix) throws IOException {
         String original = originalFilename == null ? "file" : StringUtils.cleanPath(originalFilename);
         String ext = "";
         int dot = original.lastIndexOf('.');
         if (dot >= 0) ext = original.substring(dot).toLowerCase();
-
-        boolean ok = false;
-        String ct = contentType == null ? "" : contentType.toLowerCase();
-        if ("audio".equalsIgnoreCase(prefix)) {
-            if (ct != null && allowedAudio.contains(ct)) ok = true;
-            if (!ok && (".mp3".equals(ext) || ".ogg".equals(ext) || ".wav".equals(ext) || ".m4a".equals(ext) || ".aac".equals(ext))) ok = true;
-            if (!ok) throw new IOException("Tipo de archivo de audio no permitido: " + contentType);
-        } else if ("pdf".equalsIgnoreCase(prefix)) {
-            if (ct != null && allowedPdf.contains(ct)) ok = true;
-            if (!ok && ".pdf".equals(ext)) ok = true;
-            if (!ok) throw new IOException("Tipo de archivo PDF no permitido: " + contentType);
-        } else if ("cover".equalsIgnoreCase(prefix)) {
-            if (ct != null && allowedImages.contains(ct)) ok = true;
-            if (!ok && (".jpg".equals(ext) || ".jpeg".equals(ext) || ".png".equals(ext) || ".webp".equals(ext))) ok = true;
-            if (!ok) throw new IOException("Tipo de imagen no permitido: " + contentType);
+        String stem = generatedStem(original, prefix);
+        if (remote) {
+            // the placeholder is an empty object, overwritten when the content is stored
+            String name = filenames.reserve(area.getDirectory() + "/" + id, stem, ext, taken -> false,
+                    candidate -> backend.putIfAbsent(storageKey(area, id, candidate), InputStream.nullInputStream(), 0, null));
+            account(area, id, name, 0, 1);
+            return name;
+        }
+        // while the flat tree is being migrated its names are taken too, or a new file would shadow an old one
+        Path legacy = legacyDirectory(id);
+        Predicate<String> takenElsewhere = name -> (legacyPending && Files.exists(legacy.resolve(name)))
+                || (packed != null && packed.contains(storageKey(area, id, name)));
+        while (true) {
+            Path claimed = filenames.reserve(entityDirectory(area, id), stem, ext, takenElsewhere);
+            String name = claimed.getFileName().toString();
+            if (packed == null || !packed.contains(storageKey(area, id, name))) {
+                account(area, id, name, 0, 1);
+                return name;
+            }
+            Files.deleteIfExists(claimed); // packed by a concurrent cover upload
         }
+    }
 
-        // Build a safe filename using the original name, keeping the extension.
+    // prefix_base of a generated name, base being the original name without extension made filename-safe
+    private static String generatedStem(String original, String prefix) {
+        int dot = original.lastIndexOf('.');
         String base = (dot >= 0) ? original.substring(0, dot) : original;
         base = base.replaceAll(FILENAME_SAFE_REGEX, "_");
         if (base.length() == 0) base = "file";
-
-        Path dir = this.rootLocation.resolve(String.valueOf(folletoId));
-        Files.createDirectories(dir);
-
-        String candidate = prefix + "_" + base + (ext.isEmpty() ? "" : ext);
-        Path target = dir.resolve(candidate);
-        int count = 1;
-        while (Files.exists(target)) {
-            candidate = prefix + "_" + base + "(" + count + ")" + (ext.isEmpty() ? "" : ext);
-            target = dir.resolve(candidate);
-            count++;
-        }
-
-        Files.write(target, data);
-
-        try { Files.setAttribute(target, "dos:readonly", false); } catch (Exception ex) { /* ignore */ }
-
-        return candidate;
+        return prefix + "_" + base;
     }
 
     // Compute a safe filename using the original name and a numeric id: base(id).ext
@@ -170,69 +775,223 @@ public class FileStorageService {
 
     // Store a MultipartFile using a desired filename (no prefix added). Validates type using the provided prefix rules.
     public String storeFileWithGivenName(Long folletoId, MultipartFile file, String desiredFilename, String prefix) throws IOException {
-        if (file == null || file.isEmpty()) return null;
-        if (file.getSize() > maxSizeBytes) throw new IOException("El archivo excede el tamaño máximo permitido: " + file.getSize());
+        StoredFile stored = store(folletoId, file, desiredFilename, prefix);
+        return stored == null ? null : desiredFilename;
+    }
 
-        String original = StringUtils.cleanPath(file.getOriginalFilename());
-        String ext = "";
-        int dot = original.lastIndexOf('.');
-        if (dot >= 0) ext = original.substring(dot).toLowerCase();
+    // Store raw bytes using a desired filename (no prefix added). Validates type using the provided prefix rules.
+    public String storeBytesWithGivenName(Long folletoId, byte[] data, String desiredFilename, String prefix, String contentType) throws IOException {
+        if (data == null || data.length == 0) return null;
+        StoredFile stored = store(folletoId, new ByteArrayInputStream(data), desiredFilename, desiredFilename, prefix, contentType);
+        return stored == null ? null : desiredFilename;
+    }
 
-        String contentType = file.getContentType();
-        boolean ok = false;
+    // Accepted when the declared type, the sniffed type or the extension is allowed for the prefix
+    private void checkType(String prefix, String contentType, String sniffed, String ext) throws IOException {
+        Set<String> allowedTypes;
+        Set<String> allowedExt;
+        String label;
         if ("audio".equalsIgnoreCase(prefix)) {
-            if (contentType != null && allowedAudio.contains(contentType.toLowerCase())) ok = true;
-            if (!ok && (".mp3".equals(ext) || ".ogg".equals(ext) || ".wav".equals(ext) || ".m4a".equals(ext) || ".aac".equals(ext))) ok = true;
-            if (!ok) throw new IOException("Tipo de archivo de audio no permitido: " + contentType);
+            allowedTypes = allowedAudio; allowedExt = AUDIO_EXT; label = "Tipo de archivo de audio no permitido: ";
         } else if ("pdf".equalsIgnoreCase(prefix)) {
-            if (contentType != null && allowedPdf.contains(contentType.toLowerCase())) ok = true;
-            if (!ok && ".pdf".equals(ext)) ok = true;
-            if (!ok) throw new IOException("Tipo de archivo PDF no permitido: " + contentType);
+            allowedTypes = allowedPdf; allowedExt = PDF_EXT; label = "Tipo de archivo PDF no permitido: ";
         } else if ("cover".equalsIgnoreCase(prefix)) {
-            if (contentType != null && allowedImages.contains(contentType.toLowerCase())) ok = true;
-            if (!ok && (".jpg".equals(ext) || ".jpeg".equals(ext) || ".png".equals(ext) || ".webp".equals(ext))) ok = true;
-            if (!ok) throw new IOException("Tipo de imagen no permitido: " + contentType);
+            allowedTypes = allowedImages; allowedExt = IMAGE_EXT; label = "Tipo de imagen no permitido: ";
+        } else {
+            return;
         }
+        String ct = contentType == null ? "" : contentType.toLowerCase();
+        if (allowedTypes.contains(ct) || (sniffed != null && allowedTypes.contains(sniffed)) || allowedExt.contains(ext)) return;
+        throw new IOException(label + contentType);
+    }
 
-        Path dir = this.rootLocation.resolve(String.valueOf(folletoId));
-        Files.createDirectories(dir);
-        Path target = dir.resolve(desiredFilename).normalize();
-        Files.copy(file.getInputStream(), target, StandardCopyOption.REPLACE_EXISTING);
-        try { Files.setAttribute(target, "dos:readonly", false); } catch (Exception ex) { /* ignore */ }
-        return desiredFilename;
+    // Every file of an area (loose, packed or remote), by entity id, for the reconciliation sweep.
+    // Only the sharded layout keeps areas apart: empty with the flat layout or before its migration is done.
+    public Map<Long, List<StorageObject>> listAreaFiles(StorageArea area) throws IOException {
+        Map<Long, List<StorageObject>> byId = new TreeMap<>();
+        if (!sharded || legacyPending) return byId;
+        String prefix = area.getDirectory() + "/";
+        List<StorageObject> objects = new ArrayList<>(backend.list(prefix));
+        if (packed != null) objects.addAll(packed.list(prefix));
+        for (StorageObject object : objects) {
+            // <area>/<shard>/<id>/<name>
+            String[] parts = object.getKey().substring(prefix.length()).split("/");
+            if (parts.length != 3 || !parts[1].matches("\\d{1,18}")) continue;
+            byId.computeIfAbsent(Long.valueOf(parts[1]), k -> new ArrayList<>()).add(object);
+        }
+        return byId;
     }
 
-    // Store raw bytes using a desired filename (no prefix added). Validates type using the provided prefix rules.
-    public String storeBytesWithGivenName(Long folletoId, byte[] data, String desiredFilename, String prefix, String contentType) throws IOException {
-        if (data == null || data.length == 0) return null;
-        if (data.length > maxSizeBytes) throw new IOException("El archivo excede el tamaño máximo permitido: " + data.length);
+    // Bytes and files per entity id of an area, counted the way the running counters count them (cover
+    // variants left out), for StorageUsageRebuild. Locally the shard directories are walked by up to
+    // <threads> threads at once; a remote backend is listed. Empty with the flat layout.
+    public Map<Long, long[]> measureArea(StorageArea area, int threads) throws IOException {
+        Map<Long, long[]> usage = new ConcurrentHashMap<>();
+        if (!sharded) return usage;
+        String prefix = area.getDirectory() + "/";
+        List<StorageObject> objects = new ArrayList<>();
+        if (remote) objects.addAll(backend.list(prefix));
+        if (packed != null) objects.addAll(packed.list(prefix));
+        for (StorageObject object : objects) {
+            String[] parts = object.getKey().substring(prefix.length()).split("/");
+            if (parts.length == 3) count(usage, parts[1], parts[2], object.getSize());
+        }
+        if (!remote) walkShards(rootLocation.resolve(area.getDirectory()), Math.max(1, threads), usage);
+        return usage;
+    }
 
-        String ext = "";
-        int dot = desiredFilename.lastIndexOf('.');
-        if (dot >= 0) ext = desiredFilename.substring(dot).toLowerCase();
+    private static void count(Map<Long, long[]> usage, String idDir, String filename, long size) {
+        if (!idDir.matches("\\d{1,18}") || filename.startsWith(".") || filename.contains(CoverDerivativeService.VARIANT_MARKER)) return;
+        usage.compute(Long.valueOf(idDir), (id, sum) -> {
+            if (sum == null) sum = new long[2];
+            sum[0] += size;
+            sum[1]++;
+            return sum;
+        });
+    }
 
-        boolean ok = false;
-        String ct = contentType == null ? "" : contentType.toLowerCase();
-        if ("audio".equalsIgnoreCase(prefix)) {
-            if (ct != null && allowedAudio.contains(ct)) ok = true;
-            if (!ok && (".mp3".equals(ext) || ".ogg".equals(ext) || ".wav".equals(ext) || ".m4a".equals(ext) || ".aac".equals(ext))) ok = true;
-            if (!ok) throw new IOException("Tipo de archivo de audio no permitido: " + contentType);
-        } else if ("pdf".equalsIgnoreCase(prefix)) {
-            if (ct != null && allowedPdf.contains(ct)) ok = true;
-            if (!ok && ".pdf".equals(ext)) ok = true;
-            if (!ok) throw new IOException("Tipo de archivo PDF no permitido: " + contentType);
-        } else if ("cover".equalsIgnoreCase(prefix)) {
-            if (ct != null && allowedImages.contains(ct)) ok = true;
-            if (!ok && (".jpg".equals(ext) || ".jpeg".equals(ext) || ".png".equals(ext) || ".webp".equals(ext))) ok = true;
-            if (!ok) throw new IOException("Tipo de imagen no permitido: " + contentType);
+    private static void walkShards(Path areaDir, int threads, Map<Long, long[]> usage) throws IOException {
+        if (!Files.isDirectory(areaDir)) return;
+        List<Path> shards;
+        try (Stream<Path> list = Files.list(areaDir)) {
+            shards = list.filter(Files::isDirectory).toList();
+        }
+        AtomicInteger n = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, shards.size())), r -> {
+            Thread t = new Thread(r, "storage-usage-walk-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> walks = new ArrayList<>(shards.size());
+            for (Path shard : shards) {
+                walks.add(pool.submit(() -> {
+                    // <shard>/<id>/<file>: depth 2 reaches the files, which are passed to visitFile
+                    Files.walkFileTree(shard, EnumSet.noneOf(FileVisitOption.class), 2, new SimpleFileVisitor<>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (attrs.isRegularFile() && file.getParent() != null && !file.getParent().equals(shard)) {
+                                count(usage, file.getParent().getFileName().toString(), file.getFileName().toString(), attrs.size());
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                            return FileVisitResult.CONTINUE; // removed while walking
+                        }
+                    });
+                    return null;
+                }));
+            }
+            for (Future<?> walk : walks) walk.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Recuento de almacenamiento interrumpido", ex);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof IOException io ? io : new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        Path dir = this.rootLocation.resolve(String.valueOf(folletoId));
-        Files.createDirectories(dir);
-        Path target = dir.resolve(desiredFilename).normalize();
-        Files.write(target, data);
-        try { Files.setAttribute(target, "dos:readonly", false); } catch (Exception ex) { /* ignore */ }
-        return desiredFilename;
+    // Migration for trees written before deduplication: see BlobStore.deduplicate. Returns the bytes freed
+    public long deduplicateUploads() throws IOException {
+        if (remote) return 0;
+        return blobStore.deduplicate(rootLocation);
+    }
+
+    // Ids of the flat uploads/<id> directories still waiting for the layout migration
+    public List<Long> legacyEntityIds() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        if (!sharded || remote) return ids;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(rootLocation,
+                p -> Files.isDirectory(p) && p.getFileName().toString().matches("\\d{1,18}"))) {
+            for (Path dir : dirs) ids.add(Long.valueOf(dir.getFileName().toString()));
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    // Moves one flat uploads/<id> directory into the sharded layout while it stays readable: each file is
+    // linked into the area(s) whose rows reference it (a name used by both a folleto and an album goes
+    // to both) before the flat name is removed, cover variants follow their original, and files nothing
+    // references are set aside in uploads/.orphans/<id>. A file already present in the new layout was
+    // stored after the flat one and wins. Returns the number of files moved.
+    public int migrateLegacyEntity(Long id, Set<String> folletoNames, Set<String> musicaNames) throws IOException {
+        Path legacy = legacyDirectory(id);
+        if (!sharded || !Files.isDirectory(legacy)) return 0;
+        List<Path> files;
+        try (Stream<Path> list = Files.list(legacy)) {
+            files = list.filter(Files::isRegularFile).toList();
+        }
+        int moved = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int variant = name.indexOf(CoverDerivativeService.VARIANT_MARKER);
+            String owner = variant > 0 ? name.substring(0, variant) : name;
+            List<Path> targets = new ArrayList<>(2);
+            List<StorageArea> areas = new ArrayList<>(2);
+            if (folletoNames.contains(owner)) {
+                targets.add(entityDirectory(StorageArea.FOLLETO, id).resolve(name));
+                areas.add(StorageArea.FOLLETO);
+            }
+            if (musicaNames.contains(owner)) {
+                targets.add(entityDirectory(StorageArea.MUSICA, id).resolve(name));
+                areas.add(StorageArea.MUSICA);
+            }
+            if (targets.isEmpty()) {
+                targets.add(rootLocation.resolve(ORPHANS_DIR).resolve(String.valueOf(id)).resolve(name));
+                logger.info("Archivo sin referencias apartado: {}/{}", id, name);
+            }
+            try {
+                for (int i = 0; i < targets.size(); i++) {
+                    // files set aside as orphans are not counted
+                    if (linkOrCopy(file, targets.get(i)) && i < areas.size()) account(areas.get(i), id, name, Files.size(file), 1);
+                }
+                Path orphanBlob = blobStore.lastReference(file);
+                Files.deleteIfExists(file);
+                blobStore.freeIfUnreferenced(orphanBlob);
+                moved++;
+            } catch (NoSuchFileException ex) {
+                // deleted while being moved
+            }
+        }
+        // the flat directory held both areas' files
+        evictServed(StorageArea.FOLLETO, id);
+        evictServed(StorageArea.MUSICA, id);
+        try {
+            Files.deleteIfExists(legacy);
+        } catch (DirectoryNotEmptyException ex) {
+            // a cover variant was written meanwhile; picked up by the next run
+        }
+        return moved;
+    }
+
+    // Stops looking up the flat layout once no directory of it is left
+    public boolean finishLegacyMigration() throws IOException {
+        legacyPending = !legacyEntityIds().isEmpty();
+        return !legacyPending;
+    }
+
+    // a new hard link leaves source and target readable at every moment; copies where links are unsupported.
+    // False if the target already existed
+    private static boolean linkOrCopy(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException ex) {
+            return false; // stored again under the new layout since: that copy wins
+        } catch (UnsupportedOperationException | FileSystemException ex) {
+            if (ex instanceof NoSuchFileException) throw (NoSuchFileException) ex;
+            try {
+                Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+                return true;
+            } catch (FileAlreadyExistsException exists) {
+                return false; // same as above
+            }
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+// Hands out unique names stem.ext, stem(1).ext, ... inside an entity directory. A name is claimed by
+// creating it empty with CREATE_NEW, which exactly one caller can win, so two uploads of the same file
+// never pick the same target; the upload later replaces its own placeholder with a rename. The next
+// suffix to try is remembered per directory and stem: after the first allocation (which probes past
+// the names already on disk) each one costs a single create, and concurrent callers try different
+// suffixes instead of colliding on the same one.
+final class FilenameAllocator {
+
+    // remembered stems; dropped all at once past this, then relearned by probing
+    private static final int MAX_HINTS = 10_000;
+
+    private final ConcurrentHashMap<String, AtomicInteger> nextSuffix = new ConcurrentHashMap<>();
+
+    // Creates and returns the first free name at or after the remembered suffix (0 is the bare stem.ext);
+    // names for which takenElsewhere holds are skipped as well
+    Path reserve(Path dir, String stem, String ext, Predicate<String> takenElsewhere) throws IOException {
+        Files.createDirectories(dir);
+        String name = reserve(dir.toString(), stem, ext, takenElsewhere, candidate -> {
+            try {
+                Files.createFile(dir.resolve(candidate));
+                return true;
+            } catch (FileAlreadyExistsException ex) {
+                // stored earlier (hint not learned yet) or claimed by a writer that does not use the allocator
+                return false;
+            }
+        });
+        return dir.resolve(name);
+    }
+
+    // Same walk over candidate names for stores without a local directory: claim decides (atomically)
+    // whether a name was free and is now taken, e.g. a conditional write to a bucket
+    String reserve(String scope, String stem, String ext, Predicate<String> takenElsewhere, Claim claim) throws IOException {
+        if (nextSuffix.size() > MAX_HINTS) nextSuffix.clear();
+        AtomicInteger next = nextSuffix.computeIfAbsent(scope + "/" + stem + ext, k -> new AtomicInteger());
+        while (true) {
+            int n = next.getAndIncrement();
+            String name = n == 0 ? stem + ext : stem + "(" + n + ")" + ext;
+            if (takenElsewhere.test(name)) continue;
+            if (claim.tryClaim(name)) return name;
+        }
+    }
+
+    interface Claim {
+        boolean tryClaim(String name) throws IOException;
+    }
+}
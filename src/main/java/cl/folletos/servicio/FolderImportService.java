@@ -0,0 +1,268 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.AudioTrack;
+import jakarta.annotation.PreDestroy;
+
+// Imports every regular file of a server-side folder into an album. Files are streamed into storage by
+// a fixed pool of workers (each claims its name atomically, see FileStorageService.reserveFilename), and
+// finished tracks are inserted in JDBC batches while the remaining copies are still running. Each row
+// is written once, already carrying its final filename and metadata.
+@Service
+public class FolderImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderImportService.class);
+
+    private static final String INSERT_TRACK = "INSERT INTO audio_track "
+            + "(musica_id, original_name, filename, size_bytes, content_type, sha256, etag, last_modified) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int[] INSERT_TYPES = {
+            Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BIGINT };
+
+    private final FileStorageService storageService;
+    private final JdbcTemplate jdbc;
+    private final TransactionOperations transactions;
+    private final int batchSize;
+    private final ThreadPoolExecutor workers;
+
+    public FolderImportService(FileStorageService storageService, JdbcTemplate jdbc, TransactionOperations transactions,
+                               @Value("${music.import.worker-threads:4}") int workerThreads,
+                               @Value("${music.import.batch-size:50}") int batchSize) {
+        this.storageService = storageService;
+        this.jdbc = jdbc;
+        this.transactions = transactions;
+        this.batchSize = Math.max(1, batchSize);
+        AtomicInteger n = new AtomicInteger();
+        int threads = Math.max(1, workerThreads);
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "folder-import-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    public ImportReport importFolder(Path sourceDir, Long albumId) throws IOException {
+        ImportReport report = importFiles(albumId, listFiles(sourceDir), null);
+        logger.info("Importacion de {} en album {}: {}", sourceDir, albumId, report);
+        return report;
+    }
+
+    // regular files of the folder, in name order
+    public static List<Path> listFiles(Path sourceDir) throws IOException {
+        try (Stream<Path> stream = Files.list(sourceDir)) {
+            return stream.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    // Imports the given files; listener (may be null) learns the outcome of each one by its index
+    public ImportReport importFiles(Long albumId, List<Path> files, Listener listener) throws IOException {
+        long started = System.nanoTime();
+        ImportReport report = new ImportReport(files.size(), workers.getMaximumPoolSize());
+
+        CompletionService<Copied> copies = new ExecutorCompletionService<>(workers);
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            int index = i;
+            copies.submit(() -> copy(index, file, albumId));
+        }
+
+        List<Copied> batch = new ArrayList<>(batchSize);
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Future<Copied> done = copies.take();
+                try {
+                    Copied copied = done.get();
+                    if (copied.track == null) {
+                        report.skipped++; // empty file
+                        if (listener != null) listener.notImported(copied.index, null);
+                        continue;
+                    }
+                    batch.add(copied);
+                    if (batch.size() >= batchSize) flush(albumId, batch, report, listener);
+                } catch (ExecutionException ex) {
+                    report.failed++;
+                    CopyFailure failure = (CopyFailure) ex.getCause();
+                    logger.error("Error importando archivo en album {}: {}", albumId, failure.getMessage());
+                    if (listener != null) listener.notImported(failure.index, failure.getMessage());
+                }
+            }
+            flush(albumId, batch, report, listener);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Importacion interrumpida");
+        }
+
+        report.elapsedNanos = System.nanoTime() - started;
+        return report;
+    }
+
+    private Copied copy(int index, Path file, Long albumId) throws CopyFailure {
+        String originalName = file.getFileName().toString();
+        String filename = null;
+        StoredFile stored;
+        try (InputStream in = Files.newInputStream(file)) {
+            filename = storageService.reserveFilename(StorageArea.MUSICA, albumId, originalName, "audio");
+            stored = storageService.store(StorageArea.MUSICA, albumId, in, originalName, filename, "audio", Files.probeContentType(file));
+        } catch (IOException | RuntimeException ex) {
+            release(albumId, filename);
+            throw new CopyFailure(index, file.getFileName() + ": " + ex.getMessage());
+        }
+        if (stored == null) {
+            release(albumId, filename);
+            return new Copied(index, null);
+        }
+        AudioTrack track = new AudioTrack();
+        track.setOriginalName(originalName);
+        track.setFilename(filename);
+        stored.applyTo(track);
+        return new Copied(index, track);
+    }
+
+    // drops a claimed name whose content was never stored
+    private void release(Long albumId, String filename) {
+        if (filename == null) return;
+        try {
+            storageService.deleteFile(StorageArea.MUSICA, albumId, filename);
+        } catch (IOException e) {
+            logger.warn("No se pudo eliminar {}: {}", filename, e.getMessage());
+        }
+    }
+
+    // One batched INSERT for the finished tracks, in the same transaction as the listener's bookkeeping;
+    // if it fails their files are removed again
+    private void flush(Long albumId, List<Copied> batch, ImportReport report, Listener listener) {
+        if (batch.isEmpty()) return;
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        List<Integer> indexes = new ArrayList<>(batch.size());
+        long bytes = 0;
+        for (Copied c : batch) {
+            AudioTrack t = c.track;
+            rows.add(new Object[] { albumId, t.getOriginalName(), t.getFilename(), t.getSize(), t.getContentType(),
+                    t.getSha256(), t.getEtag(), t.getLastModified() });
+            indexes.add(c.index);
+            bytes += t.getSize() == null ? 0 : t.getSize();
+        }
+        try {
+            transactions.executeWithoutResult(status -> {
+                jdbc.batchUpdate(INSERT_TRACK, rows, INSERT_TYPES);
+                if (listener != null) listener.inserted(indexes);
+            });
+            report.imported += batch.size();
+            report.bytes += bytes;
+        } catch (DataAccessException ex) {
+            logger.error("Error insertando {} pistas en album {}: {}", batch.size(), albumId, ex.getMessage());
+            report.failed += batch.size();
+            for (Copied c : batch) {
+                try {
+                    storageService.deleteFile(StorageArea.MUSICA, albumId, c.track.getFilename());
+                } catch (IOException e) {
+                    logger.warn("No se pudo eliminar {}: {}", c.track.getFilename(), e.getMessage());
+                }
+                if (listener != null) listener.notImported(c.index, ex.getMessage());
+            }
+        }
+        batch.clear();
+    }
+
+    // Per-file outcome for callers that track items (import jobs); indexes refer to the files list
+    public interface Listener {
+        // runs inside the transaction of the batched INSERT, so both commit or roll back together
+        void inserted(List<Integer> indexes);
+
+        // error is null for an empty file
+        void notImported(int index, String error);
+    }
+
+    private static final class Copied {
+        private final int index;
+        private final AudioTrack track; // null for an empty file
+
+        Copied(int index, AudioTrack track) {
+            this.index = index;
+            this.track = track;
+        }
+    }
+
+    private static final class CopyFailure extends Exception {
+        private final int index;
+
+        CopyFailure(int index, String message) {
+            super(message);
+            this.index = index;
+        }
+    }
+
+    // Outcome and throughput of one import, logged when it finishes
+    public static class ImportReport {
+        private final int files;
+        private final int workers;
+        private int imported;
+        private int skipped;
+        private int failed;
+        private long bytes;
+        private long elapsedNanos;
+
+        ImportReport(int files, int workers) {
+            this.files = files;
+            this.workers = workers;
+        }
+
+        public int getFiles() { return files; }
+
+        public int getImported() { return imported; }
+
+        public int getSkipped() { return skipped; }
+
+        public int getFailed() { return failed; }
+
+        public long getBytes() { return bytes; }
+
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+        public double getFilesPerSecond() {
+            return elapsedNanos == 0 ? 0 : imported / (elapsedNanos / 1e9);
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes / 1048576.0 / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d importados, %d vacios, %d con error, %.1f MB en %d ms (%.1f archivos/s, %.1f MB/s, %d hilos)",
+                    imported, files, skipped, failed, bytes / 1048576.0, getElapsedMillis(),
+                    getFilesPerSecond(), getMegabytesPerSecond(), workers);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package cl.folletos.servicio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+
+// One folleto as listed by /api/folletos: the public fields and its pdf and audio files. Entities are not
+// serialized directly: FolletoFile points back at its Folleto, and the hidden cover rows and the
+// storage metadata (sha256, etag, ...) are not for anonymous callers.
+public class FolletoApiItem {
+
+    private final Long id;
+    private final String titulo;
+    private final Integer ano;
+    private final String categoria;
+    private final String coverUrl;
+    private final List<FileEntry> files;
+
+    public FolletoApiItem(Long id, String titulo, Integer ano, String categoria, String coverUrl, List<FileEntry> files) {
+        this.id = id;
+        this.titulo = titulo;
+        this.ano = ano;
+        this.categoria = categoria;
+        this.coverUrl = coverUrl;
+        this.files = files;
+    }
+
+    // files must be loaded; only pdf and audio rows are listed, as in the views
+    public static FolletoApiItem of(Folleto f) {
+        List<FileEntry> files = new ArrayList<>();
+        if (f.getFiles() != null) {
+            for (FolletoFile ff : f.getFiles()) {
+                if (!"pdf".equalsIgnoreCase(ff.getType()) && !"audio".equalsIgnoreCase(ff.getType())) continue;
+                files.add(new FileEntry(ff.getId(), ff.getOriginalName(), ff.getType(), ff.getSize(),
+                        "/files/" + f.getId() + "/file/" + ff.getId()));
+            }
+        }
+        String coverUrl = f.getCoverFilename() == null ? null : "/files/" + f.getId() + "/cover";
+        return new FolletoApiItem(f.getId(), f.getTitulo(), f.getAno(), f.getCategoria(), coverUrl, files);
+    }
+
+    public Long getId() { return id; }
+    public String getTitulo() { return titulo; }
+    public Integer getAno() { return ano; }
+    public String getCategoria() { return categoria; }
+    public String getCoverUrl() { return coverUrl; }
+    public List<FileEntry> getFiles() { return files; }
+
+    public static class FileEntry {
+        private final Long id;
+        private final String originalName;
+        private final String type;
+        private final Long size;
+        private final String url;
+
+        public FileEntry(Long id, String originalName, String type, Long size, String url) {
+            this.id = id;
+            this.originalName = originalName;
+            this.type = type;
+            this.size = size;
+            this.url = url;
+        }
+
+        public Long getId() { return id; }
+        public String getOriginalName() { return originalName; }
+        public String getType() { return type; }
+        public Long getSize() { return size; }
+        public String getUrl() { return url; }
+    }
+}
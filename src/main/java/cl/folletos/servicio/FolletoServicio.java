@@ -1,16 +1,23 @@
 package cl.folletos.servicio;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.ArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoResumen;
 import cl.folletos.repositorio.FolletoRepositorio;
 
 @Service
@@ -22,8 +29,18 @@ public class FolletoServicio {
     @Autowired
     private FolletoRepositorio repo;
 
+    @Autowired
+    private CountCache counts;
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    @Autowired
+    private PdfTextIndex pdfTextIndex;
+
+    // Whole folletos with their files (API listing)
     public List<Folleto> listarTodos() {
-        return repo.findAll();
+        return repo.findAllWithFiles();
     }
 
     public List<Folleto> listarPorAno(Integer ano) {
@@ -40,56 +57,84 @@ public class FolletoServicio {
         boolean hasAno = ano != null;
         boolean hasTitulo = titulo != null && !titulo.isBlank();
         if (hasAno && hasTitulo) {
-            return repo.findByAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(ano, titulo);
+            return repo.findByAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(ano, titulo, Folleto.class);
         } else if (hasAno) {
-            return repo.findByAnoOrderByAnoAscTituloAsc(ano);
+            return repo.findByAnoOrderByAnoAscTituloAsc(ano, Folleto.class);
         } else if (hasTitulo) {
-            return repo.findByTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(titulo);
+            return repo.findByTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(titulo, Folleto.class);
         } else {
-            return repo.findAllByOrderByAnoAscTituloAsc();
+            return repo.findAllByOrderByAnoAscTituloAsc(Folleto.class);
         }
     }
 
-    // Search within a specific category (FOLLETOS/COMPAGINADOS/LOCALES)
-    public List<Folleto> buscarPorCategoria(String categoria, Integer ano, String titulo) {
-        boolean hasAno = ano != null;
-        boolean hasTitulo = titulo != null && !titulo.isBlank();
-        // Special handling: category FOLLETOS should include existing records with null categoria
-        if (categoria != null && "FOLLETOS".equalsIgnoreCase(categoria)) {
-            List<Folleto> result = new ArrayList<>();
-            if (hasAno && hasTitulo) {
-                result.addAll(repo.findByCategoriaAndAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc("FOLLETOS", ano, titulo));
-                result.addAll(repo.findByAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(ano, titulo));
-                return result;
-            } else if (hasAno) {
-                result.addAll(repo.findByCategoriaAndAnoOrderByAnoAscTituloAsc("FOLLETOS", ano));
-                result.addAll(repo.findByAnoOrderByAnoAscTituloAsc(ano));
-                return result;
-            } else if (hasTitulo) {
-                result.addAll(repo.findByCategoriaAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc("FOLLETOS", titulo));
-                result.addAll(repo.findByTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(titulo));
-                return result;
-            } else {
-                result.addAll(repo.findByCategoriaOrderByAnoAscTituloAsc("FOLLETOS"));
-                result.addAll(repo.findByCategoriaIsNullOrderByAnoAscTituloAsc());
-                return result;
-            }
+    // Search within a specific category (FOLLETOS/COMPAGINADOS/LOCALES); only the list columns are read.
+    // FOLLETOS also holds the records with a null categoria.
+    public List<FolletoResumen> buscarPorCategoria(String categoria, Integer ano, String titulo) {
+        boolean folletos = "FOLLETOS".equalsIgnoreCase(categoria);
+        return repo.findFiltered(folletos ? "FOLLETOS" : categoria, folletos, ano, patron(titulo));
+    }
+
+    // One page of a category list, ordered by year, title and id; cursor is the nextCursor of the
+    // previous page (null for the first one)
+    public KeysetPage<FolletoResumen> buscarPorCategoria(String categoria, Integer ano, String titulo, String cursor, int size) {
+        boolean folletos = "FOLLETOS".equalsIgnoreCase(categoria);
+        return pagina(folletos ? "FOLLETOS" : categoria, folletos, ano, titulo, KeysetCursor.decode(cursor), size);
+    }
+
+    // Total of the same list, counted apart and cached
+    public long contarPorCategoria(String categoria, Integer ano, String titulo) {
+        boolean folletos = "FOLLETOS".equalsIgnoreCase(categoria);
+        String cat = folletos ? "FOLLETOS" : categoria;
+        String patron = patron(titulo);
+        return counts.get("folletos/" + cat + "/" + ano + "/" + patron, () -> repo.countFiltered(cat, folletos, ano, patron));
+    }
+
+    // One page of every folleto with its pdf and audio files (API listing), mapped inside the transaction
+    public KeysetPage<FolletoApiItem> paginaConArchivos(String cursor, int size) {
+        KeysetPage<FolletoResumen> page = pagina(null, false, null, null, KeysetCursor.decode(cursor), size);
+        List<Long> ids = page.getItems().stream().map(FolletoResumen::getId).collect(Collectors.toList());
+        Map<Long, Folleto> byId = repo.findWithFilesByIdIn(ids).stream().collect(Collectors.toMap(Folleto::getId, Function.identity()));
+        List<FolletoApiItem> items = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Folleto f = byId.get(id);
+            if (f != null) items.add(FolletoApiItem.of(f)); // null: deleted between the two queries
         }
+        return new KeysetPage<>(items, page.getOffset(), page.getNextCursor());
+    }
 
-        if (hasAno && hasTitulo) {
-            return repo.findByCategoriaAndAnoAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(categoria, ano, titulo);
-        } else if (hasAno) {
-            return repo.findByCategoriaAndAnoOrderByAnoAscTituloAsc(categoria, ano);
-        } else if (hasTitulo) {
-            return repo.findByCategoriaAndTituloContainingIgnoreCaseOrderByAnoAscTituloAsc(categoria, titulo);
+    public long contarTodos() {
+        return counts.get("folletos/*", repo::count);
+    }
+
+    private KeysetPage<FolletoResumen> pagina(String categoria, boolean sinCategoria, Integer ano, String titulo,
+                                              KeysetCursor after, int size) {
+        String patron = patron(titulo);
+        PageRequest limit = PageRequest.of(0, size + 1);
+        List<FolletoResumen> rows;
+        if (after == null) {
+            rows = repo.findFirstPage(categoria, sinCategoria, ano, patron, limit);
+        } else if (!after.hasNullKey()) {
+            rows = repo.findPageAfter(categoria, sinCategoria, ano, patron, after.getAno(), after.getTitulo(), after.getId(), limit);
         } else {
-            return repo.findByCategoriaOrderByAnoAscTituloAsc(categoria);
+            rows = repo.findPageAfterNullKey(categoria, sinCategoria, ano, patron, after.getAno(), after.getTitulo(), after.getId(), limit);
         }
+        return KeysetPage.of(rows, size, after, r -> new KeysetCursor(0, r.getAno(), r.getTitulo(), r.getId()));
+    }
+
+    // Lowercase LIKE pattern for a title search ('!' escapes the wildcards), null without one
+    private static String patron(String titulo) {
+        if (titulo == null || titulo.isBlank()) return null;
+        String escaped = titulo.trim().toLowerCase(Locale.ROOT).replace("!", "!!").replace("%", "!%").replace("_", "!_");
+        return "%" + escaped + "%";
     }
 
     public Folleto guardar(Folleto f) {
         try {
             Folleto saved = repo.save(f);
+            counts.invalidate("folletos/");
+            searchIndex.putFolleto(saved);
+            // new pdfs get their text extracted in the background
+            if (Hibernate.isInitialized(saved.getFiles())) pdfTextIndex.submitPending(saved);
             logger.info("Folleto guardado en servicio: id={}, titulo={}, ano={}", saved.getId(), saved.getTitulo(), saved.getAno());
             return saved;
         } catch (Exception ex) {
@@ -98,11 +143,14 @@ public class FolletoServicio {
         }
     }
 
+    // Detail/edit: files included
     public Optional<Folleto> porId(Long id) {
-        return repo.findById(id);
+        return repo.findWithFilesById(id);
     }
 
     public void eliminar(Folleto f) {
         repo.delete(f);
+        counts.invalidate("folletos/");
+        searchIndex.remove(SearchIndex.FOLLETO, f.getId());
     }
 }
\ No newline at end of file
@@ -0,0 +1,248 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.ImportJob;
+import cl.folletos.modelo.ImportJobItem;
+import cl.folletos.repositorio.ImportJobItemRepositorio;
+import cl.folletos.repositorio.ImportJobRepositorio;
+import jakarta.annotation.PreDestroy;
+
+// Runs folder imports and URL downloads in the background instead of inside the POST that asked for
+// them. A job and its items are persisted before it is queued; items are marked as they finish (for
+// folder imports in the same transaction as the batched track INSERT), so a job interrupted by a
+// crash or restart is queued again on startup and continues with its pending items only.
+@Service
+public class ImportJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportJobService.class);
+
+    // folder items handed to FolderImportService at a time; cancellation is checked between chunks
+    private static final int FOLDER_CHUNK = 100;
+
+    private final ImportJobRepositorio jobs;
+    private final ImportJobItemRepositorio items;
+    private final FolderImportService folderImport;
+    private final UrlDownloadService urlDownloads;
+    private final TransactionOperations transactions;
+    private final ThreadPoolExecutor runner;
+    private final Set<Long> cancelRequested = ConcurrentHashMap.newKeySet();
+
+    public ImportJobService(ImportJobRepositorio jobs, ImportJobItemRepositorio items, FolderImportService folderImport,
+                            UrlDownloadService urlDownloads, TransactionOperations transactions,
+                            @Value("${music.import.jobs.concurrency:2}") int concurrency,
+                            @Value("${music.import.jobs.queue-capacity:20}") int queueCapacity) {
+        this.jobs = jobs;
+        this.items = items;
+        this.folderImport = folderImport;
+        this.urlDownloads = urlDownloads;
+        this.transactions = transactions;
+        AtomicInteger n = new AtomicInteger();
+        int threads = Math.max(1, concurrency);
+        this.runner = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+            Thread t = new Thread(r, "import-job-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.runner.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    public ImportJob submitFolder(Long albumId, Path sourceDir) throws IOException {
+        List<String> sources = new ArrayList<>();
+        for (Path file : FolderImportService.listFiles(sourceDir)) sources.add(file.toString());
+        return submit(ImportJob.KIND_FOLDER, albumId, sources);
+    }
+
+    public ImportJob submitUrls(Long albumId, List<String> urls) throws IOException {
+        return submit(ImportJob.KIND_URL, albumId, urls);
+    }
+
+    public Optional<ImportJob> find(Long jobId) {
+        return jobs.findById(jobId);
+    }
+
+    // Queued jobs are cancelled at once, running ones stop before their next chunk/URL
+    public boolean cancel(Long jobId) {
+        ImportJob job = jobs.findById(jobId).orElse(null);
+        if (job == null || job.isFinished()) return false;
+        cancelRequested.add(jobId);
+        if (ImportJob.QUEUED.equals(job.getStatus())) finish(jobId, ImportJob.CANCELLED, null);
+        return true;
+    }
+
+    // Job state plus item counts and the latest failures, for the progress page
+    public Map<String, Object> progress(ImportJob job) {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("id", job.getId());
+        p.put("kind", job.getKind());
+        p.put("albumId", job.getAlbumId());
+        p.put("status", job.getStatus());
+        p.put("total", job.getTotal());
+        p.put("done", items.countByJobIdAndStatus(job.getId(), ImportJobItem.DONE));
+        p.put("skipped", items.countByJobIdAndStatus(job.getId(), ImportJobItem.SKIPPED));
+        p.put("failed", items.countByJobIdAndStatus(job.getId(), ImportJobItem.FAILED));
+        p.put("pending", items.countByJobIdAndStatus(job.getId(), ImportJobItem.PENDING));
+        p.put("message", job.getMessage());
+        List<Map<String, String>> errors = new ArrayList<>();
+        for (ImportJobItem item : items.findTop20ByJobIdAndStatusOrderByPositionAsc(job.getId(), ImportJobItem.FAILED)) {
+            Map<String, String> e = new LinkedHashMap<>();
+            e.put("source", item.getSource());
+            e.put("error", item.getError());
+            errors.add(e);
+        }
+        p.put("errors", errors);
+        return p;
+    }
+
+    // Jobs a previous process left queued or running continue from their pending items
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        for (ImportJob job : jobs.findByStatusInOrderByIdAsc(List.of(ImportJob.QUEUED, ImportJob.RUNNING))) {
+            logger.info("Reanudando importacion {} ({} pendientes)", job.getId(),
+                    items.countByJobIdAndStatus(job.getId(), ImportJobItem.PENDING));
+            try {
+                enqueue(job.getId());
+            } catch (IOException ex) {
+                logger.warn("No se pudo reanudar la importacion {}: {}", job.getId(), ex.getMessage());
+            }
+        }
+    }
+
+    private ImportJob submit(String kind, Long albumId, List<String> sources) throws IOException {
+        ImportJob job = transactions.execute(status -> {
+            ImportJob created = new ImportJob();
+            created.setKind(kind);
+            created.setAlbumId(albumId);
+            created.setStatus(ImportJob.QUEUED);
+            created.setTotal(sources.size());
+            created.setCreatedAt(System.currentTimeMillis());
+            created = jobs.save(created);
+            List<ImportJobItem> rows = new ArrayList<>(sources.size());
+            for (int i = 0; i < sources.size(); i++) {
+                ImportJobItem item = new ImportJobItem();
+                item.setJobId(created.getId());
+                item.setPosition(i);
+                item.setSource(sources.get(i));
+                item.setStatus(ImportJobItem.PENDING);
+                rows.add(item);
+            }
+            items.saveAll(rows);
+            return created;
+        });
+        enqueue(job.getId());
+        return job;
+    }
+
+    private void enqueue(Long jobId) throws IOException {
+        try {
+            runner.execute(() -> run(jobId));
+        } catch (RejectedExecutionException ex) {
+            finish(jobId, ImportJob.FAILED, "Cola de importaciones llena, intente mas tarde");
+            throw new IOException("Cola de importaciones llena, intente mas tarde");
+        }
+    }
+
+    void run(Long jobId) {
+        ImportJob job = jobs.findById(jobId).orElse(null);
+        if (job == null || job.isFinished()) {
+            cancelRequested.remove(jobId);
+            return;
+        }
+        job.setStatus(ImportJob.RUNNING);
+        jobs.save(job);
+        try {
+            List<ImportJobItem> pending = items.findByJobIdAndStatusOrderByPositionAsc(jobId, ImportJobItem.PENDING);
+            if (ImportJob.KIND_FOLDER.equals(job.getKind())) {
+                for (int from = 0; from < pending.size(); from += FOLDER_CHUNK) {
+                    if (cancelRequested.contains(jobId)) {
+                        finish(jobId, ImportJob.CANCELLED, null);
+                        return;
+                    }
+                    importFolderChunk(job, pending.subList(from, Math.min(from + FOLDER_CHUNK, pending.size())));
+                }
+            } else {
+                List<String> urls = new ArrayList<>(pending.size());
+                for (ImportJobItem item : pending) urls.add(item.getSource());
+                urlDownloads.downloadAll(job.getAlbumId(), urls, () -> cancelRequested.contains(jobId),
+                        (index, track, error) -> mark(pending.get(index),
+                                error != null ? ImportJobItem.FAILED : track == null ? ImportJobItem.SKIPPED : ImportJobItem.DONE, error));
+                if (cancelRequested.contains(jobId)) {
+                    finish(jobId, ImportJob.CANCELLED, null);
+                    return;
+                }
+            }
+            finish(jobId, ImportJob.COMPLETED, null);
+        } catch (Exception ex) {
+            logger.error("Error en importacion {}: {}", jobId, ex.getMessage(), ex);
+            finish(jobId, ImportJob.FAILED, ex.getMessage());
+        } finally {
+            cancelRequested.remove(jobId);
+        }
+    }
+
+    private void importFolderChunk(ImportJob job, List<ImportJobItem> chunk) throws IOException {
+        List<Path> files = new ArrayList<>(chunk.size());
+        for (ImportJobItem item : chunk) files.add(Paths.get(item.getSource()));
+        FolderImportService.ImportReport report = folderImport.importFiles(job.getAlbumId(), files, new FolderImportService.Listener() {
+            @Override
+            public void inserted(List<Integer> indexes) {
+                List<Long> ids = new ArrayList<>(indexes.size());
+                for (int index : indexes) ids.add(chunk.get(index).getId());
+                items.updateStatus(ids, ImportJobItem.DONE);
+            }
+
+            @Override
+            public void notImported(int index, String error) {
+                mark(chunk.get(index), error == null ? ImportJobItem.SKIPPED : ImportJobItem.FAILED, error);
+            }
+        });
+        logger.info("Importacion {}: {}", job.getId(), report);
+    }
+
+    private void mark(ImportJobItem item, String status, String error) {
+        item.setStatus(status);
+        item.setError(truncate(error));
+        items.save(item);
+    }
+
+    private void finish(Long jobId, String status, String message) {
+        jobs.findById(jobId).ifPresent(job -> {
+            job.setStatus(status);
+            job.setMessage(truncate(message));
+            job.setFinishedAt(System.currentTimeMillis());
+            jobs.save(job);
+        });
+    }
+
+    private static String truncate(String s) {
+        return s == null || s.length() <= 500 ? s : s.substring(0, 500);
+    }
+}
@@ -0,0 +1,59 @@
+package cl.folletos.servicio;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Position in a list ordered by (ano, titulo, id): the sort key of the last row shown plus how many
+// rows came before the next one (only for numbering). Travels as an opaque URL-safe token; lists
+// ordered by id alone leave ano and titulo null. A null ano or titulo is kept apart from 0 and "",
+// since the seek compares the raw columns (nulls sort first).
+public final class KeysetCursor {
+
+    private final int position;
+    private final Integer ano;
+    private final String titulo;
+    private final long id;
+
+    public KeysetCursor(int position, Integer ano, String titulo, Long id) {
+        this.position = position;
+        this.ano = ano;
+        this.titulo = titulo;
+        this.id = id;
+    }
+
+    public int getPosition() { return position; }
+    public Integer getAno() { return ano; }
+    public String getTitulo() { return titulo; }
+    public long getId() { return id; }
+
+    // whether the seek can use the plain column comparisons (no null in the sort key)
+    public boolean hasNullKey() {
+        return ano == null || titulo == null;
+    }
+
+    public String encode() {
+        // titulo last: it may contain the separator; "-" marks a null titulo, "=" prefixes a value
+        String raw = position + "|" + (ano == null ? "" : ano) + "|" + id + "|" + (titulo == null ? "-" : "=" + titulo);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // null for a missing or malformed token: the list starts from the beginning
+    public static KeysetCursor decode(String token) {
+        if (token == null || token.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 4);
+            if (parts.length != 4) return null;
+            int position = Integer.parseInt(parts[0]);
+            if (position < 0) return null;
+            Integer ano = parts[1].isEmpty() ? null : Integer.valueOf(parts[1]);
+            String titulo;
+            if (parts[3].equals("-")) titulo = null;
+            else if (parts[3].startsWith("=")) titulo = parts[3].substring(1);
+            else return null;
+            return new KeysetCursor(position, ano, titulo, Long.valueOf(parts[2]));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cl.folletos.servicio;
+
+import java.util.List;
+import java.util.function.Function;
+
+// One page of a keyset-paginated list: the rows, the position of the first one and the cursor of
+// the next page (null on the last page)
+public class KeysetPage<T> {
+
+    private final List<T> items;
+    private final int offset;
+    private final String nextCursor;
+
+    public KeysetPage(List<T> items, int offset, String nextCursor) {
+        this.items = items;
+        this.offset = offset;
+        this.nextCursor = nextCursor;
+    }
+
+    // rows holds up to size + 1 rows after the cursor; the extra one only tells that a next page exists
+    public static <T> KeysetPage<T> of(List<T> rows, int size, KeysetCursor after, Function<T, KeysetCursor> cursorAt) {
+        int offset = after == null ? 0 : after.getPosition();
+        if (rows.size() <= size) return new KeysetPage<>(rows, offset, null);
+        List<T> items = rows.subList(0, size);
+        KeysetCursor last = cursorAt.apply(items.get(size - 1));
+        KeysetCursor next = new KeysetCursor(offset + size, last.getAno(), last.getTitulo(), last.getId());
+        return new KeysetPage<>(items, offset, next.encode());
+    }
+
+    public List<T> getItems() { return items; }
+    public int getOffset() { return offset; }
+    public String getNextCursor() { return nextCursor; }
+}
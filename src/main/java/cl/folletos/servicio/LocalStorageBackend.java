@@ -0,0 +1,183 @@
+package cl.folletos.servicio;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Objects as plain files under a root directory, key = relative path. Writes go to a temp file in
+// <root>/.incoming first and are moved into place in one rename, so readers never see half a file.
+// Entries whose name starts with a dot (.incoming, .orphans, .blobs) are not objects and never listed.
+public class LocalStorageBackend implements StorageBackend {
+
+    private final Path root;
+
+    public LocalStorageBackend(Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        Files.createDirectories(this.root);
+    }
+
+    // Same scheme as nginx (mtime-size): strong for as long as a name is only ever written once
+    static String etagOf(long lastModified, long size) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+    }
+
+    @Override
+    public Path localPath(String key) {
+        Path file = root.resolve(key).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    private Path file(String key) throws IOException {
+        Path file = localPath(key);
+        if (file == null || file.equals(root)) throw new IOException("Clave de almacenamiento no permitida: " + key);
+        return file;
+    }
+
+    @Override
+    public void put(String key, InputStream in, long length, String contentType) throws IOException {
+        Path target = file(key);
+        Path tmp = receive(in);
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // a hard link cannot replace an existing name, so the claim and the write are one step
+    @Override
+    public boolean putIfAbsent(String key, InputStream in, long length, String contentType) throws IOException {
+        Path target = file(key);
+        if (Files.exists(target)) return false;
+        Path tmp = receive(in);
+        try {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.createLink(target, tmp);
+            } catch (UnsupportedOperationException | FileSystemException ex) {
+                if (ex instanceof FileAlreadyExistsException) return false;
+                Files.copy(tmp, target); // no links here: copy fails too if the name was taken meanwhile
+            }
+            return true;
+        } catch (FileAlreadyExistsException ex) {
+            return false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path receive(InputStream in) throws IOException {
+        Path incoming = root.resolve(FileStorageService.INCOMING_DIR);
+        Files.createDirectories(incoming);
+        Path tmp = Files.createTempFile(incoming, "put-", ".part");
+        try {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        return tmp;
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file(key), StandardOpenOption.READ);
+        channel.position(offset);
+        return new FilterInputStream(Channels.newInputStream(channel)) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) remaining -= n;
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public StorageObject stat(String key) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file(key), BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        if (!attrs.isRegularFile()) return null;
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        return new StorageObject(key, attrs.size(), lastModified, etagOf(lastModified, attrs.size()));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(file(key));
+    }
+
+    @Override
+    public List<StorageObject> list(String prefix) throws IOException {
+        // walk only the deepest directory the prefix names
+        int slash = prefix.lastIndexOf('/');
+        Path start = slash < 0 ? root : localPath(prefix.substring(0, slash));
+        List<StorageObject> objects = new ArrayList<>();
+        if (start == null || !Files.isDirectory(start)) return objects;
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return !dir.equals(start) && dir.getFileName().toString().startsWith(".")
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile() || file.getFileName().toString().startsWith(".")) return FileVisitResult.CONTINUE;
+                String key = keyOf(file);
+                if (key.startsWith(prefix)) {
+                    long lastModified = attrs.lastModifiedTime().toMillis();
+                    objects.add(new StorageObject(key, attrs.size(), lastModified, etagOf(lastModified, attrs.size())));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE; // removed while walking
+            }
+        });
+        objects.sort(Comparator.comparing(StorageObject::getKey));
+        return objects;
+    }
+
+    private String keyOf(Path file) {
+        StringBuilder key = new StringBuilder();
+        for (Path part : root.relativize(file)) {
+            if (key.length() > 0) key.append('/');
+            key.append(part);
+        }
+        return key.toString();
+    }
+}
@@ -6,9 +6,13 @@ import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import cl.folletos.modelo.AudioTrack;
 import cl.folletos.modelo.Musica;
+import cl.folletos.modelo.MusicaResumen;
+import cl.folletos.repositorio.AudioTrackRepositorio;
 import cl.folletos.repositorio.MusicaRepositorio;
 
 @Service
@@ -19,13 +23,53 @@ public class MusicaServicio {
     @Autowired
     private MusicaRepositorio repo;
 
+    @Autowired
+    private AudioTrackRepositorio trackRepo;
+
+    @Autowired
+    private CountCache counts;
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    // Every album (admin album pickers)
     public List<Musica> listarTodos() {
         return repo.findAllByOrderByAnoAscTituloAsc();
     }
 
+    // One page of the album list, ordered by year, title and id
+    public KeysetPage<MusicaResumen> pagina(String cursor, int size) {
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        PageRequest limit = PageRequest.of(0, size + 1);
+        List<MusicaResumen> rows;
+        if (after == null) rows = repo.findFirstPage(limit);
+        else if (!after.hasNullKey()) rows = repo.findPageAfter(after.getAno(), after.getTitulo(), after.getId(), limit);
+        else rows = repo.findPageAfterNullKey(after.getAno(), after.getTitulo(), after.getId(), limit);
+        return KeysetPage.of(rows, size, after, r -> new KeysetCursor(0, r.getAno(), r.getTitulo(), r.getId()));
+    }
+
+    public long contar() {
+        return counts.get("musica/*", repo::count);
+    }
+
+    // One page of an album's tracks in upload (id) order
+    public KeysetPage<AudioTrack> pistas(Long musicaId, String cursor, int size) {
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        List<AudioTrack> rows = trackRepo.findByMusicaIdAndIdGreaterThanOrderByIdAsc(musicaId, after == null ? 0L : after.getId(),
+                PageRequest.of(0, size + 1));
+        return KeysetPage.of(rows, size, after, t -> new KeysetCursor(0, null, null, t.getId()));
+    }
+
+    // Not cached: tracks are added and removed outside this service, and the count uses the musica_id index
+    public long contarPistas(Long musicaId) {
+        return trackRepo.countByMusicaId(musicaId);
+    }
+
     public Musica guardar(Musica m) {
         try {
             Musica saved = repo.save(m);
+            counts.invalidate("musica/");
+            searchIndex.putMusica(saved);
             logger.info("Musica guardada en servicio: id={}, titulo={}, ano={}", saved.getId(), saved.getTitulo(), saved.getAno());
             return saved;
         } catch (Exception ex) {
@@ -40,5 +84,7 @@ public class MusicaServicio {
 
     public void eliminar(Musica m) {
         repo.delete(m);
+        counts.invalidate("musica/");
+        searchIndex.remove(SearchIndex.MUSICA, m.getId());
     }
 }
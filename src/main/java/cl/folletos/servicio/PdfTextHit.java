@@ -0,0 +1,49 @@
+package cl.folletos.servicio;
+
+import java.util.List;
+
+// One folleto found by PdfTextIndex.search: its pages matching the query, best first
+public class PdfTextHit {
+
+    private final Long id;
+    private final String titulo;
+    private final Integer ano;
+    private final String categoria;
+    private final double score;
+    private final List<Page> pages;
+
+    public PdfTextHit(Long id, String titulo, Integer ano, String categoria, double score, List<Page> pages) {
+        this.id = id;
+        this.titulo = titulo;
+        this.ano = ano;
+        this.categoria = categoria;
+        this.score = score;
+        this.pages = pages;
+    }
+
+    public Long getId() { return id; }
+    public String getTitulo() { return titulo; }
+    public Integer getAno() { return ano; }
+    public String getCategoria() { return categoria; }
+    public double getScore() { return score; }
+    public List<Page> getPages() { return pages; }
+
+    public static class Page {
+        private final Long fileId;
+        private final String fileName;
+        private final int page;
+        private final double score;
+
+        public Page(Long fileId, String fileName, int page, double score) {
+            this.fileId = fileId;
+            this.fileName = fileName;
+            this.page = page;
+            this.score = score;
+        }
+
+        public Long getFileId() { return fileId; }
+        public String getFileName() { return fileName; }
+        public int getPage() { return page; }
+        public double getScore() { return score; }
+    }
+}
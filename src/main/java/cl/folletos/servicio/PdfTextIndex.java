@@ -0,0 +1,309 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+import cl.folletos.modelo.FolletoPageMatch;
+import cl.folletos.modelo.FolletoPageText;
+import cl.folletos.repositorio.FolletoFileRepositorio;
+import cl.folletos.repositorio.FolletoPageTextRepositorio;
+import cl.folletos.repositorio.FolletoRepositorio;
+import jakarta.annotation.PreDestroy;
+
+// Full-text search inside the uploaded pdfs. When a pdf FolletoFile is saved its text is extracted page
+// by page on a small worker pool (pdf.text.worker-threads), never on the request thread, and stored as
+// FolletoPageText rows under a MySQL FULLTEXT index, so the index lives on disk with the catalogue and
+// is updated in the same transaction that replaces a file's pages. search() ranks folletos by the
+// relevance of their matching pages and tells which pages matched. Files stored before this existed
+// (textExtractedAt null) are picked up by backfill().
+@Service
+public class PdfTextIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfTextIndex.class);
+
+    static final String PDF = "pdf";
+    private static final String TABLE = "folleto_page_text";
+    private static final String FULLTEXT_INDEX = "ft_folleto_page_text";
+    // matching pages listed per folleto
+    private static final int MAX_PAGES_PER_HIT = 10;
+
+    private final FolletoFileRepositorio fileRepo;
+    private final FolletoPageTextRepositorio pageRepo;
+    private final FolletoRepositorio folletoRepo;
+    private final FileStorageService storageService;
+    private final JdbcTemplate jdbc;
+    private final TransactionOperations transactions;
+    private final int maxPages;
+    private final int maxResults;
+    private final ThreadPoolExecutor workers;
+    // files queued or being extracted, so a file saved twice in a row is read once
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+    public PdfTextIndex(FolletoFileRepositorio fileRepo, FolletoPageTextRepositorio pageRepo, FolletoRepositorio folletoRepo,
+                        FileStorageService storageService, JdbcTemplate jdbc, TransactionOperations transactions,
+                        @Value("${pdf.text.worker-threads:2}") int workerThreads,
+                        @Value("${pdf.text.max-pages:2000}") int maxPages,
+                        @Value("${search.max-results:50}") int maxResults) {
+        this.fileRepo = fileRepo;
+        this.pageRepo = pageRepo;
+        this.folletoRepo = folletoRepo;
+        this.storageService = storageService;
+        this.jdbc = jdbc;
+        this.transactions = transactions;
+        this.maxPages = Math.max(1, maxPages);
+        this.maxResults = Math.max(1, maxResults);
+        AtomicInteger n = new AtomicInteger();
+        int threads = Math.max(1, workerThreads);
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "pdf-text-" + n.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    // JPA cannot declare a FULLTEXT index; created once, on the table ddl-auto made
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureFulltextIndex() {
+        try {
+            Integer existing = jdbc.queryForObject("select count(*) from information_schema.statistics "
+                    + "where table_schema = database() and table_name = ? and index_name = ?", Integer.class, TABLE, FULLTEXT_INDEX);
+            if (existing != null && existing > 0) return;
+            long t0 = System.currentTimeMillis();
+            jdbc.execute("alter table " + TABLE + " add fulltext index " + FULLTEXT_INDEX + " (content)");
+            logger.info("Indice FULLTEXT {} creado en {} ms", FULLTEXT_INDEX, System.currentTimeMillis() - t0);
+        } catch (DataAccessException ex) {
+            logger.error("No se pudo crear el indice FULLTEXT {}: {}", FULLTEXT_INDEX, ex.getMessage());
+        }
+    }
+
+    // Queues the pdfs of a saved folleto that have no text yet; once the caller's transaction commits
+    // if there is one, so the worker sees the rows
+    public void submitPending(Folleto f) {
+        if (f == null || f.getFiles() == null) return;
+        List<Long> ids = new ArrayList<>();
+        for (FolletoFile ff : f.getFiles()) {
+            if (ff.getId() != null && PDF.equalsIgnoreCase(ff.getType()) && ff.getTextExtractedAt() == null) ids.add(ff.getId());
+        }
+        if (ids.isEmpty()) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    for (Long id : ids) submit(id);
+                }
+            });
+        } else {
+            for (Long id : ids) submit(id);
+        }
+    }
+
+    public void submit(Long fileId) {
+        if (fileId == null || !queued.add(fileId)) return;
+        try {
+            workers.execute(() -> {
+                try {
+                    extract(fileId);
+                } catch (Exception ex) {
+                    logger.error("Error extrayendo texto del archivo {}: {}", fileId, ex.getMessage(), ex);
+                } finally {
+                    queued.remove(fileId);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            queued.remove(fileId); // shutting down; backfill picks it up next start
+        }
+    }
+
+    // Stores the page rows of one pdf not extracted yet; returns the pages stored. A file that
+    // cannot be read or parsed is still marked, with no pages, so the backfill does not retry it forever.
+    int extract(Long fileId) throws IOException {
+        FolletoFile ff = fileRepo.findById(fileId).orElse(null);
+        if (ff == null || ff.getFolleto() == null || !PDF.equalsIgnoreCase(ff.getType())) return 0;
+        if (ff.getTextExtractedAt() != null) return 0; // queued from a stale copy of the folleto
+        Long folletoId = ff.getFolleto().getId();
+        long t0 = System.currentTimeMillis();
+        List<String> texts = List.of();
+        Path spooled = null;
+        try {
+            Path pdf = storageService.loadAsPath(StorageArea.FOLLETO, folletoId, ff.getFilename());
+            if (pdf == null) pdf = spooled = spool(folletoId, ff.getFilename());
+            if (pdf == null) {
+                logger.warn("Texto pdf: archivo {} del folleto {} no encontrado", ff.getFilename(), folletoId);
+                return 0; // not marked: the file may still be on its way
+            }
+            // PDFBox reads the file randomly; the parser's buffers go to temp files rather than the heap
+            try (PDDocument doc = Loader.loadPDF(pdf.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+                texts = pageTexts(doc, maxPages);
+            }
+        } catch (IOException ex) {
+            logger.warn("Texto pdf: no se pudo leer {} (id={}): {}", ff.getFilename(), fileId, ex.getMessage());
+        } finally {
+            if (spooled != null) {
+                try {
+                    Files.deleteIfExists(spooled);
+                } catch (IOException ex) {
+                    logger.warn("Texto pdf: no se pudo borrar el temporal {}: {}", spooled, ex.getMessage());
+                }
+            }
+        }
+        List<FolletoPageText> rows = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (texts.get(i) != null) rows.add(new FolletoPageText(null, folletoId, i + 1, texts.get(i)));
+        }
+        long now = System.currentTimeMillis();
+        transactions.executeWithoutResult(status -> {
+            FolletoFile ref = fileRepo.getReferenceById(fileId);
+            for (FolletoPageText row : rows) row.setFile(ref);
+            pageRepo.deleteByFileId(fileId);
+            pageRepo.saveAll(rows);
+            fileRepo.markTextExtracted(fileId, now);
+        });
+        logger.info("Texto pdf: {} paginas con texto de {} (folleto {}) en {} ms", rows.size(), ff.getFilename(), folletoId,
+                System.currentTimeMillis() - t0);
+        return rows.size();
+    }
+
+    // A pdf kept only in the object store is copied to a temp file first (the caller deletes it), so a
+    // large one is never read whole into the heap; null when there is no such object
+    private Path spool(Long folletoId, String filename) throws IOException {
+        try (InputStream in = storageService.openStored(StorageArea.FOLLETO, folletoId, filename)) {
+            if (in == null) return null;
+            Path tmp = Files.createTempFile("pdf-text-", ".pdf");
+            try {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                Files.deleteIfExists(tmp);
+                throw ex;
+            }
+            return tmp;
+        }
+    }
+
+    // Text of each page (null for pages without any, e.g. scans), up to maxPages
+    static List<String> pageTexts(PDDocument doc, int maxPages) throws IOException {
+        PDFTextStripper stripper = new PDFTextStripper();
+        stripper.setSortByPosition(true);
+        int pages = Math.min(doc.getNumberOfPages(), maxPages);
+        List<String> out = new ArrayList<>(pages);
+        for (int p = 1; p <= pages; p++) {
+            stripper.setStartPage(p);
+            stripper.setEndPage(p);
+            String text = stripper.getText(doc).strip();
+            out.add(text.isEmpty() ? null : text);
+        }
+        return out;
+    }
+
+    // Extracts every pdf without text yet, walked by id; returns the files visited
+    public int backfill() {
+        int visited = 0;
+        long lastId = 0;
+        List<FolletoFile> batch;
+        while (!(batch = fileRepo.findTop200ByTypeAndTextExtractedAtIsNullAndIdGreaterThanOrderByIdAsc(PDF, lastId)).isEmpty()) {
+            for (FolletoFile ff : batch) {
+                lastId = ff.getId();
+                if (!queued.add(ff.getId())) continue; // a worker has it
+                try {
+                    extract(ff.getId());
+                    visited++;
+                } catch (Exception ex) {
+                    logger.warn("Backfill texto pdf: error en archivo {} (id={}): {}", ff.getFilename(), ff.getId(), ex.getMessage());
+                } finally {
+                    queued.remove(ff.getId());
+                }
+            }
+        }
+        logger.info("Backfill de texto pdf terminado: {} archivos", visited);
+        return visited;
+    }
+
+    public List<PdfTextHit> search(String query) {
+        return search(query, maxResults);
+    }
+
+    // Folletos whose pdfs match, ranked by the summed relevance of their matching pages (a folleto that
+    // mentions the words on many pages comes before one that mentions them once); two queries for the
+    // pages, one for the folletos and one for the file names
+    public List<PdfTextHit> search(String query, int limit) {
+        if (query == null || query.isBlank() || limit <= 0) return List.of();
+        List<FolletoPageMatch> matches;
+        try {
+            matches = pageRepo.search(query.strip(), limit * MAX_PAGES_PER_HIT);
+        } catch (DataAccessException ex) {
+            logger.warn("Busqueda en texto pdf fallida: {}", ex.getMessage());
+            return List.of();
+        }
+        if (matches.isEmpty()) return List.of();
+
+        // already best first, so each folleto keeps its best pages
+        Map<Long, List<FolletoPageMatch>> byFolleto = new LinkedHashMap<>();
+        Map<Long, Double> scores = new HashMap<>();
+        for (FolletoPageMatch m : matches) {
+            scores.merge(m.getFolletoId(), m.getScore(), Double::sum);
+            List<FolletoPageMatch> pages = byFolleto.computeIfAbsent(m.getFolletoId(), k -> new ArrayList<>());
+            if (pages.size() < MAX_PAGES_PER_HIT) pages.add(m);
+        }
+        Map<Long, Folleto> folletos = new HashMap<>();
+        for (Folleto f : folletoRepo.findAllById(byFolleto.keySet())) folletos.put(f.getId(), f);
+        Map<Long, String> fileNames = new HashMap<>();
+        Set<Long> fileIds = new HashSet<>();
+        for (FolletoPageMatch m : matches) fileIds.add(m.getFileId());
+        for (FolletoFile ff : fileRepo.findAllById(fileIds)) fileNames.put(ff.getId(), ff.getOriginalName());
+
+        List<PdfTextHit> hits = new ArrayList<>(byFolleto.size());
+        for (Map.Entry<Long, List<FolletoPageMatch>> e : byFolleto.entrySet()) {
+            Folleto f = folletos.get(e.getKey());
+            if (f == null) continue; // deleted since
+            List<PdfTextHit.Page> pages = new ArrayList<>(e.getValue().size());
+            for (FolletoPageMatch m : e.getValue()) {
+                pages.add(new PdfTextHit.Page(m.getFileId(), fileNames.get(m.getFileId()), m.getPage(), m.getScore()));
+            }
+            hits.add(new PdfTextHit(f.getId(), f.getTitulo(), f.getAno(), f.getCategoria() == null ? "FOLLETOS" : f.getCategoria(),
+                    scores.get(e.getKey()), pages));
+        }
+        hits.sort(Comparator.comparingDouble(PdfTextHit::getScore).reversed().thenComparing(PdfTextHit::getId));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+}
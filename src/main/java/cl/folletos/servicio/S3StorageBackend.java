@@ -0,0 +1,367 @@
+package cl.folletos.servicio;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+// Objects in a bucket of an S3-compatible service (AWS S3, MinIO, Ceph RGW, R2...) over plain HTTP
+// with Signature V4; no SDK needed. Objects up to one part are sent with a single PUT, larger ones
+// as a multipart upload holding one part in memory at a time (aborted if anything fails). Reads are
+// ranged GETs streamed to the caller. putIfAbsent relies on conditional writes (If-None-Match: *).
+// Enabled with file.storage.backend=s3.
+@Service
+@ConditionalOnProperty(name = "file.storage.backend", havingValue = "s3")
+public class S3StorageBackend implements StorageBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3StorageBackend.class);
+
+    // S3 rejects non-final parts below this size
+    static final long MIN_PART_BYTES = 5L * 1024 * 1024;
+    // payloads are not hashed: parts would have to be read twice, TLS protects them on the wire anyway
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final URI endpoint;
+    private final String bucket;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final boolean pathStyle;
+    private final int partSize;
+    private final Duration readTimeout;
+    private final HttpClient client;
+
+    public S3StorageBackend(@Value("${file.storage.s3.endpoint:https://s3.amazonaws.com}") String endpoint,
+                            @Value("${file.storage.s3.bucket}") String bucket,
+                            @Value("${file.storage.s3.region:us-east-1}") String region,
+                            @Value("${file.storage.s3.access-key}") String accessKey,
+                            @Value("${file.storage.s3.secret-key}") String secretKey,
+                            @Value("${file.storage.s3.path-style:true}") boolean pathStyle,
+                            @Value("${file.storage.s3.part-size-bytes:16777216}") long partSizeBytes,
+                            @Value("${file.storage.s3.connect-timeout-ms:10000}") long connectTimeoutMillis,
+                            @Value("${file.storage.s3.read-timeout-ms:60000}") long readTimeoutMillis) {
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.bucket = bucket;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.pathStyle = pathStyle;
+        if (partSizeBytes < 1 || partSizeBytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("file.storage.s3.part-size-bytes fuera de rango: " + partSizeBytes);
+        }
+        if (partSizeBytes < MIN_PART_BYTES) {
+            logger.warn("file.storage.s3.part-size-bytes={} es menor que el minimo de S3 ({}); solo sirve para servicios de prueba",
+                    partSizeBytes, MIN_PART_BYTES);
+        }
+        this.partSize = (int) partSizeBytes;
+        this.readTimeout = Duration.ofMillis(readTimeoutMillis);
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    @Override
+    public void put(String key, InputStream in, long length, String contentType) throws IOException {
+        write(key, in, length, contentType, false);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, InputStream in, long length, String contentType) throws IOException {
+        return write(key, in, length, contentType, true);
+    }
+
+    private boolean write(String key, InputStream in, long length, String contentType, boolean ifAbsent) throws IOException {
+        if (length <= partSize) {
+            byte[] body = in.readNBytes((int) length);
+            if (body.length != length) throw new IOException("Contenido mas corto que lo declarado para " + key);
+            HttpRequest.Builder request = request("PUT", key, Map.of(), HttpRequest.BodyPublishers.ofByteArray(body));
+            if (contentType != null) request.header("Content-Type", contentType);
+            if (ifAbsent) request.header("If-None-Match", "*");
+            HttpResponse<String> response = send(request.build(), HttpResponse.BodyHandlers.ofString());
+            if (ifAbsent && isPreconditionFailure(response)) return false;
+            check(response, "PUT", key);
+            return true;
+        }
+        return multipart(key, in, length, contentType, ifAbsent);
+    }
+
+    private boolean multipart(String key, InputStream in, long length, String contentType, boolean ifAbsent) throws IOException {
+        HttpRequest.Builder create = request("POST", key, Map.of("uploads", ""), HttpRequest.BodyPublishers.noBody());
+        if (contentType != null) create.header("Content-Type", contentType);
+        HttpResponse<String> created = send(create.build(), HttpResponse.BodyHandlers.ofString());
+        check(created, "POST uploads", key);
+        String uploadId = text(parse(created.body()).getDocumentElement(), "UploadId");
+        if (uploadId == null) throw new IOException("S3 no devolvio UploadId para " + key);
+
+        boolean completed = false;
+        try {
+            StringBuilder manifest = new StringBuilder("<CompleteMultipartUpload>");
+            long sent = 0;
+            for (int partNumber = 1; sent < length; partNumber++) {
+                byte[] part = in.readNBytes((int) Math.min(partSize, length - sent));
+                if (part.length == 0) throw new IOException("Contenido mas corto que lo declarado para " + key);
+                HttpResponse<String> uploaded = send(request("PUT", key,
+                        Map.of("partNumber", String.valueOf(partNumber), "uploadId", uploadId),
+                        HttpRequest.BodyPublishers.ofByteArray(part)).build(), HttpResponse.BodyHandlers.ofString());
+                check(uploaded, "PUT part " + partNumber, key);
+                String etag = uploaded.headers().firstValue("ETag").orElseThrow(
+                        () -> new IOException("S3 no devolvio ETag para la parte de " + key));
+                manifest.append("<Part><PartNumber>").append(partNumber).append("</PartNumber><ETag>")
+                        .append(escapeXml(etag)).append("</ETag></Part>");
+                sent += part.length;
+            }
+            manifest.append("</CompleteMultipartUpload>");
+
+            HttpRequest.Builder complete = request("POST", key, Map.of("uploadId", uploadId),
+                    HttpRequest.BodyPublishers.ofString(manifest.toString()));
+            complete.header("Content-Type", "application/xml");
+            if (ifAbsent) complete.header("If-None-Match", "*");
+            HttpResponse<String> done = send(complete.build(), HttpResponse.BodyHandlers.ofString());
+            if (ifAbsent && isPreconditionFailure(done)) return false;
+            check(done, "POST complete", key);
+            // a failure found after the 200 was sent arrives as an <Error> body
+            if (done.body() != null && done.body().contains("<Error>")) {
+                throw new IOException("S3 rechazo completar la subida de " + key + ": " + done.body());
+            }
+            completed = true;
+            return true;
+        } finally {
+            if (!completed) abort(key, uploadId);
+        }
+    }
+
+    // parts of an unfinished upload are billed until aborted
+    private void abort(String key, String uploadId) {
+        try {
+            send(request("DELETE", key, Map.of("uploadId", uploadId), HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding());
+        } catch (IOException ex) {
+            logger.warn("No se pudo abortar la subida multipart {} de {}: {}", uploadId, key, ex.getMessage());
+        }
+    }
+
+    // 412 when the key exists; 409 when a concurrent conditional write to it is still in progress
+    private static boolean isPreconditionFailure(HttpResponse<?> response) {
+        return response.statusCode() == 412 || response.statusCode() == 409;
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        if (length <= 0) return InputStream.nullInputStream();
+        HttpRequest.Builder request = request("GET", key, Map.of(), HttpRequest.BodyPublishers.noBody());
+        request.header("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        HttpResponse<InputStream> response = send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        int status = response.statusCode();
+        if (status == 206) return response.body();
+        try (InputStream body = response.body()) {
+            if (status == 404) throw new NoSuchFileException(key);
+            if (status == 416) return InputStream.nullInputStream(); // offset at or past the end
+            throw new IOException("S3 GET " + key + " respondio " + status + ": "
+                    + new String(body.readNBytes(512), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public StorageObject stat(String key) throws IOException {
+        HttpResponse<Void> response = send(request("HEAD", key, Map.of(), HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) return null;
+        if (response.statusCode() / 100 != 2) throw new IOException("S3 HEAD " + key + " respondio " + response.statusCode());
+        long size = response.headers().firstValueAsLong("Content-Length").orElse(0);
+        long lastModified = response.headers().firstValue("Last-Modified").map(S3StorageBackend::parseHttpDate).orElse(0L);
+        return new StorageObject(key, size, lastModified, response.headers().firstValue("ETag").orElse(null));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        HttpResponse<String> response = send(request("DELETE", key, Map.of(), HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 404) return;
+        check(response, "DELETE", key);
+    }
+
+    // ListObjectsV2, page by page (S3 answers at most 1000 keys per request)
+    @Override
+    public List<StorageObject> list(String prefix) throws IOException {
+        List<StorageObject> objects = new ArrayList<>();
+        String token = null;
+        do {
+            Map<String, String> query = new TreeMap<>();
+            query.put("list-type", "2");
+            query.put("prefix", prefix);
+            if (token != null) query.put("continuation-token", token);
+            HttpResponse<String> response = send(request("GET", null, query, HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            check(response, "LIST", prefix);
+            Element result = parse(response.body()).getDocumentElement();
+            NodeList contents = result.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element item = (Element) contents.item(i);
+                String modified = text(item, "LastModified");
+                long lastModified = 0;
+                if (modified != null) {
+                    try {
+                        lastModified = Instant.parse(modified).toEpochMilli();
+                    } catch (DateTimeParseException ex) {
+                        // leave 0
+                    }
+                }
+                String size = text(item, "Size");
+                objects.add(new StorageObject(text(item, "Key"), size == null ? 0 : Long.parseLong(size),
+                        lastModified, text(item, "ETag")));
+            }
+            token = "true".equals(text(result, "IsTruncated")) ? text(result, "NextContinuationToken") : null;
+        } while (token != null);
+        return objects;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Operacion S3 interrumpida");
+        }
+    }
+
+    private static void check(HttpResponse<String> response, String operation, String key) throws IOException {
+        if (response.statusCode() / 100 == 2) return;
+        throw new IOException("S3 " + operation + " " + key + " respondio " + response.statusCode() + ": " + response.body());
+    }
+
+    // Signed request for the object (key null = the bucket itself) with the given query parameters
+    private HttpRequest.Builder request(String method, String key, Map<String, String> query, HttpRequest.BodyPublisher body) {
+        String host = pathStyle ? endpoint.getHost() : bucket + "." + endpoint.getHost();
+        if (endpoint.getPort() != -1) host += ":" + endpoint.getPort();
+        String basePath = endpoint.getRawPath() == null ? "" : endpoint.getRawPath();
+        String path = basePath + (pathStyle ? "/" + encode(bucket, false) : "") + "/" + (key == null ? "" : encode(key, true));
+
+        StringBuilder canonicalQuery = new StringBuilder();
+        for (Map.Entry<String, String> param : new TreeMap<>(query).entrySet()) {
+            if (canonicalQuery.length() > 0) canonicalQuery.append('&');
+            canonicalQuery.append(encode(param.getKey(), false)).append('=').append(encode(param.getValue(), false));
+        }
+
+        String amzDate = AMZ_DATE.format(Instant.now());
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+        String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery + "\n"
+                + "host:" + host + "\n" + "x-amz-content-sha256:" + UNSIGNED_PAYLOAD + "\n" + "x-amz-date:" + amzDate + "\n"
+                + "\n" + signedHeaders + "\n" + UNSIGNED_PAYLOAD;
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+        byte[] signingKey = hmac(hmac(hmac(hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date), region), "s3"), "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(signingKey, stringToSign));
+
+        URI uri = URI.create(endpoint.getScheme() + "://" + host + path + (canonicalQuery.length() > 0 ? "?" + canonicalQuery : ""));
+        return HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .method(method, body)
+                .header("x-amz-date", amzDate)
+                .header("x-amz-content-sha256", UNSIGNED_PAYLOAD)
+                .header("Authorization", "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope
+                        + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+    }
+
+    // SigV4 URI encoding: everything but unreserved characters is percent-encoded (and '/' too outside keys)
+    static String encode(String value, boolean keepSlash) {
+        StringBuilder out = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (keepSlash && c == '/')) {
+                out.append(c);
+            } else {
+                out.append('%').append(HexFormat.of().withUpperCase().toHexDigits(b));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("SHA-256 no disponible", ex);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HmacSHA256 no disponible", ex);
+        }
+    }
+
+    private static long parseHttpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return 0;
+        }
+    }
+
+    private static Document parse(String xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception ex) {
+            throw new IOException("Respuesta XML de S3 invalida: " + ex.getMessage(), ex);
+        }
+    }
+
+    // text of the first direct child with that name
+    private static String text(Element parent, String name) {
+        for (var node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element child && name.equals(child.getLocalName() != null ? child.getLocalName() : child.getNodeName())) {
+                return child.getTextContent();
+            }
+        }
+        return null;
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,28 @@
+package cl.folletos.servicio;
+
+// One ranked result of SearchIndex.search (kind FOLLETO or MUSICA) with what the results page shows
+public class SearchHit {
+
+    private final String kind;
+    private final Long id;
+    private final String titulo;
+    private final Integer ano;
+    private final String categoria;
+    private final double score;
+
+    public SearchHit(String kind, Long id, String titulo, Integer ano, String categoria, double score) {
+        this.kind = kind;
+        this.id = id;
+        this.titulo = titulo;
+        this.ano = ano;
+        this.categoria = categoria;
+        this.score = score;
+    }
+
+    public String getKind() { return kind; }
+    public Long getId() { return id; }
+    public String getTitulo() { return titulo; }
+    public Integer getAno() { return ano; }
+    public String getCategoria() { return categoria; }
+    public double getScore() { return score; }
+}
@@ -0,0 +1,313 @@
+package cl.folletos.servicio;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.Musica;
+import cl.folletos.repositorio.FolletoRepositorio;
+import cl.folletos.repositorio.MusicaRepositorio;
+
+// In-memory search over Folleto.titulo/descripcion and Musica.titulo. Terms are folded (accents and case
+// dropped, so "cancion" finds "Canción") and every query term matches a term exactly, as a prefix, or
+// with one typo (an insertion, deletion, substitution or swap of two neighbours); all query terms must
+// match and the results are ranked by how well and where (title over description). Typo candidates
+// come from an inverted index of padded trigrams ("$can", "can", ..., "on$") instead of a dictionary
+// scan; prefixes from the sorted dictionary. Built when the application is ready and kept current by
+// FolletoServicio and MusicaServicio on guardar/eliminar, applied once their transaction commits. Rows
+// written by another process (ImportFromFolderRunner) show up after rebuild(): POST /admin/buscar/reindex
+// or a restart.
+@Service
+public class SearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+    public static final String FOLLETO = "FOLLETO";
+    public static final String MUSICA = "MUSICA";
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int TEXT_WEIGHT = 1;
+    // repeated words count, up to this
+    private static final int MAX_TERM_WEIGHT = 6;
+    private static final double EXACT = 1.0;
+    private static final double PREFIX = 0.7;
+    private static final double TYPO = 0.5;
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MIN_TYPO_LENGTH = 4;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final FolletoRepositorio folletos;
+    private final MusicaRepositorio musicas;
+    private final int maxResults;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // "FOLLETO/12" -> indexed document
+    private final Map<String, Doc> docs = new HashMap<>();
+    // term -> document key -> weight
+    private final NavigableMap<String, Map<String, Integer>> postings = new TreeMap<>();
+    // trigram -> terms containing it
+    private final Map<String, Set<String>> grams = new HashMap<>();
+
+    private static final class Doc {
+        final SearchHit shown;
+        final Map<String, Integer> terms;
+
+        Doc(SearchHit shown, Map<String, Integer> terms) {
+            this.shown = shown;
+            this.terms = terms;
+        }
+    }
+
+    public SearchIndex(FolletoRepositorio folletos, MusicaRepositorio musicas,
+                       @Value("${search.max-results:50}") int maxResults) {
+        this.folletos = folletos;
+        this.musicas = musicas;
+        this.maxResults = Math.max(1, maxResults);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long t0 = System.currentTimeMillis();
+        List<Folleto> allFolletos = folletos.findAll();
+        List<Musica> allMusicas = musicas.findAll();
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            postings.clear();
+            grams.clear();
+            for (Folleto f : allFolletos) indexFolleto(f);
+            for (Musica m : allMusicas) indexMusica(m);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Indice de busqueda: {} documentos, {} terminos en {} ms", docs.size(), postings.size(),
+                System.currentTimeMillis() - t0);
+    }
+
+    // The index changes below wait for the caller's transaction to commit, if there is one, so a rollback
+    // never leaves them behind
+    public void putFolleto(Folleto f) {
+        if (f == null || f.getId() == null) return;
+        afterCommit(() -> indexFolleto(f));
+    }
+
+    public void putMusica(Musica m) {
+        if (m == null || m.getId() == null) return;
+        afterCommit(() -> indexMusica(m));
+    }
+
+    public void remove(String kind, Long id) {
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                unindex(kind + "/" + id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    // documents in the index
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private void indexFolleto(Folleto f) {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, f.getTitulo(), TITLE_WEIGHT);
+        addTerms(terms, f.getDescripcion(), TEXT_WEIGHT);
+        put(FOLLETO, f.getId(), new SearchHit(FOLLETO, f.getId(), f.getTitulo(), f.getAno(),
+                f.getCategoria() == null ? "FOLLETOS" : f.getCategoria(), 0), terms);
+    }
+
+    private void indexMusica(Musica m) {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, m.getTitulo(), TITLE_WEIGHT);
+        put(MUSICA, m.getId(), new SearchHit(MUSICA, m.getId(), m.getTitulo(), m.getAno(), null, 0), terms);
+    }
+
+    private void put(String kind, Long id, SearchHit shown, Map<String, Integer> terms) {
+        String key = kind + "/" + id;
+        lock.writeLock().lock();
+        try {
+            unindex(key);
+            docs.put(key, new Doc(shown, terms));
+            for (Map.Entry<String, Integer> e : terms.entrySet()) {
+                Map<String, Integer> docsWithTerm = postings.get(e.getKey());
+                if (docsWithTerm == null) {
+                    docsWithTerm = new HashMap<>();
+                    postings.put(e.getKey(), docsWithTerm);
+                    for (String g : trigrams(e.getKey())) grams.computeIfAbsent(g, k -> new HashSet<>()).add(e.getKey());
+                }
+                docsWithTerm.put(key, e.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // caller holds the write lock
+    private void unindex(String key) {
+        Doc old = docs.remove(key);
+        if (old == null) return;
+        for (String term : old.terms.keySet()) {
+            Map<String, Integer> docsWithTerm = postings.get(term);
+            if (docsWithTerm == null) continue;
+            docsWithTerm.remove(key);
+            if (!docsWithTerm.isEmpty()) continue;
+            postings.remove(term);
+            for (String g : trigrams(term)) {
+                Set<String> terms = grams.get(g);
+                if (terms == null) continue;
+                terms.remove(term);
+                if (terms.isEmpty()) grams.remove(g);
+            }
+        }
+    }
+
+    public List<SearchHit> search(String query) {
+        return search(query, maxResults);
+    }
+
+    public List<SearchHit> search(String query, int limit) {
+        Set<String> queryTerms = new LinkedHashSet<>(terms(query));
+        if (queryTerms.isEmpty()) return List.of();
+        lock.readLock().lock();
+        try {
+            Map<String, Double> scores = null;
+            for (String q : queryTerms) {
+                Map<String, Double> termScores = new HashMap<>();
+                for (Map.Entry<String, Double> match : matches(q).entrySet()) {
+                    for (Map.Entry<String, Integer> posting : postings.get(match.getKey()).entrySet()) {
+                        termScores.merge(posting.getKey(), match.getValue() * posting.getValue(), Math::max);
+                    }
+                }
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    // every query term must match
+                    Map<String, Double> both = new HashMap<>();
+                    for (Map.Entry<String, Double> e : scores.entrySet()) {
+                        Double s = termScores.get(e.getKey());
+                        if (s != null) both.put(e.getKey(), e.getValue() + s);
+                    }
+                    scores = both;
+                }
+                if (scores.isEmpty()) return List.of();
+            }
+            List<SearchHit> hits = new ArrayList<>(scores.size());
+            for (Map.Entry<String, Double> e : scores.entrySet()) {
+                SearchHit s = docs.get(e.getKey()).shown;
+                hits.add(new SearchHit(s.getKind(), s.getId(), s.getTitulo(), s.getAno(), s.getCategoria(), e.getValue()));
+            }
+            hits.sort(Comparator.comparingDouble(SearchHit::getScore).reversed()
+                    .thenComparing(h -> h.getTitulo() == null ? "" : h.getTitulo(), String.CASE_INSENSITIVE_ORDER)
+                    .thenComparing(SearchHit::getId));
+            return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Indexed terms matching one query term -> match factor; caller holds the read lock
+    private Map<String, Double> matches(String q) {
+        Map<String, Double> found = new HashMap<>();
+        if (q.length() >= MIN_TYPO_LENGTH) {
+            // one edit changes at most 3 of the query's trigrams, a swap 4
+            Map<String, Integer> shared = new HashMap<>();
+            Set<String> queryGrams = trigrams(q);
+            for (String g : queryGrams) {
+                Set<String> terms = grams.get(g);
+                if (terms != null) for (String t : terms) shared.merge(t, 1, Integer::sum);
+            }
+            int needed = Math.max(1, queryGrams.size() - 4);
+            for (Map.Entry<String, Integer> e : shared.entrySet()) {
+                if (e.getValue() >= needed && withinOneEdit(q, e.getKey())) found.put(e.getKey(), TYPO);
+            }
+        }
+        if (q.length() >= MIN_PREFIX_LENGTH) {
+            for (String t : postings.subMap(q, false, q + Character.MAX_VALUE, false).keySet()) found.put(t, PREFIX);
+        }
+        if (postings.containsKey(q)) found.put(q, EXACT);
+        return found;
+    }
+
+    private static void addTerms(Map<String, Integer> into, String text, int weight) {
+        for (String t : terms(text)) into.merge(t, weight, (a, b) -> Math.min(MAX_TERM_WEIGHT, a + b));
+    }
+
+    // Folded words of a text (compatibility forms too: º is o): "¿Canción Nº 5?" -> [cancion, no, 5]
+    static List<String> terms(String text) {
+        if (text == null || text.isBlank()) return List.of();
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("").toLowerCase(Locale.ROOT);
+        List<String> out = new ArrayList<>();
+        for (String t : SEPARATORS.split(folded)) {
+            if (!t.isEmpty()) out.add(t);
+        }
+        return out;
+    }
+
+    private static Set<String> trigrams(String term) {
+        String padded = "$" + term + "$";
+        Set<String> out = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) out.add(padded.substring(i, i + 3));
+        return out;
+    }
+
+    // Levenshtein distance <= 1, counting a swap of two neighbouring letters as one edit
+    static boolean withinOneEdit(String a, String b) {
+        int la = a.length();
+        int lb = b.length();
+        if (Math.abs(la - lb) > 1) return false;
+        int i = 0;
+        while (i < Math.min(la, lb) && a.charAt(i) == b.charAt(i)) i++;
+        if (i == la && i == lb) return true;
+        if (la == lb) {
+            if (a.regionMatches(i + 1, b, i + 1, la - i - 1)) return true; // substitution
+            return i + 1 < la && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+                    && a.regionMatches(i + 2, b, i + 2, la - i - 2); // swap
+        }
+        // one insertion/deletion
+        return la > lb ? a.regionMatches(i + 1, b, i, lb - i) : b.regionMatches(i + 1, a, i, la - i);
+    }
+}
@@ -0,0 +1,445 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Small blobs (covers and their thumbnails) packed into large append-only segment files under
+// uploads/.segments, instead of one file (inode, directory entry, open/close per request) each.
+// A segment is a sequence of records: header + content for a write, header alone for a delete.
+// Records are self-describing, so the in-memory index (key -> segment, offset, length) is rebuilt
+// on startup by reading the headers only; the last record of the newest segment is checked against
+// its CRC and cut off if a crash left it incomplete. Later records win over earlier ones. Reads are
+// slices of read-only memory maps of the segments. Deleted and overwritten bytes are reclaimed by
+// compaction, which copies the live records of a mostly dead segment to the end and drops the file.
+final class SegmentStore implements StorageBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentStore.class);
+
+    static final String SEGMENTS_DIR = ".segments";
+
+    private static final int MAGIC = 0x46534731; // "FSG1"
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    // magic, type, key length, lastModified, length, crc32
+    private static final int FIXED_HEADER = 4 + 1 + 2 + 8 + 4 + 4;
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    // segments whose dead bytes exceed this share of their size are compacted
+    private final double compactRatio;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    // segment id -> bytes no longer referenced by the index
+    private final Map<Integer, Long> deadBytes = new ConcurrentHashMap<>();
+    private final Map<Integer, MappedByteBuffer> maps = new ConcurrentHashMap<>();
+    private final TreeMap<Integer, Long> segmentSizes = new TreeMap<>();
+
+    // guarded by this: the segment being appended to
+    private int activeId;
+    private FileChannel active;
+
+    // where one stored blob is
+    static final class Entry {
+        final int segment;
+        final long offset; // of the content, past the header
+        final int length;
+        final long lastModified;
+        final int crc;
+
+        Entry(int segment, long offset, int length, long lastModified, int crc) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.crc = crc;
+        }
+
+        long recordBytes(String key) {
+            return FIXED_HEADER + key.getBytes(StandardCharsets.UTF_8).length + length;
+        }
+    }
+
+    SegmentStore(Path rootLocation, long maxSegmentBytes, double compactRatio) throws IOException {
+        this.dir = rootLocation.resolve(SEGMENTS_DIR);
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compactRatio = compactRatio;
+        Files.createDirectories(dir);
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "seg-*.dat")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Integer.valueOf(name.substring(4, name.length() - 4)));
+                } catch (NumberFormatException ex) {
+                    // not ours
+                }
+            }
+        }
+        ids.sort(null);
+        for (int i = 0; i < ids.size(); i++) replay(ids.get(i), i == ids.size() - 1);
+        activeId = ids.isEmpty() ? 1 : ids.get(ids.size() - 1);
+        openActive();
+    }
+
+    private Path segmentFile(int id) {
+        return dir.resolve(String.format("seg-%08d.dat", id));
+    }
+
+    // Applies the records of one segment to the index; the newest one is cut back to its last whole record
+    private void replay(int id, boolean newest) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(id), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER).order(ByteOrder.BIG_ENDIAN);
+            while (position < size) {
+                header.clear();
+                if (readFully(channel, header, position) < FIXED_HEADER || header.getInt(0) != MAGIC) break;
+                byte type = header.get(4);
+                int keyLength = header.getShort(5) & 0xffff;
+                long lastModified = header.getLong(7);
+                int length = header.getInt(15);
+                int crc = header.getInt(19);
+                long contentStart = position + FIXED_HEADER + keyLength;
+                if (length < 0 || contentStart + length > size) break;
+                ByteBuffer keyBytes = ByteBuffer.allocate(keyLength);
+                if (readFully(channel, keyBytes, position + FIXED_HEADER) < keyLength) break;
+                boolean last = contentStart + length == size;
+                if (newest && last && type == PUT && crcOf(channel, contentStart, length) != crc) break;
+                String key = new String(keyBytes.array(), StandardCharsets.UTF_8);
+                long recordBytes = FIXED_HEADER + keyLength + length;
+                if (type == PUT) {
+                    Entry previous = index.put(key, new Entry(id, contentStart, length, lastModified, crc));
+                    if (previous != null) addDead(previous.segment, previous.recordBytes(key));
+                } else if (type == DELETE) {
+                    Entry previous = index.remove(key);
+                    if (previous != null) addDead(previous.segment, previous.recordBytes(key));
+                    addDead(id, recordBytes);
+                } else {
+                    break;
+                }
+                position = contentStart + length;
+            }
+            if (position < size) {
+                logger.warn("Segmento {} truncado en {} de {} bytes (registro incompleto o danado)", id, position, size);
+                if (newest) channel.truncate(position);
+                else addDead(id, size - position);
+            }
+            segmentSizes.put(id, newest ? position : size);
+        }
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static int crcOf(FileChannel channel, long start, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, 64 * 1024));
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n <= 0) break;
+            buffer.flip();
+            crc.update(buffer);
+            position += n;
+        }
+        return (int) crc.getValue();
+    }
+
+    private void addDead(int segment, long bytes) {
+        deadBytes.merge(segment, bytes, Long::sum);
+    }
+
+    private void openActive() throws IOException {
+        active = FileChannel.open(segmentFile(activeId), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        segmentSizes.putIfAbsent(activeId, active.size());
+    }
+
+    boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public void put(String key, InputStream in, long length, String contentType) throws IOException {
+        byte[] content = readContent(in, length);
+        synchronized (this) {
+            append(key, content, System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, InputStream in, long length, String contentType) throws IOException {
+        byte[] content = readContent(in, length);
+        synchronized (this) {
+            if (index.containsKey(key)) return false;
+            append(key, content, System.currentTimeMillis());
+            return true;
+        }
+    }
+
+    private static byte[] readContent(InputStream in, long length) throws IOException {
+        if (length > Integer.MAX_VALUE - FIXED_HEADER) throw new IOException("Contenido demasiado grande para un segmento: " + length);
+        byte[] content = in.readNBytes((int) length);
+        if (content.length != length) throw new IOException("Contenido mas corto que lo declarado");
+        return content;
+    }
+
+    // caller holds the lock
+    private void append(String key, byte[] content, long lastModified) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xffff) throw new IOException("Clave demasiado larga: " + key);
+        long recordBytes = FIXED_HEADER + keyBytes.length + content.length;
+        long position = active.size();
+        if (position > 0 && position + recordBytes > maxSegmentBytes) {
+            active.close();
+            activeId++;
+            openActive();
+            position = 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ByteBuffer record = ByteBuffer.allocate((int) recordBytes);
+        record.putInt(MAGIC).put(PUT).putShort((short) keyBytes.length).putLong(lastModified)
+                .putInt(content.length).putInt((int) crc.getValue()).put(keyBytes).put(content).flip();
+        writeFully(record, position);
+        segmentSizes.put(activeId, position + recordBytes);
+        Entry previous = index.put(key, new Entry(activeId, position + FIXED_HEADER + keyBytes.length, content.length,
+                lastModified, (int) crc.getValue()));
+        if (previous != null) addDead(previous.segment, previous.recordBytes(key));
+    }
+
+    private void writeFully(ByteBuffer record, long position) throws IOException {
+        long at = position;
+        while (record.hasRemaining()) at += active.write(record, at);
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null) throw new NoSuchFileException(key);
+        ByteBuffer content;
+        try {
+            content = slice(entry);
+        } catch (NoSuchFileException ex) {
+            // the segment was compacted after the lookup: the record now lives further on
+            entry = index.get(key);
+            if (entry == null) throw new NoSuchFileException(key);
+            content = slice(entry);
+        }
+        if (offset >= content.limit() || length <= 0) return InputStream.nullInputStream();
+        content.position((int) offset).limit((int) (offset + Math.min(length, content.limit() - offset)));
+        return new ByteBufferInputStream(content);
+    }
+
+    // The content as a read-only slice of the segment's memory map
+    ByteBuffer slice(Entry entry) throws IOException {
+        MappedByteBuffer map = maps.get(entry.segment);
+        if (map == null || map.capacity() < entry.offset + entry.length) map = remap(entry.segment, entry.offset + entry.length);
+        ByteBuffer view = map.duplicate();
+        view.position((int) entry.offset).limit((int) (entry.offset + entry.length));
+        return view.slice();
+    }
+
+    // the active segment grows after it was mapped: map it again up to its current size
+    private synchronized MappedByteBuffer remap(int segment, long needed) throws IOException {
+        MappedByteBuffer map = maps.get(segment);
+        if (map != null && map.capacity() >= needed) return map;
+        try (FileChannel channel = FileChannel.open(segmentFile(segment), StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException ex) {
+            throw new NoSuchFileException("segmento " + segment + " compactado");
+        }
+        maps.put(segment, map);
+        return map;
+    }
+
+    @Override
+    public StorageObject stat(String key) {
+        Entry entry = index.get(key);
+        if (entry == null) return null;
+        return new StorageObject(key, entry.length, entry.lastModified,
+                "\"" + Long.toHexString(entry.lastModified) + "-" + Integer.toHexString(entry.crc) + "\"");
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        synchronized (this) {
+            Entry previous = index.get(key);
+            if (previous == null) return;
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            long recordBytes = FIXED_HEADER + keyBytes.length;
+            long position = active.size();
+            if (position > 0 && position + recordBytes > maxSegmentBytes) {
+                active.close();
+                activeId++;
+                openActive();
+                position = 0;
+            }
+            ByteBuffer record = ByteBuffer.allocate((int) recordBytes);
+            record.putInt(MAGIC).put(DELETE).putShort((short) keyBytes.length).putLong(System.currentTimeMillis())
+                    .putInt(0).putInt(0).put(keyBytes).flip();
+            writeFully(record, position);
+            segmentSizes.put(activeId, position + recordBytes);
+            index.remove(key);
+            addDead(previous.segment, previous.recordBytes(key));
+            addDead(activeId, recordBytes);
+        }
+        compactIfWorthIt();
+    }
+
+    @Override
+    public List<StorageObject> list(String prefix) {
+        List<StorageObject> objects = new ArrayList<>();
+        for (String key : index.keySet()) {
+            if (key.startsWith(prefix)) objects.add(stat(key));
+        }
+        objects.removeIf(o -> o == null); // deleted while listing
+        objects.sort(Comparator.comparing(StorageObject::getKey));
+        return objects;
+    }
+
+    private void compactIfWorthIt() {
+        try {
+            compact();
+        } catch (IOException ex) {
+            logger.warn("No se pudo compactar los segmentos: {}", ex.getMessage());
+        }
+    }
+
+    // Rewrites every closed segment whose dead share passed compactRatio; returns the bytes reclaimed
+    synchronized long compact() throws IOException {
+        long reclaimed = 0;
+        for (Integer id : new ArrayList<>(segmentSizes.keySet())) {
+            if (id == activeId) continue;
+            long size = segmentSizes.get(id);
+            long dead = deadBytes.getOrDefault(id, 0L);
+            if (size > 0 && (double) dead / size < compactRatio) continue;
+            reclaimed += size - rewriteLive(id);
+            segmentSizes.remove(id);
+            deadBytes.remove(id);
+            maps.remove(id); // readers holding a slice keep the mapping alive until they drop it
+            Files.deleteIfExists(segmentFile(id));
+        }
+        if (reclaimed > 0) logger.info("Segmentos compactados: {} bytes recuperados", reclaimed);
+        return reclaimed;
+    }
+
+    // Copies the records of a segment that are still the current version of their key to the active
+    // segment; a delete is kept while an older segment might still hold the write it cancels.
+    // Returns the bytes copied.
+    private long rewriteLive(int id) throws IOException {
+        boolean olderExists = segmentSizes.firstKey() < id;
+        long copied = 0;
+        try (FileChannel channel = FileChannel.open(segmentFile(id), StandardOpenOption.READ)) {
+            long size = segmentSizes.get(id);
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER);
+            while (position < size) {
+                header.clear();
+                if (readFully(channel, header, position) < FIXED_HEADER || header.getInt(0) != MAGIC) break;
+                byte type = header.get(4);
+                int keyLength = header.getShort(5) & 0xffff;
+                long lastModified = header.getLong(7);
+                int length = header.getInt(15);
+                ByteBuffer keyBytes = ByteBuffer.allocate(keyLength);
+                readFully(channel, keyBytes, position + FIXED_HEADER);
+                String key = new String(keyBytes.array(), StandardCharsets.UTF_8);
+                long contentStart = position + FIXED_HEADER + keyLength;
+                Entry current = index.get(key);
+                if (type == PUT && current != null && current.segment == id && current.offset == contentStart) {
+                    ByteBuffer content = ByteBuffer.allocate(length);
+                    readFully(channel, content, contentStart);
+                    append(key, content.array(), lastModified);
+                    copied += FIXED_HEADER + keyLength + length;
+                } else if (type == DELETE && current == null && olderExists) {
+                    long recordBytes = FIXED_HEADER + keyLength;
+                    ByteBuffer record = ByteBuffer.allocate((int) recordBytes);
+                    record.putInt(MAGIC).put(DELETE).putShort((short) keyLength).putLong(lastModified)
+                            .putInt(0).putInt(0).put(keyBytes.array()).flip();
+                    long at = active.size();
+                    writeFully(record, at);
+                    segmentSizes.put(activeId, at + recordBytes);
+                    addDead(activeId, recordBytes);
+                    copied += recordBytes;
+                }
+                position = contentStart + length;
+            }
+        }
+        return copied;
+    }
+
+    // segment count, live/dead bytes, for stats and tests
+    synchronized Map<String, Long> usage() {
+        long total = 0;
+        long dead = 0;
+        for (Map.Entry<Integer, Long> segment : segmentSizes.entrySet()) {
+            total += segment.getValue();
+            dead += deadBytes.getOrDefault(segment.getKey(), 0L);
+        }
+        Map<String, Long> usage = new TreeMap<>();
+        usage.put("segments", (long) segmentSizes.size());
+        usage.put("objects", (long) index.size());
+        usage.put("bytes", total);
+        usage.put("deadBytes", dead);
+        return usage;
+    }
+
+    synchronized void close() throws IOException {
+        active.close();
+        maps.clear();
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package cl.folletos.servicio;
+
+import java.nio.file.Path;
+
+// Everything the serving layer needs to answer a request for a stored file. Local files carry their
+// path; objects of a remote StorageBackend carry the backend and key instead (path is then null).
+public class ServedFile {
+
+    private final Path path;
+    private final StorageBackend backend;
+    private final String key;
+    private final long length;
+    private final String contentType;
+    private final String downloadName; // name sent in Content-Disposition
+    private final String etag;
+    private final long lastModified; // epoch millis
+
+    public ServedFile(Path path, long length, String contentType, String downloadName, String etag, long lastModified) {
+        this(path, null, null, length, contentType, downloadName, etag, lastModified);
+    }
+
+    public ServedFile(StorageBackend backend, String key, long length, String contentType, String downloadName, String etag, long lastModified) {
+        this(null, backend, key, length, contentType, downloadName, etag, lastModified);
+    }
+
+    private ServedFile(Path path, StorageBackend backend, String key, long length, String contentType, String downloadName,
+                       String etag, long lastModified) {
+        this.path = path;
+        this.backend = backend;
+        this.key = key;
+        this.length = length;
+        this.contentType = contentType;
+        this.downloadName = downloadName;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public Path getPath() { return path; }
+
+    public StorageBackend getBackend() { return backend; }
+
+    public String getKey() { return key; }
+
+    // path or key, for logs and cache keys
+    public String getLocation() { return path != null ? path.toString() : key; }
+
+    public long getLength() { return length; }
+
+    public String getContentType() { return contentType; }
+
+    public String getDownloadName() { return downloadName; }
+
+    public String getEtag() { return etag; }
+
+    public long getLastModified() { return lastModified; }
+}
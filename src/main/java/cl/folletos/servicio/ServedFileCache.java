@@ -0,0 +1,156 @@
+package cl.folletos.servicio;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Bounded LRU of resolved ServedFile descriptors (path, length, type, validators) for the hot
+// /files/** and /musica/files/** requests, so a repeat hit skips the JPA lookup entirely.
+// Entries are dropped per storage directory (uploads/folletos/<id> or uploads/musica/<id>) whenever
+// something under it is stored, deleted or edited. Folleto and album ids overlap, so an invalidation
+// names its StorageArea and leaves the other area's entries for the same id alone.
+@Service
+public class ServedFileCache {
+
+    private final int maxEntries;
+    private final Map<Key, ServedFile> entries;
+    // the keys of each directory, so an invalidation does not scan the whole map; guarded by entries
+    private final Map<Owner, Set<Key>> byOwner = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // bumped on every invalidation; a descriptor loaded before a bump is not cached (it may be stale)
+    private final AtomicLong generation = new AtomicLong();
+
+    public ServedFileCache(@Value("${file.serving.cache-max-entries:10000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ServedFile> eldest) {
+                if (size() <= ServedFileCache.this.maxEntries) return false;
+                evictions.increment();
+                forget(eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    public static Key folletoType(Long folletoId, String type) {
+        return new Key(StorageArea.FOLLETO, 't', folletoId, type);
+    }
+
+    public static Key folletoFile(Long folletoId, Long fileId) {
+        return new Key(StorageArea.FOLLETO, 'f', folletoId, String.valueOf(fileId));
+    }
+
+    public static Key musica(Long musicaId, String filename) {
+        return new Key(StorageArea.MUSICA, 'm', musicaId, filename);
+    }
+
+    public ServedFile get(Key key) {
+        ServedFile file;
+        synchronized (entries) {
+            file = entries.get(key);
+        }
+        if (file != null) hits.increment(); else misses.increment();
+        return file;
+    }
+
+    // Take this before loading a descriptor and hand it back to put()
+    public long generation() {
+        return generation.get();
+    }
+
+    public void put(Key key, ServedFile file, long loadedAt) {
+        if (file == null || maxEntries <= 0) return;
+        synchronized (entries) {
+            // checked under the lock so an invalidation cannot slip in between the check and the insert
+            if (generation.get() != loadedAt) return;
+            entries.put(key, file);
+            byOwner.computeIfAbsent(key.owner(), o -> new HashSet<>()).add(key);
+        }
+    }
+
+    // Drop everything stored under uploads/<area>/<ownerId>
+    public void invalidate(StorageArea area, Long ownerId) {
+        if (area == null || ownerId == null) return;
+        synchronized (entries) {
+            generation.incrementAndGet();
+            Set<Key> keys = byOwner.remove(new Owner(area, ownerId));
+            if (keys != null) entries.keySet().removeAll(keys);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+            byOwner.clear();
+        }
+    }
+
+    // caller holds the entries lock
+    private void forget(Key key) {
+        Set<Key> keys = byOwner.get(key.owner());
+        if (keys == null) return;
+        keys.remove(key);
+        if (keys.isEmpty()) byOwner.remove(key.owner());
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("evictions", evictions.sum());
+        stats.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        return stats;
+    }
+
+    private record Owner(StorageArea area, long id) {}
+
+    public static final class Key {
+        private final StorageArea area;
+        private final char kind;
+        private final long ownerId;
+        private final String name;
+
+        private Key(StorageArea area, char kind, Long ownerId, String name) {
+            this.area = area;
+            this.kind = kind;
+            this.ownerId = ownerId;
+            this.name = name;
+        }
+
+        Owner owner() {
+            return new Owner(area, ownerId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return kind == k.kind && ownerId == k.ownerId && Objects.equals(name, k.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, ownerId, name);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package cl.folletos.servicio;
+
+// Namespaces of the uploads tree: folletos and musica albums have separate numeric ids, so their files
+// live under separate directories (uploads/folletos/..., uploads/musica/...)
+public enum StorageArea {
+    FOLLETO("folletos"),
+    MUSICA("musica");
+
+    private final String directory;
+
+    StorageArea(String directory) {
+        this.directory = directory;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,37 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+// Where the bytes of stored files live. Keys are '/'-separated paths relative to the storage root
+// (folletos/3a/12/pdf_x.pdf). LocalStorageBackend keeps them under file.storage.location and is the
+// default; S3StorageBackend puts them in an S3-compatible bucket (file.storage.backend=s3).
+public interface StorageBackend {
+
+    // Writes the object, replacing any previous one under the key; length is the exact byte count of in
+    void put(String key, InputStream in, long length, String contentType) throws IOException;
+
+    // Same, but only when nothing is stored under the key yet; false (and nothing written) otherwise.
+    // Exactly one of several concurrent callers for a key wins.
+    boolean putIfAbsent(String key, InputStream in, long length, String contentType) throws IOException;
+
+    // length bytes starting at offset (fewer if the object is shorter); NoSuchFileException if missing
+    InputStream openRange(String key, long offset, long length) throws IOException;
+
+    // null if missing
+    StorageObject stat(String key) throws IOException;
+
+    // no-op if missing
+    void delete(String key) throws IOException;
+
+    // every object whose key starts with prefix, in key order
+    List<StorageObject> list(String prefix) throws IOException;
+
+    // The file behind the key when objects are plain local files (sendfile, hard links, cover
+    // thumbnails need one); null for remote backends
+    default Path localPath(String key) {
+        return null;
+    }
+}
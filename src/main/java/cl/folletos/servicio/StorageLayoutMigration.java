@@ -0,0 +1,42 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+// Moves the flat uploads/<id> tree into the sharded, namespaced layout one directory at a time while
+// the application keeps serving: FileStorageService reads both layouts until the last directory is
+// gone. The rows decide where each file belongs, since a flat directory may mix the files of folleto
+// <id> and album <id>. Safe to interrupt and run again.
+@Service
+public class StorageLayoutMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageLayoutMigration.class);
+
+    @Autowired
+    private FileStorageService storageService;
+
+    @Autowired
+    private StoredFileReferences references;
+
+    public int migrate() throws IOException {
+        List<Long> ids = storageService.legacyEntityIds();
+        if (ids.isEmpty()) return 0;
+        logger.info("Migrando {} directorios de uploads al formato por areas", ids.size());
+        int moved = 0;
+        for (Long id : ids) {
+            try {
+                moved += storageService.migrateLegacyEntity(id, references.folletoFilenames(id), references.musicaFilenames(id));
+            } catch (IOException ex) {
+                logger.warn("Migracion: no se pudo mover uploads/{}: {}", id, ex.getMessage());
+            }
+        }
+        boolean done = storageService.finishLegacyMigration();
+        logger.info("Migracion de uploads {}: {} archivos movidos", done ? "terminada" : "incompleta", moved);
+        return moved;
+    }
+}
@@ -0,0 +1,25 @@
+package cl.folletos.servicio;
+
+// Size and validators of one object in a StorageBackend
+public class StorageObject {
+
+    private final String key;
+    private final long size;
+    private final long lastModified; // epoch millis
+    private final String etag; // quoted, ready for the ETag header
+
+    public StorageObject(String key, long size, long lastModified, String etag) {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.etag = etag;
+    }
+
+    public String getKey() { return key; }
+
+    public long getSize() { return size; }
+
+    public long getLastModified() { return lastModified; }
+
+    public String getEtag() { return etag; }
+}
@@ -0,0 +1,96 @@
+package cl.folletos.servicio;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Recounts the usage counters from the files themselves: for the first population and to correct
+// drift (counters updated by hand, files changed behind the application's back). Files stored or
+// deleted while a recount runs may be off until the next one.
+@Service
+public class StorageUsageRebuild {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageUsageRebuild.class);
+
+    private final FileStorageService storage;
+    private final StorageUsageService usage;
+    private final int threads;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Map<String, Object> lastRun;
+
+    public StorageUsageRebuild(FileStorageService storage, StorageUsageService usage,
+                               @Value("${file.usage.rebuild-threads:4}") int threads) {
+        this.storage = storage;
+        this.usage = usage;
+        this.threads = Math.max(1, threads);
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    // Outcome of the last recount (null if none ran yet)
+    public Map<String, Object> lastRun() {
+        return lastRun;
+    }
+
+    // Starts a recount on a background thread; false if one is already running
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) return false;
+        Thread worker = new Thread(() -> {
+            try {
+                doRebuild();
+            } catch (Exception ex) {
+                logger.error("Error recontando el uso de almacenamiento: {}", ex.getMessage(), ex);
+            } finally {
+                running.set(false);
+            }
+        }, "storage-usage-rebuild");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    // Recounts on the calling thread; false if a recount is already running
+    public boolean rebuild() throws IOException {
+        if (!running.compareAndSet(false, true)) return false;
+        try {
+            doRebuild();
+            return true;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void doRebuild() throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, Object> run = new LinkedHashMap<>();
+        usage.flush();
+        for (StorageArea area : StorageArea.values()) {
+            Map<Long, long[]> measured = storage.measureArea(area, threads);
+            usage.replace(area, measured);
+            long bytes = 0;
+            long files = 0;
+            for (long[] m : measured.values()) {
+                bytes += m[0];
+                files += m[1];
+            }
+            Map<String, Long> totals = new LinkedHashMap<>();
+            totals.put("entities", (long) measured.size());
+            totals.put("bytes", bytes);
+            totals.put("files", files);
+            run.put(area.name(), totals);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        run.put("finishedAt", System.currentTimeMillis());
+        run.put("elapsedMs", elapsed);
+        lastRun = run;
+        logger.info("Uso de almacenamiento recontado en {} ms: {}", elapsed, run);
+    }
+}
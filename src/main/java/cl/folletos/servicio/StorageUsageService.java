@@ -0,0 +1,184 @@
+package cl.folletos.servicio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.StorageUsage;
+import cl.folletos.repositorio.StorageUsageRepositorio;
+import jakarta.annotation.PreDestroy;
+
+// Running byte/file counters per folleto and album (StorageUsage rows). FileStorageService reports
+// every store and delete here; the deltas are summed in memory and written every
+// file.usage.flush-seconds as one UPDATE per touched entity, outside the caller's transaction, so an
+// import of a thousand tracks costs a single row update and a rolled-back row never undoes a file
+// that was really written. Per-category figures are grouped from the folleto rows when asked for,
+// since a folleto can change category. StorageUsageRebuild recounts everything from the files.
+@Service
+public class StorageUsageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageUsageService.class);
+
+    private final StorageUsageRepositorio usages;
+    private final TransactionOperations transactions;
+    // "AREA/id" -> {bytes, files} not yet written
+    private final Map<String, long[]> pending = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor flusher;
+
+    public StorageUsageService(StorageUsageRepositorio usages, TransactionOperations transactions,
+                               @Value("${file.usage.flush-seconds:5}") long flushSeconds) {
+        this.usages = usages;
+        this.transactions = transactions;
+        this.flusher = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "storage-usage-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long every = Math.max(1, flushSeconds);
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, every, every, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        flushQuietly();
+    }
+
+    public void record(StorageArea area, Long id, long bytes, long files) {
+        if (id == null || (bytes == 0 && files == 0)) return;
+        pending.merge(area.name() + "/" + id, new long[] {bytes, files}, (sum, delta) -> {
+            sum[0] += delta[0];
+            sum[1] += delta[1];
+            return sum;
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception ex) {
+            logger.warn("No se pudieron guardar los contadores de almacenamiento: {}", ex.getMessage());
+        }
+    }
+
+    // Writes the pending deltas; on failure they are put back for the next attempt
+    public synchronized void flush() {
+        if (pending.isEmpty()) return;
+        Map<String, long[]> batch = new LinkedHashMap<>();
+        for (String key : new ArrayList<>(pending.keySet())) {
+            long[] delta = pending.remove(key);
+            if (delta != null && (delta[0] != 0 || delta[1] != 0)) batch.put(key, delta);
+        }
+        if (batch.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        try {
+            transactions.executeWithoutResult(status -> {
+                for (Map.Entry<String, long[]> e : batch.entrySet()) {
+                    int slash = e.getKey().indexOf('/');
+                    String area = e.getKey().substring(0, slash);
+                    Long id = Long.valueOf(e.getKey().substring(slash + 1));
+                    long[] delta = e.getValue();
+                    if (usages.add(area, id, delta[0], delta[1], now) == 0) {
+                        usages.save(row(area, id, delta[0], delta[1], now));
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            for (Map.Entry<String, long[]> e : batch.entrySet()) {
+                String[] parts = e.getKey().split("/");
+                record(StorageArea.valueOf(parts[0]), Long.valueOf(parts[1]), e.getValue()[0], e.getValue()[1]);
+            }
+            throw ex;
+        }
+    }
+
+    // Replaces the counters of an area with a fresh count. Deltas still pending for the area are
+    // dropped: the count already includes those files.
+    public synchronized void replace(StorageArea area, Map<Long, long[]> measured) {
+        pending.keySet().removeIf(key -> key.startsWith(area.name() + "/"));
+        long now = System.currentTimeMillis();
+        List<StorageUsage> rows = new ArrayList<>(measured.size());
+        for (Map.Entry<Long, long[]> e : measured.entrySet()) {
+            rows.add(row(area.name(), e.getKey(), e.getValue()[0], e.getValue()[1], now));
+        }
+        transactions.executeWithoutResult(status -> {
+            usages.deleteByAreaInBulk(area.name());
+            usages.saveAll(rows);
+        });
+    }
+
+    // Counters of one folleto or album (pending deltas included)
+    public Map<String, Object> entity(StorageArea area, Long id) {
+        StorageUsage row = usages.findByAreaAndEntityId(area.name(), id);
+        long[] delta = pending.getOrDefault(area.name() + "/" + id, new long[2]);
+        Map<String, Object> u = new LinkedHashMap<>();
+        u.put("area", area.name());
+        u.put("id", id);
+        u.put("bytes", (row != null ? row.getBytes() : 0) + delta[0]);
+        u.put("files", (row != null ? row.getFiles() : 0) + delta[1]);
+        u.put("updatedAt", row != null ? row.getUpdatedAt() : null);
+        return u;
+    }
+
+    // Totals per area and per folleto category, and the largest folletos and albums
+    public Map<String, Object> report() {
+        flushQuietly();
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> areas = new TreeMap<>();
+        for (Object[] r : usages.totalsByArea()) areas.put((String) r[0], totals(r));
+        report.put("areas", areas);
+        Map<String, Map<String, Long>> categories = new TreeMap<>();
+        for (Object[] r : usages.folletoTotalsByCategoria()) {
+            // folletos without a category are listed under FOLLETOS, as in the views
+            String categoria = r[0] == null ? "FOLLETOS" : (String) r[0];
+            categories.merge(categoria, totals(r), (a, b) -> {
+                b.forEach((k, v) -> a.merge(k, v, Long::sum));
+                return a;
+            });
+        }
+        report.put("categories", categories);
+        Map<String, Object> largest = new LinkedHashMap<>();
+        for (StorageArea area : StorageArea.values()) {
+            List<Map<String, Long>> top = new ArrayList<>();
+            for (StorageUsage u : usages.findTop20ByAreaOrderByBytesDesc(area.name())) {
+                Map<String, Long> e = new LinkedHashMap<>();
+                e.put("id", u.getEntityId());
+                e.put("bytes", u.getBytes());
+                e.put("files", u.getFiles());
+                top.add(e);
+            }
+            largest.put(area.name(), top);
+        }
+        report.put("largest", largest);
+        return report;
+    }
+
+    private static Map<String, Long> totals(Object[] r) {
+        Map<String, Long> t = new LinkedHashMap<>();
+        t.put("bytes", r[1] == null ? 0 : ((Number) r[1]).longValue());
+        t.put("files", r[2] == null ? 0 : ((Number) r[2]).longValue());
+        t.put("entities", ((Number) r[3]).longValue());
+        return t;
+    }
+
+    private static StorageUsage row(String area, Long id, long bytes, long files, long now) {
+        StorageUsage u = new StorageUsage();
+        u.setArea(area);
+        u.setEntityId(id);
+        u.setBytes(bytes);
+        u.setFiles(files);
+        u.setUpdatedAt(now);
+        return u;
+    }
+}
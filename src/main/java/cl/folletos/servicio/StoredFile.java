@@ -0,0 +1,62 @@
+package cl.folletos.servicio;
+
+import java.nio.file.Path;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.FolletoFile;
+
+// What FileStorageService knows about a stored file: location, size, HTTP validators and, when the
+// content was read (inspect/store), its sniffed MIME type and SHA-256
+public class StoredFile {
+
+    private final String filename;
+    private final Path path;
+    private final long size;
+    private final long lastModified; // epoch millis
+    private final String etag;
+    private final String contentType; // null when only stat'ed
+    private final String sha256; // hex, null when only stat'ed
+
+    public StoredFile(String filename, Path path, long size, long lastModified, String etag, String contentType, String sha256) {
+        this.filename = filename;
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.contentType = contentType;
+        this.sha256 = sha256;
+    }
+
+    public String getFilename() { return filename; }
+
+    public Path getPath() { return path; }
+
+    public long getSize() { return size; }
+
+    public long getLastModified() { return lastModified; }
+
+    public String getEtag() { return etag; }
+
+    public String getContentType() { return contentType; }
+
+    public String getSha256() { return sha256; }
+
+    // copy the stored-file metadata onto its row
+    public void applyTo(FolletoFile ff) {
+        ff.setSize(size);
+        ff.setContentType(contentType);
+        ff.setSha256(sha256);
+        ff.setEtag(etag);
+        ff.setLastModified(lastModified);
+        ff.setMissingSince(null);
+    }
+
+    public void applyTo(AudioTrack t) {
+        t.setSize(size);
+        t.setContentType(contentType);
+        t.setSha256(sha256);
+        t.setEtag(etag);
+        t.setLastModified(lastModified);
+        t.setMissingSince(null);
+    }
+}
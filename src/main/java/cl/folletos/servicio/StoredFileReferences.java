@@ -0,0 +1,59 @@
+package cl.folletos.servicio;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.stereotype.Service;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+import cl.folletos.repositorio.AudioTrackRepositorio;
+import cl.folletos.repositorio.FolletoFileRepositorio;
+import cl.folletos.repositorio.FolletoRepositorio;
+
+// The filenames the rows of one folleto or album point at: whatever else is in its directory can go
+@Service
+public class StoredFileReferences {
+
+    private final FolletoRepositorio folletoRepo;
+    private final FolletoFileRepositorio fileRepo;
+    private final AudioTrackRepositorio trackRepo;
+
+    public StoredFileReferences(FolletoRepositorio folletoRepo, FolletoFileRepositorio fileRepo, AudioTrackRepositorio trackRepo) {
+        this.folletoRepo = folletoRepo;
+        this.fileRepo = fileRepo;
+        this.trackRepo = trackRepo;
+    }
+
+    public Set<String> filenames(StorageArea area, Long id) {
+        return area == StorageArea.MUSICA ? musicaFilenames(id) : folletoFilenames(id);
+    }
+
+    // Cover variants ("<name>@w<width>.jpg") belong to their original
+    public static String owner(String filename) {
+        int variant = filename.indexOf(CoverDerivativeService.VARIANT_MARKER);
+        return variant > 0 ? filename.substring(0, variant) : filename;
+    }
+
+    public Set<String> folletoFilenames(Long id) {
+        Set<String> names = new HashSet<>();
+        Folleto f = folletoRepo.findById(id).orElse(null);
+        if (f == null) return names;
+        if (f.getCoverFilename() != null) names.add(f.getCoverFilename());
+        if (f.getPdfFilename() != null) names.add(f.getPdfFilename());
+        if (f.getAudioFilename() != null) names.add(f.getAudioFilename());
+        for (FolletoFile ff : fileRepo.findByFolletoId(id)) {
+            if (ff.getFilename() != null) names.add(ff.getFilename());
+        }
+        return names;
+    }
+
+    public Set<String> musicaFilenames(Long id) {
+        Set<String> names = new HashSet<>();
+        for (AudioTrack t : trackRepo.findByMusicaIdOrderByIdAsc(id)) {
+            if (t.getFilename() != null) names.add(t.getFilename());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,333 @@
+package cl.folletos.servicio;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.Musica;
+import cl.folletos.repositorio.AudioTrackRepositorio;
+import jakarta.annotation.PreDestroy;
+
+// Downloads audio files from external links (OneDrive/Dropbox/direct) into an album with HttpClient.
+// A bounded pool runs several downloads at once; each response body is streamed straight into
+// FileStorageService, which enforces the size limit while copying. Redirect chains are followed
+// hop by hop (the final URL names the file), and connection errors, 429 and 5xx are retried with
+// exponential backoff. HttpClient's request timeout only covers the wait for the headers, so a
+// watchdog closes any body that has not produced a byte for read-timeout-ms; the download is then
+// retried like a dropped connection instead of holding a worker forever.
+@Service
+public class UrlDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlDownloadService.class);
+
+    private static final int MAX_REDIRECTS = 10;
+
+    private final FileStorageService storageService;
+    private final AudioTrackRepositorio trackRepo;
+    private final long maxSizeBytes;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final Duration readTimeout;
+    private final HttpClient client;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor watchdog;
+    // bodies being read, checked by the watchdog
+    private final Set<ReadTrackingInputStream> reading = ConcurrentHashMap.newKeySet();
+
+    public UrlDownloadService(FileStorageService storageService, AudioTrackRepositorio trackRepo,
+                              @Value("${music.download.parallel:4}") int parallel,
+                              @Value("${music.download.max-size-bytes:524288000}") long maxSizeBytes,
+                              @Value("${music.download.max-attempts:3}") int maxAttempts,
+                              @Value("${music.download.backoff-ms:1000}") long backoffMillis,
+                              @Value("${music.download.connect-timeout-ms:15000}") long connectTimeoutMillis,
+                              @Value("${music.download.read-timeout-ms:30000}") long readTimeoutMillis) {
+        this.storageService = storageService;
+        this.trackRepo = trackRepo;
+        this.maxSizeBytes = maxSizeBytes;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.readTimeout = Duration.ofMillis(readTimeoutMillis);
+        AtomicInteger n = new AtomicInteger();
+        int threads = Math.max(1, parallel);
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "url-download-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+        this.watchdog = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "url-download-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long every = Math.max(50, Math.min(1000, readTimeoutMillis / 4));
+        this.watchdog.scheduleWithFixedDelay(this::closeStalledBodies, every, every, TimeUnit.MILLISECONDS);
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NEVER) // followed by hand, see open()
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    private void closeStalledBodies() {
+        long limit = System.nanoTime() - readTimeout.toNanos();
+        for (ReadTrackingInputStream body : reading) {
+            if (body.lastProgress < limit) body.expire();
+        }
+    }
+
+    // Downloads the URLs with at most `parallel` in flight; listener learns each outcome by index on the
+    // calling thread. No new download starts once cancelled returns true.
+    public void downloadAll(Long albumId, List<String> urls, BooleanSupplier cancelled, Listener listener) throws IOException {
+        CompletionService<AudioTrack> downloads = new ExecutorCompletionService<>(workers);
+        Map<Future<AudioTrack>, Integer> indexes = new HashMap<>();
+        int next = 0;
+        int inFlight = 0;
+        try {
+            while (next < urls.size() || inFlight > 0) {
+                // keep the pool busy but never queue more than it can run, so cancelling takes effect quickly
+                while (next < urls.size() && inFlight < workers.getMaximumPoolSize() && !cancelled.getAsBoolean()) {
+                    String url = urls.get(next);
+                    indexes.put(downloads.submit(() -> download(albumId, url)), next);
+                    next++;
+                    inFlight++;
+                }
+                if (inFlight == 0) break; // cancelled with nothing running
+                Future<AudioTrack> done = downloads.take();
+                inFlight--;
+                int index = indexes.remove(done);
+                try {
+                    listener.downloaded(index, done.get(), null);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    logger.error("Error descargando y guardando desde URL {}: {}", urls.get(index), cause.getMessage());
+                    listener.downloaded(index, null, cause.getMessage() == null ? cause.toString() : cause.getMessage());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Descarga interrumpida");
+        }
+    }
+
+    // Saved track, or null when the link returned an empty body
+    public AudioTrack download(Long albumId, String urlStr) throws IOException, InterruptedException {
+        URI uri = URI.create(normalizeDownloadUrl(urlStr));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return fetch(albumId, uri);
+            } catch (RetryableException ex) {
+                if (attempt >= maxAttempts) throw new IOException(ex.getMessage(), ex);
+                long wait = backoffMillis << (attempt - 1);
+                logger.info("Reintentando {} en {} ms ({})", urlStr, wait, ex.getMessage());
+                Thread.sleep(wait);
+            }
+        }
+    }
+
+    private AudioTrack fetch(Long albumId, URI start) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = open(start);
+        try (ReadTrackingInputStream body = new ReadTrackingInputStream(response.body())) {
+            int status = response.statusCode();
+            if (status == 429 || status >= 500) throw new RetryableException("HTTP " + status);
+            if (status != 200) throw new IOException("HTTP " + status + " al descargar " + response.uri());
+            long declared = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (declared > maxSizeBytes) {
+                throw new IOException("El archivo excede el tamaño máximo permitido: " + declared);
+            }
+            String contentType = response.headers().firstValue("Content-Type").orElse(null);
+            String filename = filenameOf(response.uri());
+
+            // create DB record first to obtain id
+            Musica album = new Musica();
+            album.setId(albumId);
+            AudioTrack t = new AudioTrack();
+            t.setOriginalName(filename);
+            t.setMusica(album);
+            t = trackRepo.save(t);
+            String storedFilename = storageService.computeFilenameWithId(filename, t.getId());
+            // streamed straight from the connection to disk, never held in memory
+            StoredFile stored;
+            try {
+                stored = storageService.store(StorageArea.MUSICA, albumId, body, storedFilename, storedFilename, "audio", contentType, maxSizeBytes);
+            } catch (IOException e) {
+                trackRepo.delete(t);
+                // a connection dropped mid-body is worth another attempt; a rejected file (size, type) is not
+                if (body.failed) throw new RetryableException(e.getMessage());
+                throw e;
+            }
+            if (stored == null) {
+                trackRepo.delete(t);
+                return null;
+            }
+            t.setFilename(storedFilename);
+            stored.applyTo(t);
+            return trackRepo.save(t);
+        }
+    }
+
+    // GET that follows 3xx Location headers (relative ones too) up to MAX_REDIRECTS hops
+    private HttpResponse<InputStream> open(URI uri) throws IOException, InterruptedException {
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .timeout(readTimeout)
+                    .header("User-Agent", "Mozilla/5.0")
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response;
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (IOException ex) {
+                // timeouts, refused or reset connections
+                throw new RetryableException(ex.getMessage() == null ? ex.toString() : ex.getMessage());
+            }
+            int status = response.statusCode();
+            String location = response.headers().firstValue("Location").orElse(null);
+            if (status < 300 || status >= 400 || location == null || location.isBlank()) return response;
+            response.body().close();
+            uri = uri.resolve(location);
+        }
+        throw new IOException("Demasiadas redirecciones: " + uri);
+    }
+
+    private static String filenameOf(URI uri) {
+        String path = uri.getRawPath();
+        String filename = null;
+        if (path != null && path.contains("/")) {
+            filename = URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), StandardCharsets.UTF_8);
+        }
+        return filename == null || filename.isBlank() ? "from_url" : filename;
+    }
+
+    // Normalize links from common providers into direct-download URLs when possible
+    public static String normalizeDownloadUrl(String url) {
+        if (url == null) return null;
+        String u = url.trim();
+        // Dropbox: convert shared link to direct download if not already
+        if (u.contains("dropbox.com") && !u.contains("dl=1") && !u.contains("dl=0")) {
+            if (u.contains("www.dropbox.com")) {
+                if (u.contains("?")) u = u + "&dl=1"; else u = u + "?dl=1";
+            } else if (u.contains("dl.dropboxusercontent.com")) {
+                // already direct
+            }
+        }
+        // OneDrive: try to append download=1 for onedrive.live.com share links
+        if (u.contains("onedrive.live.com") || u.contains("1drv.ms")) {
+            if (u.contains("download") || u.contains("redir") || u.contains("action=download")) {
+                // leave as-is; many 1drv links redirect to the real file
+            } else {
+                if (u.contains("?")) u = u + "&download=1"; else u = u + "?download=1";
+            }
+        }
+        return u;
+    }
+
+    public interface Listener {
+        // track is null for an empty body or a failure (error set)
+        void downloaded(int index, AudioTrack track, String error);
+    }
+
+    // Remembers whether reading the response body itself failed (as opposed to the store rejecting it),
+    // and when it last produced data. Closed by the watchdog when stalled: HttpClient then wakes the
+    // blocked read with an exception, which is reported as a read timeout.
+    private class ReadTrackingInputStream extends FilterInputStream {
+        private volatile boolean failed;
+        private volatile boolean stalled;
+        private volatile long lastProgress = System.nanoTime();
+
+        ReadTrackingInputStream(InputStream in) {
+            super(in);
+            reading.add(this);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException ex) {
+                throw failure(ex);
+            }
+            return progress(b);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException ex) {
+                throw failure(ex);
+            }
+            return progress(n);
+        }
+
+        private int progress(int result) throws IOException {
+            // whatever a closed stream still hands out is not the whole body
+            if (stalled) throw failure(null);
+            lastProgress = System.nanoTime();
+            return result;
+        }
+
+        private IOException failure(IOException ex) {
+            failed = true;
+            return stalled ? new IOException("Tiempo de lectura agotado: sin datos durante " + readTimeout.toMillis() + " ms") : ex;
+        }
+
+        void expire() {
+            stalled = true;
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // the reader sees the failure either way
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reading.remove(this);
+            super.close();
+        }
+    }
+
+    // transient failure (timeout, refused connection, 429/5xx, body cut short): retried with backoff
+    private static class RetryableException extends IOException {
+        RetryableException(String message) {
+            super(message);
+        }
+    }
+}
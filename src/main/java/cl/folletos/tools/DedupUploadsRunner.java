@@ -0,0 +1,16 @@
+package cl.folletos.tools;
+
+import cl.folletos.servicio.FileStorageService;
+
+// One-off migration: deduplicates an existing uploads tree in place (identical files become hard links
+// to a single blob under uploads/.blobs). Safe to re-run; files already linked are skipped.
+// Usage: java ... cl.folletos.tools.DedupUploadsRunner [uploadsDir]
+public class DedupUploadsRunner {
+    public static void main(String[] args) throws Exception {
+        String location = args != null && args.length > 0 ? args[0] : "./uploads";
+        System.out.println("Deduplicating uploads in: " + location);
+        FileStorageService storage = new FileStorageService(location, Long.MAX_VALUE, true);
+        long freed = storage.deduplicateUploads();
+        System.out.println("Done. Bytes freed: " + freed);
+    }
+}
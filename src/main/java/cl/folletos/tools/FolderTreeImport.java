@@ -0,0 +1,189 @@
+package cl.folletos.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.Musica;
+import cl.folletos.repositorio.AudioTrackRepositorio;
+import cl.folletos.repositorio.MusicaRepositorio;
+import cl.folletos.servicio.FolderImportService;
+
+// Imports a whole directory tree: every directory that holds files becomes a Musica album titled after
+// its path under the root, its files go through FolderImportService (parallel copies, batched INSERTs)
+// in chunks, and each chunk's committed files are checkpointed to the manifest. Running again with the
+// same manifest reuses the albums and skips the files already done, so a stopped migration resumes.
+public class FolderTreeImport {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderTreeImport.class);
+
+    private static final int MAX_TITLE = 255;
+
+    private final FolderImportService folderImport;
+    private final MusicaRepositorio albums;
+    private final AudioTrackRepositorio tracks;
+    private final int chunkSize;
+
+    public FolderTreeImport(FolderImportService folderImport, MusicaRepositorio albums, AudioTrackRepositorio tracks, int chunkSize) {
+        this.folderImport = folderImport;
+        this.albums = albums;
+        this.tracks = tracks;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public Summary run(Path root, ImportManifest manifest) throws IOException {
+        long started = System.nanoTime();
+        Path base = root.toAbsolutePath().normalize();
+        Summary summary = new Summary();
+        for (Map.Entry<String, List<Path>> dir : listTree(base, manifest.getFile()).entrySet()) {
+            importDirectory(base, dir.getKey(), dir.getValue(), manifest, summary);
+        }
+        summary.elapsedNanos = System.nanoTime() - started;
+        return summary;
+    }
+
+    // regular, non-hidden files under root grouped by their directory (relative, '/'-separated), in name order
+    static Map<String, List<Path>> listTree(Path root, Path exclude) throws IOException {
+        Map<String, List<Path>> dirs = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(Files::isRegularFile)
+                    .filter(p -> !p.toAbsolutePath().normalize().equals(exclude))
+                    .filter(p -> !isHidden(root.relativize(p)))
+                    .sorted()
+                    .forEach(p -> dirs.computeIfAbsent(relative(root, p.getParent()), k -> new ArrayList<>()).add(p));
+        }
+        return dirs;
+    }
+
+    private void importDirectory(Path root, String dir, List<Path> files, ImportManifest manifest, Summary summary) throws IOException {
+        Long albumId = manifest.albumFor(dir);
+        Set<String> inAlbum = Set.of();
+        if (albumId != null && albums.existsById(albumId)) {
+            summary.albumsResumed++;
+            // rows committed after the last checkpoint (stopped between the INSERT and the manifest write)
+            inAlbum = new HashSet<>();
+            for (AudioTrack t : tracks.findByMusicaIdOrderByIdAsc(albumId)) inAlbum.add(t.getOriginalName() + '\0' + t.getSize());
+        } else {
+            Musica album = new Musica();
+            album.setTitulo(title(root, dir));
+            albumId = albums.save(album).getId();
+            manifest.recordAlbum(dir, albumId);
+            summary.albumsCreated++;
+            logger.info("Album {} creado para '{}'", albumId, dir.isEmpty() ? root : dir);
+        }
+
+        List<Path> todo = new ArrayList<>();
+        for (Path file : files) {
+            String path = relative(root, file);
+            if (manifest.isImported(path)) {
+                summary.alreadyImported++;
+            } else if (inAlbum.contains(file.getFileName().toString() + '\0' + Files.size(file))) {
+                manifest.recordImported(path, Files.size(file));
+                summary.alreadyImported++;
+            } else {
+                todo.add(file);
+            }
+        }
+        manifest.checkpoint();
+
+        for (int from = 0; from < todo.size(); from += chunkSize) {
+            List<Path> chunk = todo.subList(from, Math.min(from + chunkSize, todo.size()));
+            List<Integer> inserted = new ArrayList<>();
+            FolderImportService.ImportReport report = folderImport.importFiles(albumId, chunk, new FolderImportService.Listener() {
+                @Override
+                public void inserted(List<Integer> indexes) {
+                    inserted.addAll(indexes);
+                }
+
+                @Override
+                public void notImported(int index, String error) {
+                    if (error != null) logger.warn("No importado {}: {}", chunk.get(index), error);
+                }
+            });
+            // the listener runs inside the INSERT's transaction, so record only after importFiles returns
+            for (int index : inserted) {
+                Path file = chunk.get(index);
+                manifest.recordImported(relative(root, file), Files.size(file));
+            }
+            manifest.checkpoint();
+            summary.add(report);
+            logger.info("'{}': {} (total {} archivos, {} MB)", dir.isEmpty() ? root.getFileName() : dir, report,
+                    summary.imported, summary.bytes / 1048576);
+        }
+    }
+
+    private static String title(Path root, String dir) {
+        String rootName = root.getFileName() == null ? root.toString() : root.getFileName().toString();
+        String title = dir.isEmpty() ? rootName : dir.replace("/", " - ");
+        return title.length() > MAX_TITLE ? title.substring(0, MAX_TITLE) : title;
+    }
+
+    private static boolean isHidden(Path relative) {
+        for (Path part : relative) {
+            if (part.toString().startsWith(".")) return true;
+        }
+        return false;
+    }
+
+    private static String relative(Path root, Path path) {
+        StringBuilder sb = new StringBuilder();
+        for (Path part : root.relativize(path)) {
+            if (part.toString().isEmpty()) continue;
+            if (sb.length() > 0) sb.append('/');
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    // Totals of one run (files already in the manifest are counted, not copied)
+    public static class Summary {
+        private int albumsCreated;
+        private int albumsResumed;
+        private int alreadyImported;
+        private int imported;
+        private int skipped;
+        private int failed;
+        private long bytes;
+        private long elapsedNanos;
+
+        void add(FolderImportService.ImportReport report) {
+            imported += report.getImported();
+            skipped += report.getSkipped();
+            failed += report.getFailed();
+            bytes += report.getBytes();
+        }
+
+        public int getAlbumsCreated() { return albumsCreated; }
+
+        public int getAlbumsResumed() { return albumsResumed; }
+
+        public int getAlreadyImported() { return alreadyImported; }
+
+        public int getImported() { return imported; }
+
+        public int getSkipped() { return skipped; }
+
+        public int getFailed() { return failed; }
+
+        public long getBytes() { return bytes; }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%d albumes nuevos, %d reanudados; %d importados, %d ya importados, %d vacios, %d con error; "
+                    + "%.1f MB en %.1f s (%.1f MB/s)", albumsCreated, albumsResumed, imported, alreadyImported, skipped, failed,
+                    bytes / 1048576.0, seconds, seconds == 0 ? 0 : bytes / 1048576.0 / seconds);
+        }
+    }
+}
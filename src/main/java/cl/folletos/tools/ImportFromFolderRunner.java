@@ -3,25 +3,49 @@ package cl.folletos.tools;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.context.ConfigurableApplicationContext;
 
-import cl.folletos.tools.ImportRunnerConfig;
-import cl.folletos.modelo.Musica;
-import cl.folletos.servicio.FileStorageService;
-import cl.folletos.servicio.MusicaServicio;
+import cl.folletos.repositorio.AudioTrackRepositorio;
+import cl.folletos.repositorio.MusicaRepositorio;
+import cl.folletos.servicio.FolderImportService;
 
+// Bulk import of a music folder tree: each directory with files becomes an album, files are copied by a
+// worker pool and inserted in batches (see FolderTreeImport). Progress is checkpointed to a manifest,
+// so an interrupted run is resumed by starting it again with the same folder and manifest.
+// Usage: java ... cl.folletos.tools.ImportFromFolderRunner <folder> [--manifest=<file>]
+//          [--music.import.worker-threads=8] [--music.import.batch-size=100]
+// The manifest defaults to ./<folder name>.import-manifest
+// A running web application does not see the new albums in /buscar until POST /admin/buscar/reindex
+// (or a restart): its search index is only kept current by its own saves.
 public class ImportFromFolderRunner {
+
+    // files handed to FolderImportService between checkpoints
+    private static final int CHUNK_SIZE = 200;
+
     public static void main(String[] args) throws Exception {
-        String folder = args != null && args.length > 0 ? args[0]
-                : "C:\\Users\\juani\\OneDrive\\Desktop\\Cantos del Profeta";
-        System.out.println("Starting import for folder: " + folder);
+        String folder = null;
+        String manifestArg = null;
+        for (String arg : args) {
+            if (arg.startsWith("--manifest=")) manifestArg = arg.substring("--manifest=".length());
+            else if (!arg.startsWith("--") && folder == null) folder = arg;
+        }
+        if (folder == null) {
+            System.err.println("Usage: ImportFromFolderRunner <folder> [--manifest=<file>] [--music.import.worker-threads=N]");
+            System.exit(2);
+            return;
+        }
+        Path root = Paths.get(folder).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            System.err.println("Folder does not exist or is not a directory: " + root);
+            System.exit(2);
+            return;
+        }
+        Path manifestFile = manifestArg != null ? Paths.get(manifestArg) : Paths.get(root.getFileName() + ".import-manifest");
 
         SpringApplication app = new SpringApplication(ImportRunnerConfig.class);
         app.setWebApplicationType(WebApplicationType.NONE);
@@ -32,55 +56,20 @@ public class ImportFromFolderRunner {
                 "org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration,org.springframework.boot.autoconfigure.security.servlet.SecurityFilterAutoConfiguration");
         app.setDefaultProperties(defaults);
 
-        ConfigurableApplicationContext ctx = app.run(args == null ? new String[0] : args);
-        try {
-            MusicaServicio musicaServicio = ctx.getBean(MusicaServicio.class);
-            FileStorageService storageService = ctx.getBean(FileStorageService.class);
-
-            Path p = Paths.get(folder).toAbsolutePath().normalize();
-            if (!Files.exists(p) || !Files.isDirectory(p)) {
-                System.err.println("Folder does not exist or is not a directory: " + p.toString());
-                return;
-            }
-
-            String albumTitle = p.getFileName().toString();
-            Musica album = new Musica();
-            album.setTitulo(albumTitle);
-            album = musicaServicio.guardar(album);
-            System.out.println("Created album id=" + album.getId() + " title='" + album.getTitulo() + "'");
-
-            // make id final for use in lambda
-            final Long albumIdForStorage = album.getId();
-
-            List<String> stored = new ArrayList<>();
-            Files.list(p).filter(fp -> Files.isRegularFile(fp)).forEach(fp -> {
-                try {
-                    String filename = fp.getFileName().toString();
-                    byte[] data = Files.readAllBytes(fp);
-                    String contentType = Files.probeContentType(fp);
-                    String storedName = storageService.storeBytes(albumIdForStorage, data, filename, "audio", contentType);
-                    if (storedName != null) {
-                        stored.add(storedName);
-                        System.out.println("Imported file: " + filename + " -> " + storedName);
-                    } else {
-                        System.out.println("Skipped (not stored as audio): " + filename);
-                    }
-                } catch (Exception ex) {
-                    System.err.println("Error importing file " + fp.toString() + ": " + ex.getMessage());
-                }
-            });
-
-            if (!stored.isEmpty()) {
-                // Previously used legacy setter setAudioFilenames which no longer exists.
-                // Just log the stored filenames and ensure the album entity is saved (title already saved).
-                System.out.println("Imported filenames for album id=" + album.getId() + ": " + String.join(",", stored));
-                // Optionally, one could create related track entities here if the model supports them.
-            } else {
-                System.out.println("No audio files were imported.");
-            }
-        } finally {
-            Thread.sleep(500);
-            ctx.close();
+        boolean failures;
+        try (ConfigurableApplicationContext ctx = app.run(args);
+             ImportManifest manifest = new ImportManifest(manifestFile)) {
+            System.out.println("Importing " + root + " (manifest " + manifest.getFile() + ", "
+                    + manifest.importedCount() + " files already imported)");
+            FolderTreeImport tree = new FolderTreeImport(ctx.getBean(FolderImportService.class),
+                    ctx.getBean(MusicaRepositorio.class), ctx.getBean(AudioTrackRepositorio.class), CHUNK_SIZE);
+            FolderTreeImport.Summary summary = tree.run(root, manifest);
+            System.out.println("Done: " + summary);
+            failures = summary.getFailed() > 0;
+        }
+        if (failures) {
+            System.err.println("Some files failed; fix them and run again with the same manifest to retry only those.");
+            System.exit(1);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package cl.folletos.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Append-only checkpoint of a folder-tree import, one tab-separated record per line:
+//   A <dir> <albumId>   album created for a directory ("" is the root itself)
+//   F <file> <size>     file whose track row is committed
+// Paths are relative to the imported root, '/'-separated and URL-encoded so no name can break a line.
+// Records are forced to disk when written; a last line cut short by a crash is dropped on open.
+public class ImportManifest implements Closeable {
+
+    private final Path file;
+    private final Map<String, Long> albums = new HashMap<>();
+    private final Set<String> files = new HashSet<>();
+    private final StringBuilder pending = new StringBuilder();
+    private final FileChannel out;
+
+    public ImportManifest(Path file) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        long valid = Files.exists(this.file) ? load() : 0;
+        if (this.file.getParent() != null) Files.createDirectories(this.file.getParent());
+        this.out = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // new records must not be glued onto an unfinished one
+        out.truncate(valid);
+        out.position(valid);
+    }
+
+    // reads the complete records and returns their length in bytes
+    private long load() throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') end--;
+        for (String line : new String(content, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            String[] parts = line.split("\t", -1);
+            if (parts.length != 3) continue;
+            try {
+                String path = URLDecoder.decode(parts[1], StandardCharsets.UTF_8);
+                if ("A".equals(parts[0])) albums.put(path, Long.valueOf(parts[2]));
+                else if ("F".equals(parts[0])) files.add(path);
+            } catch (IllegalArgumentException ignored) {
+                // not one of our records
+            }
+        }
+        return end;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Long albumFor(String dir) {
+        return albums.get(dir);
+    }
+
+    public boolean isImported(String path) {
+        return files.contains(path);
+    }
+
+    public int importedCount() {
+        return files.size();
+    }
+
+    // Written through at once: an album must never be created twice for the same directory
+    public void recordAlbum(String dir, long albumId) throws IOException {
+        albums.put(dir, albumId);
+        pending.append("A\t").append(encode(dir)).append('\t').append(albumId).append('\n');
+        checkpoint();
+    }
+
+    // Buffered until the next checkpoint()
+    public void recordImported(String path, long size) {
+        files.add(path);
+        pending.append("F\t").append(encode(path)).append('\t').append(size).append('\n');
+    }
+
+    public void checkpoint() throws IOException {
+        if (pending.length() == 0) return;
+        ByteBuffer bytes = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) out.write(bytes);
+        out.force(false);
+        pending.setLength(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String encode(String path) {
+        return URLEncoder.encode(path, StandardCharsets.UTF_8);
+    }
+}
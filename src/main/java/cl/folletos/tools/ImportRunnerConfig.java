@@ -8,11 +8,16 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.context.annotation.FilterType;
 
+import cl.folletos.servicio.ImportJobService;
+
 @Configuration
 @EnableAutoConfiguration
 @EnableJpaRepositories(basePackages = "cl.folletos.repositorio")
 @EntityScan(basePackages = "cl.folletos.modelo")
-@ComponentScan(basePackages = {"cl.folletos.servicio"}, excludeFilters = @ComponentScan.Filter(type = FilterType.REGEX, pattern = "cl.folletos.config.*"))
+@ComponentScan(basePackages = {"cl.folletos.servicio"}, excludeFilters = {
+        @ComponentScan.Filter(type = FilterType.REGEX, pattern = "cl.folletos.config.*"),
+        // it resumes the web app's queued import jobs on startup; the runner must not pick those up
+        @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = ImportJobService.class) })
 @EnableTransactionManagement
 public class ImportRunnerConfig {
     // Minimal configuration for the import runner: scans only servicio and JPA repos/entities
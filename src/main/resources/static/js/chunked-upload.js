@@ -0,0 +1,137 @@
+// Resumable uploads for large files. Forms marked data-chunked-upload send every file bigger than
+// data-chunked-threshold (bytes) from inputs marked data-chunked-field="<param>" to /admin/uploads in
+// chunks, then submit normally with the finished upload ids in hidden <param> inputs instead of the files.
+// Each chunk is a short request; a failed chunk is retried from the offset the server reports, and an
+// interrupted upload of the same file resumes where it stopped (ids are remembered in localStorage).
+(function () {
+    var MAX_RETRIES = 5;
+
+    function csrfHeaders(form) {
+        var headers = {};
+        var token = form.querySelector('input[name="_csrf"]');
+        if (token) headers['X-XSRF-TOKEN'] = token.value;
+        return headers;
+    }
+
+    function storageKey(file) {
+        return 'chunked-upload:' + file.name + ':' + file.size + ':' + file.lastModified;
+    }
+
+    function sleep(ms) {
+        return new Promise(function (resolve) { setTimeout(resolve, ms); });
+    }
+
+    // Existing upload for this file (offset reported by the server) or a new one
+    async function open(base, file, headers) {
+        var known = localStorage.getItem(storageKey(file));
+        if (known) {
+            var head = await fetch(base + '/' + known, { method: 'HEAD', headers: headers, credentials: 'same-origin' });
+            if (head.ok) {
+                return { id: known, offset: parseInt(head.headers.get('Upload-Offset'), 10), chunk: null };
+            }
+            localStorage.removeItem(storageKey(file));
+        }
+        var body = new URLSearchParams({ filename: file.name, length: String(file.size) });
+        var res = await fetch(base, { method: 'POST', headers: headers, body: body, credentials: 'same-origin' });
+        if (!res.ok) throw new Error(res.status === 413 ? 'El archivo ' + file.name + ' es demasiado grande.' : 'No se pudo iniciar la carga de ' + file.name);
+        var created = await res.json();
+        localStorage.setItem(storageKey(file), created.id);
+        return { id: created.id, offset: 0, chunk: created.maxChunkBytes };
+    }
+
+    async function upload(base, file, headers, onProgress) {
+        var state = await open(base, file, headers);
+        var chunkSize = Math.min(state.chunk || 8 * 1024 * 1024, 8 * 1024 * 1024);
+        var offset = state.offset;
+        var failures = 0;
+        while (offset < file.size) {
+            var end = Math.min(offset + chunkSize, file.size);
+            var chunkHeaders = Object.assign({ 'Upload-Offset': String(offset), 'Content-Type': 'application/offset+octet-stream' }, headers);
+            try {
+                var res = await fetch(base + '/' + state.id, { method: 'PATCH', headers: chunkHeaders, body: file.slice(offset, end), credentials: 'same-origin' });
+                if (res.status === 204 || res.status === 409) {
+                    // 409: the server has a different offset (e.g. a previous attempt did arrive); continue from there
+                    offset = parseInt(res.headers.get('Upload-Offset'), 10);
+                    if (res.status === 204) failures = 0;
+                    onProgress(offset / file.size);
+                    continue;
+                }
+                if (res.status === 404 || res.status === 413) throw new Error('fatal:' + res.status);
+                throw new Error('HTTP ' + res.status);
+            } catch (e) {
+                if (String(e.message).indexOf('fatal:') === 0 || ++failures > MAX_RETRIES) {
+                    throw new Error('La carga de ' + file.name + ' falló. Vuelve a enviar el formulario para reanudarla.');
+                }
+                await sleep(500 * Math.pow(2, failures));
+                // ask the server how much it kept before retrying
+                var head = await fetch(base + '/' + state.id, { method: 'HEAD', headers: headers, credentials: 'same-origin' }).catch(function () { return null; });
+                if (head && head.ok) offset = parseInt(head.headers.get('Upload-Offset'), 10);
+            }
+        }
+        localStorage.removeItem(storageKey(file));
+        return state.id;
+    }
+
+    function addHidden(form, name, value) {
+        var input = document.createElement('input');
+        input.type = 'hidden';
+        input.name = name;
+        input.value = value;
+        input.setAttribute('data-chunked-id', '');
+        form.appendChild(input);
+    }
+
+    document.addEventListener('DOMContentLoaded', function () {
+        document.querySelectorAll('form[data-chunked-upload]').forEach(function (form) {
+            var threshold = parseInt(form.getAttribute('data-chunked-threshold') || '0', 10);
+            var base = form.getAttribute('data-chunked-upload') || '/admin/uploads';
+            var status = form.querySelector('[data-chunked-status]');
+            var busy = false;
+
+            form.addEventListener('submit', function (e) {
+                if (e.defaultPrevented || busy) {
+                    if (busy) e.preventDefault();
+                    return;
+                }
+                var pending = [];
+                form.querySelectorAll('input[type=file][data-chunked-field]').forEach(function (input) {
+                    for (var i = 0; i < input.files.length; i++) {
+                        if (input.files[i].size > threshold) pending.push({ input: input, file: input.files[i] });
+                    }
+                });
+                if (pending.length === 0) return; // small files go with the form as before
+
+                e.preventDefault();
+                busy = true;
+                // ids from an earlier attempt that failed half-way are replaced, not sent twice
+                form.querySelectorAll('input[data-chunked-id]').forEach(function (old) { old.remove(); });
+                var headers = csrfHeaders(form);
+                (async function () {
+                    try {
+                        for (var i = 0; i < pending.length; i++) {
+                            var p = pending[i];
+                            var id = await upload(base, p.file, headers, function (fraction) {
+                                if (status) status.textContent = 'Subiendo ' + p.file.name + ': ' + Math.floor(fraction * 100) + '%';
+                            });
+                            addHidden(form, p.input.getAttribute('data-chunked-field'), id);
+                        }
+                        // drop the uploaded files from their inputs so the form only carries the small ones
+                        form.querySelectorAll('input[type=file][data-chunked-field]').forEach(function (input) {
+                            var keep = new DataTransfer();
+                            for (var i = 0; i < input.files.length; i++) {
+                                if (input.files[i].size <= threshold) keep.items.add(input.files[i]);
+                            }
+                            input.files = keep.files;
+                        });
+                        if (status) status.textContent = 'Guardando...';
+                        form.submit();
+                    } catch (err) {
+                        busy = false;
+                        if (status) status.textContent = '';
+                        alert(err.message);
+                    }
+                })();
+            });
+        });
+    });
+})();
@@ -0,0 +1,178 @@
+package cl.folletos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+// Category list and track-by-name lookups against a 100k-row catalogue. The rows go into copies of the
+// folleto and audio_track tables (CREATE TABLE ... LIKE keeps the indexes declared on the entities), so
+// the real catalogue is untouched; each query is timed with the indexes and again after dropping them.
+// Deep pages of one category are also timed by OFFSET, by a seek over coalesced columns and by the
+// seek over the raw columns that FolletoRepositorio.findPageAfter uses.
+// Run with: mvn test -Dtest=CatalogQueryBenchmarkTest -Dbenchmark=true
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class CatalogQueryBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(CatalogQueryBenchmarkTest.class);
+
+    private static final int ROWS = 100_000;
+    private static final int RUNS = 200;
+    private static final String[] CATEGORIAS = {"FOLLETOS", "FOLLETOS", "FOLLETOS", null, "COMPAGINADOS", "LOCALES"};
+
+    // Before: FOLLETOS rows, then every row of the year whatever its category (two queries, concatenated)
+    private static final String OLD_CATEGORY = "select id, titulo, ano from folleto_bench where categoria = 'FOLLETOS' and ano = ? order by ano, titulo";
+    private static final String OLD_ANY = "select id, titulo, ano from folleto_bench where ano = ? order by ano, titulo";
+    // Now: FolletoRepositorio.findFiltered for FOLLETOS and a year
+    private static final String SINGLE = "select id, titulo, ano from folleto_bench where (categoria = 'FOLLETOS' or categoria is null) "
+            + "and ano = ? order by ano, titulo, id";
+    private static final String BY_NAME = "select id from audio_track_bench where musica_id = ? and filename = ?";
+    // One page of LOCALES after the row at a given position
+    private static final String PAGE_OFFSET = "select id, titulo, ano from folleto_bench where categoria = 'LOCALES' "
+            + "order by ano, titulo, id limit 50 offset ?";
+    private static final String PAGE_COALESCE = "select id, titulo, ano from folleto_bench where categoria = 'LOCALES' "
+            + "and (coalesce(ano, 0) > ? or (coalesce(ano, 0) = ? and (coalesce(titulo, '') > ? "
+            + "or (coalesce(titulo, '') = ? and id > ?)))) order by ano, titulo, id limit 50";
+    private static final String PAGE_SEEK = "select id, titulo, ano from folleto_bench where categoria = 'LOCALES' "
+            + "and (ano > ? or (ano = ? and (titulo > ? or (titulo = ? and id > ?)))) order by ano, titulo, id limit 50";
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    public void seed() {
+        dropTables();
+        jdbc.execute("create table folleto_bench like folleto");
+        jdbc.execute("create table audio_track_bench like audio_track");
+        Random rnd = new Random(42);
+        List<Object[]> folletos = new ArrayList<>(ROWS);
+        List<Object[]> tracks = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            folletos.add(new Object[] {"Folleto " + Integer.toString(rnd.nextInt(1 << 30), 36), 1947 + rnd.nextInt(19),
+                    CATEGORIAS[rnd.nextInt(CATEGORIAS.length)]});
+            tracks.add(new Object[] {1 + i % 2000, "pista_" + i + ".mp3"});
+        }
+        jdbc.batchUpdate("insert into folleto_bench (titulo, ano, categoria) values (?, ?, ?)", folletos);
+        jdbc.batchUpdate("insert into audio_track_bench (musica_id, filename) values (?, ?)", tracks);
+        jdbc.execute("analyze table folleto_bench, audio_track_bench");
+    }
+
+    @AfterEach
+    public void dropTables() {
+        jdbc.execute("drop table if exists folleto_bench");
+        jdbc.execute("drop table if exists audio_track_bench");
+    }
+
+    @Test
+    public void compareCategoryQueries() {
+        long nulls = jdbc.queryForObject("select count(*) from folleto_bench where categoria is null and ano = 1950", Long.class);
+        long folletos = jdbc.queryForObject("select count(*) from folleto_bench where categoria = 'FOLLETOS' and ano = 1950", Long.class);
+        int before = jdbc.queryForList(OLD_CATEGORY, 1950).size() + jdbc.queryForList(OLD_ANY, 1950).size();
+        int now = jdbc.queryForList(SINGLE, 1950).size();
+        assertEquals(folletos + nulls, now);
+        logger.info("FOLLETOS 1950: antes {} filas (con duplicados y otras categorias), ahora {}", before, now);
+
+        Random rnd = new Random(7);
+        int[] years = new int[RUNS];
+        for (int i = 0; i < RUNS; i++) years[i] = 1947 + rnd.nextInt(19);
+        report("dos consultas, con indice", time(() -> {
+            for (int y : years) { jdbc.queryForList(OLD_CATEGORY, y); jdbc.queryForList(OLD_ANY, y); }
+        }));
+        report("una consulta,  con indice", time(() -> {
+            for (int y : years) jdbc.queryForList(SINGLE, y);
+        }));
+        logger.info("plan: {}", jdbc.queryForList("explain " + SINGLE, 1950));
+
+        dropIndexes("folleto_bench");
+        report("dos consultas, sin indice", time(() -> {
+            for (int y : years) { jdbc.queryForList(OLD_CATEGORY, y); jdbc.queryForList(OLD_ANY, y); }
+        }));
+        report("una consulta,  sin indice", time(() -> {
+            for (int y : years) jdbc.queryForList(SINGLE, y);
+        }));
+    }
+
+    @Test
+    public void compareKeysetPagesWithOffset() {
+        long locales = jdbc.queryForObject("select count(*) from folleto_bench where categoria = 'LOCALES'", Long.class);
+        Random rnd = new Random(7);
+        int[] offsets = new int[RUNS];
+        Object[][] cursors = new Object[RUNS][];
+        for (int i = 0; i < RUNS; i++) {
+            offsets[i] = 1 + rnd.nextInt((int) locales - 100);
+            // the row just before the page: what the cursor of the previous page holds
+            Map<String, Object> last = jdbc.queryForMap("select id, titulo, ano from folleto_bench where categoria = 'LOCALES' "
+                    + "order by ano, titulo, id limit 1 offset ?", offsets[i] - 1);
+            cursors[i] = new Object[] {last.get("ano"), last.get("ano"), last.get("titulo"), last.get("titulo"), last.get("id")};
+        }
+        List<Map<String, Object>> byOffset = jdbc.queryForList(PAGE_OFFSET, offsets[0]);
+        assertEquals(byOffset, jdbc.queryForList(PAGE_SEEK, cursors[0]));
+        assertEquals(byOffset, jdbc.queryForList(PAGE_COALESCE, cursors[0]));
+
+        // the seek must be a range scan of the category index, starting at the cursor
+        Map<String, Object> plan = jdbc.queryForList("explain " + PAGE_SEEK, cursors[0]).get(0);
+        logger.info("plan seek: {}", plan);
+        assertEquals("range", plan.get("type"));
+        assertEquals("idx_folleto_categoria_ano_titulo", plan.get("key"));
+        logger.info("plan coalesce: {}", jdbc.queryForList("explain " + PAGE_COALESCE, cursors[0]).get(0));
+
+        report("pagina por OFFSET             ", time(() -> {
+            for (int o : offsets) jdbc.queryForList(PAGE_OFFSET, o);
+        }));
+        report("pagina por cursor con coalesce", time(() -> {
+            for (Object[] c : cursors) jdbc.queryForList(PAGE_COALESCE, c);
+        }));
+        report("pagina por cursor sin coalesce", time(() -> {
+            for (Object[] c : cursors) jdbc.queryForList(PAGE_SEEK, c);
+        }));
+    }
+
+    @Test
+    public void compareTrackLookupByName() {
+        Random rnd = new Random(7);
+        int[] picks = new int[RUNS];
+        for (int i = 0; i < RUNS; i++) picks[i] = rnd.nextInt(ROWS);
+        Runnable lookups = () -> {
+            for (int i : picks) {
+                List<Long> ids = jdbc.queryForList(BY_NAME, Long.class, 1 + i % 2000, "pista_" + i + ".mp3");
+                assertEquals(1, ids.size());
+            }
+        };
+        report("pista por nombre, con indice unico", time(lookups));
+        logger.info("plan: {}", jdbc.queryForList("explain " + BY_NAME, 1, "pista_0.mp3"));
+
+        dropIndexes("audio_track_bench");
+        report("pista por nombre, sin indice     ", time(lookups));
+    }
+
+    // Every index but the primary key (older schemas may still carry indexes no longer declared)
+    private void dropIndexes(String table) {
+        List<String> names = jdbc.queryForList("select distinct index_name from information_schema.statistics "
+                + "where table_schema = database() and table_name = ? and index_name <> 'PRIMARY'", String.class, table);
+        for (String name : names) jdbc.execute("alter table " + table + " drop index `" + name + "`");
+    }
+
+    // average micros per run, after one warm-up pass
+    private static long time(Runnable work) {
+        work.run();
+        long t0 = System.nanoTime();
+        work.run();
+        return (System.nanoTime() - t0) / 1000 / RUNS;
+    }
+
+    private static void report(String label, long micros) {
+        logger.info("{}: {} us/consulta", label, micros);
+    }
+}
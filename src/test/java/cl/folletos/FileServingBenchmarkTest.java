@@ -0,0 +1,179 @@
+package cl.folletos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import cl.folletos.servicio.FileServingService;
+import cl.folletos.servicio.ServedFile;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+// Throughput of byte-range requests through an embedded Tomcat with Spring MVC, as in production:
+// the old controller code (InputStream skip + InputStreamResource) against FileServingService.serve
+// with the connector's sendfile off (transferTo into the servlet stream, copied through its buffer)
+// and on (the kernel sends the file). The client is the same HttpClient for all three.
+// Run with: mvn test -Dtest=FileServingBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class FileServingBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(FileServingBenchmarkTest.class);
+
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final int RANGE_SIZE = 1024 * 1024;
+    private static final int REQUESTS = 512;
+
+    // read by the controller below; one file per run
+    static ServedFile served;
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    public void compareRangeThroughput() throws Exception {
+        Path file = tmp.resolve("bench.bin");
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < FILE_SIZE / chunk.length; i++) out.write(chunk);
+        }
+        served = new ServedFile(file, FILE_SIZE, "application/octet-stream", "bench.bin", "\"bench\"", Files.getLastModifiedTime(file).toMillis());
+
+        long[] starts = new long[REQUESTS];
+        Random rnd = new Random(7);
+        for (int i = 0; i < REQUESTS; i++) starts[i] = (long) rnd.nextInt(FILE_SIZE - RANGE_SIZE);
+
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(tmp.resolve("tomcat").toString());
+        Connector plain = connector(false);
+        Connector sendfile = connector(true);
+        tomcat.setConnector(plain);
+        tomcat.getService().addConnector(sendfile);
+        AnnotationConfigWebApplicationContext web = new AnnotationConfigWebApplicationContext();
+        web.register(Mvc.class);
+        Context context = tomcat.addContext("", tmp.toString());
+        Tomcat.addServlet(context, "dispatcher", new DispatcherServlet(web));
+        context.addServletMappingDecoded("/", "dispatcher");
+        tomcat.start();
+        try {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String noSendfile = "http://127.0.0.1:" + plain.getLocalPort();
+            String withSendfile = "http://127.0.0.1:" + sendfile.getLocalPort();
+
+            // warm-up every path
+            for (int i = 0; i < 32; i++) {
+                fetch(client, noSendfile + "/legacy", starts[i]);
+                fetch(client, noSendfile + "/engine", starts[i]);
+                fetch(client, withSendfile + "/engine", starts[i]);
+            }
+            report("InputStreamResource (antes)  ", run(client, noSendfile + "/legacy", starts));
+            report("serve(), sendfile desactivado", run(client, noSendfile + "/engine", starts));
+            report("serve(), sendfile activado   ", run(client, withSendfile + "/engine", starts));
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    private static Connector connector(boolean useSendfile) {
+        Connector connector = new Connector("HTTP/1.1");
+        connector.setPort(0);
+        connector.setProperty("address", "127.0.0.1");
+        connector.setProperty("useSendfile", Boolean.toString(useSendfile));
+        return connector;
+    }
+
+    // MB/s over all the ranges, one request at a time
+    private static double run(HttpClient client, String url, long[] starts) throws Exception {
+        long bytes = 0;
+        long t0 = System.nanoTime();
+        for (long start : starts) bytes += fetch(client, url, start);
+        long nanos = System.nanoTime() - t0;
+        assertEquals((long) RANGE_SIZE * starts.length, bytes);
+        return bytes / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+
+    private static long fetch(HttpClient client, String url, long start) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Range", "bytes=" + start + "-" + (start + RANGE_SIZE - 1))
+                .build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(206, response.statusCode());
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = response.body()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) total += read;
+        }
+        return total;
+    }
+
+    private static void report(String label, double mbPerSecond) {
+        logger.info("{}: {} MB/s", label, String.format("%.0f", mbPerSecond));
+    }
+
+    @Configuration
+    @EnableWebMvc
+    static class Mvc {
+        @Bean
+        public BenchController benchController() {
+            return new BenchController();
+        }
+    }
+
+    @RestController
+    static class BenchController {
+        private final FileServingService engine = new FileServingService(49152, 8192, 64, 0);
+
+        // What the controllers did before FileServingService (single range, skip + InputStreamResource)
+        @GetMapping("/legacy")
+        public ResponseEntity<InputStreamResource> legacy(@RequestHeader("Range") String rangeHeader) throws Exception {
+            long fileLength = served.getLength();
+            HttpRange r = HttpRange.parseRanges(rangeHeader).get(0);
+            long start = r.getRangeStart(fileLength);
+            long end = r.getRangeEnd(fileLength);
+            InputStream is = Files.newInputStream(served.getPath());
+            is.skip(start);
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.CONTENT_TYPE, served.getContentType());
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).contentLength(end - start + 1)
+                    .body(new InputStreamResource(is));
+        }
+
+        @GetMapping("/engine")
+        public void engine(HttpServletRequest request, HttpServletResponse response) throws Exception {
+            engine.serve(request, response, served, false);
+        }
+    }
+}
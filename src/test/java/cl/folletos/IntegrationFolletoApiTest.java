@@ -0,0 +1,89 @@
+package cl.folletos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+import cl.folletos.servicio.FolletoServicio;
+
+// /api/folletos pages through folletos that have files (cover, pdf, audio) as an anonymous caller
+@SpringBootTest
+@AutoConfigureMockMvc
+public class IntegrationFolletoApiTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private FolletoServicio folletoServicio;
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final List<Folleto> created = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        for (Folleto f : created) folletoServicio.eliminar(f);
+    }
+
+    @Test
+    public void pagesListFilesWithoutCoverRowsOrStorageMetadata() throws Exception {
+        for (int i = 0; i < 3; i++) created.add(folletoServicio.guardar(folleto("Api " + i)));
+
+        Map<Long, JsonNode> seen = new HashMap<>();
+        String cursor = null;
+        do {
+            var request = get("/api/folletos").param("size", "2");
+            if (cursor != null) request.param("cursor", cursor);
+            String body = mockMvc.perform(request).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+            for (String field : new String[] {"sha256", "etag", "missingSince", "textExtractedAt", "folleto"}) {
+                assertFalse(body.contains("\"" + field + "\""), field);
+            }
+            JsonNode page = json.readTree(body);
+            for (JsonNode item : page.get("items")) seen.put(item.get("id").asLong(), item);
+            cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+        } while (cursor != null);
+
+        for (Folleto f : created) {
+            JsonNode item = seen.get(f.getId());
+            assertEquals("/files/" + f.getId() + "/cover", item.get("coverUrl").asText());
+            assertEquals(2, item.get("files").size());
+            assertEquals("pdf", item.get("files").get(0).get("type").asText());
+            assertEquals("audio", item.get("files").get(1).get("type").asText());
+        }
+    }
+
+    private static Folleto folleto(String titulo) {
+        Folleto f = new Folleto();
+        f.setTitulo(titulo);
+        f.setAno(1);
+        f.setCoverFilename("cover_api.jpg");
+        for (String type : new String[] {"cover", "pdf", "audio"}) {
+            FolletoFile ff = new FolletoFile();
+            ff.setOriginalName(type + ".bin");
+            ff.setFilename(type + ".bin");
+            ff.setType(type);
+            ff.setSha256("00");
+            ff.setFolleto(f);
+            f.getFiles().add(ff);
+        }
+        return f;
+    }
+}
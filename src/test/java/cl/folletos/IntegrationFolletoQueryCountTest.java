@@ -0,0 +1,141 @@
+package cl.folletos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+import cl.folletos.modelo.FolletoResumen;
+import cl.folletos.servicio.FolletoServicio;
+import cl.folletos.servicio.KeysetPage;
+import jakarta.persistence.EntityManagerFactory;
+
+// Statement counts of the list and detail paths: a list must cost the same number of queries
+// whatever the number of folletos and files, so an N+1 regression fails here.
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class IntegrationFolletoQueryCountTest {
+
+    private static final String CATEGORIA = "TEST-QUERYCOUNT";
+
+    @Autowired
+    private FolletoServicio folletoServicio;
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    private Statistics stats;
+    private final List<Folleto> created = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        stats = emf.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (Folleto f : created) folletoServicio.eliminar(f);
+    }
+
+    @Test
+    public void categoryListIsOneQueryWithoutFiles() {
+        create(3);
+        stats.clear();
+        List<FolletoResumen> few = folletoServicio.buscarPorCategoria(CATEGORIA, null, null);
+        long fewStatements = stats.getPrepareStatementCount();
+
+        create(6);
+        stats.clear();
+        List<FolletoResumen> many = folletoServicio.buscarPorCategoria(CATEGORIA, null, null);
+
+        assertEquals(3, few.size());
+        assertEquals(9, many.size());
+        assertEquals(1, fewStatements);
+        assertEquals(1, stats.getPrepareStatementCount());
+        // columns only: no Folleto or FolletoFile is loaded
+        assertEquals(0, stats.getEntityLoadCount());
+        assertEquals(0, stats.getCollectionLoadCount());
+    }
+
+    @Test
+    public void mainListIsOneQueryWithoutOtherCategories() {
+        create(2);
+        stats.clear();
+        // FOLLETOS plus the rows without a category, in one statement
+        List<FolletoResumen> main = folletoServicio.buscarPorCategoria("FOLLETOS", 1950, null);
+        assertEquals(1, stats.getPrepareStatementCount());
+        assertEquals(0, stats.getCollectionLoadCount());
+        for (FolletoResumen r : main) {
+            for (Folleto f : created) assertFalse(f.getId().equals(r.getId()), "folleto de otra categoria: " + r.getId());
+        }
+    }
+
+    @Test
+    public void keysetPagesWalkTheListOneQueryEach() {
+        create(5);
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            stats.clear();
+            KeysetPage<FolletoResumen> page = folletoServicio.buscarPorCategoria(CATEGORIA, null, null, cursor, 2);
+            assertEquals(1, stats.getPrepareStatementCount());
+            assertEquals(pages * 2, page.getOffset());
+            for (FolletoResumen r : page.getItems()) seen.add(r.getId());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        // same ano: ordered by titulo ("Conteo 0".."Conteo 4"), i.e. creation order
+        List<Long> expected = new ArrayList<>();
+        for (Folleto f : created) expected.add(f.getId());
+        assertEquals(expected, seen);
+        assertEquals(5, folletoServicio.contarPorCategoria(CATEGORIA, null, null));
+    }
+
+    @Test
+    public void detailLoadsFilesInTheSameQuery() {
+        Folleto f = create(1).get(0);
+        stats.clear();
+        Folleto loaded = folletoServicio.porId(f.getId()).orElseThrow();
+
+        assertEquals(1, stats.getPrepareStatementCount());
+        assertTrue(Hibernate.isInitialized(loaded.getFiles()));
+        assertEquals(2, loaded.getFiles().size());
+    }
+
+    private List<Folleto> create(int count) {
+        List<Folleto> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Folleto f = new Folleto();
+            f.setTitulo("Conteo " + created.size());
+            f.setAno(1950);
+            f.setCategoria(CATEGORIA);
+            for (String type : new String[] {"pdf", "audio"}) {
+                FolletoFile ff = new FolletoFile();
+                ff.setOriginalName(type + created.size());
+                ff.setFilename(type + created.size());
+                ff.setType(type);
+                ff.setFolleto(f);
+                f.getFiles().add(ff);
+            }
+            Folleto saved = folletoServicio.guardar(f);
+            created.add(saved);
+            batch.add(saved);
+        }
+        return batch;
+    }
+}
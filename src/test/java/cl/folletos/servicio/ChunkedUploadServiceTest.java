@@ -0,0 +1,97 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChunkedUploadServiceTest {
+
+    @TempDir
+    Path root;
+
+    private ChunkedUploadService uploads;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // the regular per-file limit is far below the chunked one
+        FileStorageService storage = new FileStorageService(root.toString(), 100);
+        uploads = new ChunkedUploadService(storage, root.toString(), 10_000, 1000, 24);
+    }
+
+    @Test
+    public void chunksAreAppendedAndTheFinishedFileIsStored() throws Exception {
+        byte[] mp3 = ("ID3" + "a".repeat(2500)).getBytes(StandardCharsets.US_ASCII);
+        ChunkedUpload upload = uploads.create("himno largo.mp3", mp3.length, "admin");
+
+        long offset = 0;
+        while (offset < mp3.length) {
+            int end = (int) Math.min(offset + 1000, mp3.length);
+            offset = uploads.append(upload.getId(), offset, new ByteArrayInputStream(Arrays.copyOfRange(mp3, (int) offset, end)));
+        }
+        assertEquals(mp3.length, uploads.get(upload.getId()).getOffset());
+
+        StoredFile stored = uploads.finish(upload.getId(), StorageArea.MUSICA, 3L, null, "audio");
+        assertEquals("audio_himno_largo.mp3", stored.getFilename());
+        assertEquals("audio/mpeg", stored.getContentType());
+        assertArrayEquals(mp3, Files.readAllBytes(stored.getPath()));
+        assertNull(uploads.get(upload.getId()));
+    }
+
+    @Test
+    public void interruptedChunkKeepsWhatArrivedAndWrongOffsetsAreRejected() throws Exception {
+        ChunkedUpload upload = uploads.create("doc.pdf", 900, "admin");
+        byte[] head = ("%PDF-1.4\n" + "b".repeat(391)).getBytes(StandardCharsets.US_ASCII);
+
+        // connection drops after 400 bytes
+        InputStream broken = new InputStream() {
+            private final InputStream delegate = new ByteArrayInputStream(head);
+
+            @Override
+            public int read() throws IOException {
+                int b = delegate.read();
+                if (b < 0) throw new IOException("connection reset");
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = delegate.read(buf, off, len);
+                if (n < 0) throw new IOException("connection reset");
+                return n;
+            }
+        };
+        assertThrows(IOException.class, () -> uploads.append(upload.getId(), 0, broken));
+        assertEquals(400, uploads.get(upload.getId()).getOffset());
+
+        ChunkedUploadService.OffsetMismatchException mismatch = assertThrows(ChunkedUploadService.OffsetMismatchException.class,
+                () -> uploads.append(upload.getId(), 0, new ByteArrayInputStream(new byte[10])));
+        assertEquals(400, mismatch.getCurrentOffset());
+
+        assertThrows(IOException.class, () -> uploads.finish(upload.getId(), StorageArea.FOLLETO, 1L, null, "pdf"));
+        assertEquals(900, uploads.append(upload.getId(), 400, new ByteArrayInputStream(new byte[500])));
+        assertEquals(900, Files.size(uploads.finish(upload.getId(), StorageArea.FOLLETO, 1L, null, "pdf").getPath()));
+    }
+
+    @Test
+    public void limitsAreEnforced() throws Exception {
+        assertThrows(ChunkedUploadService.TooLargeException.class, () -> uploads.create("big.mp3", 10_001, "admin"));
+        ChunkedUpload upload = uploads.create("x.mp3", 5000, "admin");
+        assertThrows(ChunkedUploadService.TooLargeException.class,
+                () -> uploads.append(upload.getId(), 0, new ByteArrayInputStream(new byte[1500])));
+        assertEquals(1000, uploads.get(upload.getId()).getOffset());
+        assertNull(uploads.get("../../etc/passwd"));
+    }
+}
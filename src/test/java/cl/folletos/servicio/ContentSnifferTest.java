@@ -0,0 +1,33 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class ContentSnifferTest {
+
+    @Test
+    public void recognisesStoredFormatsByMagicNumber() {
+        assertEquals("application/pdf", sniff("%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("image/jpeg", sniff(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0 }));
+        assertEquals("image/png", sniff(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n' }));
+        assertEquals("image/webp", sniff("RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("audio/mpeg", sniff("ID3\u0004\0\0".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("audio/mpeg", sniff(new byte[] { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00 }));
+        assertEquals("audio/mp4", sniff("\0\0\0 ftypM4A \0\0".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void unknownContentFallsBackToExtension() {
+        assertNull(sniff("hello world".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("audio/mpeg", ContentSniffer.fromExtension("Track 01.MP3"));
+        assertEquals("application/octet-stream", ContentSniffer.fromExtension("notes.txt"));
+    }
+
+    private static String sniff(byte[] head) {
+        return ContentSniffer.sniff(head, head.length);
+    }
+}
@@ -0,0 +1,43 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CoverDerivativeServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private final CoverDerivativeService service = new CoverDerivativeService(new int[] { 640, 160, 320, 2000 }, 40_000_000, 0.8f, 1);
+
+    @Test
+    public void variantsKeepAspectRatioAndNeverUpscale() throws Exception {
+        Path cover = tmp.resolve("cover_x.png");
+        ImageIO.write(new BufferedImage(1000, 1500, BufferedImage.TYPE_INT_ARGB), "png", cover.toFile());
+
+        assertEquals(3, service.generate(cover));
+
+        BufferedImage small = ImageIO.read(cover.resolveSibling("cover_x.png@w320.jpg").toFile());
+        assertNotNull(small);
+        assertEquals(320, small.getWidth());
+        assertEquals(480, small.getHeight());
+        assertFalse(Files.exists(cover.resolveSibling("cover_x.png@w2000.jpg")));
+    }
+
+    @Test
+    public void requestedWidthRoundsUpToTheNearestVariant() {
+        assertEquals(160, service.nearestWidth(100));
+        assertEquals(320, service.nearestWidth(300));
+        assertEquals(2000, service.nearestWidth(5000));
+    }
+}
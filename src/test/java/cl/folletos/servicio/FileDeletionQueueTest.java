@@ -0,0 +1,149 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.FileTombstone;
+import cl.folletos.repositorio.FileTombstoneRepositorio;
+
+public class FileDeletionQueueTest {
+
+    @TempDir
+    Path root;
+
+    private FileStorageService storage;
+    private FileTombstoneRepositorio tombstones;
+    private StoredFileReferences references;
+    private FileDeletionQueue queue;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        storage = new FileStorageService(root.toString(), 1_000_000);
+        tombstones = mock(FileTombstoneRepositorio.class);
+        references = mock(StoredFileReferences.class);
+        // sweep-min-age 1h
+        queue = new FileDeletionQueue(tombstones, storage, references, TransactionOperations.withoutTransaction(),
+                100, 30, 3600, 60, 0, 1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void drainDeletesUnreferencedFilesAndRetriesFailures() throws Exception {
+        Path dir = storage.entityDirectory(StorageArea.FOLLETO, 5L);
+        store(5L, "gone.pdf");
+        store(5L, "kept.pdf");
+        // a directory where a file is expected: deleting it fails
+        Files.createDirectories(dir.resolve("stuck.pdf").resolve("inner"));
+        FileTombstone gone = tombstone(1L, 5L, "gone.pdf");
+        FileTombstone kept = tombstone(2L, 5L, "kept.pdf");
+        FileTombstone stuck = tombstone(3L, 5L, "stuck.pdf");
+        when(tombstones.findByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(anyLong(), any()))
+                .thenReturn(List.of(gone, kept, stuck), List.of());
+        // kept.pdf was stored again under the same name after its tombstone was written
+        when(references.filenames(StorageArea.FOLLETO, 5L)).thenReturn(Set.of("kept.pdf"));
+
+        long before = System.currentTimeMillis();
+        assertEquals(1, queue.drain());
+
+        assertFalse(Files.exists(dir.resolve("gone.pdf")));
+        assertTrue(Files.exists(dir.resolve("kept.pdf")));
+        ArgumentCaptor<Iterable<FileTombstone>> finished = ArgumentCaptor.forClass(Iterable.class);
+        verify(tombstones).deleteAllInBatch(finished.capture());
+        assertEquals(List.of(gone, kept), finished.getValue());
+        assertEquals(1, stuck.getAttempts());
+        assertTrue(stuck.getNextAttemptAt() >= before + 30_000);
+        assertTrue(stuck.getLastError().startsWith("DirectoryNotEmptyException"));
+        verify(tombstones).saveAll(List.of(stuck));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void nameReferencedAfterTheBatchSnapshotIsKept() throws Exception {
+        store(5L, "late.pdf");
+        FileTombstone late = tombstone(1L, 5L, "late.pdf");
+        when(tombstones.findByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(anyLong(), any()))
+                .thenReturn(List.of(late), List.of());
+        // unreferenced when the batch is read, claimed by a new row before the unlink
+        when(references.filenames(StorageArea.FOLLETO, 5L)).thenReturn(Set.of(), Set.of("late.pdf"));
+
+        assertEquals(0, queue.drain());
+
+        assertTrue(Files.exists(storage.entityDirectory(StorageArea.FOLLETO, 5L).resolve("late.pdf")));
+        ArgumentCaptor<Iterable<FileTombstone>> finished = ArgumentCaptor.forClass(Iterable.class);
+        verify(tombstones).deleteAllInBatch(finished.capture());
+        assertEquals(List.of(late), finished.getValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sweepTombstonesOldFilesNoRowReferences() throws Exception {
+        long old = System.currentTimeMillis() - 2 * 3_600_000L;
+        store(5L, "cover_a.png");
+        store(5L, "cover_a.png@w160.jpg"); // variant of a referenced cover
+        store(5L, "leftover.pdf");
+        store(5L, "uploading.pdf"); // recent: its row may not be written yet
+        store(6L, "album_gone.pdf"); // folleto 6 no longer exists
+        Path dir5 = storage.entityDirectory(StorageArea.FOLLETO, 5L);
+        for (String name : List.of("cover_a.png", "cover_a.png@w160.jpg", "leftover.pdf")) {
+            Files.setLastModifiedTime(dir5.resolve(name), FileTime.fromMillis(old));
+        }
+        Files.setLastModifiedTime(storage.entityDirectory(StorageArea.FOLLETO, 6L).resolve("album_gone.pdf"), FileTime.fromMillis(old));
+        when(references.filenames(StorageArea.FOLLETO, 5L)).thenReturn(Set.of("cover_a.png"));
+        when(references.filenames(StorageArea.FOLLETO, 6L)).thenReturn(Set.of());
+        when(tombstones.findByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(anyLong(), any())).thenReturn(List.of());
+
+        assertEquals(2, queue.sweep());
+
+        ArgumentCaptor<Iterable<FileTombstone>> saved = ArgumentCaptor.forClass(Iterable.class);
+        verify(tombstones, times(2)).saveAll(saved.capture());
+        List<String> names = new ArrayList<>();
+        for (Iterable<FileTombstone> batch : saved.getAllValues()) {
+            for (FileTombstone t : batch) names.add(t.getEntityId() + "/" + t.getFilename());
+        }
+        assertEquals(List.of("5/leftover.pdf", "6/album_gone.pdf"), names);
+    }
+
+    private void store(Long id, String name) throws Exception {
+        // distinct contents: deduplicated files would share one modification time
+        storage.store(StorageArea.FOLLETO, id, new ByteArrayInputStream((id + name).getBytes(StandardCharsets.UTF_8)), name, name, null, null);
+    }
+
+    private static FileTombstone tombstone(Long id, Long entityId, String filename) {
+        FileTombstone t = new FileTombstone();
+        t.setId(id);
+        t.setArea(StorageArea.FOLLETO.name());
+        t.setEntityId(entityId);
+        t.setFilename(filename);
+        t.setAttempts(0);
+        t.setNextAttemptAt(0L);
+        return t;
+    }
+}
@@ -0,0 +1,187 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class FileServingServiceTest {
+
+    private static final String ETAG = "\"18c2f3a1b00-2710\"";
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+    private static final String LAST_MODIFIED_HTTP = "Tue, 14 Nov 2023 22:13:20 GMT";
+
+    @TempDir
+    Path tmp;
+
+    private FileServingService engine;
+    private ServedFile served;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // 0123456789 repeated: byte at offset n is the digit n % 10
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) sb.append((char) ('0' + (i % 10)));
+        Path file = tmp.resolve("doc.pdf");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.US_ASCII));
+        engine = new FileServingService(Long.MAX_VALUE, 100, 8, 0);
+        served = new ServedFile(file, Files.size(file), "application/pdf", "doc.pdf", ETAG, LAST_MODIFIED);
+    }
+
+    @Test
+    public void fullFileWithoutRange() throws Exception {
+        MockHttpServletResponse response = serve(get());
+        assertEquals(200, response.getStatus());
+        assertEquals(10_000, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void singleRange() throws Exception {
+        MockHttpServletResponse response = serve("bytes=10-14");
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-14/10000", response.getHeader("Content-Range"));
+        assertEquals("01234", response.getContentAsString());
+    }
+
+    @Test
+    public void unsatisfiableRange() throws Exception {
+        MockHttpServletResponse response = serve("bytes=20000-");
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */10000", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void nearbyRangesAreMergedIntoOnePart() throws Exception {
+        MockHttpServletResponse response = serve("bytes=0-9,50-59");
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 0-59/10000", response.getHeader("Content-Range"));
+        assertEquals(60, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void distantRangesProduceMultipartByteranges() throws Exception {
+        MockHttpServletResponse response = serve("bytes=9000-9004,0-4");
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = response.getContentAsString();
+        assertEquals(body.length(), response.getContentLengthLong());
+        // parts are sent in file order
+        assertTrue(body.indexOf("Content-Range: bytes 0-4/10000") < body.indexOf("Content-Range: bytes 9000-9004/10000"));
+        assertTrue(body.contains("\r\n\r\n01234\r\n--"));
+        assertTrue(body.endsWith("--\r\n"));
+    }
+
+    @Test
+    public void tooManyRangesFallBackToWholeFile() {
+        StringBuilder header = new StringBuilder("bytes=");
+        for (int i = 0; i < 20; i++) header.append(i == 0 ? "" : ",").append(i * 400).append("-").append(i * 400 + 1);
+        List<FileServingService.Region> regions = engine.resolveRanges(header.toString(), 10_000);
+        assertNull(regions);
+    }
+
+    @Test
+    public void matchingIfNoneMatchGives304() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("If-None-Match", "W/" + ETAG);
+        MockHttpServletResponse response = serve(request);
+        assertEquals(304, response.getStatus());
+        assertEquals(ETAG, response.getHeader("ETag"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void ifModifiedSinceGives304() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("If-Modified-Since", LAST_MODIFIED_HTTP);
+        assertEquals(304, serve(request).getStatus());
+    }
+
+    @Test
+    public void ifRangeWithCurrentEtagServesRange() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=0-4");
+        request.addHeader("If-Range", ETAG);
+        assertEquals(206, serve(request).getStatus());
+    }
+
+    @Test
+    public void ifRangeWithStaleValidatorServesWholeFile() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=0-4");
+        request.addHeader("If-Range", "\"something-else\"");
+        MockHttpServletResponse response = serve(request);
+        assertEquals(200, response.getStatus());
+        assertEquals(10_000, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void ifRangeWithCurrentDateServesRange() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=0-4");
+        request.addHeader("If-Range", LAST_MODIFIED_HTTP);
+        assertEquals(206, serve(request).getStatus());
+    }
+
+    @Test
+    public void headServedFromByteCacheAndTailFromDisk() throws Exception {
+        // 100-byte head budgeted as a PDF head; the rest of the file is read from disk
+        engine = new FileServingService(Long.MAX_VALUE, 100, 8, 0, new FileByteCache(1 << 20, 100, 0));
+        serve("bytes=0-0");
+        // same path and validators, different bytes on disk: only the cached head keeps the old content
+        Files.write(served.getPath(), "x".repeat(10_000).getBytes(StandardCharsets.US_ASCII));
+
+        MockHttpServletResponse response = serve("bytes=95-104");
+        assertEquals(206, response.getStatus());
+        assertEquals("56789xxxxx", response.getContentAsString());
+    }
+
+    @Test
+    public void cachedHeadDoesNotTakeLongRegionsAwayFromSendfile() throws Exception {
+        engine = new FileServingService(0, 100, 8, 0, new FileByteCache(1 << 20, 100, 0));
+        serve("bytes=0-0"); // caches the 100-byte head
+
+        // the whole file and an open range go to sendfile although they start in the head
+        for (String range : new String[] {null, "bytes=0-"}) {
+            MockHttpServletRequest request = get();
+            request.setAttribute(FileServingService.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+            if (range != null) request.addHeader("Range", range);
+            MockHttpServletResponse response = serve(request);
+            assertEquals(served.getPath().toAbsolutePath().toString(), request.getAttribute(FileServingService.SENDFILE_FILENAME_ATTR));
+            assertEquals(0, response.getContentAsByteArray().length);
+        }
+
+        // a range ending inside the head is written from memory
+        MockHttpServletRequest request = get();
+        request.setAttribute(FileServingService.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+        request.addHeader("Range", "bytes=10-19");
+        MockHttpServletResponse response = serve(request);
+        assertNull(request.getAttribute(FileServingService.SENDFILE_FILENAME_ATTR));
+        assertEquals("0123456789", response.getContentAsString());
+    }
+
+    private MockHttpServletRequest get() {
+        return new MockHttpServletRequest("GET", "/files/1/pdf");
+    }
+
+    private MockHttpServletResponse serve(String range) throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", range);
+        return serve(request);
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        engine.serve(request, response, served, false);
+        return response;
+    }
+}
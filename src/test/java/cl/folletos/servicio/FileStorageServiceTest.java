@@ -0,0 +1,198 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileStorageServiceTest {
+
+    @TempDir
+    Path root;
+
+    private FileStorageService storage;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        storage = new FileStorageService(root.toString(), 1000);
+    }
+
+    @Test
+    public void streamIsStoredHashedAndSniffedInOnePass() throws Exception {
+        byte[] pdf = ("%PDF-1.4\n" + "x".repeat(100)).getBytes(StandardCharsets.US_ASCII);
+        // declared type is wrong: the magic bytes decide
+        StoredFile stored = storage.store(7L, new ByteArrayInputStream(pdf), "My Doc.pdf", null, "pdf", "application/octet-stream");
+
+        assertEquals("pdf_My_Doc.pdf", stored.getFilename());
+        assertEquals(pdf.length, stored.getSize());
+        assertEquals("application/pdf", stored.getContentType());
+        assertEquals(storage.inspect(7L, stored.getFilename()).getSha256(), stored.getSha256());
+        assertEquals("pdf_My_Doc(1).pdf", storage.storeBytes(7L, pdf, "My Doc.pdf", "pdf", null));
+    }
+
+    @Test
+    public void identicalUploadsShareOneBlobUntilTheLastDelete() throws Exception {
+        assumeTrue(root.getFileSystem().supportedFileAttributeViews().contains("unix"));
+        byte[] mp3 = ("ID3" + "y".repeat(500)).getBytes(StandardCharsets.US_ASCII);
+        StoredFile a = storage.store(1L, new ByteArrayInputStream(mp3), "himno.mp3", null, "audio", null);
+        StoredFile b = storage.store(2L, new ByteArrayInputStream(mp3), "himno.mp3", null, "audio", null);
+
+        assertTrue(Files.isSameFile(a.getPath(), b.getPath()));
+        Path blob = root.resolve(".blobs").resolve(a.getSha256().substring(0, 2)).resolve(a.getSha256());
+        assertTrue(Files.exists(blob));
+
+        storage.deleteFile(1L, a.getFilename());
+        assertTrue(Files.exists(blob));
+        storage.deleteFile(2L, b.getFilename());
+        assertFalse(Files.exists(blob));
+    }
+
+    @Test
+    public void linkingANameNeverMovesTheValidatorsOfTheOthers() throws Exception {
+        assumeTrue(root.getFileSystem().supportedFileAttributeViews().contains("unix"));
+        byte[] pdf = ("%PDF-1.4\n" + "z".repeat(200)).getBytes(StandardCharsets.US_ASCII);
+        StoredFile a = storage.store(1L, new ByteArrayInputStream(pdf), "doc.pdf", null, "pdf", null);
+        FileTime firstStored = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        Files.setLastModifiedTime(a.getPath(), firstStored);
+
+        // a fresh name links to the blob and keeps its mtime; the name already linked keeps its own
+        StoredFile b = storage.store(2L, new ByteArrayInputStream(pdf), "doc.pdf", null, "pdf", null);
+        assertTrue(Files.isSameFile(a.getPath(), b.getPath()));
+        assertEquals(firstStored, Files.getLastModifiedTime(a.getPath()));
+
+        // a name holding newer content gets a private copy, so its Last-Modified does not go back
+        Path dir = storage.entityDirectory(StorageArea.FOLLETO, 3L);
+        Files.createDirectories(dir);
+        Path replaced = dir.resolve("pdf_doc.pdf");
+        Files.write(replaced, "%PDF-newer".getBytes(StandardCharsets.US_ASCII));
+        FileTime before = Files.getLastModifiedTime(replaced);
+        StoredFile c = storage.store(3L, new ByteArrayInputStream(pdf), "doc.pdf", "pdf_doc.pdf", "pdf", null);
+        assertFalse(Files.isSameFile(a.getPath(), c.getPath()));
+        assertTrue(Files.getLastModifiedTime(c.getPath()).compareTo(before) >= 0);
+        assertEquals(firstStored, Files.getLastModifiedTime(a.getPath()));
+    }
+
+    @Test
+    public void oversizedStreamIsRejectedWithoutLeavingFiles() throws Exception {
+        assertThrows(IOException.class,
+                () -> storage.store(7L, new ByteArrayInputStream(new byte[2000]), "big.pdf", null, "pdf", "application/pdf"));
+        try (Stream<Path> files = Files.walk(root)) {
+            assertTrue(files.noneMatch(Files::isRegularFile));
+        }
+    }
+
+    @Test
+    public void concurrentUploadsOfOneNameNeverOverwriteEachOther() throws Exception {
+        // an earlier upload (stored before this process started) already holds the bare name
+        Path dir = storage.entityDirectory(StorageArea.FOLLETO, 3L);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("pdf_scan.pdf"), "%PDF-old".getBytes(StandardCharsets.US_ASCII));
+        int threads = 16;
+        int perThread = 25;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<StoredFile>>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    List<StoredFile> stored = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        byte[] pdf = ("%PDF-1.4\n" + thread + "/" + i).getBytes(StandardCharsets.US_ASCII);
+                        stored.add(storage.store(3L, new ByteArrayInputStream(pdf), "scan.pdf", null, "pdf", "application/pdf"));
+                    }
+                    return stored;
+                }));
+            }
+            start.countDown();
+            Set<String> names = new HashSet<>();
+            for (int t = 0; t < threads; t++) {
+                List<StoredFile> stored = results.get(t).get();
+                for (int i = 0; i < perThread; i++) {
+                    StoredFile f = stored.get(i);
+                    assertTrue(names.add(f.getFilename()), "name handed out twice: " + f.getFilename());
+                    // what is on disk under the name is what this upload wrote
+                    assertEquals("%PDF-1.4\n" + t + "/" + i, Files.readString(dir.resolve(f.getFilename())));
+                }
+            }
+            assertFalse(names.contains("pdf_scan.pdf"));
+            assertEquals("%PDF-old", Files.readString(dir.resolve("pdf_scan.pdf")));
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(threads * perThread + 1, files.count());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reservedNamesAreSkippedAndReleasedOnDelete() throws Exception {
+        String first = storage.reserveFilename(4L, "Himno 1.mp3", "audio");
+        String second = storage.reserveFilename(4L, "Himno 1.mp3", "audio");
+
+        assertEquals("audio_Himno_1.mp3", first);
+        assertEquals("audio_Himno_1(1).mp3", second);
+        assertEquals(0, Files.size(storage.resolvePath(4L, first)));
+
+        storage.deleteFile(4L, first);
+        assertFalse(Files.exists(storage.resolvePath(4L, first)));
+        // the remembered suffix moves on; a new process would reuse the freed bare name
+        assertEquals("audio_Himno_1(2).mp3", storage.reserveFilename(4L, "Himno 1.mp3", "audio"));
+        assertEquals("audio_Himno_1.mp3", new FileStorageService(root.toString(), 1000).reserveFilename(4L, "Himno 1.mp3", "audio"));
+    }
+
+    @Test
+    public void flatTreeStaysReadableAndIsMigratedIntoAreas() throws Exception {
+        // folleto 5 and album 5 used to share uploads/5
+        Path flat = root.resolve("5");
+        Files.createDirectories(flat);
+        for (String name : new String[] { "pdf_a.pdf", "cover_c.jpg", "cover_c.jpg@w160.jpg", "audio_x(1).mp3", "shared.mp3", "stray.txt" }) {
+            Files.writeString(flat.resolve(name), "content of " + name);
+        }
+        FileStorageService migrating = new FileStorageService(root.toString(), 1000);
+
+        assertEquals(flat.resolve("pdf_a.pdf"), migrating.resolvePath(StorageArea.FOLLETO, 5L, "pdf_a.pdf"));
+        // a new upload must not take a name the flat tree still holds
+        assertEquals("pdf_a(1).pdf", migrating.reserveFilename(StorageArea.FOLLETO, 5L, "a.pdf", "pdf"));
+
+        int moved = migrating.migrateLegacyEntity(5L, Set.of("pdf_a.pdf", "cover_c.jpg", "shared.mp3"),
+                Set.of("audio_x(1).mp3", "shared.mp3"));
+
+        assertEquals(6, moved);
+        assertFalse(Files.exists(flat));
+        assertTrue(migrating.finishLegacyMigration());
+        Path folleto = migrating.entityDirectory(StorageArea.FOLLETO, 5L);
+        Path album = migrating.entityDirectory(StorageArea.MUSICA, 5L);
+        assertEquals(root.resolve("folletos").resolve(FileStorageService.shard(5L)).resolve("5"), folleto);
+        assertEquals(folleto.resolve("pdf_a.pdf"), migrating.resolvePath(StorageArea.FOLLETO, 5L, "pdf_a.pdf"));
+        assertEquals("content of pdf_a.pdf", Files.readString(folleto.resolve("pdf_a.pdf")));
+        assertEquals("content of cover_c.jpg@w160.jpg", Files.readString(folleto.resolve("cover_c.jpg@w160.jpg")));
+        assertEquals("content of audio_x(1).mp3", Files.readString(album.resolve("audio_x(1).mp3")));
+        assertFalse(Files.exists(folleto.resolve("audio_x(1).mp3")));
+        assertEquals("content of shared.mp3", Files.readString(folleto.resolve("shared.mp3")));
+        assertEquals("content of shared.mp3", Files.readString(album.resolve("shared.mp3")));
+        assertEquals("content of stray.txt", Files.readString(root.resolve(".orphans").resolve("5").resolve("stray.txt")));
+    }
+}
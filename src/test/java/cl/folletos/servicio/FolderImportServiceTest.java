@@ -0,0 +1,86 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+public class FolderImportServiceTest {
+
+    @TempDir
+    Path root;
+
+    @TempDir
+    Path source;
+
+    // records the batched inserts instead of talking to a database
+    private final List<List<Object[]>> batches = new ArrayList<>();
+
+    private FileStorageService storage;
+    private FolderImportService importer;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        JdbcTemplate jdbc = new JdbcTemplate() {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs, int[] argTypes) {
+                synchronized (batches) {
+                    batches.add(new ArrayList<>(batchArgs));
+                }
+                return new int[batchArgs.size()];
+            }
+        };
+        storage = new FileStorageService(root.toString(), 1_000_000);
+        importer = new FolderImportService(storage, jdbc,
+                TransactionOperations.withoutTransaction(), 3, 3);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        importer.shutdown();
+    }
+
+    @Test
+    public void filesAreCopiedInParallelAndInsertedInBatchesWithFinalNames() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            Files.write(source.resolve("track " + i + ".mp3"), ("ID3" + "x".repeat(1000 + i)).getBytes(StandardCharsets.US_ASCII));
+        }
+        Files.createFile(source.resolve("empty.mp3"));
+        // an earlier import already used this name in the album
+        Path album = storage.entityDirectory(StorageArea.MUSICA, 5L);
+        Files.createDirectories(album);
+        Files.write(album.resolve("audio_track_0.mp3"), new byte[] { 1 });
+
+        FolderImportService.ImportReport report = importer.importFolder(source, 5L);
+
+        assertEquals(8, report.getFiles());
+        assertEquals(7, report.getImported());
+        assertEquals(1, report.getSkipped());
+        assertEquals(0, report.getFailed());
+        assertEquals(3, batches.size()); // 3 + 3 + 1
+        Set<String> names = new TreeSet<>();
+        for (List<Object[]> batch : batches) {
+            for (Object[] row : batch) {
+                assertEquals(5L, row[0]);
+                String filename = (String) row[2];
+                assertTrue(names.add(filename));
+                assertEquals(Files.size(album.resolve(filename)), row[3]);
+                assertEquals("audio/mpeg", row[4]);
+            }
+        }
+        assertTrue(names.contains("audio_track_0(1).mp3"));
+    }
+}
@@ -0,0 +1,79 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+
+public class FolletoApiItemTest {
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    public void listsPdfAndAudioWithoutStorageMetadata() throws Exception {
+        Folleto f = folleto();
+        KeysetPage<FolletoApiItem> page = new KeysetPage<>(List.of(FolletoApiItem.of(f)), 0, null);
+
+        String body = json.writeValueAsString(page);
+        JsonNode item = json.readTree(body).get("items").get(0);
+        assertEquals("/files/3/cover", item.get("coverUrl").asText());
+        JsonNode files = item.get("files");
+        // the hidden cover row is not listed
+        assertEquals(2, files.size());
+        assertEquals("pdf", files.get(0).get("type").asText());
+        assertEquals("/files/3/file/11", files.get(0).get("url").asText());
+        assertEquals(2048L, files.get(0).get("size").asLong());
+        assertEquals("audio", files.get(1).get("type").asText());
+        for (String field : new String[] {"sha256", "etag", "lastModified", "missingSince", "textExtractedAt", "filename"}) {
+            assertFalse(body.contains("\"" + field + "\""), field);
+        }
+    }
+
+    @Test
+    public void entityWithFilesSerializesWithoutTheBackReferenceOrStorageMetadata() throws Exception {
+        JsonNode node = json.readTree(json.writeValueAsString(folleto()));
+        assertEquals(3, node.get("files").size());
+        JsonNode file = node.get("files").get(0);
+        assertNull(file.get("folleto"));
+        assertTrue(file.has("originalName"));
+        for (String field : new String[] {"sha256", "etag", "lastModified", "missingSince", "textExtractedAt", "filename"}) {
+            assertFalse(file.has(field), field);
+        }
+    }
+
+    private static Folleto folleto() {
+        Folleto f = new Folleto();
+        f.setId(3L);
+        f.setTitulo("El Sello de Pascua");
+        f.setAno(1950);
+        f.setCoverFilename("cover_sello.jpg");
+        f.getFiles().add(file(f, 10L, "cover", "cover_sello.jpg"));
+        f.getFiles().add(file(f, 11L, "pdf", "sello.pdf"));
+        f.getFiles().add(file(f, 12L, "audio", "sello.mp3"));
+        return f;
+    }
+
+    private static FolletoFile file(Folleto f, Long id, String type, String name) {
+        FolletoFile ff = new FolletoFile();
+        ff.setId(id);
+        ff.setType(type);
+        ff.setOriginalName(name);
+        ff.setFilename(name);
+        ff.setSize(2048L);
+        ff.setSha256("ab");
+        ff.setEtag("\"1-ab\"");
+        ff.setLastModified(1L);
+        ff.setFolleto(f);
+        return ff;
+    }
+}
@@ -0,0 +1,114 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.ImportJob;
+import cl.folletos.modelo.ImportJobItem;
+import cl.folletos.repositorio.ImportJobItemRepositorio;
+import cl.folletos.repositorio.ImportJobRepositorio;
+
+public class ImportJobServiceTest {
+
+    private ImportJobRepositorio jobs;
+    private ImportJobItemRepositorio items;
+    private UrlDownloadService downloads;
+    private ImportJobService service;
+    private ImportJob job;
+
+    @BeforeEach
+    public void setUp() {
+        jobs = mock(ImportJobRepositorio.class);
+        items = mock(ImportJobItemRepositorio.class);
+        downloads = mock(UrlDownloadService.class);
+        service = new ImportJobService(jobs, items, mock(FolderImportService.class), downloads,
+                TransactionOperations.withoutTransaction(), 1, 1);
+
+        // a job interrupted by a restart: still RUNNING, its first URL already done
+        job = new ImportJob();
+        job.setId(7L);
+        job.setKind(ImportJob.KIND_URL);
+        job.setAlbumId(5L);
+        job.setStatus(ImportJob.RUNNING);
+        job.setTotal(3);
+        when(jobs.findById(7L)).thenReturn(Optional.of(job));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void resumedJobProcessesOnlyPendingItems() throws Exception {
+        ImportJobItem broken = item(1, "http://host/b.mp3");
+        ImportJobItem pending = item(2, "http://host/c.mp3");
+        when(items.findByJobIdAndStatusOrderByPositionAsc(7L, ImportJobItem.PENDING)).thenReturn(List.of(broken, pending));
+        List<String> requested = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<String> urls = invocation.getArgument(1);
+            UrlDownloadService.Listener listener = invocation.getArgument(3);
+            requested.addAll(urls);
+            // finished out of order, as parallel downloads do
+            listener.downloaded(1, new AudioTrack(), null);
+            listener.downloaded(0, null, "404");
+            return null;
+        }).when(downloads).downloadAll(eq(5L), any(), any(), any());
+
+        service.run(7L);
+
+        assertEquals(List.of("http://host/b.mp3", "http://host/c.mp3"), requested);
+        assertEquals(ImportJobItem.FAILED, broken.getStatus());
+        assertEquals("404", broken.getError());
+        assertEquals(ImportJobItem.DONE, pending.getStatus());
+        assertEquals(ImportJob.COMPLETED, job.getStatus());
+    }
+
+    @Test
+    public void cancelStopsBeforeTheNextItem() throws Exception {
+        ImportJobItem first = item(1, "http://host/b.mp3");
+        ImportJobItem second = item(2, "http://host/c.mp3");
+        when(items.findByJobIdAndStatusOrderByPositionAsc(7L, ImportJobItem.PENDING)).thenReturn(List.of(first, second));
+        doAnswer(invocation -> {
+            BooleanSupplier cancelled = invocation.getArgument(2);
+            UrlDownloadService.Listener listener = invocation.getArgument(3);
+            assertEquals(false, cancelled.getAsBoolean());
+            service.cancel(7L);
+            listener.downloaded(0, new AudioTrack(), null);
+            // the downloader checks this before starting each URL
+            assertEquals(true, cancelled.getAsBoolean());
+            return null;
+        }).when(downloads).downloadAll(eq(5L), any(), any(), any());
+
+        service.run(7L);
+
+        assertEquals(ImportJobItem.DONE, first.getStatus());
+        assertEquals(ImportJobItem.PENDING, second.getStatus());
+        assertEquals(ImportJob.CANCELLED, job.getStatus());
+    }
+
+    private static ImportJobItem item(int position, String url) {
+        ImportJobItem item = new ImportJobItem();
+        item.setId((long) position);
+        item.setJobId(7L);
+        item.setPosition(position);
+        item.setSource(url);
+        item.setStatus(ImportJobItem.PENDING);
+        return item;
+    }
+}
@@ -0,0 +1,60 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class KeysetPageTest {
+
+    private record Row(Long id, Integer ano, String titulo) {}
+
+    @Test
+    public void cursorRoundTripsAnySortKey() {
+        KeysetCursor c = KeysetCursor.decode(new KeysetCursor(100, 1954, "Cómo | por qué", 42L).encode());
+        assertEquals(100, c.getPosition());
+        assertEquals(Integer.valueOf(1954), c.getAno());
+        assertEquals("Cómo | por qué", c.getTitulo());
+        assertEquals(42L, c.getId());
+        assertFalse(c.hasNullKey());
+
+        // null stays apart from 0 and "": the seek treats them differently
+        KeysetCursor nulls = KeysetCursor.decode(new KeysetCursor(0, null, null, 7L).encode());
+        assertNull(nulls.getAno());
+        assertNull(nulls.getTitulo());
+        assertTrue(nulls.hasNullKey());
+        KeysetCursor empty = KeysetCursor.decode(new KeysetCursor(0, 0, "", 7L).encode());
+        assertEquals(Integer.valueOf(0), empty.getAno());
+        assertEquals("", empty.getTitulo());
+        assertFalse(empty.hasNullKey());
+
+        assertNull(KeysetCursor.decode(null));
+        assertNull(KeysetCursor.decode("no es un cursor"));
+        assertNull(KeysetCursor.decode("eHh4"));
+    }
+
+    @Test
+    public void pagesCarryTheLastRowAndPosition() {
+        List<Row> rows = new ArrayList<>();
+        for (long i = 1; i <= 4; i++) rows.add(new Row(i, 1950, "T" + i));
+
+        // size + 1 rows fetched: a next page exists
+        KeysetPage<Row> first = KeysetPage.of(rows, 3, null, r -> new KeysetCursor(0, r.ano(), r.titulo(), r.id()));
+        assertEquals(3, first.getItems().size());
+        assertEquals(0, first.getOffset());
+        KeysetCursor next = KeysetCursor.decode(first.getNextCursor());
+        assertEquals(3, next.getPosition());
+        assertEquals("T3", next.getTitulo());
+        assertEquals(3L, next.getId());
+
+        KeysetPage<Row> last = KeysetPage.of(rows.subList(3, 4), 3, next, r -> new KeysetCursor(0, r.ano(), r.titulo(), r.id()));
+        assertEquals(1, last.getItems().size());
+        assertEquals(3, last.getOffset());
+        assertNull(last.getNextCursor());
+    }
+}
@@ -0,0 +1,185 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.FolletoFile;
+import cl.folletos.modelo.FolletoPageMatch;
+import cl.folletos.modelo.FolletoPageText;
+import cl.folletos.repositorio.FolletoFileRepositorio;
+import cl.folletos.repositorio.FolletoPageTextRepositorio;
+import cl.folletos.repositorio.FolletoRepositorio;
+
+public class PdfTextIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private FolletoFileRepositorio fileRepo;
+    private FolletoPageTextRepositorio pageRepo;
+    private FolletoRepositorio folletoRepo;
+    private FileStorageService storage;
+    private PdfTextIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        fileRepo = mock(FolletoFileRepositorio.class);
+        pageRepo = mock(FolletoPageTextRepositorio.class);
+        folletoRepo = mock(FolletoRepositorio.class);
+        storage = mock(FileStorageService.class);
+        index = new PdfTextIndex(fileRepo, pageRepo, folletoRepo, storage, null, TransactionOperations.withoutTransaction(), 1, 100, 50);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        index.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void extractStoresOneRowPerPageWithText() throws Exception {
+        Path pdf = dir.resolve("guia.pdf");
+        try (PDDocument doc = new PDDocument()) {
+            page(doc, "Las siete edades de la iglesia");
+            doc.addPage(new PDPage()); // blank, e.g. a scanned page
+            page(doc, "El sello de Pascua");
+            doc.save(pdf.toFile());
+        }
+        FolletoFile ff = file(5L, folleto(3L, "Guia"), "guia.pdf");
+        when(fileRepo.findById(5L)).thenReturn(Optional.of(ff));
+        when(fileRepo.getReferenceById(5L)).thenReturn(ff);
+        when(storage.loadAsPath(StorageArea.FOLLETO, 3L, "guia.pdf")).thenReturn(pdf);
+
+        assertEquals(2, index.extract(5L));
+
+        ArgumentCaptor<List<FolletoPageText>> saved = ArgumentCaptor.forClass(List.class);
+        verify(pageRepo).deleteByFileId(5L);
+        verify(pageRepo).saveAll(saved.capture());
+        assertEquals(List.of(1, 3), saved.getValue().stream().map(FolletoPageText::getPage).collect(Collectors.toList()));
+        assertTrue(saved.getValue().get(1).getContent().contains("Pascua"));
+        assertEquals(3L, saved.getValue().get(0).getFolletoId());
+        verify(fileRepo).markTextExtracted(eq(5L), anyLong());
+    }
+
+    @Test
+    public void extractSpoolsPdfsKeptOnlyInTheObjectStore() throws Exception {
+        Path pdf = dir.resolve("remota.pdf");
+        try (PDDocument doc = new PDDocument()) {
+            page(doc, "La fiesta de las trompetas");
+            doc.save(pdf.toFile());
+        }
+        FolletoFile ff = file(8L, folleto(4L, "Remota"), "remota.pdf");
+        when(fileRepo.findById(8L)).thenReturn(Optional.of(ff));
+        when(fileRepo.getReferenceById(8L)).thenReturn(ff);
+        when(storage.openStored(StorageArea.FOLLETO, 4L, "remota.pdf")).thenReturn(Files.newInputStream(pdf));
+        long spooledBefore = spooledFiles();
+
+        assertEquals(1, index.extract(8L));
+        // the temp copy is gone once the text is out
+        assertEquals(spooledBefore, spooledFiles());
+    }
+
+    @Test
+    public void extractSkipsFilesAlreadyDoneOrMissing() throws Exception {
+        FolletoFile done = file(5L, folleto(3L, "Guia"), "guia.pdf");
+        done.setTextExtractedAt(1L);
+        when(fileRepo.findById(5L)).thenReturn(Optional.of(done));
+        FolletoFile missing = file(6L, folleto(3L, "Guia"), "perdido.pdf");
+        when(fileRepo.findById(6L)).thenReturn(Optional.of(missing));
+
+        assertEquals(0, index.extract(5L));
+        assertEquals(0, index.extract(6L));
+        verify(pageRepo, never()).saveAll(any());
+        // a file not written yet is retried by the next backfill
+        verify(fileRepo, never()).markTextExtracted(any(), any());
+    }
+
+    @Test
+    public void searchGroupsPagesByFolletoBestFirst() {
+        when(pageRepo.search(eq("pascua"), anyInt())).thenReturn(List.of(
+                match(1L, 10L, 4, 2.0), match(2L, 20L, 1, 1.5), match(2L, 20L, 7, 1.0), match(1L, 11L, 2, 0.2)));
+        when(folletoRepo.findAllById(any())).thenReturn(List.of(folleto(1L, "Uno"), folleto(2L, "Dos")));
+        when(fileRepo.findAllById(any())).thenReturn(List.of());
+
+        List<PdfTextHit> hits = index.search("pascua");
+
+        // 1.5 + 1.0 over 2.0 + 0.2: two good pages beat one better page
+        assertEquals(List.of(2L, 1L), hits.stream().map(PdfTextHit::getId).collect(Collectors.toList()));
+        assertEquals(List.of(1, 7), hits.get(0).getPages().stream().map(PdfTextHit.Page::getPage).collect(Collectors.toList()));
+        assertEquals(List.of(4, 2), hits.get(1).getPages().stream().map(PdfTextHit.Page::getPage).collect(Collectors.toList()));
+        assertTrue(index.search("  ").isEmpty());
+    }
+
+    private static long spooledFiles() throws Exception {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(p -> p.getFileName().toString().startsWith("pdf-text-")).count();
+        }
+    }
+
+    private static void page(PDDocument doc, String text) throws Exception {
+        PDPage page = new PDPage();
+        doc.addPage(page);
+        try (PDPageContentStream out = new PDPageContentStream(doc, page)) {
+            out.beginText();
+            out.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+            out.newLineAtOffset(72, 700);
+            out.showText(text);
+            out.endText();
+        }
+    }
+
+    private static Folleto folleto(Long id, String titulo) {
+        Folleto f = new Folleto();
+        f.setId(id);
+        f.setTitulo(titulo);
+        f.setAno(1950);
+        return f;
+    }
+
+    private static FolletoFile file(Long id, Folleto f, String filename) {
+        FolletoFile ff = new FolletoFile();
+        ff.setId(id);
+        ff.setFolleto(f);
+        ff.setFilename(filename);
+        ff.setOriginalName(filename);
+        ff.setType("pdf");
+        return ff;
+    }
+
+    private static FolletoPageMatch match(Long folletoId, Long fileId, int page, double score) {
+        return new FolletoPageMatch() {
+            public Long getFolletoId() { return folletoId; }
+            public Long getFileId() { return fileId; }
+            public Integer getPage() { return page; }
+            public Double getScore() { return score; }
+        };
+    }
+}
@@ -0,0 +1,322 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Runs against an in-process fake of the S3 REST API (com.sun.net.httpserver), so it needs no network
+public class S3StorageBackendTest {
+
+    private static final String BUCKET = "folletos";
+    // listings are paged this small so continuation tokens are exercised
+    private static final int PAGE_SIZE = 2;
+
+    @TempDir
+    Path root;
+
+    private HttpServer server;
+    private S3StorageBackend backend;
+
+    private final ConcurrentSkipListMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, TreeMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadIds = new AtomicInteger();
+    private final AtomicInteger partsReceived = new AtomicInteger();
+    private final List<String> unsigned = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/" + BUCKET, this::handle);
+        server.start();
+        // 1 KiB parts: far below the S3 minimum, which the fake does not enforce
+        backend = new S3StorageBackend("http://127.0.0.1:" + server.getAddress().getPort(), BUCKET, "us-east-1",
+                "AKIDEXAMPLE", "secret", true, 1024, 5000, 5000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void smallObjectRoundTripAndRanges() throws Exception {
+        byte[] data = digits(1000);
+        backend.put("folletos/3a/12/doc.pdf", new ByteArrayInputStream(data), data.length, "application/pdf");
+
+        assertArrayEquals(data, objects.get("folletos/3a/12/doc.pdf"));
+        assertEquals(0, partsReceived.get());
+        assertEquals("23456", read(backend.openRange("folletos/3a/12/doc.pdf", 12, 5)));
+        // a range running past the end is cut at the end
+        assertEquals("789", read(backend.openRange("folletos/3a/12/doc.pdf", 997, 50)));
+
+        StorageObject stat = backend.stat("folletos/3a/12/doc.pdf");
+        assertNotNull(stat);
+        assertEquals(1000, stat.getSize());
+        assertTrue(stat.getEtag().startsWith("\""));
+        assertTrue(stat.getLastModified() > 0);
+
+        assertNull(backend.stat("folletos/3a/12/missing.pdf"));
+        assertThrows(NoSuchFileException.class, () -> backend.openRange("folletos/3a/12/missing.pdf", 0, 10));
+        assertTrue(unsigned.isEmpty(), "requests without a SigV4 Authorization header: " + unsigned);
+    }
+
+    @Test
+    public void largeObjectsAreSentAsMultipartUpload() throws Exception {
+        byte[] data = digits(5000);
+        backend.put("musica/07/5/audio_long.mp3", new ByteArrayInputStream(data), data.length, "audio/mpeg");
+
+        assertEquals(5, partsReceived.get());
+        assertArrayEquals(data, objects.get("musica/07/5/audio_long.mp3"));
+        assertTrue(uploads.isEmpty());
+        assertEquals("01234", read(backend.openRange("musica/07/5/audio_long.mp3", 4000, 5)));
+    }
+
+    @Test
+    public void failedMultipartUploadIsAborted() {
+        // declares more bytes than the stream has
+        byte[] data = digits(2500);
+        assertThrows(IOException.class,
+                () -> backend.put("musica/07/5/cut.mp3", new ByteArrayInputStream(data), 4000, "audio/mpeg"));
+        assertTrue(uploads.isEmpty());
+        assertFalse(objects.containsKey("musica/07/5/cut.mp3"));
+    }
+
+    @Test
+    public void putIfAbsentClaimsAKeyOnce() throws Exception {
+        assertTrue(backend.putIfAbsent("k/a.pdf", new ByteArrayInputStream(new byte[] {1}), 1, null));
+        assertFalse(backend.putIfAbsent("k/a.pdf", new ByteArrayInputStream(new byte[] {2}), 1, null));
+        assertArrayEquals(new byte[] {1}, objects.get("k/a.pdf"));
+    }
+
+    @Test
+    public void listFollowsContinuationTokensAndDeleteRemoves() throws Exception {
+        for (String key : List.of("a/1", "a/2", "a/3", "b/1")) {
+            backend.put(key, new ByteArrayInputStream(new byte[] {7}), 1, null);
+        }
+        List<StorageObject> listed = backend.list("a/");
+        assertEquals(List.of("a/1", "a/2", "a/3"), listed.stream().map(StorageObject::getKey).toList());
+        assertEquals(1, listed.get(0).getSize());
+
+        backend.delete("a/2");
+        backend.delete("a/missing");
+        assertNull(backend.stat("a/2"));
+        assertEquals(2, backend.list("a/").size());
+    }
+
+    @Test
+    public void storageServiceStoresAndServesRangesFromTheBucket() throws Exception {
+        FileStorageService storage = new FileStorageService(root.toString(), 1_000_000, true, "sharded", backend);
+        byte[] pdf = ("%PDF-1.4\n" + "x".repeat(3000)).getBytes(StandardCharsets.US_ASCII);
+
+        StoredFile first = storage.store(StorageArea.FOLLETO, 12L, new ByteArrayInputStream(pdf), "doc.pdf", null, "pdf", "application/pdf");
+        StoredFile second = storage.store(StorageArea.FOLLETO, 12L, new ByteArrayInputStream(pdf), "doc.pdf", null, "pdf", "application/pdf");
+        assertEquals("pdf_doc.pdf", first.getFilename());
+        assertEquals("pdf_doc(1).pdf", second.getFilename());
+        assertEquals("application/pdf", first.getContentType());
+        assertNull(first.getPath());
+        String key = storage.storageKey(StorageArea.FOLLETO, 12L, "pdf_doc.pdf");
+        assertArrayEquals(pdf, objects.get(key));
+        // nothing but the (empty) staging directory is left on local disk
+        try (Stream<Path> local = Files.walk(root)) {
+            assertTrue(local.filter(Files::isRegularFile).findAny().isEmpty());
+        }
+
+        StoredFile inspected = storage.inspect(StorageArea.FOLLETO, 12L, "pdf_doc.pdf");
+        assertEquals(first.getSha256(), inspected.getSha256());
+
+        ServedFile served = storage.servedFile(StorageArea.FOLLETO, 12L, "pdf_doc.pdf", first.getSize(),
+                "application/pdf", "doc.pdf", first.getEtag(), first.getLastModified());
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/files/12/pdf");
+        request.addHeader("Range", "bytes=0-4");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new FileServingService(0, 100, 8, 0, new FileByteCache(0, 0, 0)).serve(request, response, served, false);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 0-4/" + pdf.length, response.getHeader("Content-Range"));
+        assertEquals("%PDF-", response.getContentAsString());
+
+        assertTrue(storage.deleteFile(StorageArea.FOLLETO, 12L, "pdf_doc.pdf"));
+        assertNull(storage.stat(StorageArea.FOLLETO, 12L, "pdf_doc.pdf"));
+        assertFalse(storage.deleteFile(StorageArea.FOLLETO, 12L, "pdf_doc.pdf"));
+    }
+
+    // --- fake S3 ---
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String auth = exchange.getRequestHeaders().getFirst("Authorization");
+            if (auth == null || !auth.matches("AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/\\d{8}/us-east-1/s3/aws4_request, "
+                    + "SignedHeaders=host;x-amz-content-sha256;x-amz-date, Signature=[0-9a-f]{64}")) {
+                unsigned.add(exchange.getRequestMethod() + " " + exchange.getRequestURI());
+            }
+            String path = exchange.getRequestURI().getRawPath().substring(BUCKET.length() + 1);
+            String key = URLDecoder.decode(path.startsWith("/") ? path.substring(1) : path, StandardCharsets.UTF_8);
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            switch (exchange.getRequestMethod()) {
+                case "PUT" -> put(exchange, key, query, body);
+                case "POST" -> post(exchange, key, query);
+                case "GET" -> get(exchange, key, query);
+                case "HEAD" -> head(exchange, key);
+                case "DELETE" -> {
+                    if (query.containsKey("uploadId")) uploads.remove(query.get("uploadId"));
+                    else objects.remove(key);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> exchange.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+
+    private void put(HttpExchange exchange, String key, Map<String, String> query, byte[] body) throws IOException {
+        if (query.containsKey("uploadId")) {
+            TreeMap<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+            if (parts == null) { exchange.sendResponseHeaders(404, -1); return; }
+            int number = Integer.parseInt(query.get("partNumber"));
+            parts.put(number, body);
+            partsReceived.incrementAndGet();
+            exchange.getResponseHeaders().set("ETag", "\"part" + number + "\"");
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        boolean ifAbsent = "*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+        if (ifAbsent && objects.putIfAbsent(key, body) != null) { exchange.sendResponseHeaders(412, -1); return; }
+        objects.put(key, body);
+        exchange.getResponseHeaders().set("ETag", etag(body));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void post(HttpExchange exchange, String key, Map<String, String> query) throws IOException {
+        if (query.containsKey("uploads")) {
+            String id = "upload-" + uploadIds.incrementAndGet();
+            uploads.put(id, new TreeMap<>());
+            xml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Bucket>"
+                    + BUCKET + "</Bucket><Key>" + key + "</Key><UploadId>" + id + "</UploadId></InitiateMultipartUploadResult>");
+            return;
+        }
+        TreeMap<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+        if (parts == null) { exchange.sendResponseHeaders(404, -1); return; }
+        ByteArrayOutputStream assembled = new ByteArrayOutputStream();
+        for (byte[] part : parts.values()) assembled.write(part);
+        byte[] content = assembled.toByteArray();
+        boolean ifAbsent = "*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+        if (ifAbsent && objects.putIfAbsent(key, content) != null) { exchange.sendResponseHeaders(412, -1); return; }
+        objects.put(key, content);
+        xml(exchange, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key><ETag>\"multi-" + parts.size()
+                + "\"</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private void get(HttpExchange exchange, String key, Map<String, String> query) throws IOException {
+        if ("2".equals(query.get("list-type"))) {
+            String prefix = query.getOrDefault("prefix", "");
+            String after = query.get("continuation-token");
+            List<String> keys = objects.keySet().stream()
+                    .filter(k -> k.startsWith(prefix) && (after == null || k.compareTo(after) > 0)).toList();
+            StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+            List<String> page = keys.subList(0, Math.min(PAGE_SIZE, keys.size()));
+            for (String k : page) {
+                xml.append("<Contents><Key>").append(k).append("</Key><LastModified>2025-01-02T03:04:05.000Z</LastModified><ETag>")
+                        .append(etag(objects.get(k)).replace("\"", "&quot;")).append("</ETag><Size>")
+                        .append(objects.get(k).length).append("</Size></Contents>");
+            }
+            boolean truncated = keys.size() > page.size();
+            xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+            if (truncated) xml.append("<NextContinuationToken>").append(page.get(page.size() - 1)).append("</NextContinuationToken>");
+            xml(exchange, 200, xml.append("</ListBucketResult>").toString());
+            return;
+        }
+        byte[] content = objects.get(key);
+        if (content == null) { xml(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>"); return; }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int start = 0;
+        int end = content.length - 1;
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = Math.min(end, Integer.parseInt(bounds[1]));
+            if (start >= content.length) { exchange.sendResponseHeaders(416, -1); return; }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+        byte[] slice = Arrays.copyOfRange(content, start, end + 1);
+        exchange.sendResponseHeaders(range != null ? 206 : 200, slice.length);
+        exchange.getResponseBody().write(slice);
+    }
+
+    private void head(HttpExchange exchange, String key) throws IOException {
+        byte[] content = objects.get(key);
+        if (content == null) { exchange.sendResponseHeaders(404, -1); return; }
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+        exchange.getResponseHeaders().set("ETag", etag(content));
+        exchange.getResponseHeaders().set("Last-Modified", "Thu, 02 Jan 2025 03:04:05 GMT");
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private static void xml(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> query = new TreeMap<>();
+        if (raw == null) return query;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            query.put(name, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String etag(byte[] content) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+    }
+
+    private static byte[] digits(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) ('0' + (i % 10));
+        return data;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import cl.folletos.modelo.Folleto;
+import cl.folletos.modelo.Musica;
+
+public class SearchIndexTest {
+
+    private SearchIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        // fed through putFolleto/putMusica; the repositories are only read by rebuild()
+        index = new SearchIndex(null, null, 50);
+        index.putFolleto(folleto(1L, "La Canción de Moisés", "Predicado en Jeffersonville"));
+        index.putFolleto(folleto(2L, "Jehová Jireh", "Una canción del pasaje en Génesis"));
+        index.putFolleto(folleto(3L, "El Sello de Pascua", null));
+        Musica m = new Musica();
+        m.setId(7L);
+        m.setTitulo("Canciones del Tabernáculo");
+        index.putMusica(m);
+    }
+
+    @Test
+    public void accentsAndCaseAreIgnoredAndResultsRanked() {
+        List<SearchHit> hits = index.search("CANCION");
+        // exact in a title, prefix in a title ("canciones"), exact in a description
+        assertEquals(List.of("FOLLETO/1", "MUSICA/7", "FOLLETO/2"), keys(hits));
+        assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+        assertTrue(hits.get(1).getScore() > hits.get(2).getScore());
+        assertEquals(keys(hits), keys(index.search("canción")));
+    }
+
+    @Test
+    public void prefixesAndOneTypoMatch() {
+        assertEquals(List.of("MUSICA/7"), keys(index.search("tabern")));
+        assertEquals(List.of("FOLLETO/3"), keys(index.search("pacsua"))); // swapped letters
+        assertEquals(List.of("FOLLETO/3"), keys(index.search("sello pasqua"))); // substitution
+        assertEquals(List.of("FOLLETO/1"), keys(index.search("moises jefersonville"))); // deletion
+        assertTrue(index.search("pxxcua").isEmpty());
+        // every word must match
+        assertTrue(index.search("cancion pascua").isEmpty());
+    }
+
+    @Test
+    public void updatesAndRemovalsAreIncremental() {
+        index.putFolleto(folleto(3L, "El Sello de la Pascua Renovado", null));
+        assertEquals(List.of("FOLLETO/3"), keys(index.search("renovado")));
+
+        index.putFolleto(folleto(3L, "Otro título", null));
+        assertTrue(index.search("pascua").isEmpty());
+
+        index.remove(SearchIndex.FOLLETO, 1L);
+        assertFalse(keys(index.search("cancion")).contains("FOLLETO/1"));
+        assertTrue(index.search("moises").isEmpty());
+    }
+
+    @Test
+    public void changesInsideATransactionWaitForTheCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.putFolleto(folleto(4L, "Cuestiones y Respuestas", null));
+            index.remove(SearchIndex.FOLLETO, 3L);
+            assertTrue(index.search("cuestiones").isEmpty());
+            assertEquals(List.of("FOLLETO/3"), keys(index.search("pascua")));
+
+            for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) s.afterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(List.of("FOLLETO/4"), keys(index.search("cuestiones")));
+        assertTrue(index.search("pascua").isEmpty());
+    }
+
+    @Test
+    public void editDistanceOneOnly() {
+        assertTrue(SearchIndex.withinOneEdit("pascua", "pascua"));
+        assertTrue(SearchIndex.withinOneEdit("pascua", "pacsua"));
+        assertTrue(SearchIndex.withinOneEdit("pascua", "pascuas"));
+        assertTrue(SearchIndex.withinOneEdit("pascua", "pasua"));
+        assertFalse(SearchIndex.withinOneEdit("pascua", "pcsaua"));
+        assertFalse(SearchIndex.withinOneEdit("pascua", "pasc"));
+        assertEquals(List.of("cancion", "no", "5"), SearchIndex.terms("¿Canción Nº 5?"));
+    }
+
+    private static List<String> keys(List<SearchHit> hits) {
+        return hits.stream().map(h -> h.getKind() + "/" + h.getId()).collect(Collectors.toList());
+    }
+
+    private static Folleto folleto(Long id, String titulo, String descripcion) {
+        Folleto f = new Folleto();
+        f.setId(id);
+        f.setTitulo(titulo);
+        f.setDescripcion(descripcion);
+        f.setAno(1950);
+        return f;
+    }
+}
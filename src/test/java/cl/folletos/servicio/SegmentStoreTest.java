@@ -0,0 +1,162 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SegmentStoreTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void blobsSurviveAReopenAndDeletesStayDeleted() throws Exception {
+        SegmentStore store = new SegmentStore(root, 1 << 20, 0.5);
+        put(store, "folletos/3a/1/cover_a.png", blob('a', 300));
+        put(store, "folletos/3a/1/cover_b.png", blob('b', 300));
+        put(store, "folletos/3a/1/cover_a.png", blob('A', 200)); // overwrite
+        store.delete("folletos/3a/1/cover_b.png");
+        assertEquals("AAA", read(store.openRange("folletos/3a/1/cover_a.png", 10, 3)));
+        store.close();
+
+        SegmentStore reopened = new SegmentStore(root, 1 << 20, 0.5);
+        assertArrayEquals(blob('A', 200), read(reopened, "folletos/3a/1/cover_a.png"));
+        assertNull(reopened.stat("folletos/3a/1/cover_b.png"));
+        assertEquals(200, reopened.stat("folletos/3a/1/cover_a.png").getSize());
+        assertFalse(reopened.putIfAbsent("folletos/3a/1/cover_a.png", new ByteArrayInputStream(new byte[1]), 1, null));
+        reopened.close();
+    }
+
+    @Test
+    public void recordCutShortByACrashIsDroppedOnOpen() throws Exception {
+        SegmentStore store = new SegmentStore(root, 1 << 20, 0.5);
+        put(store, "k/whole.png", blob('w', 500));
+        put(store, "k/torn.png", blob('t', 500));
+        store.close();
+        Path segment = segments()[0];
+        long size = Files.size(segment);
+        try (var channel = Files.newByteChannel(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 100);
+        }
+
+        SegmentStore reopened = new SegmentStore(root, 1 << 20, 0.5);
+        assertArrayEquals(blob('w', 500), read(reopened, "k/whole.png"));
+        assertNull(reopened.stat("k/torn.png"));
+        // appends continue right after the last whole record
+        put(reopened, "k/next.png", blob('n', 10));
+        reopened.close();
+        SegmentStore again = new SegmentStore(root, 1 << 20, 0.5);
+        assertArrayEquals(blob('n', 10), read(again, "k/next.png"));
+        again.close();
+    }
+
+    @Test
+    public void compactionReclaimsDeletedSpaceAndKeepsLiveBlobs() throws Exception {
+        // ~4 records per segment
+        SegmentStore store = new SegmentStore(root, 2200, 0.5);
+        for (int i = 0; i < 20; i++) put(store, "c/" + i, blob((char) ('a' + i), 500));
+        long before = store.usage().get("bytes");
+        for (int i = 0; i < 20; i++) {
+            if (i % 5 != 0) store.delete("c/" + i);
+        }
+        long after = store.usage().get("bytes");
+        assertTrue(after < before / 2, "bytes before " + before + ", after " + after);
+        for (int i = 0; i < 20; i += 5) assertArrayEquals(blob((char) ('a' + i), 500), read(store, "c/" + i));
+        store.close();
+
+        // what compaction moved and dropped is replayed the same way
+        SegmentStore reopened = new SegmentStore(root, 2200, 0.5);
+        assertEquals(4, reopened.list("c/").size());
+        for (int i = 0; i < 20; i++) {
+            if (i % 5 == 0) assertArrayEquals(blob((char) ('a' + i), 500), read(reopened, "c/" + i));
+            else assertNull(reopened.stat("c/" + i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void smallCoversArePackedAndLooseOnesStillServed() throws Exception {
+        FileStorageService storage = new FileStorageService(root.toString(), 1_000_000, true, "sharded",
+                new LocalStorageBackend(root), 1000, 1 << 20);
+        Path dir = storage.entityDirectory(StorageArea.FOLLETO, 5L);
+        // a cover stored before packing existed
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("cover_portada.png"), png(300));
+
+        StoredFile small = storage.store(5L, new ByteArrayInputStream(png(400)), "portada.png", null, "cover", "image/png");
+        assertEquals("cover_portada(1).png", small.getFilename()); // the loose name stays taken
+        assertNull(small.getPath());
+        assertFalse(Files.exists(dir.resolve("cover_portada(1).png")));
+        StoredFile big = storage.store(5L, new ByteArrayInputStream(png(5000)), "grande.png", null, "cover", "image/png");
+        assertNotNull(big.getPath());
+
+        StoredFile loose = storage.stat(5L, "cover_portada.png");
+        assertNotNull(loose.getPath());
+        assertEquals(300, loose.getSize());
+        StoredFile packedStat = storage.stat(5L, small.getFilename());
+        assertEquals(400, packedStat.getSize());
+        assertEquals(small.getSha256(), storage.inspect(5L, small.getFilename()).getSha256());
+
+        ServedFile served = storage.servedFile(StorageArea.FOLLETO, 5L, small.getFilename(), 400, "image/png", "portada.png",
+                packedStat.getEtag(), packedStat.getLastModified());
+        assertNull(served.getPath());
+        assertArrayEquals(png(400), read(served.getBackend(), served.getKey()));
+        assertNotNull(storage.servedFile(StorageArea.FOLLETO, 5L, "cover_portada.png", 300, "image/png", "portada.png",
+                loose.getEtag(), loose.getLastModified()).getPath());
+
+        assertTrue(storage.deleteFile(5L, small.getFilename()));
+        assertNull(storage.stat(5L, small.getFilename()));
+        storage.close();
+    }
+
+    private Path[] segments() throws IOException {
+        try (Stream<Path> files = Files.list(root.resolve(SegmentStore.SEGMENTS_DIR))) {
+            return files.sorted().toArray(Path[]::new);
+        }
+    }
+
+    private static void put(SegmentStore store, String key, byte[] content) throws IOException {
+        store.put(key, new ByteArrayInputStream(content), content.length, null);
+    }
+
+    private static byte[] blob(char c, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) c);
+        return data;
+    }
+
+    private static byte[] png(int length) {
+        byte[] data = blob('p', length);
+        byte[] magic = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+        System.arraycopy(magic, 0, data, 0, magic.length);
+        return data;
+    }
+
+    private static byte[] read(StorageBackend store, String key) throws IOException {
+        try (InputStream in = store.openRange(key, 0, Long.MAX_VALUE)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+}
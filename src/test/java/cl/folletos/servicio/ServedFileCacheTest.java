@@ -0,0 +1,71 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+public class ServedFileCacheTest {
+
+    private final ServedFile file = new ServedFile(Paths.get("uploads/1/cover_a.jpg"), 10, "image/jpeg", "cover_a.jpg", "\"1-a\"", 1L);
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        ServedFileCache cache = new ServedFileCache(2);
+        cache.put(ServedFileCache.folletoType(1L, "cover"), file, cache.generation());
+        cache.put(ServedFileCache.folletoType(2L, "cover"), file, cache.generation());
+        assertNotNull(cache.get(ServedFileCache.folletoType(1L, "cover")));
+        cache.put(ServedFileCache.folletoType(3L, "cover"), file, cache.generation());
+
+        assertNull(cache.get(ServedFileCache.folletoType(2L, "cover")));
+        assertNotNull(cache.get(ServedFileCache.folletoType(1L, "cover")));
+        assertEquals(1L, cache.stats().get("evictions"));
+        assertEquals(2L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    public void invalidationDropsEveryEntryOfTheDirectory() {
+        ServedFileCache cache = new ServedFileCache(10);
+        cache.put(ServedFileCache.folletoType(1L, "pdf"), file, cache.generation());
+        cache.put(ServedFileCache.folletoFile(1L, 7L), file, cache.generation());
+        cache.put(ServedFileCache.musica(1L, "track(3).mp3"), file, cache.generation());
+        cache.put(ServedFileCache.folletoType(2L, "pdf"), file, cache.generation());
+
+        cache.invalidate(StorageArea.FOLLETO, 1L);
+
+        assertNull(cache.get(ServedFileCache.folletoType(1L, "pdf")));
+        assertNull(cache.get(ServedFileCache.folletoFile(1L, 7L)));
+        // album 1 is a different directory
+        assertNotNull(cache.get(ServedFileCache.musica(1L, "track(3).mp3")));
+        assertNotNull(cache.get(ServedFileCache.folletoType(2L, "pdf")));
+
+        cache.invalidate(StorageArea.MUSICA, 1L);
+        assertNull(cache.get(ServedFileCache.musica(1L, "track(3).mp3")));
+    }
+
+    @Test
+    public void evictedEntriesLeaveTheDirectoryIndex() {
+        ServedFileCache cache = new ServedFileCache(1);
+        cache.put(ServedFileCache.folletoType(1L, "pdf"), file, cache.generation());
+        cache.put(ServedFileCache.folletoType(2L, "pdf"), file, cache.generation()); // evicts folleto 1
+        cache.invalidate(StorageArea.FOLLETO, 1L);
+        cache.put(ServedFileCache.folletoType(1L, "pdf"), file, cache.generation()); // evicts folleto 2
+
+        cache.invalidate(StorageArea.FOLLETO, 1L);
+        assertNull(cache.get(ServedFileCache.folletoType(1L, "pdf")));
+        assertEquals(0, cache.stats().get("size"));
+    }
+
+    @Test
+    public void descriptorLoadedBeforeAnInvalidationIsNotCached() {
+        ServedFileCache cache = new ServedFileCache(10);
+        long generation = cache.generation();
+        cache.invalidate(StorageArea.FOLLETO, 1L); // a store/delete happened while the descriptor was being loaded
+        cache.put(ServedFileCache.folletoType(1L, "cover"), file, generation);
+        assertNull(cache.get(ServedFileCache.folletoType(1L, "cover")));
+    }
+}
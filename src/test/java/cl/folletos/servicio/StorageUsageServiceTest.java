@@ -0,0 +1,101 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.StorageUsage;
+import cl.folletos.repositorio.StorageUsageRepositorio;
+
+public class StorageUsageServiceTest {
+
+    @TempDir
+    Path root;
+
+    private StorageUsageRepositorio usages;
+    private StorageUsageService usage;
+
+    @BeforeEach
+    public void setUp() {
+        usages = mock(StorageUsageRepositorio.class);
+        // flushed only when the test says so
+        usage = new StorageUsageService(usages, TransactionOperations.withoutTransaction(), 3600);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        usage.shutdown();
+    }
+
+    @Test
+    public void runningCountersMatchARecountOfTheTree() throws Exception {
+        FileStorageService storage = new FileStorageService(root.toString(), 1_000_000, true, "sharded",
+                new LocalStorageBackend(root), 1000, 1 << 20);
+        ReflectionTestUtils.setField(storage, "usage", usage);
+
+        StoredFile pdf = storage.store(StorageArea.FOLLETO, 3L, content('a', 5000), "guia.pdf", null, "pdf", "application/pdf");
+        storage.store(StorageArea.FOLLETO, 3L, content('b', 700), "portada.png", null, "cover", "image/png"); // packed
+        storage.store(StorageArea.FOLLETO, 3L, content('c', 3000), "x.pdf", pdf.getFilename(), "pdf", "application/pdf"); // replaced
+        String reserved = storage.reserveFilename(StorageArea.FOLLETO, 3L, "parte.pdf", "pdf");
+        storage.store(StorageArea.FOLLETO, 3L, content('d', 200), "parte.pdf", reserved, "pdf", "application/pdf");
+        storage.store(StorageArea.MUSICA, 3L, content('e', 4000), "tema.mp3", null, "audio", "audio/mpeg");
+        StoredFile gone = storage.store(StorageArea.MUSICA, 3L, content('f', 900), "otro.mp3", null, "audio", "audio/mpeg");
+        storage.deleteFile(StorageArea.MUSICA, 3L, gone.getFilename());
+        storage.deleteFile(StorageArea.MUSICA, 3L, "never-stored.mp3");
+
+        for (StorageArea area : StorageArea.values()) {
+            Map<Long, long[]> recount = storage.measureArea(area, 2);
+            Map<String, Object> counted = usage.entity(area, 3L);
+            assertArrayEquals(recount.get(3L), new long[] {(Long) counted.get("bytes"), (Long) counted.get("files")}, area.name());
+        }
+        assertEquals(3900L, usage.entity(StorageArea.FOLLETO, 3L).get("bytes"));
+        storage.close();
+    }
+
+    @Test
+    public void deltasAreCoalescedIntoOneUpdatePerEntity() {
+        when(usages.add(eq("FOLLETO"), eq(1L), anyLong(), anyLong(), anyLong())).thenReturn(1);
+        when(usages.add(eq("MUSICA"), eq(2L), anyLong(), anyLong(), anyLong())).thenReturn(0);
+        for (int i = 0; i < 100; i++) usage.record(StorageArea.FOLLETO, 1L, 10, 1);
+        usage.record(StorageArea.FOLLETO, 1L, -10, -1);
+        usage.record(StorageArea.MUSICA, 2L, 500, 1);
+
+        usage.flush();
+
+        verify(usages, times(1)).add(eq("FOLLETO"), eq(1L), eq(990L), eq(99L), anyLong());
+        ArgumentCaptor<StorageUsage> inserted = ArgumentCaptor.forClass(StorageUsage.class);
+        verify(usages).save(inserted.capture()); // no row yet for album 2
+        assertEquals(2L, inserted.getValue().getEntityId());
+        assertEquals(500L, inserted.getValue().getBytes());
+
+        usage.flush(); // nothing pending
+        verify(usages, times(2)).add(any(), any(), anyLong(), anyLong(), anyLong());
+        verify(usages, never()).deleteByAreaInBulk(any());
+    }
+
+    private static ByteArrayInputStream content(char c, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) c);
+        return new ByteArrayInputStream(data);
+    }
+}
@@ -0,0 +1,225 @@
+package cl.folletos.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.repositorio.AudioTrackRepositorio;
+
+// Runs against a local com.sun.net.httpserver stub, so it needs no network.
+// Benchmark: mvn test -Dtest=UrlDownloadServiceTest -Dbenchmark=true
+public class UrlDownloadServiceTest {
+    private static final Logger logger = LoggerFactory.getLogger(UrlDownloadServiceTest.class);
+
+    @TempDir
+    Path root;
+
+    private HttpServer server;
+    private String base;
+    private FileStorageService storage;
+    private AudioTrackRepositorio trackRepo;
+    private UrlDownloadService downloads;
+    // holds the /stall/ handlers until the test is over
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    private static final byte[] MP3 = ("ID3" + "z".repeat(200_000)).getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        // /hop/3/x.mp3 -> /hop/2/x.mp3 -> ... -> /files/x.mp3 (relative Location on the last hop)
+        server.createContext("/hop/", ex -> {
+            String[] parts = ex.getRequestURI().getRawPath().split("/");
+            int left = Integer.parseInt(parts[2]);
+            String next = left > 1 ? "/hop/" + (left - 1) + "/" + parts[3] : "../../files/" + parts[3];
+            ex.getResponseHeaders().add("Location", next);
+            ex.sendResponseHeaders(302, -1);
+            ex.close();
+        });
+        server.createContext("/files/", ex -> serve(ex, MP3));
+        // fails twice with 503, then serves the file
+        server.createContext("/flaky/", ex -> {
+            int n = hits.computeIfAbsent(ex.getRequestURI().getPath(), k -> new AtomicInteger()).incrementAndGet();
+            if (n <= 2) {
+                ex.sendResponseHeaders(503, -1);
+                ex.close();
+                return;
+            }
+            serve(ex, MP3);
+        });
+        server.createContext("/slow/", ex -> {
+            int now = active.incrementAndGet();
+            maxActive.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(100);
+                serve(ex, MP3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+        // declares the whole file, sends the first KB and then goes quiet
+        server.createContext("/stall/", ex -> {
+            hits.computeIfAbsent(ex.getRequestURI().getPath(), k -> new AtomicInteger()).incrementAndGet();
+            ex.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            ex.sendResponseHeaders(200, MP3.length);
+            OutputStream out = ex.getResponseBody();
+            out.write(MP3, 0, 1024);
+            out.flush();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ex.close();
+        });
+        server.createContext("/missing/", ex -> {
+            ex.sendResponseHeaders(404, -1);
+            ex.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        trackRepo = mock(AudioTrackRepositorio.class);
+        AtomicLong ids = new AtomicLong();
+        when(trackRepo.save(any(AudioTrack.class))).thenAnswer(invocation -> {
+            AudioTrack t = invocation.getArgument(0);
+            if (t.getId() == null) t.setId(ids.incrementAndGet());
+            return t;
+        });
+        storage = new FileStorageService(root.toString(), 1000);
+        // parallel 3, 1 MB limit, 3 attempts, 10 ms backoff
+        downloads = new UrlDownloadService(storage, trackRepo, 3, 1_000_000, 3, 10, 5000, 5000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        downloads.shutdown();
+        release.countDown();
+        server.stop(0);
+    }
+
+    private static void serve(HttpExchange ex, byte[] body) throws java.io.IOException {
+        ex.getResponseHeaders().add("Content-Type", "audio/mpeg");
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void followsRedirectChainsAndStreamsPastTheFormLimit() throws Exception {
+        AudioTrack track = downloads.download(4L, base + "/hop/3/himno%201.mp3");
+
+        assertNotNull(track);
+        assertEquals("himno 1.mp3", track.getOriginalName());
+        assertEquals("himno_1(1).mp3", track.getFilename());
+        assertEquals(MP3.length, track.getSize());
+        assertArrayEquals(MP3, Files.readAllBytes(storage.resolvePath(StorageArea.MUSICA, 4L, track.getFilename())));
+    }
+
+    @Test
+    public void retriesServerErrorsWithBackoff() throws Exception {
+        AudioTrack track = downloads.download(4L, base + "/flaky/a.mp3");
+
+        assertNotNull(track);
+        assertEquals(3, hits.get("/flaky/a.mp3").get());
+    }
+
+    @Test
+    public void runsABoundedNumberOfDownloadsAtOnce() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 9; i++) urls.add(base + "/slow/t" + i + ".mp3");
+        urls.add(base + "/missing/x.mp3");
+        String[] errors = new String[urls.size()];
+        AudioTrack[] tracks = new AudioTrack[urls.size()];
+
+        downloads.downloadAll(4L, urls, () -> false, (index, track, error) -> {
+            tracks[index] = track;
+            errors[index] = error;
+        });
+
+        for (int i = 0; i < 9; i++) assertNotNull(tracks[i]);
+        assertNull(tracks[9]);
+        assertTrue(errors[9].contains("404"));
+        assertTrue(maxActive.get() <= 3, "max concurrent downloads: " + maxActive.get());
+        assertTrue(maxActive.get() > 1);
+    }
+
+    @Test
+    public void bodyThatStopsMidwayTimesOutAndIsRetried() throws Exception {
+        // 1 s read timeout, 2 attempts
+        UrlDownloadService impatient = new UrlDownloadService(storage, trackRepo, 1, 1_000_000, 2, 10, 5000, 1000);
+        try {
+            long t0 = System.nanoTime();
+            IOException ex = assertThrows(IOException.class, () -> impatient.download(4L, base + "/stall/s.mp3"));
+            long millis = (System.nanoTime() - t0) / 1_000_000;
+
+            assertTrue(ex.getMessage().contains("Tiempo de lectura agotado"), ex.getMessage());
+            assertEquals(2, hits.get("/stall/s.mp3").get());
+            assertTrue(millis < 10_000, "tardo " + millis + " ms");
+            // the half-written track is dropped on each attempt
+            verify(trackRepo, times(2)).delete(any(AudioTrack.class));
+        } finally {
+            impatient.shutdown();
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkParallelDownloads() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 60; i++) urls.add(base + "/slow/b" + i + ".mp3");
+        long t0 = System.nanoTime();
+        AtomicInteger ok = new AtomicInteger();
+        downloads.downloadAll(9L, urls, () -> false, (index, track, error) -> {
+            if (track != null) ok.incrementAndGet();
+        });
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        assertEquals(urls.size(), ok.get());
+        logger.info("{} descargas de {} KB en {} s ({} archivos/s, {} MB/s)", urls.size(), MP3.length / 1024,
+                String.format("%.2f", seconds), String.format("%.1f", urls.size() / seconds),
+                String.format("%.1f", urls.size() * (double) MP3.length / 1048576 / seconds));
+    }
+}
@@ -0,0 +1,156 @@
+package cl.folletos.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import cl.folletos.modelo.AudioTrack;
+import cl.folletos.modelo.Musica;
+import cl.folletos.repositorio.AudioTrackRepositorio;
+import cl.folletos.repositorio.MusicaRepositorio;
+import cl.folletos.servicio.FileStorageService;
+import cl.folletos.servicio.FolderImportService;
+
+public class FolderTreeImportTest {
+
+    @TempDir
+    Path uploads;
+
+    @TempDir
+    Path work;
+
+    // album id -> title, and the audio_track rows the batched INSERTs would have written
+    private final Map<Long, String> albumTitles = new TreeMap<>();
+    private final List<Object[]> rows = new ArrayList<>();
+
+    private FolderImportService folderImport;
+    private FolderTreeImport tree;
+    private Path source;
+    private Path manifestFile;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        JdbcTemplate jdbc = new JdbcTemplate() {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs, int[] argTypes) {
+                synchronized (rows) {
+                    rows.addAll(batchArgs);
+                }
+                return new int[batchArgs.size()];
+            }
+        };
+        folderImport = new FolderImportService(new FileStorageService(uploads.toString(), 1_000_000), jdbc,
+                TransactionOperations.withoutTransaction(), 3, 2);
+
+        MusicaRepositorio albums = mock(MusicaRepositorio.class);
+        when(albums.save(any(Musica.class))).thenAnswer(invocation -> {
+            Musica m = invocation.getArgument(0);
+            m.setId((long) albumTitles.size() + 1);
+            albumTitles.put(m.getId(), m.getTitulo());
+            return m;
+        });
+        when(albums.existsById(anyLong())).thenAnswer(invocation -> albumTitles.containsKey(invocation.<Long>getArgument(0)));
+        AudioTrackRepositorio tracks = mock(AudioTrackRepositorio.class);
+        when(tracks.findByMusicaIdOrderByIdAsc(anyLong())).thenAnswer(invocation -> {
+            List<AudioTrack> found = new ArrayList<>();
+            for (Object[] row : rows) {
+                if (!row[0].equals(invocation.getArgument(0))) continue;
+                AudioTrack t = new AudioTrack();
+                t.setOriginalName((String) row[1]);
+                t.setSize((Long) row[3]);
+                found.add(t);
+            }
+            return found;
+        });
+        tree = new FolderTreeImport(folderImport, albums, tracks, 2);
+
+        source = work.resolve("Cantos");
+        write("intro.mp3");
+        write("Vol 1/a.mp3");
+        write("Vol 1/b.mp3");
+        write("Vol 1/c.mp3");
+        write("Vol 2/Disco 1/d.mp3");
+        write(".sync/ignored.mp3");
+        manifestFile = work.resolve("cantos.import-manifest");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        folderImport.shutdown();
+    }
+
+    private void write(String relative) throws Exception {
+        Path file = source.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, ("ID3" + relative).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void directoriesBecomeAlbumsAndARerunCopiesNothing() throws Exception {
+        FolderTreeImport.Summary first;
+        try (ImportManifest manifest = new ImportManifest(manifestFile)) {
+            first = tree.run(source, manifest);
+        }
+
+        assertEquals(3, first.getAlbumsCreated());
+        assertEquals(5, first.getImported());
+        assertEquals(5, rows.size());
+        assertEquals(List.of("Cantos", "Vol 1", "Vol 2 - Disco 1"), new ArrayList<>(albumTitles.values()));
+
+        FolderTreeImport.Summary second;
+        try (ImportManifest manifest = new ImportManifest(manifestFile)) {
+            second = tree.run(source, manifest);
+        }
+
+        assertEquals(0, second.getAlbumsCreated());
+        assertEquals(3, second.getAlbumsResumed());
+        assertEquals(0, second.getImported());
+        assertEquals(5, second.getAlreadyImported());
+        assertEquals(5, rows.size());
+    }
+
+    @Test
+    public void filesCommittedAfterTheLastCheckpointAreNotCopiedAgain() throws Exception {
+        try (ImportManifest manifest = new ImportManifest(manifestFile)) {
+            tree.run(source, manifest);
+        }
+        // stopped after the INSERTs but before their files reached the manifest, mid-way through a record
+        StringBuilder albumsOnly = new StringBuilder();
+        for (String line : Files.readAllLines(manifestFile, StandardCharsets.UTF_8)) {
+            if (line.startsWith("A\t")) albumsOnly.append(line).append('\n');
+        }
+        albumsOnly.append("F\tVol+1%2Fa.mp");
+        Files.writeString(manifestFile, albumsOnly, StandardCharsets.UTF_8);
+
+        FolderTreeImport.Summary resumed;
+        try (ImportManifest manifest = new ImportManifest(manifestFile)) {
+            resumed = tree.run(source, manifest);
+        }
+
+        assertEquals(0, resumed.getAlbumsCreated());
+        assertEquals(0, resumed.getImported());
+        assertEquals(5, resumed.getAlreadyImported());
+        assertEquals(5, rows.size());
+        // the cut-off record was dropped and the reconciled files checkpointed again
+        try (ImportManifest manifest = new ImportManifest(manifestFile)) {
+            assertEquals(5, manifest.importedCount());
+        }
+    }
+}